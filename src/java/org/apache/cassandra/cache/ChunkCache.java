@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Sets;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.metrics.ChunkCacheMetrics;
+
+/**
+ * Node-wide cache of the decompressed chunks of compressed sstables, shared by all the pooled readers of a file.
+ * Chunks are kept off-heap, keyed by file and uncompressed chunk position, and evicted in LRU order; a file's
+ * chunks are dropped when the file is released, through an index of the cached chunk positions of each file.
+ */
+public class ChunkCache
+{
+    private static final int DEFAULT_CONCURENCY_LEVEL = 64;
+
+    public static final ChunkCache instance = new ChunkCache(DatabaseDescriptor.getChunkCacheSizeInMB() * 1024L * 1024L);
+
+    private final ConcurrentLinkedHashMap<Key, RefCountedMemory> map;
+    // the positions of the cached chunks of each file; may hold positions evicted since, never misses a cached one
+    private final ConcurrentMap<String, Set<Long>> positionsByFile = new ConcurrentHashMap<>();
+    public final ChunkCacheMetrics metrics;
+
+    private ChunkCache(long capacity)
+    {
+        EvictionListener<Key, RefCountedMemory> listener = new EvictionListener<Key, RefCountedMemory>()
+        {
+            public void onEviction(Key key, RefCountedMemory mem)
+            {
+                // the listener runs after the removal, so the chunk may have been cached again since
+                Set<Long> positions = positionsByFile.get(key.path);
+                if (positions != null && positions.remove(key.position) && map.containsKey(key))
+                    positions.add(key.position);
+                mem.unreference();
+            }
+        };
+
+        map = new ConcurrentLinkedHashMap.Builder<Key, RefCountedMemory>()
+              .weigher(new Weigher<RefCountedMemory>()
+              {
+                  public int weightOf(RefCountedMemory value)
+                  {
+                      return (int) value.size();
+                  }
+              })
+              .maximumWeightedCapacity(capacity)
+              .concurrencyLevel(DEFAULT_CONCURENCY_LEVEL)
+              .listener(listener)
+              .build();
+        metrics = new ChunkCacheMetrics(this);
+    }
+
+    public boolean isEnabled()
+    {
+        return map.capacity() > 0;
+    }
+
+    /**
+     * Copies the chunk of the given file starting at the given uncompressed position into the buffer.
+     *
+     * @return true if the chunk was cached, in which case the buffer holds the whole chunk from position 0
+     */
+    public boolean get(String path, long position, ByteBuffer buffer)
+    {
+        metrics.requests.mark();
+        RefCountedMemory mem = map.get(new Key(path, position));
+        if (mem == null || !mem.reference())
+        {
+            metrics.misses.mark();
+            return false;
+        }
+
+        try
+        {
+            int size = (int) mem.size();
+            buffer.clear();
+            if (buffer.hasArray())
+                mem.getBytes(0, buffer.array(), buffer.arrayOffset(), size);
+            else
+                buffer.put(mem.asByteBuffer(0, size));
+            buffer.position(0).limit(size);
+        }
+        finally
+        {
+            mem.unreference();
+        }
+        metrics.hits.mark();
+        return true;
+    }
+
+    /**
+     * Caches the decompressed chunk held between position 0 and the limit of the buffer, unless it is already present.
+     */
+    public void put(String path, long position, ByteBuffer chunk)
+    {
+        int size = chunk.limit();
+        if (size == 0)
+            return;
+
+        RefCountedMemory mem;
+        try
+        {
+            mem = new RefCountedMemory(size);
+        }
+        catch (OutOfMemoryError e)
+        {
+            return; // never mind, the chunk will simply be decompressed again
+        }
+
+        ByteBuffer src = chunk.duplicate();
+        src.position(0);
+        mem.setBytes(0, src);
+
+        RefCountedMemory existing;
+        try
+        {
+            existing = map.putIfAbsent(new Key(path, position), mem);
+        }
+        catch (Throwable t)
+        {
+            mem.unreference();
+            throw t;
+        }
+        if (existing != null)
+        {
+            mem.unreference();
+            return;
+        }
+
+        // indexed once cached, so an eviction in between leaves a stale position, which invalidateFile skips.
+        // The file is only invalidated once released by all its readers, so no chunk of it is cached concurrently.
+        Set<Long> positions = positionsByFile.get(path);
+        if (positions == null)
+        {
+            Set<Long> alt = positionsByFile.putIfAbsent(path, positions = Sets.<Long>newConcurrentHashSet());
+            if (alt != null)
+                positions = alt;
+        }
+        positions.add(position);
+    }
+
+    /**
+     * Drops all the cached chunks of the given file.
+     */
+    public void invalidateFile(String path)
+    {
+        Set<Long> positions = positionsByFile.remove(path);
+        if (positions == null)
+            return;
+
+        for (Long position : positions)
+        {
+            RefCountedMemory mem = map.remove(new Key(path, position));
+            if (mem != null)
+                mem.unreference();
+        }
+    }
+
+    public void clear()
+    {
+        for (Key key : map.keySet())
+        {
+            RefCountedMemory mem = map.remove(key);
+            if (mem != null)
+                mem.unreference();
+        }
+        positionsByFile.clear();
+    }
+
+    @VisibleForTesting
+    int indexedChunks(String path)
+    {
+        Set<Long> positions = positionsByFile.get(path);
+        return positions == null ? 0 : positions.size();
+    }
+
+    public long capacity()
+    {
+        return map.capacity();
+    }
+
+    public void setCapacity(long capacity)
+    {
+        map.setCapacity(capacity);
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public long weightedSize()
+    {
+        return map.weightedSize();
+    }
+
+    private static final class Key
+    {
+        final String path;
+        final long position;
+
+        Key(String path, long position)
+        {
+            this.path = path;
+            this.position = position;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key that = (Key) o;
+            return position == that.position && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * path.hashCode() + (int) (position ^ (position >>> 32));
+        }
+    }
+}
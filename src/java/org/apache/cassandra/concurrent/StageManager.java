@@ -23,6 +23,7 @@ import java.util.concurrent.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.tracing.TraceState;
 import org.apache.cassandra.utils.FBUtilities;
@@ -43,11 +44,14 @@ public class StageManager
 
     public static final long KEEPALIVE = 60; // seconds to keep "extra" threads alive for when idle
 
+    // the workers of the stages run in the thread-per-core execution mode, if any
+    private static TokenAffinePool threadPerCorePool;
+
     static
     {
-        stages.put(Stage.MUTATION, multiThreadedLowSignalStage(Stage.MUTATION, getConcurrentWriters()));
+        stages.put(Stage.MUTATION, requestStage(Stage.MUTATION, getConcurrentWriters()));
         stages.put(Stage.COUNTER_MUTATION, multiThreadedLowSignalStage(Stage.COUNTER_MUTATION, getConcurrentCounterWriters()));
-        stages.put(Stage.READ, multiThreadedLowSignalStage(Stage.READ, getConcurrentReaders()));
+        stages.put(Stage.READ, requestStage(Stage.READ, getConcurrentReaders()));
         stages.put(Stage.REQUEST_RESPONSE, multiThreadedLowSignalStage(Stage.REQUEST_RESPONSE, FBUtilities.getAvailableProcessors()));
         stages.put(Stage.INTERNAL_RESPONSE, multiThreadedStage(Stage.INTERNAL_RESPONSE, FBUtilities.getAvailableProcessors()));
         // the rest are all single-threaded
@@ -92,6 +96,23 @@ public class StageManager
         return SharedExecutorPool.SHARED.newExecutor(numThreads, Integer.MAX_VALUE, stage.getJmxType(), stage.getJmxName());
     }
 
+    /**
+     * The stages reading and writing partitions run on the token-range-affine workers in the thread-per-core
+     * execution mode, and like the other low signal stages otherwise.
+     */
+    private static TracingAwareExecutorService requestStage(Stage stage, int numThreads)
+    {
+        if (getStageExecutionMode() != Config.StageExecutionMode.thread_per_core)
+            return multiThreadedLowSignalStage(stage, numThreads);
+
+        if (threadPerCorePool == null)
+        {
+            threadPerCorePool = new TokenAffinePool("ThreadPerCore", getPartitioner(), getThreadPerCoreWorkers());
+            logger.info("Running the read and mutation stages on {} token-range-affine workers", threadPerCorePool.workerCount());
+        }
+        return threadPerCorePool.newExecutor(stage.getJmxType(), stage.getJmxName());
+    }
+
     /**
      * Retrieve a stage from the StageManager
      * @param stage name of the stage to be retrieved.
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.concurrent;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.metrics.TokenAffineExecutorMetrics;
+import org.apache.cassandra.tracing.TraceState;
+import org.apache.cassandra.utils.concurrent.SimpleCondition;
+
+/**
+ * A stage of the thread-per-core execution mode: its tasks run on the {@link TokenAffinePool} worker owning
+ * their token (see {@link TokenAffine}).
+ *
+ * {@link #maybeExecuteImmediately} only runs a task on the calling thread if that thread is the worker the task
+ * belongs to; any other caller hands it to its worker.
+ *
+ * Tasks are only queued on the pool's workers, so {@link #shutdownNow()} cannot take them back, and lets them run.
+ */
+public class TokenAffineExecutor extends AbstractTracingAwareExecutorService
+{
+    private final TokenAffinePool pool;
+
+    private final AtomicLong pendingTasks = new AtomicLong();
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final AtomicLong completedTasks = new AtomicLong();
+
+    private volatile boolean shuttingDown = false;
+    private final SimpleCondition shutdown = new SimpleCondition();
+
+    private final TokenAffineExecutorMetrics metrics;
+
+    TokenAffineExecutor(TokenAffinePool pool, String jmxPath, String name)
+    {
+        this.pool = pool;
+        this.metrics = new TokenAffineExecutorMetrics(this, jmxPath, name);
+    }
+
+    public void execute(Runnable command)
+    {
+        addTask(pool.workerFor(command), newTaskFor(command, null));
+    }
+
+    public void execute(Runnable command, TraceState state)
+    {
+        addTask(pool.workerFor(command), newTaskFor(command, null, state));
+    }
+
+    public void maybeExecuteImmediately(Runnable command)
+    {
+        TokenAffinePool.Worker worker = pool.workerFor(command);
+        FutureTask<?> task = newTaskFor(command, null);
+        if (worker != pool.currentWorker())
+        {
+            addTask(worker, task);
+            return;
+        }
+
+        activeTasks.incrementAndGet();
+        try
+        {
+            task.run();
+        }
+        finally
+        {
+            taskDone();
+        }
+    }
+
+    // submitted tasks have been wrapped, and lost their token
+    protected void addTask(FutureTask<?> task)
+    {
+        addTask(pool.workerFor(task), task);
+    }
+
+    private void addTask(TokenAffinePool.Worker worker, final FutureTask<?> task)
+    {
+        pendingTasks.incrementAndGet();
+        worker.add(new Runnable()
+        {
+            public void run()
+            {
+                // active before no longer pending, so that shutdown never sees neither
+                activeTasks.incrementAndGet();
+                pendingTasks.decrementAndGet();
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    taskDone();
+                }
+            }
+        });
+    }
+
+    private void taskDone()
+    {
+        if (activeTasks.decrementAndGet() == 0 && shuttingDown && pendingTasks.get() == 0)
+            shutdown.signalAll();
+    }
+
+    protected void onCompletion()
+    {
+        completedTasks.incrementAndGet();
+    }
+
+    public synchronized void shutdown()
+    {
+        shuttingDown = true;
+        if (pendingTasks.get() == 0 && activeTasks.get() == 0)
+            shutdown.signalAll();
+        metrics.release();
+    }
+
+    public List<Runnable> shutdownNow()
+    {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+    public boolean isShutdown()
+    {
+        return shuttingDown;
+    }
+
+    public boolean isTerminated()
+    {
+        return shuttingDown && shutdown.isSignaled();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        shutdown.await(timeout, unit);
+        return isTerminated();
+    }
+
+    public long getPendingTasks()
+    {
+        return pendingTasks.get();
+    }
+
+    public long getCompletedTasks()
+    {
+        return completedTasks.get();
+    }
+
+    public int getActiveCount()
+    {
+        return activeTasks.get();
+    }
+
+    public int getMaxWorkers()
+    {
+        return pool.workerCount();
+    }
+}
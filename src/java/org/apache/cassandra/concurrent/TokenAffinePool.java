@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.utils.concurrent.MpscArrayQueue;
+
+/**
+ * A fixed set of worker threads, each owning a range of the token ring and running the tasks of the partitions in
+ * its range, for the thread-per-core execution mode of the stages (see {@link StageManager}).
+ *
+ * The ring is split into ranges of equal token width, one per worker, so the data of a partition is only ever touched
+ * by the one thread, and stays in the caches of the core it runs on. Tasks without a token run on the worker that
+ * submits them, if any, or else are spread over the workers in turn.
+ *
+ * Each worker takes its tasks from a lock-free multi-producer queue, and parks when it has none. Unlike the
+ * {@link SharedExecutorPool}, a worker never helps another: a slow task holds up the other tasks of its range.
+ */
+public class TokenAffinePool
+{
+    final String poolName;
+    private final Worker[] workers;
+    // the upper (inclusive) token bound of the range of every worker but the last; empty if the workers
+    // are chosen by token hash
+    private final Token[] boundaries;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    public TokenAffinePool(String poolName, IPartitioner partitioner, int workerCount)
+    {
+        assert Integer.bitCount(workerCount) == 1 : workerCount;
+        this.poolName = poolName;
+        this.boundaries = boundaries(partitioner, workerCount);
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workers.length; i++)
+        {
+            workers[i] = new Worker(poolName + "-Worker:" + i);
+            workers[i].start();
+        }
+    }
+
+    public TokenAffineExecutor newExecutor(String jmxPath, String name)
+    {
+        return new TokenAffineExecutor(this, jmxPath, name);
+    }
+
+    public int workerCount()
+    {
+        return workers.length;
+    }
+
+    /**
+     * Splits the ring into ranges of equal token width by repeated bisection, as memtable shards do. If the
+     * partitioner cannot compute a midpoint, workers are chosen by token hash instead.
+     */
+    private static Token[] boundaries(IPartitioner partitioner, int count)
+    {
+        if (count == 1)
+            return new Token[0];
+
+        List<Token> boundaries = new ArrayList<>(count - 1);
+        try
+        {
+            Token minimum = partitioner.getMinimumToken();
+            bisect(partitioner, minimum, minimum, Integer.numberOfTrailingZeros(count), boundaries);
+        }
+        catch (UnsupportedOperationException e)
+        {
+            return new Token[0];
+        }
+        return boundaries.toArray(new Token[boundaries.size()]);
+    }
+
+    private static void bisect(IPartitioner partitioner, Token left, Token right, int depth, List<Token> boundaries)
+    {
+        if (depth == 0)
+            return;
+        Token midpoint = partitioner.midpoint(left, right);
+        bisect(partitioner, left, midpoint, depth - 1, boundaries);
+        boundaries.add(midpoint);
+        bisect(partitioner, midpoint, right, depth - 1, boundaries);
+    }
+
+    /**
+     * @return the index of the worker owning the token
+     */
+    int workerIndex(Token token)
+    {
+        if (boundaries.length == 0)
+            return token.hashCode() & (workers.length - 1);
+
+        // worker i owns (boundary[i - 1], boundary[i]]
+        int low = 0, high = boundaries.length;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (boundaries[mid].compareTo(token) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return the worker the task is to run on
+     */
+    Worker workerFor(Runnable task)
+    {
+        Token token = task instanceof TokenAffine ? ((TokenAffine) task).affinityToken() : null;
+        if (token != null)
+            return workers[workerIndex(token)];
+
+        Worker current = currentWorker();
+        return current != null ? current : workers[nextWorker.getAndIncrement() & (workers.length - 1)];
+    }
+
+    /**
+     * @return the worker of this pool running the calling thread, or null
+     */
+    Worker currentWorker()
+    {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker && ((Worker) thread).pool() == this ? (Worker) thread : null;
+    }
+
+    final class Worker extends Thread
+    {
+        private final MpscArrayQueue<Runnable> tasks = new MpscArrayQueue<>();
+        private volatile boolean parked;
+
+        Worker(String name)
+        {
+            super(name);
+            setDaemon(true);
+        }
+
+        TokenAffinePool pool()
+        {
+            return TokenAffinePool.this;
+        }
+
+        void add(Runnable task)
+        {
+            tasks.offer(task);
+            if (parked)
+                LockSupport.unpark(this);
+        }
+
+        public void run()
+        {
+            while (true)
+            {
+                Runnable task = tasks.poll();
+                if (task != null)
+                {
+                    task.run();
+                    continue;
+                }
+
+                parked = true;
+                // producers add their task before checking whether we are parked, and we say we are before
+                // checking for a task, so one of us always sees the other. A task whose producer has not
+                // completed yet is not polled, but counts as queued: spin until it is published.
+                if (tasks.isEmpty())
+                    LockSupport.park(this);
+                parked = false;
+            }
+        }
+    }
+}
@@ -75,6 +75,9 @@ public final class CFMetaData
     public final static SpeculativeRetry DEFAULT_SPECULATIVE_RETRY = new SpeculativeRetry(SpeculativeRetry.RetryType.PERCENTILE, 0.99);
     public final static int DEFAULT_MIN_INDEX_INTERVAL = 128;
     public final static int DEFAULT_MAX_INDEX_INTERVAL = 2048;
+    public final static int DEFAULT_MEMTABLE_SHARDS = 1;
+    public final static boolean DEFAULT_DURABLE_WRITES = true;
+    public final static double DEFAULT_ROW_BLOOM_FILTER_FP_CHANCE = 1.0;
 
     // Note that this is the default only for user created tables
     public final static String DEFAULT_COMPRESSOR = LZ4Compressor.class.getCanonicalName();
@@ -195,6 +198,10 @@ public final class CFMetaData
     private volatile int memtableFlushPeriod = 0;
     private volatile int defaultTimeToLive = DEFAULT_DEFAULT_TIME_TO_LIVE;
     private volatile SpeculativeRetry speculativeRetry = DEFAULT_SPECULATIVE_RETRY;
+    private volatile double rowBloomFilterFpChance = DEFAULT_ROW_BLOOM_FILTER_FP_CHANCE;
+    private volatile boolean durableWrites = DEFAULT_DURABLE_WRITES;
+    private volatile int memtableShards = DEFAULT_MEMTABLE_SHARDS;
+    private volatile MemtablePartitionIndex.Type memtableIndex = MemtablePartitionIndex.Type.SKIPLIST;
     private volatile Map<ColumnIdentifier, Long> droppedColumns = new HashMap<>();
     private volatile Map<String, TriggerDefinition> triggers = new HashMap<>();
     private volatile boolean isPurged = false;
@@ -247,6 +254,10 @@ public final class CFMetaData
     public CFMetaData memtableFlushPeriod(int prop) {memtableFlushPeriod = prop; return this;}
     public CFMetaData defaultTimeToLive(int prop) {defaultTimeToLive = prop; return this;}
     public CFMetaData speculativeRetry(SpeculativeRetry prop) {speculativeRetry = prop; return this;}
+    public CFMetaData rowBloomFilterFpChance(double prop) {rowBloomFilterFpChance = prop; return this;}
+    public CFMetaData durableWrites(boolean prop) {durableWrites = prop; return this;}
+    public CFMetaData memtableShards(int prop) {memtableShards = prop; return this;}
+    public CFMetaData memtableIndex(MemtablePartitionIndex.Type prop) {memtableIndex = prop; return this;}
     public CFMetaData droppedColumns(Map<ColumnIdentifier, Long> cols) {droppedColumns = cols; return this;}
     public CFMetaData triggers(Map<String, TriggerDefinition> prop) {triggers = prop; return this;}
     public CFMetaData isDense(Boolean prop) {isDense = prop; return this;}
@@ -432,6 +443,10 @@ public final class CFMetaData
                       .maxIndexInterval(oldCFMD.maxIndexInterval)
                       .speculativeRetry(oldCFMD.speculativeRetry)
                       .memtableFlushPeriod(oldCFMD.memtableFlushPeriod)
+                      .rowBloomFilterFpChance(oldCFMD.rowBloomFilterFpChance)
+                      .durableWrites(oldCFMD.durableWrites)
+                      .memtableShards(oldCFMD.memtableShards)
+                      .memtableIndex(oldCFMD.memtableIndex)
                       .droppedColumns(new HashMap<>(oldCFMD.droppedColumns))
                       .triggers(new HashMap<>(oldCFMD.triggers))
                       .isDense(oldCFMD.isDense)
@@ -652,6 +667,26 @@ public final class CFMetaData
         return memtableFlushPeriod;
     }
 
+    public MemtablePartitionIndex.Type getMemtableIndex()
+    {
+        return memtableIndex;
+    }
+
+    public int getMemtableShards()
+    {
+        return memtableShards;
+    }
+
+    public boolean getDurableWrites()
+    {
+        return durableWrites;
+    }
+
+    public double getRowBloomFilterFpChance()
+    {
+        return rowBloomFilterFpChance;
+    }
+
     public int getDefaultTimeToLive()
     {
         return defaultTimeToLive;
@@ -702,6 +737,10 @@ public final class CFMetaData
             && Objects.equal(minIndexInterval, other.minIndexInterval)
             && Objects.equal(maxIndexInterval, other.maxIndexInterval)
             && Objects.equal(speculativeRetry, other.speculativeRetry)
+            && Objects.equal(rowBloomFilterFpChance, other.rowBloomFilterFpChance)
+            && Objects.equal(durableWrites, other.durableWrites)
+            && Objects.equal(memtableShards, other.memtableShards)
+            && Objects.equal(memtableIndex, other.memtableIndex)
             && Objects.equal(droppedColumns, other.droppedColumns)
             && Objects.equal(triggers, other.triggers)
             && Objects.equal(isDense, other.isDense);
@@ -735,6 +774,10 @@ public final class CFMetaData
             .append(minIndexInterval)
             .append(maxIndexInterval)
             .append(speculativeRetry)
+            .append(rowBloomFilterFpChance)
+            .append(durableWrites)
+            .append(memtableShards)
+            .append(memtableIndex)
             .append(droppedColumns)
             .append(triggers)
             .append(isDense)
@@ -793,6 +836,10 @@ public final class CFMetaData
         memtableFlushPeriod = cfm.memtableFlushPeriod;
         defaultTimeToLive = cfm.defaultTimeToLive;
         speculativeRetry = cfm.speculativeRetry;
+        rowBloomFilterFpChance = cfm.rowBloomFilterFpChance;
+        durableWrites = cfm.durableWrites;
+        memtableShards = cfm.memtableShards;
+        memtableIndex = cfm.memtableIndex;
 
         if (!cfm.droppedColumns.isEmpty())
             droppedColumns = cfm.droppedColumns;
@@ -1726,6 +1773,10 @@ public final class CFMetaData
             .append("minIndexInterval", minIndexInterval)
             .append("maxIndexInterval", maxIndexInterval)
             .append("speculativeRetry", speculativeRetry)
+            .append("rowBloomFilterFpChance", rowBloomFilterFpChance)
+            .append("durableWrites", durableWrites)
+            .append("memtableShards", memtableShards)
+            .append("memtableIndex", memtableIndex)
             .append("droppedColumns", droppedColumns)
             .append("triggers", triggers.values())
             .append("isDense", isDense)
@@ -102,6 +102,9 @@ public class Config
     public Integer concurrent_writes = 32;
     public Integer concurrent_counter_writes = 32;
 
+    public StageExecutionMode stage_execution_mode = StageExecutionMode.shared;
+    public Integer thread_per_core_workers;
+
     @Deprecated
     public Integer concurrent_replicates = null; //已不再使用，只在DatabaseDescriptor.applyConfig(Config)中用于警告
 
@@ -140,6 +143,9 @@ public class Config
     public Integer native_transport_max_frame_size_in_mb = 256;
     public volatile Long native_transport_max_concurrent_connections = -1L;
     public volatile Long native_transport_max_concurrent_connections_per_ip = -1L;
+    public Integer native_transport_max_flush_delay_in_us = 30;
+    public boolean native_transport_inline_reads = false;
+    public Integer native_transport_inline_read_budget_in_us = 500;
 
     @Deprecated
     public Integer thrift_max_message_length_in_mb = 16; //代码中没有地方使用了
@@ -154,11 +160,17 @@ public class Config
     public volatile Integer batch_size_fail_threshold_in_kb = 50;
     public Integer concurrent_compactors;
     public volatile Integer compaction_throughput_mb_per_sec = 16;
+    public int compaction_sub_range_parallelism = 1;
+    public int compaction_sub_range_min_size_in_mb = 10240;
 
     public Integer max_streaming_retries = 3;
 
     public volatile Integer stream_throughput_outbound_megabits_per_sec = 200;
     public volatile Integer inter_dc_stream_throughput_outbound_megabits_per_sec = 0;
+    public boolean stream_entire_sstables = true;
+    public int stream_data_connections_per_session = 1;
+    public int stream_sstable_split_size_in_mb = 0;
+    public boolean streaming_resume_enabled = true;
 
     public String[] data_file_directories;
 
@@ -173,6 +185,7 @@ public class Config
     public int commitlog_segment_size_in_mb = 32;
     public ParameterizedClass commitlog_compression;
     public int commitlog_max_compression_buffers_in_pool = 3;
+    public CommitLogAccessMode commitlog_access_mode = CommitLogAccessMode.mmap;
  
     @Deprecated
     public int commitlog_periodic_queue_size = -1;
@@ -193,6 +206,8 @@ public class Config
     public ServerEncryptionOptions encryption_options;
 
     public InternodeCompression internode_compression = InternodeCompression.none;
+    public InternodeTransport internode_transport = InternodeTransport.blocking;
+    public InternodeCompressor internode_compressor = InternodeCompressor.lz4;
 
     @Deprecated
     public Integer index_interval = null;
@@ -200,6 +215,8 @@ public class Config
     public int hinted_handoff_throttle_in_kb = 1024;
     public int batchlog_replay_throttle_in_kb = 1024;
     public int max_hints_delivery_threads = 1;
+    public String hints_directory;
+    public int max_hints_file_size_in_mb = 128;
 
     public int sstable_preemptive_open_interval_in_mb = 50;
 
@@ -227,6 +244,8 @@ public class Config
 
     public Integer file_cache_size_in_mb;
 
+    public Integer chunk_cache_size_in_mb;
+
     public boolean inter_dc_tcp_nodelay = true;
 
     public MemtableAllocationType memtable_allocation_type = MemtableAllocationType.heap_buffers;
@@ -321,11 +340,35 @@ public class Config
         periodic,
         batch
     }
+
+    public static enum CommitLogAccessMode
+    {
+        mmap,
+        standard
+    }
+    public static enum InternodeTransport
+    {
+        blocking,
+        netty
+    }
+
+    public static enum StageExecutionMode
+    {
+        shared,
+        thread_per_core
+    }
+
     public static enum InternodeCompression
     {
         all, none, dc
     }
 
+    public static enum InternodeCompressor
+    {
+        lz4,
+        deflate
+    }
+
     public static enum DiskAccessMode
     {
         auto,
@@ -404,6 +404,11 @@ public class DatabaseDescriptor
         if (conf.file_cache_size_in_mb == null) //取512和(最大内存的1/4，1048576=1024*1024=1M)中的最小者
             conf.file_cache_size_in_mb = Math.min(512, (int) (Runtime.getRuntime().maxMemory() / (4 * 1048576)));
 
+        if (conf.chunk_cache_size_in_mb == null)
+            conf.chunk_cache_size_in_mb = Math.min(512, (int) (Runtime.getRuntime().maxMemory() / (16 * 1048576)));
+        if (conf.chunk_cache_size_in_mb < 0)
+            throw new ConfigurationException("chunk_cache_size_in_mb must be non-negative", false);
+
         if (conf.memtable_offheap_space_in_mb == null)
             conf.memtable_offheap_space_in_mb = (int) (Runtime.getRuntime().maxMemory() / (4 * 1048576));
         if (conf.memtable_offheap_space_in_mb < 0)
@@ -427,6 +432,15 @@ public class DatabaseDescriptor
         if (conf.native_transport_max_frame_size_in_mb <= 0)
             throw new ConfigurationException("native_transport_max_frame_size_in_mb must be positive", false);
 
+        if (conf.native_transport_max_flush_delay_in_us < 0)
+            throw new ConfigurationException("native_transport_max_flush_delay_in_us must not be negative", false);
+
+        if (conf.thread_per_core_workers != null && (conf.thread_per_core_workers <= 0 || Integer.bitCount(conf.thread_per_core_workers) != 1))
+            throw new ConfigurationException("thread_per_core_workers must be a positive power of two", false);
+
+        if (conf.native_transport_inline_read_budget_in_us < 0 || conf.native_transport_inline_read_budget_in_us > 1000)
+            throw new ConfigurationException("native_transport_inline_read_budget_in_us must be between 0 and 1000", false);
+
         // fail early instead of OOMing (see CASSANDRA-8116)
         if (ThriftServer.HSHA.equals(conf.rpc_server_type) && conf.rpc_max_threads == Integer.MAX_VALUE)
             throw new ConfigurationException("The hsha rpc_server_type is not compatible with an rpc_max_threads " +
@@ -510,6 +524,13 @@ public class DatabaseDescriptor
                 throw new ConfigurationException("saved_caches_directory is missing and -Dcassandra.storagedir is not set", false);
             conf.saved_caches_directory += File.separator + "saved_caches";
         }
+        if (conf.hints_directory == null)
+        {
+            conf.hints_directory = System.getProperty("cassandra.storagedir", null);
+            if (conf.hints_directory == null)
+                throw new ConfigurationException("hints_directory is missing and -Dcassandra.storagedir is not set", false);
+            conf.hints_directory += File.separator + "hints";
+        }
         if (conf.data_file_directories == null)
         {
             String defaultDataDir = System.getProperty("cassandra.storagedir", null);
@@ -526,10 +547,19 @@ public class DatabaseDescriptor
                 throw new ConfigurationException("commitlog_directory must not be the same as any data_file_directories", false);
             if (datadir.equals(conf.saved_caches_directory))
                 throw new ConfigurationException("saved_caches_directory must not be the same as any data_file_directories", false);
+            if (datadir.equals(conf.hints_directory))
+                throw new ConfigurationException("hints_directory must not be the same as any data_file_directories", false);
         }
 
         if (conf.commitlog_directory.equals(conf.saved_caches_directory))
             throw new ConfigurationException("saved_caches_directory must not be the same as the commitlog_directory", false);
+        if (conf.hints_directory.equals(conf.commitlog_directory))
+            throw new ConfigurationException("hints_directory must not be the same as the commitlog_directory", false);
+        if (conf.hints_directory.equals(conf.saved_caches_directory))
+            throw new ConfigurationException("hints_directory must not be the same as the saved_caches_directory", false);
+
+        if (conf.max_hints_file_size_in_mb <= 0)
+            throw new ConfigurationException("max_hints_file_size_in_mb must be positive", false);
 
         if (conf.memtable_flush_writers == null)
             conf.memtable_flush_writers = Math.min(8, Math.max(2, Math.min(FBUtilities.getAvailableProcessors(), conf.data_file_directories.length)));
@@ -552,6 +582,13 @@ public class DatabaseDescriptor
 
         if (conf.concurrent_compactors <= 0)
             throw new ConfigurationException("concurrent_compactors should be strictly greater than 0", false);
+        if (conf.compaction_sub_range_parallelism <= 0)
+            throw new ConfigurationException("compaction_sub_range_parallelism should be strictly greater than 0", false);
+
+        if (conf.stream_data_connections_per_session <= 0)
+            throw new ConfigurationException("stream_data_connections_per_session should be strictly greater than 0", false);
+        if (conf.stream_sstable_split_size_in_mb < 0)
+            throw new ConfigurationException("stream_sstable_split_size_in_mb must be positive, or 0 to disable splitting", false);
 
         if (conf.initial_token != null)
             for (String token : tokensFromString(conf.initial_token))
@@ -652,6 +689,12 @@ public class DatabaseDescriptor
         return authorizer;
     }
 
+    @VisibleForTesting
+    public static void setAuthorizer(IAuthorizer value)
+    {
+        authorizer = value;
+    }
+
     public static IRoleManager getRoleManager()
     {
         return roleManager;
@@ -730,6 +773,11 @@ public class DatabaseDescriptor
                 throw new ConfigurationException("saved_caches_directory must be specified", false);
 
             FileUtils.createDirectory(conf.saved_caches_directory);
+
+            if (conf.hints_directory == null)
+                throw new ConfigurationException("hints_directory must be specified", false);
+
+            FileUtils.createDirectory(conf.hints_directory);
         }
         catch (ConfigurationException e)
         {
@@ -1029,6 +1077,22 @@ public class DatabaseDescriptor
         return conf.concurrent_writes;
     }
 
+    public static Config.StageExecutionMode getStageExecutionMode()
+    {
+        return conf.stage_execution_mode;
+    }
+
+    /**
+     * @return the number of thread-per-core workers: a power of two, by default the largest one not above the
+     * number of processors
+     */
+    public static int getThreadPerCoreWorkers()
+    {
+        return conf.thread_per_core_workers == null
+               ? Integer.highestOneBit(FBUtilities.getAvailableProcessors())
+               : conf.thread_per_core_workers;
+    }
+
     public static int getConcurrentCounterWriters()
     {
         return conf.concurrent_counter_writes;
@@ -1044,6 +1108,28 @@ public class DatabaseDescriptor
         return conf.concurrent_compactors;
     }
 
+    public static int getCompactionSubRangeParallelism()
+    {
+        return conf.compaction_sub_range_parallelism;
+    }
+
+    public static long getCompactionSubRangeMinSize()
+    {
+        return conf.compaction_sub_range_min_size_in_mb * 1024L * 1024L;
+    }
+
+    @VisibleForTesting
+    public static void setCompactionSubRangeParallelism(int value)
+    {
+        conf.compaction_sub_range_parallelism = value;
+    }
+
+    @VisibleForTesting
+    public static void setCompactionSubRangeMinSizeInMB(int value)
+    {
+        conf.compaction_sub_range_min_size_in_mb = value;
+    }
+
     public static int getCompactionThroughputMbPerSec()
     {
         return conf.compaction_throughput_mb_per_sec;
@@ -1079,6 +1165,31 @@ public class DatabaseDescriptor
         conf.inter_dc_stream_throughput_outbound_megabits_per_sec = value;
     }
 
+    public static boolean streamEntireSSTables()
+    {
+        return conf.stream_entire_sstables;
+    }
+
+    public static int getStreamDataConnectionsPerSession()
+    {
+        return conf.stream_data_connections_per_session;
+    }
+
+    public static void setStreamDataConnectionsPerSession(int connections)
+    {
+        conf.stream_data_connections_per_session = connections;
+    }
+
+    public static long getStreamSSTableSplitSize()
+    {
+        return conf.stream_sstable_split_size_in_mb * 1024L * 1024L;
+    }
+
+    public static boolean isStreamingResumeEnabled()
+    {
+        return conf.streaming_resume_enabled;
+    }
+
     public static String[] getAllDataFileLocations()
     {
         return conf.data_file_directories;
@@ -1104,6 +1215,17 @@ public class DatabaseDescriptor
         return conf.commitlog_max_compression_buffers_in_pool;
     }
 
+    public static Config.CommitLogAccessMode getCommitLogAccessMode()
+    {
+        return conf.commitlog_access_mode;
+    }
+
+    @VisibleForTesting
+    public static void setCommitLogAccessMode(Config.CommitLogAccessMode mode)
+    {
+        conf.commitlog_access_mode = mode;
+    }
+
     public static int getTombstoneWarnThreshold()
     {
         return conf.tombstone_warn_threshold;
@@ -1247,6 +1369,21 @@ public class DatabaseDescriptor
         return conf.native_transport_max_frame_size_in_mb * 1024 * 1024;
     }
 
+    public static int getNativeTransportMaxFlushDelayInMicros()
+    {
+        return conf.native_transport_max_flush_delay_in_us;
+    }
+
+    public static boolean getNativeTransportInlineReads()
+    {
+        return conf.native_transport_inline_reads;
+    }
+
+    public static int getNativeTransportInlineReadBudgetInMicros()
+    {
+        return conf.native_transport_inline_read_budget_in_us;
+    }
+
     public static Long getNativeTransportMaxConcurrentConnections()
     {
         return conf.native_transport_max_concurrent_connections;
@@ -1469,6 +1606,19 @@ public class DatabaseDescriptor
         return conf.max_hints_delivery_threads;
     }
 
+    public static String getHintsDirectory()
+    {
+        return conf.hints_directory;
+    }
+
+    /**
+     * size after which a hints file is closed and a new one started
+     */
+    public static long getMaxHintsFileSize()
+    {
+        return conf.max_hints_file_size_in_mb * 1024L * 1024L;
+    }
+
     public static boolean isIncrementalBackupsEnabled()
     {
         return conf.incremental_backups;
@@ -1484,6 +1634,11 @@ public class DatabaseDescriptor
         return conf.file_cache_size_in_mb;
     }
 
+    public static int getChunkCacheSizeInMB()
+    {
+        return conf.chunk_cache_size_in_mb;
+    }
+
     public static long getTotalCommitlogSpaceInMB()
     {
         return conf.commitlog_total_space_in_mb;
@@ -1609,6 +1764,16 @@ public class DatabaseDescriptor
         return conf.internode_compression;
     }
 
+    public static Config.InternodeCompressor getInternodeCompressor()
+    {
+        return conf.internode_compressor;
+    }
+
+    public static Config.InternodeTransport getInternodeTransport()
+    {
+        return conf.internode_transport;
+    }
+
     public static boolean getInterDCTcpNoDelay()
     {
         return conf.inter_dc_tcp_nodelay;
@@ -26,6 +26,8 @@ import java.util.Set;
 import org.apache.cassandra.cache.CachingOptions;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.CFMetaData.SpeculativeRetry;
+import org.apache.cassandra.db.Memtable;
+import org.apache.cassandra.db.MemtablePartitionIndex;
 import org.apache.cassandra.db.compaction.AbstractCompactionStrategy;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.exceptions.SyntaxException;
@@ -44,6 +46,10 @@ public class CFPropDefs extends PropertyDefinitions
     public static final String KW_MIN_INDEX_INTERVAL = "min_index_interval";
     public static final String KW_MAX_INDEX_INTERVAL = "max_index_interval";
     public static final String KW_SPECULATIVE_RETRY = "speculative_retry";
+    public static final String KW_MEMTABLE_INDEX = "memtable_index";
+    public static final String KW_MEMTABLE_SHARDS = "memtable_shards";
+    public static final String KW_DURABLE_WRITES = "durable_writes";
+    public static final String KW_ROW_BF_FP_CHANCE = "row_bloom_filter_fp_chance";
     public static final String KW_BF_FP_CHANCE = "bloom_filter_fp_chance";
     public static final String KW_MEMTABLE_FLUSH_PERIOD = "memtable_flush_period_in_ms";
 
@@ -73,6 +79,10 @@ public class CFPropDefs extends PropertyDefinitions
         keywords.add(KW_MIN_INDEX_INTERVAL);
         keywords.add(KW_MAX_INDEX_INTERVAL);
         keywords.add(KW_SPECULATIVE_RETRY);
+        keywords.add(KW_MEMTABLE_INDEX);
+        keywords.add(KW_MEMTABLE_SHARDS);
+        keywords.add(KW_DURABLE_WRITES);
+        keywords.add(KW_ROW_BF_FP_CHANCE);
         keywords.add(KW_BF_FP_CHANCE);
         keywords.add(KW_COMPACTION);
         keywords.add(KW_COMPRESSION);
@@ -139,6 +149,26 @@ public class CFPropDefs extends PropertyDefinitions
             throw new ConfigurationException(KW_MAX_INDEX_INTERVAL + " must be greater than " + KW_MIN_INDEX_INTERVAL);
 
         SpeculativeRetry.fromString(getString(KW_SPECULATIVE_RETRY, SpeculativeRetry.RetryType.NONE.name()));
+
+        if (hasProperty(KW_MEMTABLE_INDEX))
+        {
+            try
+            {
+                MemtablePartitionIndex.Type.fromString(getString(KW_MEMTABLE_INDEX, null));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new ConfigurationException(e.getMessage());
+            }
+        }
+
+        Integer memtableShards = getInt(KW_MEMTABLE_SHARDS, null);
+        if (memtableShards != null && (memtableShards < 1 || memtableShards > Memtable.MAX_SHARDS || Integer.bitCount(memtableShards) != 1))
+            throw new ConfigurationException(KW_MEMTABLE_SHARDS + " must be a power of two between 1 and " + Memtable.MAX_SHARDS);
+
+        double rowBloomFilterFpChance = getDouble(KW_ROW_BF_FP_CHANCE, CFMetaData.DEFAULT_ROW_BLOOM_FILTER_FP_CHANCE);
+        if (rowBloomFilterFpChance <= 0 || rowBloomFilterFpChance > 1)
+            throw new ConfigurationException(KW_ROW_BF_FP_CHANCE + " must be larger than 0 and less than or equal to 1");
     }
 
     public Class<? extends AbstractCompactionStrategy> getCompactionStrategy()
@@ -199,6 +229,11 @@ public class CFPropDefs extends PropertyDefinitions
         cfm.defaultTimeToLive(getInt(KW_DEFAULT_TIME_TO_LIVE, cfm.getDefaultTimeToLive()));
         cfm.speculativeRetry(CFMetaData.SpeculativeRetry.fromString(getString(KW_SPECULATIVE_RETRY, cfm.getSpeculativeRetry().toString())));
         cfm.memtableFlushPeriod(getInt(KW_MEMTABLE_FLUSH_PERIOD, cfm.getMemtableFlushPeriod()));
+        cfm.memtableShards(getInt(KW_MEMTABLE_SHARDS, cfm.getMemtableShards()));
+        cfm.durableWrites(getBoolean(KW_DURABLE_WRITES, cfm.getDurableWrites()));
+        cfm.rowBloomFilterFpChance(getDouble(KW_ROW_BF_FP_CHANCE, cfm.getRowBloomFilterFpChance()));
+        if (hasProperty(KW_MEMTABLE_INDEX))
+            cfm.memtableIndex(MemtablePartitionIndex.Type.fromString(getString(KW_MEMTABLE_INDEX, null)));
         cfm.minIndexInterval(getInt(KW_MIN_INDEX_INTERVAL, cfm.getMinIndexInterval()));
         cfm.maxIndexInterval(getInt(KW_MAX_INDEX_INTERVAL, cfm.getMaxIndexInterval()));
 
@@ -214,6 +214,26 @@ public class SelectStatement implements CQLStatement
         return commands == null ? null : new Pageable.ReadCommands(commands, limitForQuery);
     }
 
+    /**
+     * @return the partition keys this statement reads for the given options, or null if it reads a range
+     * of partitions
+     */
+    public Collection<ByteBuffer> getPartitionKeys(QueryOptions options) throws InvalidRequestException
+    {
+        if (restrictions.isKeyRange() || restrictions.usesSecondaryIndexing())
+            return null;
+        return restrictions.getPartitionKeys(options);
+    }
+
+    /**
+     * @return the filter this statement reads each of its partitions with for the given options, or null if it
+     * selects nothing
+     */
+    public IDiskAtomFilter getReadFilter(QueryOptions options) throws InvalidRequestException
+    {
+        return makeFilter(options, updateLimitForQuery(getLimit(options)));
+    }
+
     public Pageable getPageableCommand(QueryOptions options) throws RequestValidationException
     {
         return getPageableCommand(options, getLimit(options), System.currentTimeMillis());
@@ -32,12 +32,17 @@ import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
 import org.apache.cassandra.db.composites.CellName;
+import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.db.filter.ColumnSlice;
 import org.apache.cassandra.db.filter.NamesQueryFilter;
 import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
 import org.apache.cassandra.db.marshal.CounterColumnType;
+import org.apache.cassandra.io.sstable.RowBloomFilter;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.tracing.Tracing;
+import org.apache.cassandra.utils.FilterFactory;
 import org.apache.cassandra.utils.SearchIterator;
 import org.apache.cassandra.utils.memory.HeapAllocator;
 
@@ -124,18 +129,32 @@ public class CollationController
                 if (((NamesQueryFilter) reducedFilter.filter).columns.isEmpty())
                     break;
 
+                boolean checkedRowFilter = sstable.getRowFilter() != FilterFactory.AlwaysPresent;
+                if (checkedRowFilter && !mayContainAny(sstable, ((NamesQueryFilter) reducedFilter.filter).columns))
+                {
+                    cfs.metric.rowBloomFilterSkips.inc();
+                    continue;
+                }
+
                 Tracing.trace("Merging data from sstable {}", sstable.descriptor.generation);
                 sstable.incrementReadCount();
                 OnDiskAtomIterator iter = reducedFilter.getSSTableColumnIterator(sstable);
                 iterators.add(iter);
                 isEmpty = false;
+                boolean found = false;
                 if (iter.getColumnFamily() != null)
                 {
                     container.delete(iter.getColumnFamily());
                     sstablesIterated++;
+                    found = iter.getColumnFamily().isMarkedForDelete();
                     while (iter.hasNext())
+                    {
                         container.addAtom(iter.next());
+                        found = true;
+                    }
                 }
+                if (checkedRowFilter)
+                    markRowFilterResult(found);
                 mostRecentRowTombstone = container.deletionInfo().getTopLevelDeletion().markedForDeleteAt;
             }
 
@@ -196,6 +215,55 @@ public class CollationController
         }
     }
 
+    /**
+     * @return false if the row filter of @param sstable guarantees it holds none of the rows of @param names
+     */
+    private boolean mayContainAny(SSTableReader sstable, Iterable<? extends Composite> names)
+    {
+        int clusteringSize = cfs.metadata.comparator.clusteringPrefixSize();
+        for (Composite name : names)
+        {
+            // static columns and partial prefixes are not tracked per row
+            if (name.isStatic() || name.size() < clusteringSize)
+                return true;
+            if (RowBloomFilter.mayContain(sstable.getRowFilter(), filter.key, name, clusteringSize))
+                return true;
+        }
+        return false;
+    }
+
+    private void markRowFilterResult(boolean found)
+    {
+        if (found)
+            cfs.metric.rowBloomFilterTruePositives.inc();
+        else
+            cfs.metric.rowBloomFilterFalsePositives.inc();
+    }
+
+    /**
+     * @return the clustering prefixes of the rows selected by a slice filter made only of single-row slices,
+     * or null if the filter selects ranges of rows
+     */
+    private List<Composite> requestedRows()
+    {
+        if (!(filter.filter instanceof SliceQueryFilter))
+            return null;
+
+        int clusteringSize = cfs.metadata.comparator.clusteringPrefixSize();
+        ColumnSlice[] slices = ((SliceQueryFilter) filter.filter).slices;
+        List<Composite> rows = new ArrayList<>(slices.length);
+        for (ColumnSlice slice : slices)
+        {
+            if (slice.start.isStatic() || slice.start.size() < clusteringSize || slice.finish.size() < clusteringSize)
+                return null;
+            for (int i = 0; i < clusteringSize; i++)
+                if (!slice.start.get(i).equals(slice.finish.get(i)))
+                    return null;
+            rows.add(slice.start);
+        }
+        return rows;
+    }
+
     /**
      * Collects data the brute-force way: gets an iterator for the filter in question
      * from every memtable and sstable, then merges them together.
@@ -248,6 +316,7 @@ public class CollationController
             long mostRecentRowTombstone = Long.MIN_VALUE;
             long minTimestamp = Long.MAX_VALUE;
             int nonIntersectingSSTables = 0;
+            List<? extends Composite> requestedRows = RowBloomFilter.isEnabled(cfs.metadata) ? requestedRows() : null;
 
             for (SSTableReader sstable : view.sstables)
             {
@@ -270,6 +339,13 @@ public class CollationController
                     continue;
                 }
 
+                boolean checkedRowFilter = requestedRows != null && sstable.getRowFilter() != FilterFactory.AlwaysPresent;
+                if (checkedRowFilter && !mayContainAny(sstable, requestedRows))
+                {
+                    cfs.metric.rowBloomFilterSkips.inc();
+                    continue;
+                }
+
                 sstable.incrementReadCount();
                 OnDiskAtomIterator iter = filter.getSSTableColumnIterator(sstable);
                 iterators.add(iter);
@@ -282,6 +358,8 @@ public class CollationController
                     returnCF.delete(cf);
                     sstablesIterated++;
                 }
+                if (checkedRowFilter)
+                    markRowFilterResult(iter.getColumnFamily() != null && (iter.getColumnFamily().isMarkedForDelete() || iter.hasNext()));
             }
 
             int includedDueToTombstones = 0;
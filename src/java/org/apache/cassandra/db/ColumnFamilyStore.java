@@ -76,7 +76,6 @@ import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.utils.*;
 import org.apache.cassandra.utils.concurrent.*;
 import org.apache.cassandra.utils.TopKSampler.SamplerResult;
-import org.apache.cassandra.utils.memory.MemtableAllocator;
 
 import com.clearspring.analytics.stream.Counter;
 
@@ -799,7 +798,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return getTempSSTablePath(directory, format.info.getLatestVersion(), format);
     }
 
-    private String getTempSSTablePath(File directory, Version version, SSTableFormat.Type format)
+    public String getTempSSTablePath(File directory, Version version, SSTableFormat.Type format)
     {
         Descriptor desc = new Descriptor(version,
                                          directory,
@@ -853,20 +852,20 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         float onHeapRatio = 0, offHeapRatio = 0;
         long onHeapTotal = 0, offHeapTotal = 0;
         Memtable memtable = getDataTracker().getView().getCurrentMemtable();
-        onHeapRatio +=  memtable.getAllocator().onHeap().ownershipRatio();
-        offHeapRatio += memtable.getAllocator().offHeap().ownershipRatio();
-        onHeapTotal += memtable.getAllocator().onHeap().owns();
-        offHeapTotal += memtable.getAllocator().offHeap().owns();
+        onHeapRatio +=  memtable.getOnHeapOwnershipRatio();
+        offHeapRatio += memtable.getOffHeapOwnershipRatio();
+        onHeapTotal += memtable.getOnHeapOwns();
+        offHeapTotal += memtable.getOffHeapOwns();
 
         for (SecondaryIndex index : indexManager.getIndexes())
         {
             if (index.getIndexCfs() != null)
             {
-                MemtableAllocator allocator = index.getIndexCfs().getDataTracker().getView().getCurrentMemtable().getAllocator();
-                onHeapRatio += allocator.onHeap().ownershipRatio();
-                offHeapRatio += allocator.offHeap().ownershipRatio();
-                onHeapTotal += allocator.onHeap().owns();
-                offHeapTotal += allocator.offHeap().owns();
+                Memtable indexMemtable = index.getIndexCfs().getDataTracker().getView().getCurrentMemtable();
+                onHeapRatio += indexMemtable.getOnHeapOwnershipRatio();
+                offHeapRatio += indexMemtable.getOffHeapOwnershipRatio();
+                onHeapTotal += indexMemtable.getOnHeapOwns();
+                offHeapTotal += indexMemtable.getOffHeapOwns();
             }
         }
 
@@ -1068,7 +1067,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 memtable.cfs.data.markFlushing(memtable);
                 if (memtable.isClean() || truncate)
                 {
-                    memtable.cfs.replaceFlushed(memtable, null);
+                    memtable.cfs.replaceFlushed(memtable, Collections.<SSTableReader>emptyList());
                     memtable.setDiscarded();
                     iter.remove();
                 }
@@ -1125,16 +1124,16 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 // find the total ownership ratio for the memtable and all SecondaryIndexes owned by this CF,
                 // both on- and off-heap, and select the largest of the two ratios to weight this CF
                 float onHeap = 0f, offHeap = 0f;
-                onHeap += current.getAllocator().onHeap().ownershipRatio();
-                offHeap += current.getAllocator().offHeap().ownershipRatio();
+                onHeap += current.getOnHeapOwnershipRatio();
+                offHeap += current.getOffHeapOwnershipRatio();
 
                 for (SecondaryIndex index : cfs.indexManager.getIndexes())
                 {
                     if (index.getIndexCfs() != null)
                     {
-                        MemtableAllocator allocator = index.getIndexCfs().getDataTracker().getView().getCurrentMemtable().getAllocator();
-                        onHeap += allocator.onHeap().ownershipRatio();
-                        offHeap += allocator.offHeap().ownershipRatio();
+                        Memtable indexMemtable = index.getIndexCfs().getDataTracker().getView().getCurrentMemtable();
+                        onHeap += indexMemtable.getOnHeapOwnershipRatio();
+                        offHeap += indexMemtable.getOffHeapOwnershipRatio();
                     }
                 }
 
@@ -1461,9 +1460,9 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         data.markObsolete(sstables, compactionType);
     }
 
-    void replaceFlushed(Memtable memtable, SSTableReader sstable)
+    void replaceFlushed(Memtable memtable, Collection<SSTableReader> sstables)
     {
-        compactionStrategyWrapper.replaceFlushed(memtable, sstable);
+        compactionStrategyWrapper.replaceFlushed(memtable, sstables);
     }
 
     public boolean isValid()
@@ -1784,6 +1783,62 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     }
 
 
+    /**
+     * Hints the OS to read ahead the sstable index blocks of a batch of partitions that are about to be read.
+     * Each sstable is visited in key, and so file, order, so that the disk can serve the batch in a sweep rather
+     * than with one seek per partition and sstable. Only the in-memory index summaries are looked at, so this
+     * never waits on the disk.
+     */
+    public void prefetchIndex(Collection<DecoratedKey> keys)
+    {
+        if (keys.isEmpty())
+            return;
+
+        List<DecoratedKey> sorted = sorted(keys);
+        try (RefViewFragment view = selectAndReference(viewFilter(bounds(sorted))))
+        {
+            Tracing.trace("Prefetching the index of {} partitions from {} sstables", sorted.size(), view.sstables.size());
+            for (SSTableReader sstable : view.sstables)
+            {
+                for (DecoratedKey key : sorted)
+                    sstable.prefetchIndex(key);
+            }
+        }
+    }
+
+    /**
+     * Hints the OS to read ahead the first data block of each of a batch of partitions that are about to be read,
+     * in the same order as {@link #prefetchIndex}, which should have been called first. This resolves every key in
+     * the index, which reads from disk, so it belongs on the READ stage; the positions found go to the key cache.
+     */
+    public void prefetchData(Collection<DecoratedKey> keys)
+    {
+        if (keys.isEmpty())
+            return;
+
+        List<DecoratedKey> sorted = sorted(keys);
+        try (RefViewFragment view = selectAndReference(viewFilter(bounds(sorted))))
+        {
+            for (SSTableReader sstable : view.sstables)
+            {
+                for (DecoratedKey key : sorted)
+                    sstable.prefetchData(key);
+            }
+        }
+    }
+
+    private static List<DecoratedKey> sorted(Collection<DecoratedKey> keys)
+    {
+        List<DecoratedKey> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static AbstractBounds<RowPosition> bounds(List<DecoratedKey> sorted)
+    {
+        return new Bounds<RowPosition>(sorted.get(0), sorted.get(sorted.size() - 1));
+    }
+
     /**
      * @return a ViewFragment containing the sstables and memtables that may need to be merged
      * for the given @param key, according to the interval tree
@@ -2346,6 +2401,38 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         invalidateCachedRow(new RowCacheKey(cfId, key));
     }
 
+    /**
+     * Invalidates the cached rows of this table's partitions within any of the given bounds, for the sstables
+     * added without their partitions going through the write path, such as those streamed whole.
+     *
+     * @return the number of rows invalidated
+     */
+    public int invalidateRowCache(Collection<Bounds<Token>> boundsToInvalidate)
+    {
+        if (!isRowCacheEnabled())
+            return 0;
+
+        int invalidatedKeys = 0;
+        for (Iterator<RowCacheKey> keyIter = CacheService.instance.rowCache.keyIterator(); keyIter.hasNext(); )
+        {
+            RowCacheKey key = keyIter.next();
+            if (!key.cfId.equals(metadata.cfId))
+                continue;
+
+            Token token = partitioner.getToken(ByteBuffer.wrap(key.key));
+            for (Bounds<Token> bounds : boundsToInvalidate)
+            {
+                if (bounds.contains(token))
+                {
+                    invalidateCachedRow(key);
+                    invalidatedKeys++;
+                    break;
+                }
+            }
+        }
+        return invalidatedKeys;
+    }
+
     public ClockAndCount getCachedCounter(ByteBuffer partitionKey, CellName cellName)
     {
         if (CacheService.instance.counterCache.getCapacity() == 0L) // counter cache disabled.
@@ -2711,6 +2798,11 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return compactionStrategyWrapper.getSSTableCountPerLevel();
     }
 
+    public long[] getPendingCompactionBytesPerLevel()
+    {
+        return compactionStrategyWrapper.getPendingCompactionBytesPerLevel();
+    }
+
     public static class ViewFragment
     {
         public final List<SSTableReader> sstables;
@@ -2758,7 +2850,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return view.sstables.isEmpty() && view.getCurrentMemtable().getOperations() == 0 && view.getCurrentMemtable() == view.getOldestMemtable();
     }
 
-    private boolean isRowCacheEnabled()
+    public boolean isRowCacheEnabled()
     {
         return metadata.getCaching().rowCache.isEnabled() && CacheService.instance.rowCache.getCapacity() > 0;
     }
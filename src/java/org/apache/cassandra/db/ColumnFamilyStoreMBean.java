@@ -128,6 +128,13 @@ public interface ColumnFamilyStoreMBean
      */
     public int[] getSSTableCountPerLevel();
 
+    /**
+     * @return the bytes each level holds above its ideal size, which compactions have to move to the next level.
+     *         null unless leveled compaction is used.
+     *         array index corresponds to level(long[0] is for level 0, ...).
+     */
+    public long[] getPendingCompactionBytesPerLevel();
+
     /**
      * Get the ratio of droppable tombstones to real columns (and non-droppable tombstones)
      * @return ratio
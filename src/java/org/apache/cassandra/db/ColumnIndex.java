@@ -26,6 +26,7 @@ import com.google.common.annotations.VisibleForTesting;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.composites.Composite;
 import org.apache.cassandra.io.sstable.IndexHelper;
+import org.apache.cassandra.io.sstable.RowBloomFilter;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.utils.ByteBufferUtil;
 
@@ -69,10 +70,22 @@ public class ColumnIndex
         private final DeletionInfo deletionInfo; // only used for serializing and calculating row header size
 
         private final OnDiskAtom.Serializer atomSerializer;
+        private final RowBloomFilter.Builder rowFilter;
 
         public Builder(ColumnFamily cf,
                        ByteBuffer key,
                        DataOutputPlus output)
+        {
+            this(cf, key, output, null);
+        }
+
+        /**
+         * @param rowFilter if not null, every row added to the index is also recorded in this row filter
+         */
+        public Builder(ColumnFamily cf,
+                       ByteBuffer key,
+                       DataOutputPlus output,
+                       RowBloomFilter.Builder rowFilter)
         {
             assert cf != null;
             assert key != null;
@@ -85,6 +98,9 @@ public class ColumnIndex
             this.output = output;
             this.tombstoneTracker = new RangeTombstone.Tracker(cf.getComparator());
             this.atomSerializer = cf.getComparator().onDiskAtomSerializer();
+            this.rowFilter = rowFilter;
+            if (rowFilter != null)
+                rowFilter.startPartition(key, deletionInfo);
         }
 
         /**
@@ -175,6 +191,8 @@ public class ColumnIndex
         public void add(OnDiskAtom column) throws IOException
         {
             atomCount++;
+            if (rowFilter != null)
+                rowFilter.add(column);
 
             if (firstColumn == null)
             {
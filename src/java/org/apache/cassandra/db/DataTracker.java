@@ -144,9 +144,9 @@ public class DataTracker
         while (!view.compareAndSet(currentView, newView));
     }
 
-    public void replaceFlushed(Memtable memtable, SSTableReader sstable)
+    public void replaceFlushed(Memtable memtable, Collection<SSTableReader> sstables)
     {
-        // sstable may be null if we flushed batchlog and nothing needed to be retained
+        // sstables may be empty if we flushed batchlog and nothing needed to be retained
 
         if (!cfstore.isValid())
         {
@@ -154,30 +154,31 @@ public class DataTracker
             do
             {
                 currentView = view.get();
-                newView = currentView.replaceFlushed(memtable, sstable);
-                if (sstable != null)
-                    newView = newView.replace(Arrays.asList(sstable), Collections.<SSTableReader>emptyList());
+                newView = currentView.replaceFlushed(memtable, sstables);
+                if (!sstables.isEmpty())
+                    newView = newView.replace(sstables, Collections.<SSTableReader>emptyList());
             }
             while (!view.compareAndSet(currentView, newView));
             return;
         }
 
         // back up before creating a new View (which makes the new one eligible for compaction)
-        if (sstable != null)
+        for (SSTableReader sstable : sstables)
             maybeIncrementallyBackup(sstable);
 
         View currentView, newView;
         do
         {
             currentView = view.get();
-            newView = currentView.replaceFlushed(memtable, sstable);
+            newView = currentView.replaceFlushed(memtable, sstables);
         }
         while (!view.compareAndSet(currentView, newView));
 
-        if (sstable != null)
+        if (!sstables.isEmpty())
         {
-            addNewSSTablesSize(Arrays.asList(sstable));
-            notifyAdded(sstable);
+            addNewSSTablesSize(sstables);
+            for (SSTableReader sstable : sstables)
+                notifyAdded(sstable);
         }
     }
 
@@ -286,6 +287,28 @@ public class DataTracker
         addNewSSTablesSize(allReplacements);
     }
 
+    /**
+     * Swaps compacted sstables for their replacements, which the tracker does not know yet, in a single change of
+     * the view, so that readers see either all of the compacted sstables or all of their replacements.
+     */
+    public void replaceCompactedSSTables(Collection<SSTableReader> oldSSTables, Collection<SSTableReader> allReplacements, OperationType compactionType)
+    {
+        View currentView, newView;
+        do
+        {
+            currentView = view.get();
+            newView = currentView.replace(oldSSTables, allReplacements);
+        }
+        while (!view.compareAndSet(currentView, newView));
+        removeOldSSTablesSize(oldSSTables);
+        for (SSTableReader sstable : allReplacements)
+            sstable.setTrackedBy(this);
+
+        releaseReferences(oldSSTables, false);
+        notifySSTablesChanged(oldSSTables, allReplacements, compactionType);
+        addNewSSTablesSize(allReplacements);
+    }
+
     public void addInitialSSTables(Collection<SSTableReader> sstables)
     {
         addSSTablesToTracker(sstables);
@@ -721,24 +744,28 @@ public class DataTracker
             return new View(newLive, newFlushing, sstablesMap, compacting, shadowed, intervalTree);
         }
 
-        View replaceFlushed(Memtable flushedMemtable, SSTableReader newSSTable)
+        View replaceFlushed(Memtable flushedMemtable, Collection<SSTableReader> newSSTables)
         {
             int index = flushingMemtables.indexOf(flushedMemtable);
             List<Memtable> newQueuedMemtables = ImmutableList.<Memtable>builder()
                                                              .addAll(flushingMemtables.subList(0, index))
                                                              .addAll(flushingMemtables.subList(index + 1, flushingMemtables.size()))
                                                              .build();
-            Map<SSTableReader, SSTableReader> newSSTables = sstablesMap;
+            Map<SSTableReader, SSTableReader> newSSTablesMap = sstablesMap;
             SSTableIntervalTree intervalTree = this.intervalTree;
-            if (newSSTable != null)
+            if (!newSSTables.isEmpty())
             {
-                assert !sstables.contains(newSSTable);
-                assert !shadowed.contains(newSSTable);
-                newSSTables = ImmutableMap.<SSTableReader, SSTableReader>builder()
-                                          .putAll(sstablesMap).put(newSSTable, newSSTable).build();
-                intervalTree = buildIntervalTree(newSSTables.keySet());
+                ImmutableMap.Builder<SSTableReader, SSTableReader> builder = ImmutableMap.<SSTableReader, SSTableReader>builder().putAll(sstablesMap);
+                for (SSTableReader newSSTable : newSSTables)
+                {
+                    assert !sstables.contains(newSSTable);
+                    assert !shadowed.contains(newSSTable);
+                    builder.put(newSSTable, newSSTable);
+                }
+                newSSTablesMap = builder.build();
+                intervalTree = buildIntervalTree(newSSTablesMap.keySet());
             }
-            return new View(liveMemtables, newQueuedMemtables, newSSTables, compacting, shadowed, intervalTree);
+            return new View(liveMemtables, newQueuedMemtables, newSSTablesMap, compacting, shadowed, intervalTree);
         }
 
         View replace(Collection<SSTableReader> oldSSTables, Iterable<SSTableReader> replacements)
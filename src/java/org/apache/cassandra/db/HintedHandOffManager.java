@@ -25,13 +25,11 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
@@ -44,27 +42,33 @@ import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.compaction.CompactionManager;
 import org.apache.cassandra.db.composites.*;
 import org.apache.cassandra.db.filter.*;
+import org.apache.cassandra.db.hints.Hint;
+import org.apache.cassandra.db.hints.HintsCatalog;
+import org.apache.cassandra.db.hints.HintsDispatcher;
+import org.apache.cassandra.db.hints.HintsStore;
 import org.apache.cassandra.db.marshal.Int32Type;
 import org.apache.cassandra.db.marshal.UUIDType;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
-import org.apache.cassandra.exceptions.WriteFailureException;
-import org.apache.cassandra.exceptions.WriteTimeoutException;
 import org.apache.cassandra.gms.ApplicationState;
 import org.apache.cassandra.gms.FailureDetector;
 import org.apache.cassandra.gms.Gossiper;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTable;
 import org.apache.cassandra.metrics.HintedHandoffMetrics;
-import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.*;
 import org.apache.cassandra.utils.*;
 import org.cliffc.high_scale_lib.NonBlockingHashSet;
 
 /**
- * The hint schema looks like this:
+ * Hints are stored in per-endpoint, append-only hint logs (see {@link HintsCatalog}) and delivered
+ * by sequentially reading those logs; a hints file is deleted as a whole once all of its hints
+ * have been acknowledged.
+ *
+ * Hints written by previous versions live in the legacy system.hints table. They are moved to the
+ * hint logs when the manager starts, after which the table is truncated. The legacy schema looks like this:
  *
  * CREATE TABLE hints (
  *   target_id uuid,
@@ -92,9 +96,10 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
 
     private static final Logger logger = LoggerFactory.getLogger(HintedHandOffManager.class);
     private static final int PAGE_SIZE = 128;
-    private static final int LARGE_NUMBER = 65536; // 64k nodes ought to be enough for anybody.
 
-    public final HintedHandoffMetrics metrics = new HintedHandoffMetrics();
+    private final HintsCatalog catalog = HintsCatalog.load();
+
+    public final HintedHandoffMetrics metrics = new HintedHandoffMetrics(catalog);
 
     private volatile boolean hintedHandOffPaused = false;
 
@@ -110,10 +115,32 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
 
     private final ColumnFamilyStore hintStore = Keyspace.open(SystemKeyspace.NAME).getColumnFamilyStore(SystemKeyspace.HINTS);
 
+    /**
+     * Appends a hint for <code>mutation</code> to the hint log of <code>targetId</code>, to be
+     * delivered as soon as it becomes available again.
+     *
+     * @param now current time in milliseconds - relevant for hint replay handling of truncated CFs
+     */
+    public void write(Mutation mutation, long now, int ttl, UUID targetId)
+    {
+        assert ttl > 0;
+
+        InetAddress endpoint = StorageService.instance.getTokenMetadata().getEndpointForHostId(targetId);
+        // during tests we may not have a matching endpoint, but this would be unexpected in real clusters
+        if (endpoint != null)
+            metrics.incrCreatedHints(endpoint);
+        else
+            logger.warn("Unable to find matching endpoint for target {} when storing a hint", targetId);
+
+        catalog.get(targetId).write(new Hint(mutation, now, ttl));
+    }
+
     /**
      * Returns a mutation representing a Hint to be sent to <code>targetId</code>
-     * as soon as it becomes available again.
+     * as soon as it becomes available again, in the legacy system.hints format.
+     * Only used to exercise the upgrade path; new hints go through {@link #write}.
      */
+    @VisibleForTesting
     public Mutation hintFor(Mutation mutation, long now, int ttl, UUID targetId)
     {
         assert ttl > 0;
@@ -161,6 +188,23 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
         }
         logger.debug("Created HHOM instance, registered MBean.");
 
+        executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                migrateLegacyHints();
+            }
+        });
+
+        // hint logs are written without fsync; make them durable at a bounded interval instead
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                catalog.syncAll();
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+
         Runnable runnable = new Runnable()
         {
             public void run()
@@ -172,13 +216,6 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
         executor.scheduleWithFixedDelay(runnable, 10, 10, TimeUnit.MINUTES);
     }
 
-    private static void deleteHint(ByteBuffer tokenBytes, CellName columnName, long timestamp)
-    {
-        Mutation mutation = new Mutation(SystemKeyspace.NAME, tokenBytes);
-        mutation.delete(SystemKeyspace.HINTS, columnName, timestamp);
-        mutation.applyUnsafe(); // don't bother with commitlog since we're going to flush as soon as we're done with delivery
-    }
-
     public void deleteHintsForEndpoint(final String ipOrHostname)
     {
         try
@@ -198,6 +235,7 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
         if (!StorageService.instance.getTokenMetadata().isMember(endpoint))
             return;
         UUID hostId = StorageService.instance.getTokenMetadata().getHostId(endpoint);
+        final HintsStore store = catalog.getIfExists(hostId);
         ByteBuffer hostIdBytes = ByteBuffer.wrap(UUIDGen.decompose(hostId));
         final Mutation mutation = new Mutation(SystemKeyspace.NAME, hostIdBytes);
         mutation.delete(SystemKeyspace.HINTS, System.currentTimeMillis());
@@ -210,6 +248,8 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
                 try
                 {
                     logger.info("Deleting any stored hints for {}", endpoint);
+                    if (store != null)
+                        store.deleteAllHints();
                     mutation.apply();
                     hintStore.forceBlockingFlush();
                     compact();
@@ -224,7 +264,6 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
         executor.submit(runnable);
     }
 
-    //foobar
     public void truncateAllHints() throws ExecutionException, InterruptedException
     {
         Runnable runnable = new Runnable()
@@ -234,6 +273,7 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
                 try
                 {
                     logger.info("Truncating all stored hints.");
+                    catalog.deleteAllHints();
                     Keyspace.open(SystemKeyspace.NAME).getColumnFamilyStore(SystemKeyspace.HINTS).truncateBlocking();
                 }
                 catch (Exception e)
@@ -308,7 +348,8 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
 
     private void deliverHintsToEndpoint(InetAddress endpoint)
     {
-        if (hintStore.isEmpty())
+        HintsStore store = catalog.getIfExists(Gossiper.instance.getHostId(endpoint));
+        if (store == null || !store.hasHints())
             return; // nothing to do, don't confuse users by logging a no-op handoff
 
         // check if hints delivery has been paused
@@ -334,28 +375,18 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
             return;
         }
 
-        doDeliverHintsToEndpoint(endpoint);
+        doDeliverHintsToEndpoint(endpoint, store);
     }
 
     /*
-     * 1. Get the key of the endpoint we need to handoff
-     * 2. For each column, deserialize the mutation and send it to the endpoint
-     * 3. Delete the column if the write was successful
-     * 4. Force a flush
+     * 1. Close the file currently written to, so that every hint written so far is deliverable
+     * 2. Read the hints files of the endpoint in order, sending the hints a page at a time
+     * 3. Delete each file once all of its hints have been acknowledged
      */
-    private void doDeliverHintsToEndpoint(InetAddress endpoint)
+    private void doDeliverHintsToEndpoint(InetAddress endpoint, HintsStore store)
     {
-        // find the hints for the node using its token.
-        UUID hostId = Gossiper.instance.getHostId(endpoint);
-        logger.info("Started hinted handoff for host: {} with IP: {}", hostId, endpoint);
-        final ByteBuffer hostIdBytes = ByteBuffer.wrap(UUIDGen.decompose(hostId));
-        DecoratedKey epkey =  StorageService.getPartitioner().decorateKey(hostIdBytes);
-
-        final AtomicInteger rowsReplayed = new AtomicInteger(0);
-        Composite startColumn = Composites.EMPTY;
-
-        int pageSize = calculatePageSize();
-        logger.debug("Using pageSize of {}", pageSize);
+        logger.info("Started hinted handoff for host: {} with IP: {}", store.hostId, endpoint);
+        store.closeWriter();
 
         // rate limit is in bytes per second. Uses Double.MAX_VALUE if disabled (set to 0 in cassandra.yaml).
         // max rate is scaled by the number of nodes in the cluster (CASSANDRA-5272).
@@ -363,7 +394,54 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
                            / (StorageService.instance.getTokenMetadata().getAllEndpoints().size() - 1);
         RateLimiter rateLimiter = RateLimiter.create(throttleInKB == 0 ? Double.MAX_VALUE : throttleInKB * 1024);
 
-        delivery:
+        HintsDispatcher dispatcher = new HintsDispatcher(store, endpoint, rateLimiter, metrics, new HintsDispatcher.AbortCondition()
+        {
+            public boolean shouldAbort()
+            {
+                return hintedHandOffPaused;
+            }
+        });
+        dispatcher.dispatch();
+    }
+
+    /**
+     * Move the hints of the legacy system.hints table to the hint logs, then truncate the table.
+     * Each hint keeps its original creation time and ttl, so truncation and gc grace checks still
+     * apply on delivery.
+     */
+    @VisibleForTesting
+    void migrateLegacyHints()
+    {
+        if (hintStore.isEmpty())
+            return;
+
+        logger.info("Migrating hints from the legacy {}.{} table", SystemKeyspace.NAME, SystemKeyspace.HINTS);
+
+        // get rid of tombstones and expired hints first, so that we don't page through them
+        compact();
+
+        IPartitioner p = StorageService.getPartitioner();
+        RowPosition minPos = p.getMinimumToken().minKeyBound();
+        Range<RowPosition> range = new Range<>(minPos, minPos);
+        IDiskAtomFilter namesFilter = new NamesQueryFilter(ImmutableSortedSet.<CellName>of());
+        List<Row> rows = hintStore.getRangeSlice(range, null, namesFilter, Integer.MAX_VALUE, System.currentTimeMillis());
+
+        int migrated = 0;
+        for (Row row : rows)
+            migrated += migrateLegacyHints(row.key);
+
+        hintStore.truncateBlocking();
+        catalog.closeAllWriters();
+        logger.info("Migrated {} legacy hints", migrated);
+    }
+
+    private int migrateLegacyHints(DecoratedKey epkey)
+    {
+        UUID hostId = UUIDGen.getUUID(epkey.getKey());
+        HintsStore store = catalog.get(hostId);
+        int pageSize = calculatePageSize();
+        int migrated = 0;
+        Composite startColumn = Composites.EMPTY;
         while (true)
         {
             long now = System.currentTimeMillis();
@@ -376,36 +454,12 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
                                                             now);
 
             ColumnFamily hintsPage = ColumnFamilyStore.removeDeleted(hintStore.getColumnFamily(filter), (int) (now / 1000));
-
             if (pagingFinished(hintsPage, startColumn))
-            {
-                logger.info("Finished hinted handoff of {} rows to endpoint {}", rowsReplayed, endpoint);
-                break;
-            }
+                return migrated;
 
-            // check if node is still alive and we should continue delivery process
-            if (!FailureDetector.instance.isAlive(endpoint))
+            for (Cell hint : hintsPage)
             {
-                logger.info("Endpoint {} died during hint delivery; aborting ({} delivered)", endpoint, rowsReplayed);
-                break;
-            }
-
-            List<WriteResponseHandler<Mutation>> responseHandlers = Lists.newArrayList();
-            for (final Cell hint : hintsPage)
-            {
-                // check if hints delivery has been paused during the process
-                if (hintedHandOffPaused)
-                {
-                    logger.debug("Hints delivery process is paused, aborting");
-                    break delivery;
-                }
-
-                // Skip tombstones:
-                // if we iterate quickly enough, it's possible that we could request a new page in the same millisecond
-                // in which the local deletion timestamp was generated on the last column in the old page, in which
-                // case the hint will have no columns (since it's deleted) but will still be included in the resultset
-                // since (even with gcgs=0) it's still a "relevant" tombstone.
-                if (!hint.isLive())
+                if (!hint.isLive() || hint.name().equals(startColumn))
                     continue;
 
                 startColumn = hint.name();
@@ -419,8 +473,7 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
                 }
                 catch (UnknownColumnFamilyException e)
                 {
-                    logger.debug("Skipping delivery of hint for deleted table", e);
-                    deleteHint(hostIdBytes, hint.name(), hint.timestamp());
+                    logger.debug("Skipping migration of hint for deleted table", e);
                     continue;
                 }
                 catch (IOException e)
@@ -428,53 +481,14 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
                     throw new AssertionError(e);
                 }
 
-                for (UUID cfId : mutation.getColumnFamilyIds())
-                {
-                    if (hint.timestamp() <= SystemKeyspace.getTruncatedAt(cfId))
-                    {
-                        logger.debug("Skipping delivery of hint for truncated table {}", cfId);
-                        mutation = mutation.without(cfId);
-                    }
-                }
-
-                if (mutation.isEmpty())
-                {
-                    deleteHint(hostIdBytes, hint.name(), hint.timestamp());
+                int ttl = hint instanceof ExpiringCell ? ((ExpiringCell) hint).getTimeToLive() : calculateHintTTL(mutation);
+                if (ttl <= 0)
                     continue;
-                }
-
-                MessageOut<Mutation> message = mutation.createMessage();
-                rateLimiter.acquire(message.serializedSize(MessagingService.current_version));
-                Runnable callback = new Runnable()
-                {
-                    public void run()
-                    {
-                        rowsReplayed.incrementAndGet();
-                        deleteHint(hostIdBytes, hint.name(), hint.timestamp());
-                    }
-                };
-                WriteResponseHandler<Mutation> responseHandler = new WriteResponseHandler<>(endpoint, WriteType.SIMPLE, callback);
-                MessagingService.instance().sendRR(message, endpoint, responseHandler, false);
-                responseHandlers.add(responseHandler);
-            }
 
-            for (WriteResponseHandler<Mutation> handler : responseHandlers)
-            {
-                try
-                {
-                    handler.get();
-                }
-                catch (WriteTimeoutException|WriteFailureException e)
-                {
-                    logger.info("Failed replaying hints to {}; aborting ({} delivered), error : {}",
-                        endpoint, rowsReplayed, e.getMessage());
-                    break delivery;
-                }
+                store.write(new Hint(mutation, hint.timestamp(), ttl));
+                migrated++;
             }
         }
-
-        // Flush all the tombstones to disk
-        hintStore.forceBlockingFlush();
     }
 
     // read less columns (mutations) per page if they are very large
@@ -484,12 +498,19 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
         if (meanColumnCount <= 0)
             return PAGE_SIZE;
 
-        int averageColumnSize = (int) (hintStore.metric.meanRowSize.getValue() / meanColumnCount);
-        if (averageColumnSize <= 0)
+        return calculatePageSize((int) (hintStore.metric.meanRowSize.getValue() / meanColumnCount));
+    }
+
+    /**
+     * @return the number of hints to read and deliver per page, given their average size in bytes
+     */
+    public static int calculatePageSize(int averageHintSize)
+    {
+        if (averageHintSize <= 0)
             return PAGE_SIZE;
 
         // page size of 1 does not allow actual paging b/c of >= behavior on startColumn
-        return Math.max(2, Math.min(PAGE_SIZE, 4 * 1024 * 1024 / averageColumnSize));
+        return Math.max(2, Math.min(PAGE_SIZE, 4 * 1024 * 1024 / averageHintSize));
     }
 
     /**
@@ -500,23 +521,15 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
     {
         logger.debug("Started scheduleAllDeliveries");
 
-        // Force a major compaction to get rid of the tombstones and expired hints. Do it once, before we schedule any
-        // individual replay, to avoid N - 1 redundant individual compactions (when N is the number of nodes with hints
-        // to deliver to).
-        compact();
-
-        IPartitioner p = StorageService.getPartitioner();
-        RowPosition minPos = p.getMinimumToken().minKeyBound();
-        Range<RowPosition> range = new Range<>(minPos, minPos);
-        IDiskAtomFilter filter = new NamesQueryFilter(ImmutableSortedSet.<CellName>of());
-        List<Row> rows = hintStore.getRangeSlice(range, null, filter, Integer.MAX_VALUE, System.currentTimeMillis());
-        for (Row row : rows)
+        for (HintsStore store : catalog.stores())
         {
-            UUID hostId = UUIDGen.getUUID(row.key.getKey());
-            InetAddress target = StorageService.instance.getTokenMetadata().getEndpointForHostId(hostId);
-            // token may have since been removed (in which case we have just read back a tombstone)
+            if (!store.hasHints())
+                continue;
+
+            InetAddress target = StorageService.instance.getTokenMetadata().getEndpointForHostId(store.hostId);
+            // host may have since been removed from the ring
             if (target != null)
-                scheduleHintDelivery(target, false);
+                scheduleHintDelivery(target);
         }
 
         logger.debug("Finished scheduleAllDeliveries");
@@ -527,7 +540,7 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
      * When we learn that some endpoint is back up we deliver the data
      * to him via an event driven mechanism.
     */
-    public void scheduleHintDelivery(final InetAddress to, final boolean precompact)
+    public void scheduleHintDelivery(final InetAddress to)
     {
         // We should not deliver hints to the same host in 2 different threads
         if (!queuedDeliveries.add(to))
@@ -541,11 +554,6 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
             {
                 try
                 {
-                    // If it's an individual node hint replay (triggered by Gossip or via JMX), and not the global scheduled replay
-                    // (every 10 minutes), force a major compaction to get rid of the tombstones and expired hints.
-                    if (precompact)
-                        compact();
-
                     deliverHintsToEndpoint(to);
                 }
                 finally
@@ -558,7 +566,7 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
 
     public void scheduleHintDelivery(String to) throws UnknownHostException
     {
-        scheduleHintDelivery(InetAddress.getByName(to), true);
+        scheduleHintDelivery(InetAddress.getByName(to));
     }
 
     public void pauseHintsDelivery(boolean b)
@@ -568,46 +576,16 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
 
     public List<String> listEndpointsPendingHints()
     {
-        Token.TokenFactory tokenFactory = StorageService.getPartitioner().getTokenFactory();
+        IPartitioner partitioner = StorageService.getPartitioner();
+        Token.TokenFactory tokenFactory = partitioner.getTokenFactory();
 
         // Extract the keys as strings to be reported.
         LinkedList<String> result = new LinkedList<>();
-        for (Row row : getHintsSlice(1))
+        for (HintsStore store : catalog.stores())
         {
-            if (row.cf != null) //ignore removed rows
-                result.addFirst(tokenFactory.toString(row.key.getToken()));
+            if (store.hasHints())
+                result.addFirst(tokenFactory.toString(partitioner.getToken(ByteBuffer.wrap(UUIDGen.decompose(store.hostId)))));
         }
         return result;
     }
-
-    private List<Row> getHintsSlice(int columnCount)
-    {
-        // Get count # of columns...
-        SliceQueryFilter predicate = new SliceQueryFilter(ColumnSlice.ALL_COLUMNS_ARRAY,
-                                                          false,
-                                                          columnCount);
-
-        // From keys "" to ""...
-        IPartitioner partitioner = StorageService.getPartitioner();
-        RowPosition minPos = partitioner.getMinimumToken().minKeyBound();
-        Range<RowPosition> range = new Range<>(minPos, minPos);
-
-        try
-        {
-            RangeSliceCommand cmd = new RangeSliceCommand(SystemKeyspace.NAME,
-                                                          SystemKeyspace.HINTS,
-                                                          System.currentTimeMillis(),
-                                                          predicate,
-                                                          range,
-                                                          null,
-                                                          LARGE_NUMBER);
-            return StorageProxy.getRangeSlice(cmd, ConsistencyLevel.ONE);
-        }
-        catch (Exception e)
-        {
-            logger.info("HintsCF getEPPendingHints timed out.");
-            throw new RuntimeException(e);
-        }
-    }
-
 }
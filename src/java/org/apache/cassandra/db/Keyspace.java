@@ -37,6 +37,7 @@ import org.apache.cassandra.db.index.SecondaryIndex;
 import org.apache.cassandra.db.index.SecondaryIndexManager;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.locator.AbstractReplicationStrategy;
+import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.service.pager.QueryPagers;
 import org.apache.cassandra.tracing.Tracing;
@@ -364,8 +365,12 @@ public class Keyspace
             ReplayPosition replayPosition = null;
             if (writeCommitLog)
             {
-                Tracing.trace("Appending to commitlog");
-                replayPosition = CommitLog.instance.add(mutation);
+                Mutation logged = withoutNonDurableTables(mutation);
+                if (logged != null)
+                {
+                    Tracing.trace("Appending to commitlog");
+                    replayPosition = CommitLog.instance.add(logged);
+                }
             }
 
             DecoratedKey key = StorageService.getPartitioner().decorateKey(mutation.key());
@@ -382,11 +387,32 @@ public class Keyspace
                 SecondaryIndexManager.Updater updater = updateIndexes
                                                       ? cfs.indexManager.updaterFor(key, cf, opGroup)
                                                       : SecondaryIndexManager.nullUpdater;
-                cfs.apply(key, cf, updater, opGroup, replayPosition);
+                // tables that skip the commit log must not claim a position in it, or they would hold
+                // segments open until their next flush
+                cfs.apply(key, cf, updater, opGroup, cfs.metadata.getDurableWrites() ? replayPosition : null);
             }
         }
     }
 
+    /**
+     * @return the part of the mutation that should be written to the commit log, i.e. without the tables
+     * created with durable_writes = false, or null if none of its tables are durable
+     */
+    private Mutation withoutNonDurableTables(Mutation mutation)
+    {
+        Mutation logged = mutation;
+        for (ColumnFamily cf : mutation.getColumnFamilies())
+        {
+            ColumnFamilyStore cfs = columnFamilyStores.get(cf.id());
+            if (cfs == null || cfs.metadata.getDurableWrites())
+                continue;
+
+            cfs.metric.commitLogBytesAvoided.inc(ColumnFamily.serializer.serializedSize(cf, MessagingService.current_version));
+            logged = logged.without(cf.id());
+        }
+        return logged.isEmpty() ? null : logged;
+    }
+
     public AbstractReplicationStrategy getReplicationStrategy()
     {
         return replicationStrategy;
@@ -18,16 +18,14 @@
 package org.apache.cassandra.db;
 
 import java.io.File;
-import java.util.AbstractMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.format.SSTableWriter;
@@ -39,7 +37,8 @@ import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.commitlog.ReplayPosition;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.index.SecondaryIndexManager;
-import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
 import org.apache.cassandra.io.util.DiskAwareRunnable;
 import org.apache.cassandra.service.ActiveRepairService;
@@ -52,11 +51,15 @@ public class Memtable
     private static final Logger logger = LoggerFactory.getLogger(Memtable.class);
 
     static final MemtablePool MEMORY_POOL = DatabaseDescriptor.getMemtableAllocatorPool();
-    private static final int ROW_OVERHEAD_HEAP_SIZE = estimateRowOverhead(Integer.parseInt(System.getProperty("cassandra.memtable_row_overhead_computation_step", "100000")));
 
-    private final MemtableAllocator allocator;
-    private final AtomicLong liveDataSize = new AtomicLong(0);
-    private final AtomicLong currentOperations = new AtomicLong(0);
+    public static final int MAX_SHARDS = 64;
+
+    // the partitions are split by token range across one or more shards, each with its own index and allocator,
+    // so that concurrent writers to different parts of the ring do not contend on the same structures; the
+    // shards are ordered by token so iterating them in sequence yields the partitions in ring order
+    private final Shard[] shards;
+    // the upper (inclusive) token bound of every shard but the last
+    private final Token[] shardBoundaries;
 
     // the write barrier for directing writes to this memtable during a switch
     private volatile OpOrder.Barrier writeBarrier;
@@ -72,11 +75,6 @@ public class Memtable
         }
     }
 
-    // We index the memtable by RowPosition only for the purpose of being able
-    // to select key range using Token.KeyBound. However put() ensures that we
-    // actually only store DecoratedKey.
-    //AtomicBTreeColumns只是针对一行的，代表某行中的所有列
-    private final ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> rows = new ConcurrentSkipListMap<>();
     public final ColumnFamilyStore cfs;
     private final long creationTime = System.currentTimeMillis();
     private final long creationNano = System.nanoTime();
@@ -89,24 +87,134 @@ public class Memtable
     public Memtable(ColumnFamilyStore cfs)
     {
         this.cfs = cfs;
-        this.allocator = MEMORY_POOL.newAllocator();
+        this.shardBoundaries = shardBoundaries(cfs);
+        this.shards = new Shard[shardBoundaries.length + 1];
+        for (int i = 0; i < shards.length; i++)
+            shards[i] = new Shard(cfs);
         this.initialComparator = cfs.metadata.comparator;
         this.cfs.scheduleFlush();
     }
 
-    public MemtableAllocator getAllocator()
+    private static MemtablePartitionIndex createPartitionIndex(ColumnFamilyStore cfs, MemtableAllocator allocator)
     {
-        return allocator;
+        if (cfs.metadata.getMemtableIndex() == MemtablePartitionIndex.Type.NATIVE_SKIPLIST)
+        {
+            if (NativeSkipListPartitionIndex.supports(allocator, cfs.partitioner.getMinimumToken()))
+                return new NativeSkipListPartitionIndex();
+
+            NoSpamLogger.log(logger, NoSpamLogger.Level.WARN, 1, TimeUnit.HOURS,
+                             "{}.{} uses the native_skiplist memtable index, which requires memtable_allocation_type: offheap_objects " +
+                             "and the Murmur3Partitioner; using the skiplist index instead",
+                             cfs.keyspace.getName(), cfs.name);
+        }
+        return new SkipListPartitionIndex();
+    }
+
+    /**
+     * Splits the ring into cfs.metadata.getMemtableShards() ranges of equal token width by repeated bisection.
+     * Partitioners that cannot compute a midpoint (i.e. the LocalPartitioner of secondary indexes) are never sharded.
+     */
+    private static Token[] shardBoundaries(ColumnFamilyStore cfs)
+    {
+        int count = cfs.metadata.getMemtableShards();
+        if (count <= 1)
+            return new Token[0];
+
+        assert Integer.bitCount(count) == 1 && count <= MAX_SHARDS : count;
+        List<Token> boundaries = new ArrayList<>(count - 1);
+        try
+        {
+            Token minimum = cfs.partitioner.getMinimumToken();
+            bisect(cfs.partitioner, minimum, minimum, Integer.numberOfTrailingZeros(count), boundaries);
+        }
+        catch (UnsupportedOperationException e)
+        {
+            return new Token[0];
+        }
+        return boundaries.toArray(new Token[boundaries.size()]);
+    }
+
+    private static void bisect(IPartitioner partitioner, Token left, Token right, int depth, List<Token> boundaries)
+    {
+        if (depth == 0)
+            return;
+        Token midpoint = partitioner.midpoint(left, right);
+        bisect(partitioner, left, midpoint, depth - 1, boundaries);
+        boundaries.add(midpoint);
+        bisect(partitioner, midpoint, right, depth - 1, boundaries);
+    }
+
+    private int shardIndex(Token token)
+    {
+        // shard i owns (boundary[i - 1], boundary[i]], so all keys sharing a token live in the same shard
+        int low = 0, high = shardBoundaries.length;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (shardBoundaries[mid].compareTo(token) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private Shard shardFor(Token token)
+    {
+        return shards.length == 1 ? shards[0] : shards[shardIndex(token)];
+    }
+
+    public int shardCount()
+    {
+        return shards.length;
     }
 
     public long getLiveDataSize()
     {
-        return liveDataSize.get();
+        long size = 0;
+        for (Shard shard : shards)
+            size += shard.liveDataSize.get();
+        return size;
     }
 
     public long getOperations()
     {
-        return currentOperations.get();
+        long operations = 0;
+        for (Shard shard : shards)
+            operations += shard.currentOperations.get();
+        return operations;
+    }
+
+    public long getOnHeapOwns()
+    {
+        long owns = 0;
+        for (Shard shard : shards)
+            owns += shard.allocator.onHeap().owns();
+        return owns;
+    }
+
+    public long getOffHeapOwns()
+    {
+        long owns = 0;
+        for (Shard shard : shards)
+            owns += shard.allocator.offHeap().owns();
+        return owns;
+    }
+
+    public float getOnHeapOwnershipRatio()
+    {
+        float ratio = 0;
+        for (Shard shard : shards)
+            ratio += shard.allocator.onHeap().ownershipRatio();
+        return ratio;
+    }
+
+    public float getOffHeapOwnershipRatio()
+    {
+        float ratio = 0;
+        for (Shard shard : shards)
+            ratio += shard.allocator.offHeap().ownershipRatio();
+        return ratio;
     }
 
     void setDiscarding(OpOrder.Barrier writeBarrier, AtomicReference<ReplayPosition> lastReplayPosition)
@@ -114,12 +222,14 @@ public class Memtable
         assert this.writeBarrier == null;
         this.lastReplayPosition = lastReplayPosition;
         this.writeBarrier = writeBarrier;
-        allocator.setDiscarding();
+        for (Shard shard : shards)
+            shard.allocator.setDiscarding();
     }
 
     void setDiscarded()
     {
-        allocator.setDiscarded();
+        for (Shard shard : shards)
+            shard.allocator.setDiscarded();
     }
 
     // decide if this memtable should take the write, or if it should go to the next memtable
@@ -154,12 +264,22 @@ public class Memtable
 
     public boolean isLive()
     {
-        return allocator.isLive();
+        for (Shard shard : shards)
+        {
+            if (!shard.allocator.isLive())
+                return false;
+        }
+        return true;
     }
 
     public boolean isClean()
     {
-        return rows.isEmpty();
+        for (Shard shard : shards)
+        {
+            if (!shard.rows.isEmpty())
+                return false;
+        }
+        return true;
     }
 
     public boolean isCleanAfter(ReplayPosition position)
@@ -202,31 +322,28 @@ public class Memtable
 //
 //=======
 //>>>>>>> 3a609c20c947910116ec1447e2dd1227b616b2e8
+        Shard shard = shardFor(key.getToken());
+        MemtablePartitionIndex rows = shard.rows;
+        MemtableAllocator allocator = shard.allocator;
         AtomicBTreeColumns previous = rows.get(key);
 
         if (previous == null)
         {
             AtomicBTreeColumns empty = cf.cloneMeShallow(AtomicBTreeColumns.factory, false);
-            final DecoratedKey cloneKey = allocator.clone(key, opGroup);
             // We'll add the columns later. This avoids wasting works if we get beaten in the putIfAbsent
-            previous = rows.putIfAbsent(cloneKey, empty);
+            previous = rows.putIfAbsent(key, empty, allocator, opGroup);
             if (previous == null)
             {
                 previous = empty;
                 // allocate the row overhead after the fact; this saves over allocating and having to free after, but
                 // means we can overshoot our declared limit.
-                int overhead = (int) (key.getToken().getHeapSize() + ROW_OVERHEAD_HEAP_SIZE);
-                allocator.onHeap().allocate(overhead, opGroup);
-            }
-            else
-            {
-                allocator.reclaimer().reclaimImmediately(cloneKey);
+                allocator.onHeap().allocate(rows.partitionHeapOverhead(key), opGroup);
             }
         }
 
         final Pair<Long, Long> pair = previous.addAllWithSizeDelta(cf, allocator, opGroup, indexer);
-        liveDataSize.addAndGet(pair.left);
-        currentOperations.addAndGet(cf.getColumnCount() + (cf.isMarkedForDelete() ? 1 : 0) + cf.deletionInfo().rangeCount());
+        shard.liveDataSize.addAndGet(pair.left);
+        shard.currentOperations.addAndGet(cf.getColumnCount() + (cf.isMarkedForDelete() ? 1 : 0) + cf.deletionInfo().rangeCount());
         return pair.right;
     }
 
@@ -235,8 +352,10 @@ public class Memtable
     {
         StringBuilder builder = new StringBuilder();
         builder.append("{");
-        for (Map.Entry<RowPosition, AtomicBTreeColumns> entry : rows.entrySet())
+        Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = entryIterator(0, shards.length - 1, null, null);
+        while (iter.hasNext())
         {
+            Map.Entry<DecoratedKey, AtomicBTreeColumns> entry = iter.next();
             builder.append(entry.getKey()).append(": ").append(entry.getValue()).append(", ");
         }
         builder.append("}");
@@ -251,7 +370,35 @@ public class Memtable
     public String toString()
     {
         return String.format("Memtable-%s@%s(%s serialized bytes, %s ops, %.0f%%/%.0f%% of on/off-heap limit)",
-                             cfs.name, hashCode(), liveDataSize, currentOperations, 100 * allocator.onHeap().ownershipRatio(), 100 * allocator.offHeap().ownershipRatio());
+                             cfs.name, hashCode(), getLiveDataSize(), getOperations(), 100 * getOnHeapOwnershipRatio(), 100 * getOffHeapOwnershipRatio());
+    }
+
+    /**
+     * Concatenates the entries of shards [firstShard, lastShard], restricted to [startWith, stopAt] when those are
+     * provided; a null startWith iterates each shard from its first partition.
+     */
+    private Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> entryIterator(final int firstShard, final int lastShard,
+                                                                               final RowPosition startWith, final RowPosition stopAt)
+    {
+        if (firstShard == lastShard)
+            return shardEntryIterator(shards[firstShard], startWith, stopAt);
+
+        return Iterators.concat(new AbstractIterator<Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>>>()
+        {
+            private int next = firstShard;
+
+            protected Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> computeNext()
+            {
+                if (next > lastShard)
+                    return endOfData();
+                return shardEntryIterator(shards[next++], startWith, stopAt);
+            }
+        });
+    }
+
+    private static Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> shardEntryIterator(Shard shard, RowPosition startWith, RowPosition stopAt)
+    {
+        return startWith == null ? shard.rows.entryIterator() : shard.rows.entryIterator(startWith, stopAt);
     }
 
     /**
@@ -263,11 +410,11 @@ public class Memtable
     {
         return new Iterator<Map.Entry<DecoratedKey, ColumnFamily>>()
         {
-            private Iterator<? extends Map.Entry<? extends RowPosition, AtomicBTreeColumns>> iter = stopAt.isMinimum()
-                    ? rows.tailMap(startWith).entrySet().iterator()
-                    : rows.subMap(startWith, true, stopAt, true).entrySet().iterator();
+            private Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = entryIterator(shardIndex(startWith.getToken()),
+                                                                                             stopAt.isMinimum() ? shards.length - 1 : shardIndex(stopAt.getToken()),
+                                                                                             startWith, stopAt);
 
-            private Map.Entry<? extends RowPosition, ? extends ColumnFamily> currentEntry;
+            private Map.Entry<DecoratedKey, AtomicBTreeColumns> currentEntry;
 
             public boolean hasNext()
             {
@@ -276,26 +423,24 @@ public class Memtable
 
             public Map.Entry<DecoratedKey, ColumnFamily> next()
             {
-                Map.Entry<? extends RowPosition, ? extends ColumnFamily> entry = iter.next();
-                // Actual stored key should be true DecoratedKey
-                assert entry.getKey() instanceof DecoratedKey;
+                Map.Entry<DecoratedKey, AtomicBTreeColumns> entry = iter.next();
+                // Store the reference to the current entry so that remove() can update the current size.
+                currentEntry = entry;
                 if (MEMORY_POOL.needToCopyOnHeap())
                 {
-                    DecoratedKey key = (DecoratedKey) entry.getKey();
+                    DecoratedKey key = entry.getKey();
                     key = new BufferDecoratedKey(key.getToken(), HeapAllocator.instance.clone(key.getKey()));
                     ColumnFamily cells = ArrayBackedSortedColumns.localCopy(entry.getValue(), HeapAllocator.instance);
-                    entry = new AbstractMap.SimpleImmutableEntry<>(key, cells);
+                    return new AbstractMap.SimpleImmutableEntry<>(key, cells);
                 }
-                // Store the reference to the current entry so that remove() can update the current size.
-                currentEntry = entry;
-                // Object cast is required since otherwise we can't turn RowPosition into DecoratedKey
-                return (Map.Entry<DecoratedKey, ColumnFamily>) entry;
+                // Object cast is required since otherwise we can't turn AtomicBTreeColumns into ColumnFamily
+                return (Map.Entry<DecoratedKey, ColumnFamily>) (Map.Entry<?, ?>) entry;
             }
 
             public void remove()
             {
                 iter.remove();
-                liveDataSize.addAndGet(-currentEntry.getValue().dataSize());
+                shardFor(currentEntry.getKey().getToken()).liveDataSize.addAndGet(-currentEntry.getValue().dataSize());
                 currentEntry = null;
             }
         };
@@ -304,7 +449,7 @@ public class Memtable
     //只找单个rowkey的情况
     public ColumnFamily getColumnFamily(DecoratedKey key)
     {
-        return rows.get(key);
+        return shardFor(key.getToken()).rows.get(key);
     }
 
     public long creationTime()
@@ -316,23 +461,28 @@ public class Memtable
     class FlushRunnable extends DiskAwareRunnable
     {
         private final ReplayPosition context;
+        private final long[] estimatedShardSizes;
         private final long estimatedSize;
 
         FlushRunnable(ReplayPosition context)
         {
             this.context = context;
 
-            long keySize = 0;
-            for (RowPosition key : rows.keySet())
+            estimatedShardSizes = new long[shards.length];
+            long total = 0;
+            for (int i = 0; i < shards.length; i++)
             {
-                //  make sure we don't write non-sensical keys
-                assert key instanceof DecoratedKey;
-                keySize += ((DecoratedKey)key).getKey().remaining();
+                long keySize = 0;
+                Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = shards[i].rows.entryIterator();
+                while (iter.hasNext())
+                    keySize += iter.next().getKey().getKey().remaining();
+                estimatedShardSizes[i] = (long) ((keySize // index entries
+                                                  + keySize // keys in data file
+                                                  + shards[i].liveDataSize.get()) // data
+                                                 * 1.2); // bloom filter and row index overhead
+                total += estimatedShardSizes[i];
             }
-            estimatedSize = (long) ((keySize // index entries
-                                    + keySize // keys in data file
-                                    + liveDataSize.get()) // data
-                                    * 1.2); // bloom filter and row index overhead
+            estimatedSize = total;
         }
 
         public long getExpectedWriteSize()
@@ -342,12 +492,36 @@ public class Memtable
 
         protected void runMayThrow() throws Exception
         {
-            long writeSize = getExpectedWriteSize();
-            Directories.DataDirectory dataDirectory = getWriteDirectory(writeSize);
-            File sstableDirectory = cfs.directories.getLocationForDisk(dataDirectory);
-            assert sstableDirectory != null : "Flush task is not bound to any disk";
-            SSTableReader sstable = writeSortedContents(context, sstableDirectory);
-            cfs.replaceFlushed(Memtable.this, sstable);
+            // each shard covers its own token range, so it is written to its own sstable; the resulting
+            // sstables do not overlap and are handed over together, as the single flush of this memtable
+            List<SSTableReader> sstables = new ArrayList<>(shards.length);
+            try
+            {
+                for (int i = 0; i < shards.length; i++)
+                {
+                    if (shards[i].rows.isEmpty())
+                        continue;
+
+                    Directories.DataDirectory dataDirectory = getWriteDirectory(estimatedShardSizes[i]);
+                    File sstableDirectory = cfs.directories.getLocationForDisk(dataDirectory);
+                    assert sstableDirectory != null : "Flush task is not bound to any disk";
+                    SSTableReader sstable = writeSortedContents(shards[i], context, sstableDirectory);
+                    if (sstable != null)
+                        sstables.add(sstable);
+                }
+            }
+            catch (Throwable t)
+            {
+                // the flush failed as a whole, and the commit log still holds all of it: the sstables of the
+                // shards written so far must not stay behind
+                for (SSTableReader sstable : sstables)
+                {
+                    sstable.markObsolete();
+                    sstable.selfRef().release();
+                }
+                throw t;
+            }
+            cfs.replaceFlushed(Memtable.this, sstables);
         }
 
         protected Directories getDirectories()
@@ -355,21 +529,23 @@ public class Memtable
             return cfs.directories;
         }
 
-        private SSTableReader writeSortedContents(ReplayPosition context, File sstableDirectory)
+        private SSTableReader writeSortedContents(Shard shard, ReplayPosition context, File sstableDirectory)
         {
-            logger.info("Writing {}", Memtable.this.toString());
+            logger.info("Writing {}", shards.length == 1 ? Memtable.this.toString() : Memtable.this.toString() + " shard " + shard);
 
             SSTableReader ssTable;
             // errors when creating the writer that may leave empty temp files.
-            SSTableWriter writer = createFlushWriter(cfs.getTempSSTablePath(sstableDirectory));
+            SSTableWriter writer = createFlushWriter(cfs.getTempSSTablePath(sstableDirectory), shard.rows.size());
             try
             {
                 boolean trackContention = logger.isDebugEnabled();
                 int heavilyContendedRowCount = 0;
                 // (we can't clear out the map as-we-go to free up memory,
                 //  since the memtable is being used for queries in the "pending flush" category)
-                for (Map.Entry<RowPosition, AtomicBTreeColumns> entry : rows.entrySet())
+                Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = shard.rows.entryIterator();
+                while (iter.hasNext())
                 {
+                    Map.Entry<DecoratedKey, AtomicBTreeColumns> entry = iter.next();
                     AtomicBTreeColumns cf = entry.getValue();
 
                     if (cf.isMarkedForDelete() && cf.hasColumns())
@@ -387,7 +563,7 @@ public class Memtable
                         heavilyContendedRowCount++;
 
                     if (!cf.isEmpty())
-                        writer.append((DecoratedKey)entry.getKey(), cf);
+                        writer.append(entry.getKey(), cf);
                 }
 
                 if (writer.getFilePointer() > 0)
@@ -408,7 +584,7 @@ public class Memtable
                 }
 
                 if (heavilyContendedRowCount > 0)
-                    logger.debug(String.format("High update contention in %d/%d partitions of %s ", heavilyContendedRowCount, rows.size(), Memtable.this.toString()));
+                    logger.debug(String.format("High update contention in %d/%d partitions of %s ", heavilyContendedRowCount, shard.rows.size(), Memtable.this.toString()));
 
                 return ssTable;
             }
@@ -419,30 +595,31 @@ public class Memtable
             }
         }
 
-        public SSTableWriter createFlushWriter(String filename)
+        public SSTableWriter createFlushWriter(String filename, long keyCount)
         {
             MetadataCollector sstableMetadataCollector = new MetadataCollector(cfs.metadata.comparator).replayPosition(context);
 
-            return SSTableWriter.create(Descriptor.fromFilename(filename), (long) rows.size(), ActiveRepairService.UNREPAIRED_SSTABLE, cfs.metadata, cfs.partitioner, sstableMetadataCollector);
+            return SSTableWriter.create(Descriptor.fromFilename(filename), keyCount, ActiveRepairService.UNREPAIRED_SSTABLE, cfs.metadata, cfs.partitioner, sstableMetadataCollector);
         }
     }
 
-    private static int estimateRowOverhead(final int count)
-    {
-        // calculate row overhead
-        final OpOrder.Group group = new OpOrder().start();
-        int rowOverhead;
-        MemtableAllocator allocator = MEMORY_POOL.newAllocator();
-        ConcurrentNavigableMap<RowPosition, Object> rows = new ConcurrentSkipListMap<>();
-        final Object val = new Object();
-        for (int i = 0 ; i < count ; i++)
-            rows.put(allocator.clone(new BufferDecoratedKey(new LongToken((long) i), ByteBufferUtil.EMPTY_BYTE_BUFFER), group), val);
-        double avgSize = ObjectSizes.measureDeep(rows) / (double) count;
-        rowOverhead = (int) ((avgSize - Math.floor(avgSize)) < 0.05 ? Math.floor(avgSize) : Math.ceil(avgSize));
-        rowOverhead -= ObjectSizes.measureDeep(new LongToken((long) 0));
-        rowOverhead += AtomicBTreeColumns.EMPTY_SIZE;
-        allocator.setDiscarding();
-        allocator.setDiscarded();
-        return rowOverhead;
+    private static final class Shard
+    {
+        //AtomicBTreeColumns只是针对一行的，代表某行中的所有列
+        final MemtablePartitionIndex rows;
+        final MemtableAllocator allocator;
+        final AtomicLong liveDataSize = new AtomicLong(0);
+        final AtomicLong currentOperations = new AtomicLong(0);
+
+        Shard(ColumnFamilyStore cfs)
+        {
+            this.allocator = MEMORY_POOL.newAllocator();
+            this.rows = createPartitionIndex(cfs, allocator);
+        }
+
+        public String toString()
+        {
+            return String.format("(%s serialized bytes, %s ops)", liveDataSize, currentOperations);
+        }
     }
 }
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.cassandra.utils.memory.MemtableAllocator;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+
+/**
+ * The partition index of a {@link Memtable}: an ordered, concurrent map from partition key to the
+ * partition's columns. Partitions are only ever added by writes; they may only be removed through the
+ * iterators of the index, if it supports it.
+ *
+ * The implementation is chosen per table through the {@code memtable_index} table option.
+ */
+public interface MemtablePartitionIndex
+{
+    public static enum Type
+    {
+        /** partitions are kept in an on-heap ConcurrentSkipListMap */
+        SKIPLIST,
+        /**
+         * keys and skip list nodes are kept in the memtable's native memory; only usable with
+         * memtable_allocation_type: offheap_objects and the Murmur3Partitioner, falls back to SKIPLIST otherwise
+         */
+        NATIVE_SKIPLIST;
+
+        public static Type fromString(String name)
+        {
+            try
+            {
+                return valueOf(name.toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException(String.format("Unknown memtable index '%s'; valid values are %s", name, java.util.Arrays.toString(values())));
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return name().toLowerCase();
+        }
+    }
+
+    public AtomicBTreeColumns get(DecoratedKey key);
+
+    /**
+     * Add {@code partition} for {@code key} unless a partition is already present for that key. The
+     * key is copied into memory owned by {@code allocator} if needed.
+     *
+     * @return the partition already present, or null if {@code partition} was added
+     */
+    public AtomicBTreeColumns putIfAbsent(DecoratedKey key, AtomicBTreeColumns partition, MemtableAllocator allocator, OpOrder.Group opGroup);
+
+    /**
+     * @return the on-heap size to account for a newly added partition, in addition to the partition's columns
+     */
+    public long partitionHeapOverhead(DecoratedKey key);
+
+    /**
+     * @return the partitions between {@code from} and {@code to}, both inclusive, in order; a minimum {@code to} means
+     * no upper bound. The keys returned are only valid for as long as the memtable's memory is. The iterator
+     * supports remove() if the index does: SKIPLIST does, NATIVE_SKIPLIST does not.
+     */
+    public Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> entryIterator(RowPosition from, RowPosition to);
+
+    /**
+     * @return all the partitions in order
+     */
+    public Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> entryIterator();
+
+    public int size();
+
+    public boolean isEmpty();
+}
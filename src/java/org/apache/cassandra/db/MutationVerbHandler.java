@@ -62,15 +62,23 @@ public class MutationVerbHandler implements IVerbHandler<Mutation>
         DataInputStream in = new DataInputStream(new FastByteArrayInputStream(forwardBytes));
         int size = in.readInt();
 
-        // tell the recipients who to send their ack to
-        MessageOut<Mutation> message = new MessageOut<>(verb, mutation, Mutation.serializer).withParameter(Mutation.FORWARD_FROM, from.getAddress());
-        // Send a message to each of the addresses on our Forward List
-        for (int i = 0; i < size; i++)
+        // serialize the mutation once for all the recipients, and tell them who to send their ack to
+        SerializedPayload<Mutation> serialized = SerializedPayload.create(mutation, Mutation.serializer);
+        MessageOut<Mutation> message = serialized.createMessage(verb).withParameter(Mutation.FORWARD_FROM, from.getAddress());
+        try
         {
-            InetAddress address = CompactEndpointSerializationHelper.deserialize(in);
-            int id = in.readInt();
-            Tracing.trace("Enqueuing forwarded write to {}", address);
-            MessagingService.instance().sendOneWay(message, id, address);
+            // Send a message to each of the addresses on our Forward List
+            for (int i = 0; i < size; i++)
+            {
+                InetAddress address = CompactEndpointSerializationHelper.deserialize(in);
+                int id = in.readInt();
+                Tracing.trace("Enqueuing forwarded write to {}", address);
+                MessagingService.instance().sendOneWay(message, id, address);
+            }
+        }
+        finally
+        {
+            serialized.release();
         }
     }
 }
@@ -0,0 +1,341 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.utils.FastByteOperations;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+import org.apache.cassandra.utils.memory.MemoryUtil;
+import org.apache.cassandra.utils.memory.MemtableAllocator;
+import org.apache.cassandra.utils.memory.NativeAllocator;
+
+/**
+ * A lock-free, insert-only skip list whose nodes, including the partition keys, live in the
+ * memtable's native memory, so that indexing a partition costs no on-heap object besides the
+ * partition's own AtomicBTreeColumns.
+ *
+ * Each node is laid out as:
+ *
+ * [long token][int value slot][int key length][int height][int unused][long next[height]][key bytes]
+ *
+ * Partitions are kept on heap in a slot array, referenced by the node's value slot. Nodes are
+ * linked bottom-up with CAS on their next pointers; since nodes are never removed, a node reachable
+ * at some level is always reachable at every lower level, and a search never needs to help or retry
+ * on concurrent modifications other than a failed link.
+ *
+ * Only usable with a NativeAllocator and a partitioner producing LongTokens (Murmur3Partitioner).
+ */
+public class NativeSkipListPartitionIndex implements MemtablePartitionIndex
+{
+    static final int MAX_HEIGHT = 24;
+
+    private static final int TOKEN_OFFSET = 0;
+    private static final int SLOT_OFFSET = 8;
+    private static final int KEY_LENGTH_OFFSET = 12;
+    private static final int HEIGHT_OFFSET = 16;
+    private static final int NEXT_OFFSET = 24;
+
+    // the partition itself and its slot reference are the only on-heap cost of a partition
+    private static final long PARTITION_HEAP_OVERHEAD = AtomicBTreeColumns.EMPTY_SIZE + 8;
+
+    private final AtomicLongArray head = new AtomicLongArray(MAX_HEIGHT);
+    private final Slots slots = new Slots();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public static boolean supports(MemtableAllocator allocator, Token minimumToken)
+    {
+        return allocator instanceof NativeAllocator && minimumToken instanceof LongToken;
+    }
+
+    public AtomicBTreeColumns get(DecoratedKey key)
+    {
+        long node = findGreaterOrEqual(key);
+        return node != 0 && compare(node, key) == 0 ? slots.get(MemoryUtil.getInt(node + SLOT_OFFSET)) : null;
+    }
+
+    public AtomicBTreeColumns putIfAbsent(DecoratedKey key, AtomicBTreeColumns partition, MemtableAllocator allocator, OpOrder.Group opGroup)
+    {
+        long[] preds = new long[MAX_HEIGHT];
+        long[] succs = new long[MAX_HEIGHT];
+        long token = ((LongToken) key.getToken()).token;
+        ByteBuffer keyBytes = key.getKey();
+
+        long node = 0;
+        int height = 0;
+        int slot = -1;
+        while (true)
+        {
+            long found = find(token, keyBytes, preds, succs);
+            if (found != 0)
+            {
+                // beaten to it; the node we may have allocated stays unreachable until the memtable is discarded
+                if (slot >= 0)
+                    slots.set(slot, null);
+                return slots.get(MemoryUtil.getInt(found + SLOT_OFFSET));
+            }
+
+            if (node == 0)
+            {
+                slot = slots.add(partition);
+                height = randomHeight();
+                node = allocateNode((NativeAllocator) allocator, opGroup, token, keyBytes, slot, height);
+            }
+
+            MemoryUtil.setLongVolatile(nextAddress(node, 0), succs[0]);
+            if (casNext(preds[0], 0, succs[0], node))
+                break;
+        }
+
+        // the node is now visible; link it at the higher levels, refreshing the neighbours when we race
+        for (int level = 1; level < height; level++)
+        {
+            while (true)
+            {
+                MemoryUtil.setLongVolatile(nextAddress(node, level), succs[level]);
+                if (casNext(preds[level], level, succs[level], node))
+                    break;
+                find(token, keyBytes, preds, succs);
+            }
+        }
+
+        size.incrementAndGet();
+        return null;
+    }
+
+    public long partitionHeapOverhead(DecoratedKey key)
+    {
+        return PARTITION_HEAP_OVERHEAD;
+    }
+
+    public Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> entryIterator(RowPosition from, RowPosition to)
+    {
+        return new EntryIterator(findGreaterOrEqual(from), to.isMinimum() ? null : to);
+    }
+
+    public Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> entryIterator()
+    {
+        return new EntryIterator(head.get(0), null);
+    }
+
+    public int size()
+    {
+        return size.get();
+    }
+
+    public boolean isEmpty()
+    {
+        return head.get(0) == 0;
+    }
+
+    /**
+     * Fill preds and succs with, for each level, the last node before the key and the first node at or after it.
+     * A pred of 0 stands for the head.
+     *
+     * @return the node holding exactly the key, or 0 if there is none
+     */
+    private long find(long token, ByteBuffer key, long[] preds, long[] succs)
+    {
+        long pred = 0;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--)
+        {
+            long curr = next(pred, level);
+            while (curr != 0 && compare(curr, token, key) < 0)
+            {
+                pred = curr;
+                curr = next(curr, level);
+            }
+            preds[level] = pred;
+            succs[level] = curr;
+        }
+        return succs[0] != 0 && compare(succs[0], token, key) == 0 ? succs[0] : 0;
+    }
+
+    /**
+     * @return the first node at or after {@code position}, or 0 if there is none
+     */
+    private long findGreaterOrEqual(RowPosition position)
+    {
+        long pred = 0;
+        long curr = 0;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--)
+        {
+            curr = next(pred, level);
+            while (curr != 0 && compare(curr, position) < 0)
+            {
+                pred = curr;
+                curr = next(curr, level);
+            }
+        }
+        return curr;
+    }
+
+    private long next(long node, int level)
+    {
+        return node == 0 ? head.get(level) : MemoryUtil.getLongVolatile(nextAddress(node, level));
+    }
+
+    private boolean casNext(long node, int level, long expect, long update)
+    {
+        return node == 0
+             ? head.compareAndSet(level, expect, update)
+             : MemoryUtil.compareAndSwapLong(nextAddress(node, level), expect, update);
+    }
+
+    private static long nextAddress(long node, int level)
+    {
+        return node + NEXT_OFFSET + 8L * level;
+    }
+
+    private static long keyAddress(long node)
+    {
+        return nextAddress(node, MemoryUtil.getInt(node + HEIGHT_OFFSET));
+    }
+
+    private static int compare(long node, long token, ByteBuffer key)
+    {
+        int cmp = Long.compare(MemoryUtil.getLong(node + TOKEN_OFFSET), token);
+        if (cmp != 0)
+            return cmp;
+        return FastByteOperations.UnsafeOperations.compareTo(null, keyAddress(node), MemoryUtil.getInt(node + KEY_LENGTH_OFFSET), key);
+    }
+
+    /**
+     * Compare the key of {@code node} to an arbitrary position, which may be a token bound rather than a key.
+     */
+    private static int compare(long node, RowPosition position)
+    {
+        int cmp = Long.compare(MemoryUtil.getLong(node + TOKEN_OFFSET), ((LongToken) position.getToken()).token);
+        if (cmp != 0)
+            return cmp;
+        if (position instanceof DecoratedKey)
+            return compare(node, ((LongToken) position.getToken()).token, ((DecoratedKey) position).getKey());
+        // a key sorts after the minimum bound of its token, and before the maximum one
+        return ((Token.KeyBound) position).isMinimumBound ? 1 : -1;
+    }
+
+    private static long allocateNode(NativeAllocator allocator, OpOrder.Group opGroup, long token, ByteBuffer key, int slot, int height)
+    {
+        int size = NEXT_OFFSET + 8 * height + key.remaining();
+        // next pointers are updated with CAS, which requires 8 byte alignment
+        long peer = allocator.allocate(size + 7, opGroup);
+        long node = (peer + 7) & ~7L;
+        MemoryUtil.setLong(node + TOKEN_OFFSET, token);
+        MemoryUtil.setInt(node + SLOT_OFFSET, slot);
+        MemoryUtil.setInt(node + KEY_LENGTH_OFFSET, key.remaining());
+        MemoryUtil.setInt(node + HEIGHT_OFFSET, height);
+        MemoryUtil.setBytes(keyAddress(node), key);
+        return node;
+    }
+
+    private static int randomHeight()
+    {
+        // each level is half as likely as the one below it
+        int bits = ThreadLocalRandom.current().nextInt() | (1 << (MAX_HEIGHT - 1));
+        return Integer.numberOfTrailingZeros(bits) + 1;
+    }
+
+    private DecoratedKey keyOf(long node)
+    {
+        return new BufferDecoratedKey(new LongToken(MemoryUtil.getLong(node + TOKEN_OFFSET)),
+                                      MemoryUtil.getByteBuffer(keyAddress(node), MemoryUtil.getInt(node + KEY_LENGTH_OFFSET)));
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>>
+    {
+        private final RowPosition stopAt;
+        private long next;
+
+        EntryIterator(long first, RowPosition stopAt)
+        {
+            this.stopAt = stopAt;
+            this.next = first != 0 && stopAt != null && compare(first, stopAt) > 0 ? 0 : first;
+        }
+
+        public boolean hasNext()
+        {
+            return next != 0;
+        }
+
+        public Map.Entry<DecoratedKey, AtomicBTreeColumns> next()
+        {
+            if (next == 0)
+                throw new NoSuchElementException();
+
+            long node = next;
+            next = MemoryUtil.getLongVolatile(nextAddress(node, 0));
+            if (next != 0 && stopAt != null && compare(next, stopAt) > 0)
+                next = 0;
+            return new AbstractMap.SimpleImmutableEntry<>(keyOf(node), slots.get(MemoryUtil.getInt(node + SLOT_OFFSET)));
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A grow-only array of partitions, split in chunks of doubling size so that growing never copies.
+     */
+    private static final class Slots
+    {
+        private static final int FIRST_CHUNK_SHIFT = 6;
+        private static final int MAX_CHUNKS = 31 - FIRST_CHUNK_SHIFT;
+
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicReferenceArray<AtomicReferenceArray<AtomicBTreeColumns>> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+        int add(AtomicBTreeColumns partition)
+        {
+            int slot = next.getAndIncrement();
+            set(slot, partition);
+            return slot;
+        }
+
+        void set(int slot, AtomicBTreeColumns partition)
+        {
+            int index = slot + (1 << FIRST_CHUNK_SHIFT);
+            int chunk = 31 - Integer.numberOfLeadingZeros(index) - FIRST_CHUNK_SHIFT;
+            AtomicReferenceArray<AtomicBTreeColumns> array = chunks.get(chunk);
+            if (array == null)
+            {
+                chunks.compareAndSet(chunk, null, new AtomicReferenceArray<AtomicBTreeColumns>(1 << (chunk + FIRST_CHUNK_SHIFT)));
+                array = chunks.get(chunk);
+            }
+            array.set(index - (1 << (chunk + FIRST_CHUNK_SHIFT)), partition);
+        }
+
+        AtomicBTreeColumns get(int slot)
+        {
+            int index = slot + (1 << FIRST_CHUNK_SHIFT);
+            int chunk = 31 - Integer.numberOfLeadingZeros(index) - FIRST_CHUNK_SHIFT;
+            return chunks.get(chunk).get(index - (1 << (chunk + FIRST_CHUNK_SHIFT)));
+        }
+    }
+}
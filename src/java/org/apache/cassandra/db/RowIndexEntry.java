@@ -19,10 +19,13 @@ package org.apache.cassandra.db;
 
 import java.io.DataInput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
 
 import com.google.common.primitives.Ints;
 
@@ -30,8 +33,11 @@ import org.apache.cassandra.cache.IMeasurableMemory;
 import org.apache.cassandra.io.ISerializer;
 import org.apache.cassandra.io.sstable.IndexHelper;
 import org.apache.cassandra.io.sstable.format.Version;
+import org.apache.cassandra.io.sstable.format.big.BigFormat;
+import org.apache.cassandra.io.util.ByteBufferDataInput;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.ObjectSizes;
 
 public class RowIndexEntry<T> implements IMeasurableMemory
@@ -45,11 +51,6 @@ public class RowIndexEntry<T> implements IMeasurableMemory
         this.position = position;
     }
 
-    public int promotedSize(ISerializer<T> idxSerializer)
-    {
-        return 0;
-    }
-
     //position是指此行在Data.db文件的开始位置
     public static RowIndexEntry<IndexHelper.IndexInfo> create(long position, DeletionTime deletionTime, ColumnIndex index)
     {
@@ -108,23 +109,51 @@ public class RowIndexEntry<T> implements IMeasurableMemory
     public static class Serializer implements IndexSerializer<IndexHelper.IndexInfo>
     {
         private final ISerializer<IndexHelper.IndexInfo> idxSerializer;
+        private final boolean withOffsets;
 
         public Serializer(ISerializer<IndexHelper.IndexInfo> idxSerializer)
+        {
+            this(idxSerializer, BigFormat.latestVersion);
+        }
+
+        /**
+         * @param version the sstable version entries are serialized for; since "lb" the promoted index ends with
+         * a table of the offsets of its IndexInfo, which lets it be binary searched without deserializing it
+         */
+        public Serializer(ISerializer<IndexHelper.IndexInfo> idxSerializer, Version version)
         {
             this.idxSerializer = idxSerializer;
+            this.withOffsets = version.hasIndexInfoOffsets();
         }
 
         public void serialize(RowIndexEntry<IndexHelper.IndexInfo> rie, DataOutputPlus out) throws IOException
         {
             out.writeLong(rie.position);
-            out.writeInt(rie.promotedSize(idxSerializer));
+            out.writeInt(promotedSize(rie));
 
             if (rie.isIndexed())
             {
                 DeletionTime.serializer.serialize(rie.deletionTime(), out);
                 out.writeInt(rie.columnsIndex().size());
+                if (withOffsets && rie instanceof CompactIndexedEntry)
+                {
+                    // already laid out the way we want it
+                    out.write(((CompactIndexedEntry) rie).serialized.duplicate());
+                    return;
+                }
+
                 for (IndexHelper.IndexInfo info : rie.columnsIndex())
                     idxSerializer.serialize(info, out);
+
+                if (withOffsets)
+                {
+                    long offset = 0;
+                    for (IndexHelper.IndexInfo info : rie.columnsIndex())
+                    {
+                        out.writeInt(Ints.checkedCast(offset));
+                        offset += idxSerializer.serializedSize(info, TypeSizes.NATIVE);
+                    }
+                }
             }
         }
 
@@ -138,6 +167,14 @@ public class RowIndexEntry<T> implements IMeasurableMemory
                 DeletionTime deletionTime = DeletionTime.serializer.deserialize(in);
 
                 int entries = in.readInt();
+                if (version.hasIndexInfoOffsets())
+                {
+                    // keep the IndexInfo serialized, in one heap copy even if the index file is mmapped (see
+                    // CompactIndexedEntry); they are deserialized one at a time while binary searching
+                    int length = size - (int) DeletionTime.serializer.serializedSize(deletionTime, TypeSizes.NATIVE) - TypeSizes.NATIVE.sizeof(entries);
+                    return new CompactIndexedEntry(position, deletionTime, entries, ByteBufferUtil.read(in, length), idxSerializer);
+                }
+
                 List<IndexHelper.IndexInfo> columnsIndex = new ArrayList<>(entries);
                 for (int i = 0; i < entries; i++)
                     columnsIndex.add(idxSerializer.deserialize(in));
@@ -165,23 +202,29 @@ public class RowIndexEntry<T> implements IMeasurableMemory
             FileUtils.skipBytesFully(in, size);
         }
 
-        public int serializedSize(RowIndexEntry<IndexHelper.IndexInfo> rie)
+        private int promotedSize(RowIndexEntry<IndexHelper.IndexInfo> rie)
         {
-            int size = TypeSizes.NATIVE.sizeof(rie.position) + TypeSizes.NATIVE.sizeof(rie.promotedSize(idxSerializer));
+            if (!rie.isIndexed())
+                return 0;
 
-            if (rie.isIndexed())
-            {
-                List<IndexHelper.IndexInfo> index = rie.columnsIndex();
-
-                size += DeletionTime.serializer.serializedSize(rie.deletionTime(), TypeSizes.NATIVE);
-                size += TypeSizes.NATIVE.sizeof(index.size());
+            TypeSizes typeSizes = TypeSizes.NATIVE;
+            List<IndexHelper.IndexInfo> index = rie.columnsIndex();
+            long size = DeletionTime.serializer.serializedSize(rie.deletionTime(), typeSizes);
+            size += typeSizes.sizeof(index.size()); // number of entries
+            if (withOffsets && rie instanceof CompactIndexedEntry)
+                return Ints.checkedCast(size + ((CompactIndexedEntry) rie).serialized.remaining());
 
-                for (IndexHelper.IndexInfo info : index)
-                    size += idxSerializer.serializedSize(info, TypeSizes.NATIVE);
-            }
+            for (IndexHelper.IndexInfo info : index)
+                size += idxSerializer.serializedSize(info, typeSizes);
+            if (withOffsets)
+                size += index.size() * typeSizes.sizeof(0);
 
+            return Ints.checkedCast(size);
+        }
 
-            return size;
+        public int serializedSize(RowIndexEntry<IndexHelper.IndexInfo> rie)
+        {
+            return TypeSizes.NATIVE.sizeof(rie.position) + TypeSizes.NATIVE.sizeof(0) + promotedSize(rie);
         }
     }
 
@@ -218,18 +261,6 @@ public class RowIndexEntry<T> implements IMeasurableMemory
             return columnsIndex;
         }
 
-        @Override
-        public int promotedSize(ISerializer<IndexHelper.IndexInfo> idxSerializer)
-        {
-            TypeSizes typeSizes = TypeSizes.NATIVE;
-            long size = DeletionTime.serializer.serializedSize(deletionTime, typeSizes);
-            size += typeSizes.sizeof(columnsIndex.size()); // number of entries
-            for (IndexHelper.IndexInfo info : columnsIndex)
-                size += idxSerializer.serializedSize(info, typeSizes);
-
-            return Ints.checkedCast(size);
-        }
-
         @Override
         public long unsharedHeapSize()
         {
@@ -243,4 +274,88 @@ public class RowIndexEntry<T> implements IMeasurableMemory
                    + ObjectSizes.sizeOfReferenceArray(columnsIndex.size());
         }
     }
+
+    /**
+     * An indexed entry whose IndexInfo are kept serialized in a single buffer, followed by the table of
+     * their offsets. columnsIndex() is a random access view that deserializes an IndexInfo only when it
+     * is accessed, so a binary search over it only materializes log(n) of them.
+     *
+     * The buffer is always a heap copy, never a slice of an mmapped index file: entries live on in the key
+     * cache after the sstable they were read from is released and its mapping unmapped (see CASSANDRA-3179).
+     */
+    private static class CompactIndexedEntry extends RowIndexEntry<IndexHelper.IndexInfo>
+    {
+        private static final long BASE_SIZE =
+                ObjectSizes.measure(new CompactIndexedEntry(0, DeletionTime.LIVE, 0, ByteBufferUtil.EMPTY_BYTE_BUFFER, null))
+              + ObjectSizes.measure(new SerializedIndexInfoList(ByteBufferUtil.EMPTY_BYTE_BUFFER, 0, null));
+
+        private final DeletionTime deletionTime;
+        private final ByteBuffer serialized;
+        private final List<IndexHelper.IndexInfo> columnsIndex;
+
+        private CompactIndexedEntry(long position, DeletionTime deletionTime, int entries, ByteBuffer serialized, ISerializer<IndexHelper.IndexInfo> idxSerializer)
+        {
+            super(position);
+            this.deletionTime = deletionTime;
+            this.serialized = serialized;
+            this.columnsIndex = new SerializedIndexInfoList(serialized, entries, idxSerializer);
+        }
+
+        @Override
+        public DeletionTime deletionTime()
+        {
+            return deletionTime;
+        }
+
+        @Override
+        public List<IndexHelper.IndexInfo> columnsIndex()
+        {
+            return columnsIndex;
+        }
+
+        @Override
+        public long unsharedHeapSize()
+        {
+            return BASE_SIZE + deletionTime.unsharedHeapSize() + ObjectSizes.sizeOnHeapOf(serialized);
+        }
+    }
+
+    private static class SerializedIndexInfoList extends AbstractList<IndexHelper.IndexInfo> implements RandomAccess
+    {
+        private final ByteBuffer serialized;
+        private final int size;
+        private final int offsetsStart;
+        private final ISerializer<IndexHelper.IndexInfo> idxSerializer;
+
+        private SerializedIndexInfoList(ByteBuffer serialized, int size, ISerializer<IndexHelper.IndexInfo> idxSerializer)
+        {
+            this.serialized = serialized;
+            this.size = size;
+            this.offsetsStart = serialized.position() + serialized.remaining() - size * TypeSizes.NATIVE.sizeof(0);
+            this.idxSerializer = idxSerializer;
+        }
+
+        public IndexHelper.IndexInfo get(int i)
+        {
+            if (i < 0 || i >= size)
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+
+            int offset = serialized.getInt(offsetsStart + i * TypeSizes.NATIVE.sizeof(0));
+            ByteBuffer entries = serialized.duplicate();
+            entries.limit(offsetsStart);
+            try
+            {
+                return idxSerializer.deserialize(new ByteBufferDataInput(entries.slice(), null, 0, offset));
+            }
+            catch (IOException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+
+        public int size()
+        {
+            return size;
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+import org.apache.cassandra.utils.memory.MemtableAllocator;
+
+/**
+ * The default partition index, backed by a ConcurrentSkipListMap.
+ */
+public class SkipListPartitionIndex implements MemtablePartitionIndex
+{
+    private static final int ROW_OVERHEAD_HEAP_SIZE = estimateRowOverhead(Integer.parseInt(System.getProperty("cassandra.memtable_row_overhead_computation_step", "100000")));
+
+    // We index the memtable by RowPosition only for the purpose of being able
+    // to select key range using Token.KeyBound. However putIfAbsent() ensures that we
+    // actually only store DecoratedKey.
+    private final ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> rows = new ConcurrentSkipListMap<>();
+
+    public AtomicBTreeColumns get(DecoratedKey key)
+    {
+        return rows.get(key);
+    }
+
+    public AtomicBTreeColumns putIfAbsent(DecoratedKey key, AtomicBTreeColumns partition, MemtableAllocator allocator, OpOrder.Group opGroup)
+    {
+        final DecoratedKey cloneKey = allocator.clone(key, opGroup);
+        AtomicBTreeColumns previous = rows.putIfAbsent(cloneKey, partition);
+        if (previous != null)
+            allocator.reclaimer().reclaimImmediately(cloneKey);
+        return previous;
+    }
+
+    public long partitionHeapOverhead(DecoratedKey key)
+    {
+        return key.getToken().getHeapSize() + ROW_OVERHEAD_HEAP_SIZE;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> entryIterator(RowPosition from, RowPosition to)
+    {
+        Map<RowPosition, AtomicBTreeColumns> range = to.isMinimum()
+                                                   ? rows.tailMap(from)
+                                                   : rows.subMap(from, true, to, true);
+        // Actual stored keys are true DecoratedKeys
+        return (Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>>) (Iterator<?>) range.entrySet().iterator();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> entryIterator()
+    {
+        return (Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>>) (Iterator<?>) rows.entrySet().iterator();
+    }
+
+    public int size()
+    {
+        return rows.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return rows.isEmpty();
+    }
+
+    private static int estimateRowOverhead(final int count)
+    {
+        // calculate row overhead
+        final OpOrder.Group group = new OpOrder().start();
+        int rowOverhead;
+        MemtableAllocator allocator = Memtable.MEMORY_POOL.newAllocator();
+        ConcurrentNavigableMap<RowPosition, Object> rows = new ConcurrentSkipListMap<>();
+        final Object val = new Object();
+        for (int i = 0 ; i < count ; i++)
+            rows.put(allocator.clone(new BufferDecoratedKey(new LongToken((long) i), ByteBufferUtil.EMPTY_BYTE_BUFFER), group), val);
+        double avgSize = ObjectSizes.measureDeep(rows) / (double) count;
+        rowOverhead = (int) ((avgSize - Math.floor(avgSize)) < 0.05 ? Math.floor(avgSize) : Math.ceil(avgSize));
+        rowOverhead -= ObjectSizes.measureDeep(new LongToken((long) 0));
+        rowOverhead += AtomicBTreeColumns.EMPTY_SIZE;
+        allocator.setDiscarding();
+        allocator.setDiscarded();
+        return rowOverhead;
+    }
+}
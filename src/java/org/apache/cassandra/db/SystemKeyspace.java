@@ -236,6 +236,9 @@ public final class SystemKeyspace
     public static final String SSTABLE_ACTIVITY = "sstable_activity";
     public static final String SIZE_ESTIMATES = "size_estimates";
     public static final String AVAILABLE_RANGES = "available_ranges";
+    public static final String STREAMED_FILES = "streamed_files";
+
+    private static final int STREAMED_FILES_TTL = (int) TimeUnit.DAYS.toSeconds(1);
 
     public static final CFMetaData Hints =
         compile(HINTS,
@@ -394,6 +397,15 @@ public final class SystemKeyspace
                         + "ranges set<blob>"
                         + ")");
 
+    private static final CFMetaData StreamedFiles =
+        compile(STREAMED_FILES,
+                "Files received from a peer by a streaming session that failed, to resume from",
+                "CREATE TABLE %s ("
+                        + "peer inet,"
+                        + "source_id text,"
+                        + "position bigint,"
+                        + "PRIMARY KEY ((peer), source_id))");
+
     private static CFMetaData compile(String name, String description, String schema)
     {
         return CFMetaData.compile(String.format(schema, name), NAME)
@@ -416,7 +428,8 @@ public final class SystemKeyspace
                                            CompactionHistory,
                                            SSTableActivity,
                                            SizeEstimates,
-                                           AvailableRanges));
+                                           AvailableRanges,
+                                           StreamedFiles));
         return new KSMetaData(NAME, LocalStrategy.class, Collections.<String, String>emptyMap(), true, tables);
     }
 
@@ -1300,6 +1313,34 @@ public final class SystemKeyspace
         availableRanges.truncateBlocking();
     }
 
+    /**
+     * Records how much of a file was received from a peer before its streaming session failed.
+     *
+     * @param sourceId the identifier the sender gave the file (see FileMessageHeader#sourceId)
+     * @param position where in the sender's data file to resume from, or ResumeMessage.RECEIVED if all of it was
+     */
+    public static void updateStreamedFile(InetAddress peer, String sourceId, long position)
+    {
+        // the records outlive the data they describe if it is truncated away: only trust them for a day
+        String cql = "INSERT INTO system.%s (peer, source_id, position) VALUES (?, ?, ?) USING TTL %d";
+        executeInternal(String.format(cql, STREAMED_FILES, STREAMED_FILES_TTL), peer, sourceId, position);
+    }
+
+    public static Map<String, Long> getStreamedFiles(InetAddress peer)
+    {
+        Map<String, Long> result = new HashMap<>();
+        String query = "SELECT source_id, position FROM system.%s WHERE peer = ?";
+        for (UntypedResultSet.Row row : executeInternal(String.format(query, STREAMED_FILES), peer))
+            result.put(row.getString("source_id"), row.getLong("position"));
+        return result;
+    }
+
+    public static void clearStreamedFiles(InetAddress peer)
+    {
+        String cql = "DELETE FROM system.%s WHERE peer = ?";
+        executeInternal(String.format(cql, STREAMED_FILES), peer);
+    }
+
     private static ByteBuffer rangeToBytes(Range<Token> range)
     {
         try
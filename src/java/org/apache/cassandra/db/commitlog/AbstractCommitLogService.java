@@ -22,6 +22,7 @@ import org.slf4j.*;
 
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.apache.cassandra.db.commitlog.CommitLogSegment.Allocation;
@@ -40,11 +41,15 @@ public abstract class AbstractCommitLogService
     // counts of total written, and pending, log messages
     private final AtomicLong written = new AtomicLong(0);
     protected final AtomicLong pending = new AtomicLong(0);
+    // log messages appended since the last sync started
+    private final AtomicLong unsynced = new AtomicLong(0);
 
     // signal that writers can wait on to be notified of a completed sync
     //只有PeriodicCommitLogService时才用，BatchCommitLogService不用
     protected final WaitQueue syncComplete = new WaitQueue();
     private final Semaphore haveWork = new Semaphore(1);
+    // set while a sync has been requested but not yet started, so concurrent requests share a single wake-up
+    private final AtomicBoolean syncRequested = new AtomicBoolean(false);
 
     final CommitLog commitLog;
     private final String name;
@@ -89,11 +94,16 @@ public abstract class AbstractCommitLogService
                         // always run once after shutdown signalled
                         run = !shutdown;
 
-                        // sync and signal
+                        // sync and signal; any request arriving from here on is served by the next sync,
+                        // which will cover every write that requested it while this one was in progress
+                        syncRequested.set(false);
+                        long coalesced = unsynced.getAndSet(0);
                         long syncStarted = System.currentTimeMillis();
                         commitLog.sync(shutdown);
                         lastSyncedAt = syncStarted;
                         syncComplete.signalAll();
+                        if (coalesced > 0)
+                            commitLog.metrics.mutationsPerSync.update(coalesced);
 
 
                         // sleep any time we have left before the next one is due
@@ -161,6 +171,7 @@ public abstract class AbstractCommitLogService
      */
     public void finishWriteFor(Allocation alloc)
     {
+        unsynced.incrementAndGet();
         maybeWaitForSync(alloc);
         written.incrementAndGet();
     }
@@ -177,6 +188,16 @@ public abstract class AbstractCommitLogService
         return signal;
     }
 
+    /**
+     * Wake the sync thread to sync as soon as possible, without waiting for the sync to complete. Requests made
+     * before the sync thread gets to run are merged into a single sync.
+     */
+    protected void requestSync()
+    {
+        if (syncRequested.compareAndSet(false, true))
+            haveWork.release(1);
+    }
+
     public void shutdown()
     {
         shutdown = true;
@@ -28,8 +28,10 @@ class BatchCommitLogService extends AbstractCommitLogService
 
     protected void maybeWaitForSync(CommitLogSegment.Allocation alloc)
     {
-        // wait until record has been safely persisted to disk
+        // wait until record has been safely persisted to disk; rather than waiting for the next batch window,
+        // wake the sync thread so that all writers waiting concurrently are group committed by a single sync
         pending.incrementAndGet();
+        requestSync();
         alloc.awaitDiskSync(commitLog.metrics.waitingOnCommit);
         pending.decrementAndGet();
     }
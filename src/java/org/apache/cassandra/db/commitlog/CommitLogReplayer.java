@@ -22,19 +22,21 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -43,10 +45,13 @@ import org.slf4j.LoggerFactory;
 
 import com.github.tjake.ICRC32;
 
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
 import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.*;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.compress.CompressionParameters;
 import org.apache.cassandra.io.compress.ICompressor;
@@ -55,41 +60,57 @@ import org.apache.cassandra.io.util.FastByteArrayInputStream;
 import org.apache.cassandra.io.util.FileDataInput;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.metrics.CommitLogMetrics;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.CRC32Factory;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.JVMStabilityInspector;
-import org.apache.cassandra.utils.WrappedRunnable;
 import org.cliffc.high_scale_lib.NonBlockingHashSet;
 
+/**
+ * Replays commit log segments. Several segments are read, checksummed and deserialized at once by a pool of
+ * reader threads, while the mutations they yield are handed out in segment order to a fixed set of lanes, chosen
+ * by the token of the mutated partition. Each lane applies its mutations one at a time on the MUTATION stage, so
+ * that all mutations of a partition are replayed in the order they were logged.
+ */
 public class CommitLogReplayer
 {
     private static final Logger logger = LoggerFactory.getLogger(CommitLogReplayer.class);
     private static final int MAX_OUTSTANDING_REPLAY_COUNT = Integer.getInteger("cassandra.commitlog_max_outstanding_replay_count", 1024);
+    private static final int REPLAY_THREADS = Integer.getInteger("cassandra.commitlog_replay_threads", Math.min(4, FBUtilities.getAvailableProcessors()));
     private static final int LEGACY_END_OF_SEGMENT_MARKER = 0;
 
+    // marks the end of the mutations read from a segment
+    private static final Object END_OF_SEGMENT = new Object();
+
     private final Set<Keyspace> keyspacesRecovered;
     private final List<Future<?>> futures;
-    private final Map<UUID, AtomicInteger> invalidMutations;
+    private final ConcurrentMap<UUID, AtomicInteger> invalidMutations;
     private final AtomicInteger replayedCount;
     private final Map<UUID, ReplayPosition> cfPositions;
     private final ReplayPosition globalPosition;
-    private final ICRC32 checksum;
-    private byte[] buffer;
-    private byte[] uncompressedBuffer;
+
+    // the segments being replayed, by segment id, for replayMutation() to hand the mutations of each to its dispatch
+    private final ConcurrentMap<Long, SegmentReplay> segmentsById = new ConcurrentHashMap<>();
+    private final ReplayLane[] lanes;
+    // bounds the mutations handed to the lanes but not yet applied
+    private final Semaphore outstanding = new Semaphore(MAX_OUTSTANDING_REPLAY_COUNT);
+    private volatile Throwable applyFailure;
+    private final CommitLogMetrics metrics = CommitLog.instance.metrics;
 
     CommitLogReplayer(ReplayPosition globalPosition, Map<UUID, ReplayPosition> cfPositions)
     {
         this.keyspacesRecovered = new NonBlockingHashSet<Keyspace>();
         this.futures = new ArrayList<Future<?>>();
-        this.buffer = new byte[4096];
-        this.uncompressedBuffer = new byte[4096];
-        this.invalidMutations = new HashMap<UUID, AtomicInteger>();
+        this.invalidMutations = new ConcurrentHashMap<UUID, AtomicInteger>();
         // count the number of replayed mutation. We don't really care about atomicity, but we need it to be a reference.
         this.replayedCount = new AtomicInteger();
-        this.checksum = CRC32Factory.instance.create();
         this.cfPositions = cfPositions;
         this.globalPosition = globalPosition;
+        this.lanes = new ReplayLane[DatabaseDescriptor.getConcurrentWriters()];
+        for (int i = 0; i < lanes.length; i++)
+            lanes[i] = new ReplayLane();
     }
 
     public static CommitLogReplayer create()
@@ -116,10 +137,73 @@ public class CommitLogReplayer
         return new CommitLogReplayer(globalPosition, cfPositions);
     }
 
+    public void recover(File file) throws IOException
+    {
+        recover(new File[]{ file });
+    }
+
     public void recover(File[] clogs) throws IOException
     {
-        for (final File file : clogs)
-            recover(file);
+        if (clogs.length == 0)
+            return;
+
+        final ReplayFilter replayFilter = ReplayFilter.create();
+        ExecutorService readers = DebuggableThreadPoolExecutor.createWithFixedPoolSize("CommitLogReplay", Math.min(REPLAY_THREADS, clogs.length));
+        metrics.pendingReplaySegments.inc(clogs.length);
+        try
+        {
+            // segments are submitted, and so read, in order, so the one being dispatched has always started reading
+            List<SegmentReplay> segments = new ArrayList<>(clogs.length);
+            for (File file : clogs)
+            {
+                SegmentReplay segment = new SegmentReplay(file, replayFilter);
+                segments.add(segment);
+                segmentsById.put(CommitLogDescriptor.fromFileName(file.getName()).id, segment);
+                readers.execute(segment);
+            }
+
+            long startNanos = System.nanoTime();
+            long bytes = 0;
+            for (int i = 0; i < segments.size(); i++)
+            {
+                SegmentReplay segment = segments.get(i);
+                dispatch(segment);
+                metrics.pendingReplaySegments.dec();
+                bytes += segment.file.length();
+                double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+                logger.info("Replayed {} ({} of {} segments, {} MB/s)", segment.file, i + 1, segments.size(),
+                            String.format("%.1f", bytes / seconds / (1024 * 1024)));
+            }
+        }
+        finally
+        {
+            readers.shutdownNow();
+            segmentsById.clear();
+            metrics.pendingReplaySegments.dec(metrics.pendingReplaySegments.getCount());
+        }
+    }
+
+    /**
+     * Hands the mutations read from the given segment to their lanes, in the order they were logged.
+     */
+    private void dispatch(SegmentReplay segment) throws IOException
+    {
+        while (true)
+        {
+            Object next = Uninterruptibles.takeUninterruptibly(segment.mutations);
+            if (next == END_OF_SEGMENT)
+                return;
+            if (next instanceof Throwable)
+            {
+                Throwables.propagateIfPossible((Throwable) next, IOException.class);
+                throw new RuntimeException((Throwable) next);
+            }
+
+            Mutation mutation = (Mutation) next;
+            outstanding.acquireUninterruptibly();
+            Token token = StorageService.getPartitioner().getToken(mutation.key());
+            lanes[(token.hashCode() & Integer.MAX_VALUE) % lanes.length].add(mutation);
+        }
     }
 
     public int blockForWrites()
@@ -128,7 +212,10 @@ public class CommitLogReplayer
             logger.info(String.format("Skipped %d mutations from unknown (probably removed) CF with id %s", entry.getValue().intValue(), entry.getKey()));
 
         // wait for all the writes to finish on the mutation stage
-        FBUtilities.waitOnFutures(futures);
+        outstanding.acquireUninterruptibly(MAX_OUTSTANDING_REPLAY_COUNT);
+        outstanding.release(MAX_OUTSTANDING_REPLAY_COUNT);
+        if (applyFailure != null)
+            throw new RuntimeException(applyFailure);
         logger.debug("Finished waiting on mutations from recovery");
 
         // flush replayed keyspaces
@@ -231,209 +318,259 @@ public class CommitLogReplayer
         }
     }
 
-    public void recover(File file) throws IOException
+    public boolean logAndCheckIfShouldSkip(File file, CommitLogDescriptor desc)
     {
-        final ReplayFilter replayFilter = ReplayFilter.create();
-        CommitLogDescriptor desc = CommitLogDescriptor.fromFileName(file.getName());
-        RandomAccessReader reader = RandomAccessReader.open(new File(file.getAbsolutePath()));
-        try
+        logger.info("Replaying {} (CL version {}, messaging version {}, compression {})",
+                    file.getPath(),
+                    desc.version,
+                    desc.getMessagingVersion(),
+                    desc.compression);
+
+        if (globalPosition.segment > desc.id)
         {
-            if (desc.version < CommitLogDescriptor.VERSION_21)
-            {
-                if (logAndCheckIfShouldSkip(file, desc))
-                    return;
-                if (globalPosition.segment == desc.id)
-                    reader.seek(globalPosition.position);
-                replaySyncSection(reader, -1, desc, replayFilter);
-                return;
-            }
+            logger.debug("skipping replay of fully-flushed {}", file);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a single segment on a replay thread, verifying checksums and deserializing the mutations that need
+     * replaying into a bounded queue, from which they are dispatched once all earlier segments have been.
+     */
+    private class SegmentReplay implements Runnable
+    {
+        private final File file;
+        private final ReplayFilter replayFilter;
+        private final BlockingQueue<Object> mutations = new LinkedBlockingQueue<>(MAX_OUTSTANDING_REPLAY_COUNT);
+        private final ICRC32 checksum = CRC32Factory.instance.create();
+        private byte[] buffer = new byte[4096];
+        private byte[] uncompressedBuffer = new byte[4096];
+
+        SegmentReplay(File file, ReplayFilter replayFilter)
+        {
+            this.file = file;
+            this.replayFilter = replayFilter;
+        }
 
-            final long segmentId = desc.id;
+        public void run()
+        {
             try
             {
-                desc = CommitLogDescriptor.readHeader(reader);
+                read();
+                enqueue(END_OF_SEGMENT);
             }
-            catch (IOException e)
+            catch (InterruptedException e)
             {
-                desc = null;
+                // replay was aborted
             }
-            if (desc == null) {
-                logger.warn("Could not read commit log descriptor in file {}", file);
-                return;
-            }
-            assert segmentId == desc.id;
-            if (logAndCheckIfShouldSkip(file, desc))
-                return;
-
-            ICompressor compressor = null;
-            if (desc.compression != null)
+            catch (Throwable t)
             {
+                JVMStabilityInspector.inspectThrowable(t);
                 try
                 {
-                    compressor = CompressionParameters.createCompressor(desc.compression);
+                    enqueue(t);
                 }
-                catch (ConfigurationException e)
+                catch (InterruptedException e)
                 {
-                    logger.warn("Unknown compression: {}", e.getMessage());
-                    return;
+                    // replay was aborted, nobody is waiting for the failure
                 }
             }
+        }
 
-            assert reader.length() <= Integer.MAX_VALUE;
-            int end = (int) reader.getFilePointer();
-            int replayEnd = end;
+        private void enqueue(Object next) throws InterruptedException
+        {
+            // unwind the whole read if replay is aborted while we wait for the dispatcher to catch up
+            mutations.put(next);
+        }
 
-            while ((end = readSyncMarker(desc, end, reader)) >= 0)
+        private void read() throws IOException, InterruptedException
+        {
+            CommitLogDescriptor desc = CommitLogDescriptor.fromFileName(file.getName());
+            RandomAccessReader reader = RandomAccessReader.open(new File(file.getAbsolutePath()));
+            try
             {
-                int replayPos = replayEnd + CommitLogSegment.SYNC_MARKER_SIZE;
+                if (desc.version < CommitLogDescriptor.VERSION_21)
+                {
+                    if (logAndCheckIfShouldSkip(file, desc))
+                        return;
+                    if (globalPosition.segment == desc.id)
+                        reader.seek(globalPosition.position);
+                    replaySyncSection(reader, -1, desc);
+                    return;
+                }
 
-                if (logger.isDebugEnabled())
-                    logger.trace("Replaying {} between {} and {}", file, reader.getFilePointer(), end);
-                if (compressor != null)
+                final long segmentId = desc.id;
+                try
                 {
-                    int uncompressedLength = reader.readInt();
-                    replayEnd = replayPos + uncompressedLength;
-                } else
+                    desc = CommitLogDescriptor.readHeader(reader);
+                }
+                catch (IOException e)
                 {
-                    replayEnd = end;
+                    desc = null;
                 }
+                if (desc == null) {
+                    logger.warn("Could not read commit log descriptor in file {}", file);
+                    return;
+                }
+                assert segmentId == desc.id;
+                if (logAndCheckIfShouldSkip(file, desc))
+                    return;
 
-                if (segmentId == globalPosition.segment && replayEnd < globalPosition.position)
-                    // Skip over flushed section.
-                    continue;
-
-                FileDataInput sectionReader = reader;
-                if (compressor != null)
+                ICompressor compressor = null;
+                if (desc.compression != null)
+                {
                     try
                     {
-                        int start = (int) reader.getFilePointer();
-                        int compressedLength = end - start;
-                        if (logger.isDebugEnabled())
-                            logger.trace("Decompressing {} between replay positions {} and {}",
-                                         file,
-                                         replayPos,
-                                         replayEnd);
-                        if (compressedLength > buffer.length)
-                            buffer = new byte[(int) (1.2 * compressedLength)];
-                        reader.readFully(buffer, 0, compressedLength);
-                        int uncompressedLength = replayEnd - replayPos;
-                        if (uncompressedLength > uncompressedBuffer.length)
-                            uncompressedBuffer = new byte[(int) (1.2 * uncompressedLength)];
-                        compressedLength = compressor.uncompress(buffer, 0, compressedLength, uncompressedBuffer, 0);
-                        sectionReader = new ByteBufferDataInput(ByteBuffer.wrap(uncompressedBuffer), reader.getPath(), replayPos, 0);
+                        compressor = CompressionParameters.createCompressor(desc.compression);
                     }
-                    catch (IOException e)
+                    catch (ConfigurationException e)
                     {
-                        logger.error("Unexpected exception decompressing section {}", e);
-                        continue;
+                        logger.warn("Unknown compression: {}", e.getMessage());
+                        return;
                     }
+                }
 
-                if (!replaySyncSection(sectionReader, replayEnd, desc, replayFilter))
-                    break;
-            }
-        }
-        finally
-        {
-            FileUtils.closeQuietly(reader);
-            logger.info("Finished reading {}", file);
-        }
-    }
+                assert reader.length() <= Integer.MAX_VALUE;
+                int end = (int) reader.getFilePointer();
+                int replayEnd = end;
 
-    public boolean logAndCheckIfShouldSkip(File file, CommitLogDescriptor desc)
-    {
-        logger.info("Replaying {} (CL version {}, messaging version {}, compression {})",
-                    file.getPath(),
-                    desc.version,
-                    desc.getMessagingVersion(),
-                    desc.compression);
+                while ((end = readSyncMarker(desc, end, reader)) >= 0)
+                {
+                    int replayPos = replayEnd + CommitLogSegment.SYNC_MARKER_SIZE;
 
-        if (globalPosition.segment > desc.id)
-        {
-            logger.debug("skipping replay of fully-flushed {}", file);
-            return true;
-        }
-        return false;
-    }
+                    if (logger.isDebugEnabled())
+                        logger.trace("Replaying {} between {} and {}", file, reader.getFilePointer(), end);
+                    if (compressor != null)
+                    {
+                        int uncompressedLength = reader.readInt();
+                        replayEnd = replayPos + uncompressedLength;
+                    } else
+                    {
+                        replayEnd = end;
+                    }
 
-    /**
-     * Replays a sync section containing a list of mutations.
-     *
-     * @return Whether replay should continue with the next section.
-     */
-    private boolean replaySyncSection(FileDataInput reader, int end, CommitLogDescriptor desc,
-            final ReplayFilter replayFilter) throws IOException, FileNotFoundException
-    {
-         /* read the logs populate Mutation and apply */
-        while (reader.getFilePointer() < end && !reader.isEOF())
-        {
-            if (logger.isDebugEnabled())
-                logger.trace("Reading mutation at {}", reader.getFilePointer());
+                    if (segmentId == globalPosition.segment && replayEnd < globalPosition.position)
+                        // Skip over flushed section.
+                        continue;
 
-            long claimedCRC32;
-            int serializedSize;
-            try
-            {
-                // any of the reads may hit EOF
-                serializedSize = reader.readInt();
-                if (serializedSize == LEGACY_END_OF_SEGMENT_MARKER)
-                {
-                    logger.debug("Encountered end of segment marker at {}", reader.getFilePointer());
-                    return false;
+                    FileDataInput sectionReader = reader;
+                    if (compressor != null)
+                        try
+                        {
+                            int start = (int) reader.getFilePointer();
+                            int compressedLength = end - start;
+                            if (logger.isDebugEnabled())
+                                logger.trace("Decompressing {} between replay positions {} and {}",
+                                             file,
+                                             replayPos,
+                                             replayEnd);
+                            if (compressedLength > buffer.length)
+                                buffer = new byte[(int) (1.2 * compressedLength)];
+                            reader.readFully(buffer, 0, compressedLength);
+                            int uncompressedLength = replayEnd - replayPos;
+                            if (uncompressedLength > uncompressedBuffer.length)
+                                uncompressedBuffer = new byte[(int) (1.2 * uncompressedLength)];
+                            compressedLength = compressor.uncompress(buffer, 0, compressedLength, uncompressedBuffer, 0);
+                            sectionReader = new ByteBufferDataInput(ByteBuffer.wrap(uncompressedBuffer), reader.getPath(), replayPos, 0);
+                        }
+                        catch (IOException e)
+                        {
+                            logger.error("Unexpected exception decompressing section {}", e);
+                            continue;
+                        }
+
+                    if (!replaySyncSection(sectionReader, replayEnd, desc))
+                        break;
                 }
-
-                // Mutation must be at LEAST 10 bytes:
-                // 3 each for a non-empty Keyspace and Key (including the
-                // 2-byte length from writeUTF/writeWithShortLength) and 4 bytes for column count.
-                // This prevents CRC by being fooled by special-case garbage in the file; see CASSANDRA-2128
-                if (serializedSize < 10)
-                    return false;
-
-                long claimedSizeChecksum;
-                if (desc.version < CommitLogDescriptor.VERSION_21)
-                    claimedSizeChecksum = reader.readLong();
-                else
-                    claimedSizeChecksum = reader.readInt() & 0xffffffffL;
-                checksum.reset();
-                if (desc.version < CommitLogDescriptor.VERSION_20)
-                    checksum.update(serializedSize);
-                else
-                    checksum.updateInt(serializedSize);
-
-                if (checksum.getValue() != claimedSizeChecksum)
-                    return false;
-                // ok.
-
-                if (serializedSize > buffer.length)
-                    buffer = new byte[(int) (1.2 * serializedSize)];
-                reader.readFully(buffer, 0, serializedSize);
-                if (desc.version < CommitLogDescriptor.VERSION_21)
-                    claimedCRC32 = reader.readLong();
-                else
-                    claimedCRC32 = reader.readInt() & 0xffffffffL;
             }
-            catch (EOFException eof)
+            finally
             {
-                return false; // last CL entry didn't get completely written. that's ok.
+                FileUtils.closeQuietly(reader);
+                logger.info("Finished reading {}", file);
             }
+        }
 
-            checksum.update(buffer, 0, serializedSize);
-            if (claimedCRC32 != checksum.getValue())
+        /**
+         * Replays a sync section containing a list of mutations.
+         *
+         * @return Whether replay should continue with the next section.
+         */
+        private boolean replaySyncSection(FileDataInput reader, int end, CommitLogDescriptor desc) throws IOException, InterruptedException
+        {
+             /* read the logs populate Mutation and apply */
+            while (reader.getFilePointer() < end && !reader.isEOF())
             {
-                // this entry must not have been fsynced. probably the rest is bad too,
-                // but just in case there is no harm in trying them (since we still read on an entry boundary)
-                continue;
+                if (logger.isDebugEnabled())
+                    logger.trace("Reading mutation at {}", reader.getFilePointer());
+
+                long claimedCRC32;
+                int serializedSize;
+                try
+                {
+                    // any of the reads may hit EOF
+                    serializedSize = reader.readInt();
+                    if (serializedSize == LEGACY_END_OF_SEGMENT_MARKER)
+                    {
+                        logger.debug("Encountered end of segment marker at {}", reader.getFilePointer());
+                        return false;
+                    }
+
+                    // Mutation must be at LEAST 10 bytes:
+                    // 3 each for a non-empty Keyspace and Key (including the
+                    // 2-byte length from writeUTF/writeWithShortLength) and 4 bytes for column count.
+                    // This prevents CRC by being fooled by special-case garbage in the file; see CASSANDRA-2128
+                    if (serializedSize < 10)
+                        return false;
+
+                    long claimedSizeChecksum;
+                    if (desc.version < CommitLogDescriptor.VERSION_21)
+                        claimedSizeChecksum = reader.readLong();
+                    else
+                        claimedSizeChecksum = reader.readInt() & 0xffffffffL;
+                    checksum.reset();
+                    if (desc.version < CommitLogDescriptor.VERSION_20)
+                        checksum.update(serializedSize);
+                    else
+                        checksum.updateInt(serializedSize);
+
+                    if (checksum.getValue() != claimedSizeChecksum)
+                        return false;
+                    // ok.
+
+                    if (serializedSize > buffer.length)
+                        buffer = new byte[(int) (1.2 * serializedSize)];
+                    reader.readFully(buffer, 0, serializedSize);
+                    if (desc.version < CommitLogDescriptor.VERSION_21)
+                        claimedCRC32 = reader.readLong();
+                    else
+                        claimedCRC32 = reader.readInt() & 0xffffffffL;
+                }
+                catch (EOFException eof)
+                {
+                    return false; // last CL entry didn't get completely written. that's ok.
+                }
+
+                checksum.update(buffer, 0, serializedSize);
+                if (claimedCRC32 != checksum.getValue())
+                {
+                    // this entry must not have been fsynced. probably the rest is bad too,
+                    // but just in case there is no harm in trying them (since we still read on an entry boundary)
+                    continue;
+                }
+                metrics.replayedBytes.mark(serializedSize);
+                replayMutation(buffer, serializedSize, reader.getFilePointer(), desc, replayFilter);
             }
-            replayMutation(buffer, serializedSize, reader.getFilePointer(), desc, replayFilter);
+            return true;
         }
-        return true;
     }
 
     /**
-     * Deserializes and replays a commit log entry.
+     * Deserializes a commit log entry, read from the segment of the given descriptor, and hands the mutation to
+     * replay to the dispatch of that segment.
      */
-    void replayMutation(byte[] inputBuffer, int size,
-            final long entryLocation, final CommitLogDescriptor desc, final ReplayFilter replayFilter) throws IOException,
-            FileNotFoundException
+    void replayMutation(byte[] inputBuffer, int size, long entryLocation, CommitLogDescriptor desc, ReplayFilter replayFilter) throws IOException,
+            InterruptedException
     {
         FastByteArrayInputStream bufIn = new FastByteArrayInputStream(inputBuffer, 0, size);
         final Mutation mutation;
@@ -454,11 +591,12 @@ public class CommitLogReplayer
             AtomicInteger i = invalidMutations.get(ex.cfId);
             if (i == null)
             {
-                i = new AtomicInteger(1);
-                invalidMutations.put(ex.cfId, i);
+                i = new AtomicInteger();
+                AtomicInteger existing = invalidMutations.putIfAbsent(ex.cfId, i);
+                if (existing != null)
+                    i = existing;
             }
-            else
-                i.incrementAndGet();
+            i.incrementAndGet();
             return;
         }
         catch (Throwable t)
@@ -483,53 +621,98 @@ public class CommitLogReplayer
         if (logger.isDebugEnabled())
             logger.debug("replaying mutation for {}.{}: {}", mutation.getKeyspaceName(), ByteBufferUtil.bytesToHex(mutation.key()), "{" + StringUtils.join(mutation.getColumnFamilies().iterator(), ", ") + "}");
 
-        Runnable runnable = new WrappedRunnable()
+        if (Schema.instance.getKSMetaData(mutation.getKeyspaceName()) == null)
+            return;
+        if (pointInTimeExceeded(mutation))
+            return;
+
+        // Rebuild the mutation, omitting column families that
+        //    a) the user has requested that we ignore,
+        //    b) have already been flushed,
+        // or c) are part of a cf that was dropped.
+        // Keep in mind that the cf.name() is suspect. do every thing based on the cfid instead.
+        Mutation newMutation = null;
+        for (ColumnFamily columnFamily : replayFilter.filter(mutation))
         {
-            public void runMayThrow() throws IOException
+            if (Schema.instance.getCF(columnFamily.id()) == null)
+                continue; // dropped
+
+            ReplayPosition rp = cfPositions.get(columnFamily.id());
+
+            // replay if current segment is newer than last flushed one or,
+            // if it is the last known segment, if we are after the replay position
+            if (desc.id > rp.segment || (desc.id == rp.segment && entryLocation > rp.position))
             {
-                if (Schema.instance.getKSMetaData(mutation.getKeyspaceName()) == null)
-                    return;
-                if (pointInTimeExceeded(mutation))
-                    return;
+                if (newMutation == null)
+                    newMutation = new Mutation(mutation.getKeyspaceName(), mutation.key());
+                newMutation.add(columnFamily);
+                replayedCount.incrementAndGet();
+            }
+        }
+        if (newMutation != null)
+        {
+            assert !newMutation.isEmpty();
+            segmentsById.get(desc.id).enqueue(newMutation);
+        }
+    }
 
-                final Keyspace keyspace = Keyspace.open(mutation.getKeyspaceName());
+    /**
+     * Applies the mutations handed to it one at a time, in order, on the MUTATION stage. Only one task per lane is
+     * scheduled at any time.
+     */
+    private class ReplayLane implements Runnable
+    {
+        private final Queue<Mutation> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
 
-                // Rebuild the mutation, omitting column families that
-                //    a) the user has requested that we ignore,
-                //    b) have already been flushed,
-                // or c) are part of a cf that was dropped.
-                // Keep in mind that the cf.name() is suspect. do every thing based on the cfid instead.
-                Mutation newMutation = null;
-                for (ColumnFamily columnFamily : replayFilter.filter(mutation))
-                {
-                    if (Schema.instance.getCF(columnFamily.id()) == null)
-                        continue; // dropped
+        void add(Mutation mutation)
+        {
+            queue.add(mutation);
+            schedule();
+        }
 
-                    ReplayPosition rp = cfPositions.get(columnFamily.id());
+        private void schedule()
+        {
+            if (scheduled.compareAndSet(false, true))
+                StageManager.getStage(Stage.MUTATION).execute(this);
+        }
 
-                    // replay if current segment is newer than last flushed one or,
-                    // if it is the last known segment, if we are after the replay position
-                    if (desc.id > rp.segment || (desc.id == rp.segment && entryLocation > rp.position))
-                    {
-                        if (newMutation == null)
-                            newMutation = new Mutation(mutation.getKeyspaceName(), mutation.key());
-                        newMutation.add(columnFamily);
-                        replayedCount.incrementAndGet();
-                    }
+        public void run()
+        {
+            Mutation mutation;
+            while ((mutation = queue.poll()) != null)
+            {
+                try
+                {
+                    apply(mutation);
+                }
+                catch (Throwable t)
+                {
+                    JVMStabilityInspector.inspectThrowable(t);
+                    logger.error("Failed to replay mutation", t);
+                    applyFailure = t;
                 }
-                if (newMutation != null)
+                finally
                 {
-                    assert !newMutation.isEmpty();
-                    Keyspace.open(newMutation.getKeyspaceName()).apply(newMutation, false);
-                    keyspacesRecovered.add(keyspace);
+                    outstanding.release();
                 }
             }
-        };
-        futures.add(StageManager.getStage(Stage.MUTATION).submit(runnable));
-        if (futures.size() > MAX_OUTSTANDING_REPLAY_COUNT)
+            scheduled.set(false);
+            // catch any mutation added after we found the queue empty, but before we were unscheduled
+            if (!queue.isEmpty())
+                schedule();
+        }
+
+        private void apply(Mutation mutation)
         {
-            FBUtilities.waitOnFutures(futures);
-            futures.clear();
+            // the keyspace may have been dropped since the mutation was read
+            if (Schema.instance.getKSMetaData(mutation.getKeyspaceName()) == null)
+                return;
+
+            Keyspace keyspace = Keyspace.open(mutation.getKeyspaceName());
+            keyspace.apply(mutation, false);
+            keyspacesRecovered.add(keyspace);
+            metrics.replayedMutations.mark();
         }
     }
 
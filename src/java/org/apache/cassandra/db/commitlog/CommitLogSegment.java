@@ -43,6 +43,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.ColumnFamily;
@@ -117,7 +118,20 @@ public abstract class CommitLogSegment
 
     static CommitLogSegment createSegment(CommitLog commitLog)
     {
-        return commitLog.compressor != null ? new CompressedSegment(commitLog) : new MemoryMappedSegment(commitLog);
+        if (commitLog.compressor != null)
+            return new CompressedSegment(commitLog);
+        if (DatabaseDescriptor.getCommitLogAccessMode() == Config.CommitLogAccessMode.standard)
+            return new PreallocatedSegment(commitLog, null);
+        return new MemoryMappedSegment(commitLog);
+    }
+
+    /**
+     * Creates a new segment that reuses the file of the given closed segment, which must be recyclable.
+     */
+    static CommitLogSegment recycle(CommitLog commitLog, CommitLogSegment segment)
+    {
+        assert segment.isRecyclable() && segment.buffer == null : segment;
+        return new PreallocatedSegment(commitLog, segment.logFile);
     }
 
     static long getNextId()
@@ -127,10 +141,19 @@ public abstract class CommitLogSegment
 
     /**
      * Constructs a new segment file.
-     *
-     * @param filePath  if not null, recycles the existing file by renaming it and truncating it to CommitLog.SEGMENT_SIZE.
      */
     CommitLogSegment(CommitLog commitLog)
+    {
+        this(commitLog, null);
+    }
+
+    /**
+     * Constructs a new segment file.
+     *
+     * @param recycleFrom if not null, recycles the existing file by renaming it; its contents are left in place
+     *                    and are overwritten as the new segment is written to.
+     */
+    CommitLogSegment(CommitLog commitLog, File recycleFrom)
     {
         id = getNextId();
         descriptor = new CommitLogDescriptor(id, commitLog.compressorClass);
@@ -138,6 +161,9 @@ public abstract class CommitLogSegment
 
         try
         {
+            if (recycleFrom != null)
+                FileUtils.renameWithConfirm(recycleFrom, logFile);
+
             channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.CREATE);
             fd = CLibrary.getfd(channel);
         }
@@ -352,6 +378,14 @@ public abstract class CommitLogSegment
 
     abstract void write(int lastSyncedOffset, int nextMarker);
 
+    /**
+     * @return true if, once closed, the file of this segment can be reused by a new segment instead of being deleted
+     */
+    boolean isRecyclable()
+    {
+        return false;
+    }
+
     public boolean isStillAllocating()
     {
         return allocatePosition.get() < endOfBuffer;
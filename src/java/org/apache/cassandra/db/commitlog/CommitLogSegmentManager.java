@@ -34,6 +34,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.*;
 
@@ -375,12 +376,34 @@ public class CommitLogSegmentManager
             public void run()
             {
                 segment.close();
-                if (deleteFile)
+                if (deleteFile && !maybeRecycle(segment))
                     segment.delete();
             }
         });
     }
 
+    /**
+     * Reuses the file of a closed segment as the next reserve segment, if the segment supports it and no reserve
+     * is already available. Must only be called on the manager thread.
+     *
+     * @return true if the segment file was recycled
+     */
+    private boolean maybeRecycle(CommitLogSegment segment)
+    {
+        // an archived segment may be a hard link to the same file, so it must never be overwritten
+        if (!segment.isRecyclable() || !Strings.isNullOrEmpty(commitLog.archiver.archiveCommand))
+            return false;
+        if (!availableSegments.isEmpty() || unusedCapacity() < DatabaseDescriptor.getCommitLogSegmentSize())
+            return false;
+
+        logger.debug("Recycling {}", segment);
+        CommitLogSegment recycled = CommitLogSegment.recycle(commitLog, segment);
+        size.addAndGet(DatabaseDescriptor.getCommitLogSegmentSize());
+        availableSegments.add(recycled);
+        hasAvailableSegments.signalAll();
+        return true;
+    }
+
     /**
      * @return the space (in bytes) used by all segment files.
      */
@@ -545,6 +568,7 @@ public class CommitLogSegmentManager
             segment.close();
 
         CompressedSegment.shutdown();
+        PreallocatedSegment.shutdown();
     }
 
     /**
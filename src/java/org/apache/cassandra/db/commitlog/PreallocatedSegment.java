@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.commitlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.utils.CLibrary;
+
+/**
+ * An uncompressed segment that is written with explicit positional writes to a file that has been zero-filled to
+ * the full segment size up front. As the file never changes size, a sync only has to persist the data
+ * (fdatasync) rather than the file metadata, and only the section being synced is written, rounded out
+ * to whole pages.
+ *
+ * Once no longer needed, the file can be recycled by a new segment without being truncated: any stale data beyond
+ * the last sync marker is ignored on replay, since the marker following each synced section is zeroed, and stale
+ * markers carry the checksum of the old segment id.
+ */
+public class PreallocatedSegment extends CommitLogSegment
+{
+    static final int PAGE_SIZE = 4096;
+
+    private static final ByteBuffer ZEROES = ByteBuffer.allocateDirect(1 << 16);
+
+    static final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Maximum number of buffers in the pool: one segment being written to, one in reserve and one being closed.
+     */
+    static final int MAX_BUFFERPOOL_SIZE = 3;
+
+    /**
+     * Constructs a new segment file.
+     *
+     * @param recycleFrom if not null, the file of a closed segment to reuse
+     */
+    PreallocatedSegment(CommitLog commitLog, File recycleFrom)
+    {
+        super(commitLog, recycleFrom);
+        // mark the initial sync marker as uninitialised, and persist the header so that a recycled file
+        // is never mistaken for its previous incarnation
+        int firstSync = buffer.position();
+        buffer.putInt(firstSync + 0, 0);
+        buffer.putInt(firstSync + 4, 0);
+        try
+        {
+            writeFully(0, firstSync + SYNC_MARKER_SIZE);
+            channel.force(false);
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, getPath());
+        }
+    }
+
+    ByteBuffer createBuffer(CommitLog commitLog)
+    {
+        int segmentSize = DatabaseDescriptor.getCommitLogSegmentSize();
+        try
+        {
+            // extend the file with real zeroes, rather than a sparse tail, so that later writes never allocate blocks
+            long length = channel.size();
+            if (length < segmentSize)
+            {
+                while (length < segmentSize)
+                {
+                    ByteBuffer zeroes = ZEROES.duplicate();
+                    zeroes.limit((int) Math.min(zeroes.capacity(), segmentSize - length));
+                    while (zeroes.hasRemaining())
+                        length += channel.write(zeroes, length);
+                }
+                channel.force(true);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, logFile);
+        }
+
+        ByteBuffer buf = bufferPool.poll();
+        if (buf == null)
+            return ByteBuffer.allocateDirect(segmentSize);
+        buf.clear();
+        return buf;
+    }
+
+    @Override
+    boolean isRecyclable()
+    {
+        return true;
+    }
+
+    @Override
+    void write(int startMarker, int nextMarker)
+    {
+        // if there's room in the discard section to write an empty header,
+        // zero out the next sync marker so replayer can cleanly exit
+        int end = nextMarker;
+        if (nextMarker <= buffer.capacity() - SYNC_MARKER_SIZE)
+        {
+            buffer.putInt(nextMarker, 0);
+            buffer.putInt(nextMarker + 4, 0);
+            end += SYNC_MARKER_SIZE;
+        }
+
+        // write previous sync marker to point to next sync marker
+        // we don't chain the crcs here to ensure this method is idempotent if it fails
+        writeSyncMarker(buffer, startMarker, startMarker, nextMarker);
+
+        // round out to whole pages: everything before startMarker is unchanged since the last sync, and anything
+        // past the zeroed marker is ignored on replay until a later sync rewrites it
+        int start = startMarker & -PAGE_SIZE;
+        end = Math.min(buffer.capacity(), (end + PAGE_SIZE - 1) & -PAGE_SIZE);
+
+        try
+        {
+            writeFully(start, end);
+            channel.force(false);
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, getPath());
+        }
+        CLibrary.trySkipCache(fd, start, end);
+    }
+
+    private void writeFully(int start, int end) throws IOException
+    {
+        ByteBuffer section = buffer.duplicate();
+        section.limit(end).position(start);
+        long position = start;
+        while (section.hasRemaining())
+            position += channel.write(section, position);
+    }
+
+    @Override
+    protected void internalClose()
+    {
+        if (bufferPool.size() < MAX_BUFFERPOOL_SIZE)
+            bufferPool.add(buffer);
+        else
+            FileUtils.clean(buffer);
+
+        super.internalClose();
+    }
+
+    static void shutdown()
+    {
+        bufferPool.clear();
+    }
+}
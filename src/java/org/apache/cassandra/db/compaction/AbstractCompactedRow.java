@@ -24,6 +24,7 @@ import java.security.MessageDigest;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.RowIndexEntry;
 import org.apache.cassandra.io.sstable.ColumnStats;
+import org.apache.cassandra.io.sstable.RowBloomFilter;
 import org.apache.cassandra.io.util.SequentialWriter;
 
 /**
@@ -49,6 +50,17 @@ public abstract class AbstractCompactedRow implements Closeable
      */
     public abstract RowIndexEntry write(long currentPosition, SequentialWriter out) throws IOException;
 
+    /**
+     * As {@link #write(long, SequentialWriter)}, also recording the written rows in @param rowFilter (if not null).
+     * Implementations that do not track individual rows record the whole partition instead.
+     */
+    public RowIndexEntry write(long currentPosition, SequentialWriter out, RowBloomFilter.Builder rowFilter) throws IOException
+    {
+        if (rowFilter != null)
+            rowFilter.addPartition(key.getKey());
+        return write(currentPosition, out);
+    }
+
     /**
      * update @param digest with the data bytes of the row (not including row key or row size).
      * May be called even if empty.
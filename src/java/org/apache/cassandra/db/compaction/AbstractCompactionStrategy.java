@@ -23,6 +23,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.RateLimiter;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.slf4j.Logger;
@@ -53,11 +54,14 @@ public abstract class AbstractCompactionStrategy
     // minimum interval needed to perform tombstone removal compaction in seconds, default 86400 or 1 day.
     protected static final long DEFAULT_TOMBSTONE_COMPACTION_INTERVAL = 86400;
     protected static final boolean DEFAULT_UNCHECKED_TOMBSTONE_COMPACTION_OPTION = false;
+    protected static final boolean DEFAULT_OVERLAPPING_TOMBSTONE_COMPACTION_OPTION = false;
 
     protected static final String TOMBSTONE_THRESHOLD_OPTION = "tombstone_threshold";
     protected static final String TOMBSTONE_COMPACTION_INTERVAL_OPTION = "tombstone_compaction_interval";
     // disable range overlap check when deciding if an SSTable is candidate for tombstone compaction (CASSANDRA-6563)
     protected static final String UNCHECKED_TOMBSTONE_COMPACTION_OPTION = "unchecked_tombstone_compaction";
+    // compact the sstables overlapping an sstable together with it when they keep its tombstones from being dropped
+    protected static final String OVERLAPPING_TOMBSTONE_COMPACTION_OPTION = "overlapping_tombstone_compaction";
     protected static final String COMPACTION_ENABLED = "enabled";
 
     public final Map<String, String> options;
@@ -66,6 +70,7 @@ public abstract class AbstractCompactionStrategy
     protected float tombstoneThreshold;
     protected long tombstoneCompactionInterval;
     protected boolean uncheckedTombstoneCompaction;
+    protected boolean overlappingTombstoneCompaction;
 
     /**
      * pause/resume/getNextBackgroundTask must synchronize.  This guarantees that after pause completes,
@@ -98,6 +103,8 @@ public abstract class AbstractCompactionStrategy
             tombstoneCompactionInterval = optionValue == null ? DEFAULT_TOMBSTONE_COMPACTION_INTERVAL : Long.parseLong(optionValue);
             optionValue = options.get(UNCHECKED_TOMBSTONE_COMPACTION_OPTION);
             uncheckedTombstoneCompaction = optionValue == null ? DEFAULT_UNCHECKED_TOMBSTONE_COMPACTION_OPTION : Boolean.parseBoolean(optionValue);
+            optionValue = options.get(OVERLAPPING_TOMBSTONE_COMPACTION_OPTION);
+            overlappingTombstoneCompaction = optionValue == null ? DEFAULT_OVERLAPPING_TOMBSTONE_COMPACTION_OPTION : Boolean.parseBoolean(optionValue);
             if (!shouldBeEnabled())
                 this.disable();
         }
@@ -107,6 +114,7 @@ public abstract class AbstractCompactionStrategy
             tombstoneThreshold = DEFAULT_TOMBSTONE_THRESHOLD;
             tombstoneCompactionInterval = DEFAULT_TOMBSTONE_COMPACTION_INTERVAL;
             uncheckedTombstoneCompaction = DEFAULT_UNCHECKED_TOMBSTONE_COMPACTION_OPTION;
+            overlappingTombstoneCompaction = DEFAULT_OVERLAPPING_TOMBSTONE_COMPACTION_OPTION;
         }
     }
 
@@ -184,6 +192,16 @@ public abstract class AbstractCompactionStrategy
      */
     public abstract int getEstimatedRemainingTasks();
 
+    /**
+     * @return the number of background tasks worth submitting at once for this columnfamilystore. Strategies that
+     * keep getEstimatedRemainingTasks() current as sstables come and go can bound it by that estimate, leaving the
+     * other compaction threads to the other tables.
+     */
+    public int getMaxConcurrentBackgroundTasks()
+    {
+        return Integer.MAX_VALUE;
+    }
+
     /**
      * @return size in bytes of the largest sstables for this strategy
      */
@@ -226,12 +244,12 @@ public abstract class AbstractCompactionStrategy
      * Handle a flushed memtable.
      *
      * @param memtable the flushed memtable
-     * @param sstable the written sstable. can be null if the memtable was clean.
+     * @param sstables the written sstables, one per memtable shard. can be empty if the memtable was clean.
      */
-    public void replaceFlushed(Memtable memtable, SSTableReader sstable)
+    public void replaceFlushed(Memtable memtable, Collection<SSTableReader> sstables)
     {
-        cfs.getDataTracker().replaceFlushed(memtable, sstable);
-        if (sstable != null)
+        cfs.getDataTracker().replaceFlushed(memtable, sstables);
+        if (!sstables.isEmpty())
             CompactionManager.instance.submitBackground(cfs);
     }
 
@@ -405,6 +423,82 @@ public abstract class AbstractCompactionStrategy
         }
     }
 
+    /**
+     * Looks for the sstables worth dropping the tombstones of, but for the sstables overlapping them (see
+     * worthDroppingTombstones), and picks the one whose droppable tombstones are the most per cell rewritten,
+     * compacting it together with all the sstables overlapping it. Only the tombstones of that sstable count: those
+     * of the sstables overlapping it may still shadow data of sstables left out of the compaction.
+     *
+     * Once all the sstables overlapping an sstable are compacted with it, none is left to hold data its tombstones
+     * may shadow, so they can be dropped.
+     *
+     * @param candidates the sstables that may be compacted
+     * @param gcBefore time to drop tombstones
+     * @return the sstables to compact together, or an empty list if no such set is worth compacting
+     */
+    protected List<SSTableReader> getOverlappingTombstoneCompactionCandidates(Iterable<SSTableReader> candidates, int gcBefore)
+    {
+        if (!overlappingTombstoneCompaction)
+            return Collections.emptyList();
+
+        Set<SSTableReader> compactable = Sets.newHashSet(candidates);
+        List<SSTableReader> best = Collections.emptyList();
+        double bestDroppable = 0;
+        double bestRatio = 0;
+        for (SSTableReader sstable : compactable)
+        {
+            // same checks as worthDroppingTombstones, so that we do not compact the same sets over and over
+            if (System.currentTimeMillis() < sstable.getCreationTimeFor(Component.DATA) + tombstoneCompactionInterval * 1000)
+                continue;
+            if (sstable.getEstimatedDroppableTombstoneRatio(gcBefore) <= tombstoneThreshold)
+                continue;
+
+            // the overlapping sstables are those of the interval tree of the live sstables; all of them must be
+            // compacted for the tombstones to be droppable, so none may be compacting already
+            Collection<SSTableReader> overlaps = cfs.getOverlappingSSTables(Collections.singleton(sstable));
+            if (overlaps.isEmpty() || overlaps.size() >= cfs.getMaximumCompactionThreshold() || !compactable.containsAll(overlaps))
+                continue;
+
+            List<SSTableReader> overlapping = new ArrayList<>(overlaps.size() + 1);
+            overlapping.add(sstable);
+            overlapping.addAll(overlaps);
+            double droppable = sstable.getDroppableTombstonesBefore(gcBefore);
+            double ratio = droppable / getEstimatedCellCount(overlapping);
+            if (ratio > bestRatio)
+            {
+                best = overlapping;
+                bestDroppable = droppable;
+                bestRatio = ratio;
+            }
+        }
+
+        if (!best.isEmpty())
+            logger.debug("Compacting {} overlapping sstables to drop ~{} tombstones: {}", best.size(), (long) bestDroppable, best);
+        return best;
+    }
+
+    /**
+     * @return the estimated number of cells of the given sstables
+     */
+    private static long getEstimatedCellCount(Collection<SSTableReader> sstables)
+    {
+        long cells = 0;
+        for (SSTableReader sstable : sstables)
+            cells += sstable.getEstimatedColumnCount().mean() * sstable.getEstimatedColumnCount().count();
+        return cells;
+    }
+
+    /**
+     * @return the estimated number of tombstones of the given sstables droppable before gcBefore
+     */
+    public static double getDroppableTombstonesBefore(Collection<SSTableReader> sstables, int gcBefore)
+    {
+        double droppable = 0;
+        for (SSTableReader sstable : sstables)
+            droppable += sstable.getDroppableTombstonesBefore(gcBefore);
+        return droppable;
+    }
+
     public static Map<String, String> validateOptions(Map<String, String> options) throws ConfigurationException
     {
         String threshold = options.get(TOMBSTONE_THRESHOLD_OPTION);
@@ -448,6 +542,13 @@ public abstract class AbstractCompactionStrategy
                 throw new ConfigurationException(String.format("'%s' should be either 'true' or 'false', not '%s'",UNCHECKED_TOMBSTONE_COMPACTION_OPTION, unchecked));
         }
 
+        String overlapping = options.get(OVERLAPPING_TOMBSTONE_COMPACTION_OPTION);
+        if (overlapping != null)
+        {
+            if (!overlapping.equalsIgnoreCase("true") && !overlapping.equalsIgnoreCase("false"))
+                throw new ConfigurationException(String.format("'%s' should be either 'true' or 'false', not '%s'", OVERLAPPING_TOMBSTONE_COMPACTION_OPTION, overlapping));
+        }
+
         String compactionEnabled = options.get(COMPACTION_ENABLED);
         if (compactionEnabled != null)
         {
@@ -460,6 +561,7 @@ public abstract class AbstractCompactionStrategy
         uncheckedOptions.remove(TOMBSTONE_THRESHOLD_OPTION);
         uncheckedOptions.remove(TOMBSTONE_COMPACTION_INTERVAL_OPTION);
         uncheckedOptions.remove(UNCHECKED_TOMBSTONE_COMPACTION_OPTION);
+        uncheckedOptions.remove(OVERLAPPING_TOMBSTONE_COMPACTION_OPTION);
         uncheckedOptions.remove(COMPACTION_ENABLED);
         return uncheckedOptions;
     }
@@ -180,6 +180,7 @@ public class CompactionManager implements CompactionManagerMBean
                      cfs.name,
                      cfs.getCompactionStrategy().getName());
         List<Future<?>> futures = new ArrayList<Future<?>>();
+        int maxTasks = cfs.getCompactionStrategy().getMaxConcurrentBackgroundTasks();
         // we must schedule it at least once, otherwise compaction will stop for a CF until next flush
         do {
             if (executor.isShutdown())
@@ -190,7 +191,7 @@ public class CompactionManager implements CompactionManagerMBean
             compactingCF.add(cfs);
             futures.add(executor.submit(new BackgroundCompactionTask(cfs)));
             // if we have room for more compactions, then fill up executor
-        } while (executor.getActiveCount() + futures.size() < executor.getMaximumPoolSize());
+        } while (executor.getActiveCount() + futures.size() < executor.getMaximumPoolSize() && futures.size() < maxTasks);
 
         return futures;
     }
@@ -18,19 +18,28 @@
 package org.apache.cassandra.db.compaction;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
 import org.apache.cassandra.db.compaction.writers.DefaultCompactionWriter;
@@ -40,11 +49,15 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.db.compaction.CompactionManager.CompactionExecutorStatsCollector;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.service.ActiveRepairService;
+import org.apache.cassandra.utils.Throwables;
 import org.apache.cassandra.utils.UUIDGen;
 
 public class CompactionTask extends AbstractCompactionTask
@@ -55,6 +68,16 @@ public class CompactionTask extends AbstractCompactionTask
     protected static long totalBytesCompacted = 0;
     private CompactionExecutorStatsCollector collector;
 
+    /** How many index summary entries at most are sampled to split a compaction in sub-ranges */
+    private static final int MAX_SUB_RANGE_SAMPLES = 16384;
+
+    /**
+     * Runs the sub-ranges of the compactions split in sub-ranges. The task itself waits on them on its compaction
+     * thread, so they cannot run on the compaction executor without starving it.
+     */
+    private static final DebuggableThreadPoolExecutor subRangeExecutor = DebuggableThreadPoolExecutor.createWithFixedPoolSize("CompactionSubRangeExecutor",
+                                                                                                                                DatabaseDescriptor.getCompactionSubRangeParallelism());
+
     public CompactionTask(ColumnFamilyStore cfs, Iterable<SSTableReader> sstables, int gcBefore, boolean offline)
     {
         super(cfs, Sets.newHashSet(sstables));
@@ -155,80 +178,111 @@ public class CompactionTask extends AbstractCompactionTask
             SSTableFormat.Type sstableFormat = getFormatType(sstables);
 
             List<SSTableReader> newSStables;
-            AbstractCompactionIterable ci;
+            long[] mergedRowCounts;
 
-            // SSTableScanners need to be closed before markCompactedSSTablesReplaced call as scanners contain references
-            // to both ifile and dfile and SSTR will throw deletion errors on Windows if it tries to delete before scanner is closed.
-            // See CASSANDRA-8019 and CASSANDRA-8399
-            try (AbstractCompactionStrategy.ScannerList scanners = strategy.getScanners(actuallyCompact))
+            List<Range<Token>> subRanges = getSubRanges(actuallyCompact);
+            if (subRanges.size() > 1)
             {
-                ci = new CompactionIterable(compactionType, scanners.scanners, controller, sstableFormat);
-                Iterator<AbstractCompactedRow> iter = ci.iterator();
-                if (collector != null)
-                    collector.beginCompaction(ci);
-                long lastCheckObsoletion = start;
-                CompactionAwareWriter writer = null;
+                logger.debug("Compacting ({}) in {} sub-ranges {}", taskIdLoggerMsg, subRanges.size(), subRanges);
+                SubRangeCompactions compactions = new SubRangeCompactions(strategy, actuallyCompact, sstableFormat);
                 try
                 {
                     if (!controller.cfs.getCompactionStrategy().isActive)
-                       throw new CompactionInterruptedException(ci.getCompactionInfo());
-                    if (!iter.hasNext())
-                    {
-                        // don't mark compacted in the finally block, since if there _is_ nondeleted data,
-                        // we need to sync it (via closeAndOpen) first, so there is no period during which
-                        // a crash could cause data loss.
-                        cfs.markObsolete(sstables, compactionType);
-                        return;
-                    }
-                    writer = getCompactionAwareWriter(cfs, sstables, actuallyCompact);
-                    estimatedKeys = writer.estimatedKeys();
-                    while (iter.hasNext())
-                    {
-                        if (ci.isStopRequested())
-                            throw new CompactionInterruptedException(ci.getCompactionInfo());
+                        throw new CompactionInterruptedException(new CompactionInfo(cfs.metadata, compactionType, 0, 0));
+                    newSStables = compactions.compact(subRanges);
+                }
+                finally
+                {
+                    if (taskId != null)
+                        SystemKeyspace.finishCompaction(taskId);
+                }
+                totalKeysWritten = compactions.keysWritten;
+                estimatedKeys = compactions.estimatedKeys;
+                mergedRowCounts = compactions.mergedRowCounts;
 
-                        AbstractCompactedRow row = iter.next();
-                        if (writer.append(row))
-                            totalKeysWritten++;
+                // all the sub-ranges replace the compacted sstables at once
+                if (!offline)
+                    cfs.getDataTracker().replaceCompactedSSTables(this.sstables, newSStables, compactionType);
+            }
+            else
+            {
+                AbstractCompactionIterable ci;
 
-                        if (System.nanoTime() - lastCheckObsoletion > TimeUnit.MINUTES.toNanos(1L))
+                // SSTableScanners need to be closed before markCompactedSSTablesReplaced call as scanners contain references
+                // to both ifile and dfile and SSTR will throw deletion errors on Windows if it tries to delete before scanner is closed.
+                // See CASSANDRA-8019 and CASSANDRA-8399
+                try (AbstractCompactionStrategy.ScannerList scanners = strategy.getScanners(actuallyCompact))
+                {
+                    ci = new CompactionIterable(compactionType, scanners.scanners, controller, sstableFormat);
+                    Iterator<AbstractCompactedRow> iter = ci.iterator();
+                    if (collector != null)
+                        collector.beginCompaction(ci);
+                    long lastCheckObsoletion = start;
+                    CompactionAwareWriter writer = null;
+                    try
+                    {
+                        if (!controller.cfs.getCompactionStrategy().isActive)
+                           throw new CompactionInterruptedException(ci.getCompactionInfo());
+                        if (!iter.hasNext())
                         {
-                            controller.maybeRefreshOverlaps();
-                            lastCheckObsoletion = System.nanoTime();
+                            // don't mark compacted in the finally block, since if there _is_ nondeleted data,
+                            // we need to sync it (via closeAndOpen) first, so there is no period during which
+                            // a crash could cause data loss.
+                            cfs.markObsolete(sstables, compactionType);
+                            return;
+                        }
+                        writer = getCompactionAwareWriter(cfs, sstables, actuallyCompact);
+                        estimatedKeys = writer.estimatedKeys();
+                        while (iter.hasNext())
+                        {
+                            if (ci.isStopRequested())
+                                throw new CompactionInterruptedException(ci.getCompactionInfo());
+
+                            AbstractCompactedRow row = iter.next();
+                            if (writer.append(row))
+                                totalKeysWritten++;
+
+                            if (System.nanoTime() - lastCheckObsoletion > TimeUnit.MINUTES.toNanos(1L))
+                            {
+                                controller.maybeRefreshOverlaps();
+                                lastCheckObsoletion = System.nanoTime();
+                            }
                         }
-                    }
 
-                    // don't replace old sstables yet, as we need to mark the compaction finished in the system table
-                    newSStables = writer.finish();
-                }
-                catch (Throwable t)
-                {
-                    try
+                        // don't replace old sstables yet, as we need to mark the compaction finished in the system table
+                        newSStables = writer.finish();
+                    }
+                    catch (Throwable t)
                     {
-                        if (writer != null)
-                            writer.abort();
+                        try
+                        {
+                            if (writer != null)
+                                writer.abort();
+                        }
+                        catch (Throwable t2)
+                        {
+                            t.addSuppressed(t2);
+                        }
+                        throw t;
                     }
-                    catch (Throwable t2)
+                    finally
                     {
-                        t.addSuppressed(t2);
+                        // point of no return -- the new sstables are live on disk; next we'll start deleting the old ones
+                        // (in replaceCompactedSSTables)
+                        if (taskId != null)
+                            SystemKeyspace.finishCompaction(taskId);
+
+                        if (collector != null)
+                            collector.finishCompaction(ci);
                     }
-                    throw t;
                 }
-                finally
-                {
-                    // point of no return -- the new sstables are live on disk; next we'll start deleting the old ones
-                    // (in replaceCompactedSSTables)
-                    if (taskId != null)
-                        SystemKeyspace.finishCompaction(taskId);
 
-                    if (collector != null)
-                        collector.finishCompaction(ci);
-                }
+                mergedRowCounts = ci.getMergedRowCounts();
+                if (!offline)
+                    cfs.getDataTracker().markCompactedSSTablesReplaced(this.sstables, newSStables, compactionType);
             }
 
             Collection<SSTableReader> oldSStables = this.sstables;
-            if (!offline)
-                cfs.getDataTracker().markCompactedSSTablesReplaced(oldSStables, newSStables, compactionType);
 
             // log a bunch of statistics about the result and save to system table compaction_history
             long dTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
@@ -242,9 +296,14 @@ public class CompactionTask extends AbstractCompactionTask
 
             double mbps = dTime > 0 ? (double) endsize / (1024 * 1024) / ((double) dTime / 1000) : 0;
             long totalSourceRows = 0;
-            String mergeSummary = updateCompactionHistory(cfs.keyspace.getName(), cfs.getColumnFamilyName(), ci, startsize, endsize);
-            logger.info(String.format("Compacted (%s) %d sstables to [%s] to level=%d.  %,d bytes to %,d (~%d%% of original) in %,dms = %fMB/s.  %,d total partitions merged to %,d.  Partition merge counts were {%s}",
-                                      taskIdLoggerMsg, oldSStables.size(), newSSTableNames.toString(), getLevel(), startsize, endsize, (int) (ratio * 100), dTime, mbps, totalSourceRows, totalKeysWritten, mergeSummary));
+            // the tombstone histograms of the sstables count both tombstones and expiring cells; those the compaction
+            // could drop but kept (because of overlapping sstables) are still droppable in the new sstables
+            long tombstonesDropped = (long) Math.max(0, AbstractCompactionStrategy.getDroppableTombstonesBefore(oldSStables, gcBefore)
+                                                        - AbstractCompactionStrategy.getDroppableTombstonesBefore(newSStables, gcBefore));
+            cfs.metric.compactionDroppedTombstones.inc(tombstonesDropped);
+            String mergeSummary = updateCompactionHistory(cfs.keyspace.getName(), cfs.getColumnFamilyName(), mergedRowCounts, startsize, endsize);
+            logger.info(String.format("Compacted (%s) %d sstables to [%s] to level=%d.  %,d bytes to %,d (~%d%% of original) in %,dms = %fMB/s.  %,d total partitions merged to %,d.  ~%,d tombstones dropped.  Partition merge counts were {%s}",
+                                      taskIdLoggerMsg, oldSStables.size(), newSSTableNames.toString(), getLevel(), startsize, endsize, (int) (ratio * 100), dTime, mbps, totalSourceRows, totalKeysWritten, tombstonesDropped, mergeSummary));
             logger.debug(String.format("CF Total Bytes Compacted: %,d", CompactionTask.addToTotalBytesCompacted(endsize)));
             logger.debug("Actual #keys: {}, Estimated #keys:{}, Err%: {}", totalKeysWritten, estimatedKeys, ((double)(totalKeysWritten - estimatedKeys)/totalKeysWritten));
 
@@ -263,9 +322,235 @@ public class CompactionTask extends AbstractCompactionTask
 
     }
 
+    /**
+     * @return the writer of one sub-range of a compaction split in sub-ranges; it must neither open its sstables
+     * early nor touch the DataTracker, as all the sub-ranges replace the compacted sstables at once when done
+     */
+    protected CompactionAwareWriter getSubRangeCompactionAwareWriter(ColumnFamilyStore cfs, Set<SSTableReader> allSSTables, Set<SSTableReader> nonExpiredSSTables, Range<Token> range)
+    {
+        return new DefaultCompactionWriter(cfs, allSSTables, nonExpiredSSTables, compactionType, range);
+    }
+
+    /**
+     * @return false if the output of this task depends on merging all of its input in a single pass, so that it
+     * cannot be split in sub-ranges
+     */
+    protected boolean supportsSubRanges()
+    {
+        return true;
+    }
+
+    /**
+     * @return the sub-ranges the given sstables should be compacted in, each holding about as many partitions, or
+     * the single full ring if this compaction is not worth (or cannot be) split
+     */
+    protected List<Range<Token>> getSubRanges(Set<SSTableReader> actuallyCompact)
+    {
+        int parallelism = DatabaseDescriptor.getCompactionSubRangeParallelism();
+        Token minimum = cfs.partitioner.getMinimumToken();
+        if (parallelism <= 1 || offline || !supportsSubRanges() || actuallyCompact.isEmpty()
+            || SSTableReader.getTotalBytes(actuallyCompact) < DatabaseDescriptor.getCompactionSubRangeMinSize())
+            return Collections.singletonList(new Range<>(minimum, minimum));
+
+        // the index summaries sample the keys of each sstable evenly, so their union samples those of the compaction
+        long summaryEntries = 0;
+        for (SSTableReader sstable : actuallyCompact)
+            summaryEntries += sstable.getIndexSummarySize();
+        int step = (int) Math.max(1, summaryEntries / MAX_SUB_RANGE_SAMPLES);
+
+        List<Token> samples = new ArrayList<>((int) Math.min(summaryEntries, MAX_SUB_RANGE_SAMPLES * 2));
+        for (SSTableReader sstable : actuallyCompact)
+        {
+            for (int i = 0; i < sstable.getIndexSummarySize(); i += step)
+                samples.add(cfs.partitioner.decorateKey(ByteBuffer.wrap(sstable.getIndexSummaryKey(i))).getToken());
+        }
+        Collections.sort(samples);
+        return subRanges(samples, parallelism, minimum);
+    }
+
+    /**
+     * Splits the ring in at most count ranges, each holding about as many of the given tokens.
+     *
+     * @param sortedSamples the tokens to split evenly, in token order
+     * @param minimum the minimum token of the partitioner
+     */
+    @VisibleForTesting
+    static List<Range<Token>> subRanges(List<Token> sortedSamples, int count, Token minimum)
+    {
+        List<Range<Token>> ranges = new ArrayList<>(count);
+        Token left = minimum;
+        for (int i = 1; i < count && !sortedSamples.isEmpty(); i++)
+        {
+            Token boundary = sortedSamples.get((int) ((long) i * sortedSamples.size() / count));
+            // many equal samples would make empty ranges
+            if (boundary.compareTo(left) <= 0)
+                continue;
+            ranges.add(new Range<>(left, boundary));
+            left = boundary;
+        }
+        ranges.add(new Range<>(left, minimum));
+        return ranges;
+    }
+
+    /**
+     * The compaction of the sub-ranges of a task split in sub-ranges, run in parallel on the subRangeExecutor.
+     *
+     * Each sub-range merges the part of the compacted sstables it covers, with a controller and a writer of its own.
+     * The sub-ranges succeed or fail together: if one fails, the others stop and whatever they wrote is deleted.
+     */
+    private class SubRangeCompactions
+    {
+        private final AbstractCompactionStrategy strategy;
+        private final Set<SSTableReader> actuallyCompact;
+        private final SSTableFormat.Type sstableFormat;
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        private long keysWritten;
+        private long estimatedKeys;
+        private long[] mergedRowCounts = new long[0];
+
+        SubRangeCompactions(AbstractCompactionStrategy strategy, Set<SSTableReader> actuallyCompact, SSTableFormat.Type sstableFormat)
+        {
+            this.strategy = strategy;
+            this.actuallyCompact = actuallyCompact;
+            this.sstableFormat = sstableFormat;
+        }
+
+        /**
+         * @return the sstables written by all the sub-ranges, which the DataTracker does not know yet
+         */
+        List<SSTableReader> compact(List<Range<Token>> ranges) throws Exception
+        {
+            List<Future<SubRangeCompaction>> futures = new ArrayList<>(ranges.size());
+            for (Range<Token> range : ranges)
+                futures.add(subRangeExecutor.submit(new SubRangeCompaction(range)));
+
+            List<SSTableReader> newSSTables = new ArrayList<>();
+            Throwable failure = null;
+            for (Future<SubRangeCompaction> future : futures)
+            {
+                try
+                {
+                    SubRangeCompaction compaction = Uninterruptibles.getUninterruptibly(future);
+                    newSSTables.addAll(compaction.newSSTables);
+                    keysWritten += compaction.keysWritten;
+                    estimatedKeys += compaction.estimatedKeys;
+                    mergedRowCounts = sum(mergedRowCounts, compaction.mergedRowCounts);
+                }
+                catch (ExecutionException e)
+                {
+                    failed.set(true);
+                    failure = Throwables.merge(failure, e.getCause());
+                }
+            }
+
+            if (failure != null)
+            {
+                // the sub-ranges that did complete wrote sstables nobody will ever read
+                for (SSTableReader sstable : newSSTables)
+                {
+                    sstable.markObsolete();
+                    sstable.selfRef().release();
+                }
+                if (failure instanceof Exception)
+                    throw (Exception) failure;
+                if (failure instanceof Error)
+                    throw (Error) failure;
+                throw new RuntimeException(failure);
+            }
+            return newSSTables;
+        }
+
+        private long[] sum(long[] counts, long[] added)
+        {
+            long[] sum = Arrays.copyOf(counts, Math.max(counts.length, added.length));
+            for (int i = 0; i < added.length; i++)
+                sum[i] += added[i];
+            return sum;
+        }
+
+        private class SubRangeCompaction implements Callable<SubRangeCompaction>
+        {
+            private final Range<Token> range;
+
+            private List<SSTableReader> newSSTables = Collections.emptyList();
+            private long keysWritten;
+            private long estimatedKeys;
+            private long[] mergedRowCounts = new long[0];
+
+            SubRangeCompaction(Range<Token> range)
+            {
+                this.range = range;
+            }
+
+            public SubRangeCompaction call() throws Exception
+            {
+                try (CompactionController controller = getCompactionController(sstables);
+                     AbstractCompactionStrategy.ScannerList scanners = strategy.getScanners(actuallyCompact, range))
+                {
+                    AbstractCompactionIterable ci = new CompactionIterable(compactionType, scanners.scanners, controller, sstableFormat);
+                    Iterator<AbstractCompactedRow> iter = ci.iterator();
+                    if (collector != null)
+                        collector.beginCompaction(ci);
+                    long lastCheckObsoletion = System.nanoTime();
+                    CompactionAwareWriter writer = null;
+                    try
+                    {
+                        if (!iter.hasNext())
+                            return this;
+
+                        writer = getSubRangeCompactionAwareWriter(cfs, sstables, actuallyCompact, range);
+                        estimatedKeys = writer.estimatedKeys();
+                        while (iter.hasNext())
+                        {
+                            if (ci.isStopRequested() || failed.get())
+                                throw new CompactionInterruptedException(ci.getCompactionInfo());
+
+                            AbstractCompactedRow row = iter.next();
+                            if (writer.append(row))
+                                keysWritten++;
+
+                            if (System.nanoTime() - lastCheckObsoletion > TimeUnit.MINUTES.toNanos(1L))
+                            {
+                                controller.maybeRefreshOverlaps();
+                                lastCheckObsoletion = System.nanoTime();
+                            }
+                        }
+                        newSSTables = writer.finish();
+                        return this;
+                    }
+                    catch (Throwable t)
+                    {
+                        failed.set(true);
+                        try
+                        {
+                            if (writer != null)
+                                writer.abort();
+                        }
+                        catch (Throwable t2)
+                        {
+                            t.addSuppressed(t2);
+                        }
+                        throw t;
+                    }
+                    finally
+                    {
+                        mergedRowCounts = ci.getMergedRowCounts();
+                        if (collector != null)
+                            collector.finishCompaction(ci);
+                    }
+                }
+            }
+        }
+    }
+
     public static String updateCompactionHistory(String keyspaceName, String columnFamilyName, AbstractCompactionIterable ci, long startSize, long endSize)
     {
-        long[] counts = ci.getMergedRowCounts();
+        return updateCompactionHistory(keyspaceName, columnFamilyName, ci.getMergedRowCounts(), startSize, endSize);
+    }
+
+    public static String updateCompactionHistory(String keyspaceName, String columnFamilyName, long[] counts, long startSize, long endSize)
+    {
         StringBuilder mergeSummary = new StringBuilder(counts.length * 10);
         Map<Integer, Long> mergedRows = new HashMap<>();
         for (int i = 0; i < counts.length; i++)
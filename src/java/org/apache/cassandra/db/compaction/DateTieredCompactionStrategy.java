@@ -108,7 +108,7 @@ public class DateTieredCompactionStrategy extends AbstractCompactionStrategy
                 sstablesWithTombstones.add(sstable);
         }
         if (sstablesWithTombstones.isEmpty())
-            return Collections.emptyList();
+            return getOverlappingTombstoneCompactionCandidates(nonExpiringSSTables, gcBefore);
 
         return Collections.singletonList(Collections.min(sstablesWithTombstones, new SSTableReader.SizeComparator()));
     }
@@ -33,6 +33,7 @@ import org.apache.cassandra.db.index.SecondaryIndexManager;
 import org.apache.cassandra.io.sstable.format.big.BigTableWriter;
 import org.apache.cassandra.io.sstable.ColumnNameHelper;
 import org.apache.cassandra.io.sstable.ColumnStats;
+import org.apache.cassandra.io.sstable.RowBloomFilter;
 import org.apache.cassandra.io.sstable.SSTable;
 import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.io.util.DataOutputPlus;
@@ -112,6 +113,12 @@ public class LazilyCompactedRow extends AbstractCompactedRow
     }
 
     public RowIndexEntry write(long currentPosition, SequentialWriter dataFile) throws IOException
+    {
+        return write(currentPosition, dataFile, null);
+    }
+
+    @Override
+    public RowIndexEntry write(long currentPosition, SequentialWriter dataFile, RowBloomFilter.Builder rowFilter) throws IOException
     {
         assert !closed;
 
@@ -120,7 +127,7 @@ public class LazilyCompactedRow extends AbstractCompactedRow
         ColumnIndex columnsIndex;
         try
         {
-            indexBuilder = new ColumnIndex.Builder(emptyColumnFamily, key.getKey(), out);
+            indexBuilder = new ColumnIndex.Builder(emptyColumnFamily, key.getKey(), out, rowFilter);
             columnsIndex = indexBuilder.buildForCompaction(merger);
 
             // if there aren't any columns or tombstones, return null
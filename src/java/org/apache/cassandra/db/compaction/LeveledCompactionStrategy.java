@@ -83,6 +83,18 @@ public class LeveledCompactionStrategy extends AbstractCompactionStrategy
         return manifest.getAllLevelSize();
     }
 
+    public long[] getPendingCompactionBytesPerLevel()
+    {
+        return manifest.getPendingCompactionBytesPerLevel();
+    }
+
+    @Override
+    public int getMaxConcurrentBackgroundTasks()
+    {
+        // the manifest derives the estimate from the levels, so it is current
+        return Math.max(1, getEstimatedRemainingTasks());
+    }
+
     /**
      * the only difference between background and maximal in LCS is that maximal is still allowed
      * (by explicit user request) even when compaction is disabled.
@@ -95,8 +107,9 @@ public class LeveledCompactionStrategy extends AbstractCompactionStrategy
         while (true)
         {
             OperationType op;
-            LeveledManifest.CompactionCandidate candidate = manifest.getCompactionCandidates();
-            if (candidate == null)
+            LeveledManifest.CompactionCandidate candidate;
+            List<LeveledManifest.CompactionCandidate> candidates = manifest.getCompactionCandidates();
+            if (candidates.isEmpty())
             {
                 // if there is no sstable to compact in standard way, try compacting based on droppable tombstone ratio
                 SSTableReader sstable = findDroppableSSTable(gcBefore);
@@ -112,11 +125,16 @@ public class LeveledCompactionStrategy extends AbstractCompactionStrategy
             }
             else
             {
+                // the candidates can all run at once; they start with the level after the one of the last
+                // compaction started, so the next calls, from the other compaction threads, take the other levels
+                candidate = candidates.get(0);
                 op = OperationType.COMPACTION;
             }
 
             if (cfs.getDataTracker().markCompacting(candidate.sstables))
             {
+                if (op == OperationType.COMPACTION)
+                    manifest.compactionStarted(candidate);
                 LeveledCompactionTask newTask = new LeveledCompactionTask(cfs, candidate.sstables, candidate.level, gcBefore, candidate.maxSSTableBytes, false);
                 newTask.setCompactionType(op);
                 return newTask;
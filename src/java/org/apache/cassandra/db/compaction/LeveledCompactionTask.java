@@ -23,6 +23,8 @@ import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
 import org.apache.cassandra.db.compaction.writers.MajorLeveledCompactionWriter;
 import org.apache.cassandra.db.compaction.writers.MaxSSTableSizeWriter;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 
 public class LeveledCompactionTask extends CompactionTask
@@ -47,6 +49,20 @@ public class LeveledCompactionTask extends CompactionTask
         return new MaxSSTableSizeWriter(cfs, sstables, nonExpiredSSTables, maxSSTableBytes, getLevel(), false, compactionType);
     }
 
+    @Override
+    protected CompactionAwareWriter getSubRangeCompactionAwareWriter(ColumnFamilyStore cfs, Set<SSTableReader> allSSTables, Set<SSTableReader> nonExpiredSSTables, Range<Token> range)
+    {
+        // the sub-ranges are disjoint, so the sstables they write do not overlap either
+        return new MaxSSTableSizeWriter(cfs, sstables, nonExpiredSSTables, maxSSTableBytes, getLevel(), compactionType, range);
+    }
+
+    @Override
+    protected boolean supportsSubRanges()
+    {
+        // a major compaction spreads its output over several levels as it goes
+        return !majorCompaction;
+    }
+
     @Override
     protected boolean partialCompactionsAcceptable()
     {
@@ -65,6 +65,8 @@ public class LeveledManifest
     private final int maxSSTableSizeInBytes;
     private final SizeTieredCompactionStrategyOptions options;
     private final int [] compactionCounter;
+    // the level the last compaction started from; the next candidates start with the level after it
+    private int lastStartedLevel = -1;
 
     LeveledManifest(ColumnFamilyStore cfs, int maxSSTableSizeInMB, SizeTieredCompactionStrategyOptions options)
     {
@@ -266,22 +268,26 @@ public class LeveledManifest
     }
 
     /**
-     * @return highest-priority sstables to compact, and level to compact them to
-     * If no compactions are necessary, will return null
+     * @return the sstables to compact, and the level to compact them to, of every compaction that can run now
+     * alongside the others and alongside the compactions in progress, highest-priority first. The candidates
+     * share no sstable, and never write overlapping sstables to the same level.
+     * If no compactions are necessary, will return an empty list
      */
-    public synchronized CompactionCandidate getCompactionCandidates()
+    public synchronized List<CompactionCandidate> getCompactionCandidates()
     {
+        Set<SSTableReader> compacting = new HashSet<>(cfs.getDataTracker().getCompacting());
+
         // during bootstrap we only do size tiering in L0 to make sure
         // the streamed files can be placed in their original levels
         if (StorageService.instance.isBootstrapMode())
         {
-            List<SSTableReader> mostInteresting = getSSTablesForSTCS(getLevel(0));
+            List<SSTableReader> mostInteresting = getSSTablesForSTCS(getLevel(0), compacting);
             if (!mostInteresting.isEmpty())
             {
                 logger.info("Bootstrapping - doing STCS in L0");
-                return new CompactionCandidate(mostInteresting, 0, Long.MAX_VALUE);
+                return Collections.singletonList(new CompactionCandidate(mostInteresting, 0, Long.MAX_VALUE));
             }
-            return null;
+            return Collections.emptyList();
         }
         // LevelDB gives each level a score of how much data it contains vs its ideal amount, and
         // compacts the level with the highest score. But this falls apart spectacularly once you
@@ -302,67 +308,146 @@ public class LeveledManifest
         // We don't have that luxury.
         //
         // So instead, we
-        // 1) force compacting higher levels first, which minimizes the i/o needed to compact
+        // 1) compact higher levels alongside L0, which minimizes the i/o needed to compact
         //    optimially which gives us a long term win, and
-        // 2) if L0 falls behind, we will size-tiered compact it to reduce read overhead until
-        //    we can catch up on the higher levels.
+        // 2) if L0 falls behind and none of it can go to L1 for now, we will size-tiered compact it
+        //    to reduce read overhead until we can catch up on the higher levels.
         //
         // This isn't a magic wand -- if you are consistently writing too fast for LCS to keep
         // up, you're still screwed.  But if instead you have intermittent bursts of activity,
         // it can help a lot.
+        //
+        // Every compaction picked is considered compacting when picking the next ones, so that they can all
+        // run at once on the compaction threads: several in a level, as long as they do not share sstables
+        // of the next level, and several from L0 to L1, as long as they cover disjoint token ranges.
+        int maxCandidates = Math.max(1, DatabaseDescriptor.getConcurrentCompactors());
+        boolean l0Behind = getLevel(0).size() > MAX_COMPACTING_L0;
+        List<List<CompactionCandidate>> candidatesByLevel = new ArrayList<>();
+        List<Integer> levels = new ArrayList<>();
+
+        // when L0 is behind, it goes first, so that it gets the sstables of L1 it needs before L1 is compacted
+        // further down, and reads do not suffer from it while the higher levels catch up
+        if (l0Behind)
+        {
+            candidatesByLevel.add(getL0CompactionCandidates(compacting, maxCandidates));
+            levels.add(0);
+        }
+
         for (int i = generations.length - 1; i > 0; i--)
         {
             List<SSTableReader> sstables = getLevel(i);
             if (sstables.isEmpty())
                 continue; // mostly this just avoids polluting the debug log with zero scores
-            // we want to calculate score excluding compacting ones
-            Set<SSTableReader> sstablesInLevel = Sets.newHashSet(sstables);
-            Set<SSTableReader> remaining = Sets.difference(sstablesInLevel, cfs.getDataTracker().getCompacting());
-            double score = (double) SSTableReader.getTotalBytes(remaining) / (double)maxBytesForLevel(i, maxSSTableSizeInBytes);
-            logger.debug("Compaction score for level {} is {}", i, score);
 
-            if (score > 1.001)
+            List<CompactionCandidate> levelCandidates = new ArrayList<>();
+            while (levelCandidates.size() < maxCandidates)
             {
-                // before proceeding with a higher level, let's see if L0 is far enough behind to warrant STCS
-                if (!DatabaseDescriptor.getDisableSTCSInL0() && getLevel(0).size() > MAX_COMPACTING_L0)
-                {
-                    List<SSTableReader> mostInteresting = getSSTablesForSTCS(getLevel(0));
-                    if (!mostInteresting.isEmpty())
-                    {
-                        logger.debug("L0 is too far behind, performing size-tiering there first");
-                        return new CompactionCandidate(mostInteresting, 0, Long.MAX_VALUE);
-                    }
-                }
+                // we want to calculate score excluding compacting ones
+                Set<SSTableReader> remaining = Sets.difference(Sets.newHashSet(sstables), compacting);
+                double score = (double) SSTableReader.getTotalBytes(remaining) / (double)maxBytesForLevel(i, maxSSTableSizeInBytes);
+                logger.debug("Compaction score for level {} is {}", i, score);
+                if (score <= 1.001)
+                    break;
 
-                // L0 is fine, proceed with this level
-                Collection<SSTableReader> candidates = getCandidatesFor(i);
-                if (!candidates.isEmpty())
-                {
-                    int nextLevel = getNextLevel(candidates);
-                    candidates = getOverlappingStarvedSSTables(nextLevel, candidates);
-                    if (logger.isDebugEnabled())
-                        logger.debug("Compaction candidates for L{} are {}", i, toString(candidates));
-                    return new CompactionCandidate(candidates, nextLevel, cfs.getCompactionStrategy().getMaxSSTableBytes());
-                }
-                else
+                Collection<SSTableReader> candidates = getCandidatesFor(i, compacting);
+                if (candidates.isEmpty())
                 {
                     logger.debug("No compaction candidates for L{}", i);
+                    break;
                 }
+                int nextLevel = getNextLevel(candidates);
+                candidates = getOverlappingStarvedSSTables(nextLevel, candidates, compacting);
+                if (logger.isDebugEnabled())
+                    logger.debug("Compaction candidates for L{} are {}", i, toString(candidates));
+                levelCandidates.add(new CompactionCandidate(candidates, nextLevel, cfs.getCompactionStrategy().getMaxSSTableBytes()));
+                compacting.addAll(candidates);
+            }
+            if (!levelCandidates.isEmpty())
+            {
+                candidatesByLevel.add(levelCandidates);
+                levels.add(i);
             }
         }
 
-        // Higher levels are happy, time for a standard, non-STCS L0 compaction
+        if (!l0Behind)
+        {
+            candidatesByLevel.add(getL0CompactionCandidates(compacting, maxCandidates));
+            levels.add(0);
+        }
+
+        // start with the level after the one the last compaction started from: the compaction threads each take
+        // the first candidate, so that they take turns over all the levels that are behind instead of queuing
+        // up on the highest one
+        int start = 0;
+        if (lastStartedLevel >= 0)
+        {
+            int lastStartedOrder = handOutOrder(lastStartedLevel, l0Behind);
+            while (start < levels.size() && handOutOrder(levels.get(start), l0Behind) <= lastStartedOrder)
+                start++;
+            if (start == levels.size())
+                start = 0;
+        }
+
+        // and hand out the first candidate of every level before the second of any
+        List<CompactionCandidate> candidates = new ArrayList<>();
+        for (int round = 0; round < maxCandidates; round++)
+        {
+            for (int i = 0; i < candidatesByLevel.size(); i++)
+            {
+                List<CompactionCandidate> levelCandidates = candidatesByLevel.get((start + i) % candidatesByLevel.size());
+                if (round < levelCandidates.size() && candidates.size() < maxCandidates)
+                    candidates.add(levelCandidates.get(round));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the rank of the given level in the order the levels are considered by getCompactionCandidates
+     */
+    private int handOutOrder(int level, boolean l0Behind)
+    {
+        if (level == 0)
+            return l0Behind ? -1 : generations.length;
+        return generations.length - level;
+    }
+
+    /**
+     * @return the L0 compactions that can run alongside the given compacting sstables, which the sstables of the
+     * returned candidates are added to: as many compactions to L1 of disjoint token ranges as there are, or if
+     * there are none and L0 is too far behind, a size tiered compaction in L0.
+     */
+    private List<CompactionCandidate> getL0CompactionCandidates(Set<SSTableReader> compacting, int maxCandidates)
+    {
+        List<CompactionCandidate> l0Candidates = new ArrayList<>();
         if (getLevel(0).isEmpty())
-            return null;
-        Collection<SSTableReader> candidates = getCandidatesFor(0);
-        if (candidates.isEmpty())
-            return null;
-        return new CompactionCandidate(candidates, getNextLevel(candidates), cfs.getCompactionStrategy().getMaxSSTableBytes());
+            return l0Candidates;
+
+        while (l0Candidates.size() < maxCandidates)
+        {
+            Collection<SSTableReader> candidates = getCandidatesFor(0, compacting);
+            if (candidates.isEmpty())
+                break;
+            l0Candidates.add(new CompactionCandidate(candidates, getNextLevel(candidates), cfs.getCompactionStrategy().getMaxSSTableBytes()));
+            compacting.addAll(candidates);
+        }
+
+        if (l0Candidates.isEmpty() && !DatabaseDescriptor.getDisableSTCSInL0() && getLevel(0).size() > MAX_COMPACTING_L0)
+        {
+            List<SSTableReader> mostInteresting = getSSTablesForSTCS(getLevel(0), compacting);
+            if (!mostInteresting.isEmpty())
+            {
+                logger.debug("L0 is too far behind, performing size-tiering there first");
+                l0Candidates.add(new CompactionCandidate(mostInteresting, 0, Long.MAX_VALUE));
+                compacting.addAll(mostInteresting);
+            }
+        }
+        return l0Candidates;
     }
 
-    private List<SSTableReader> getSSTablesForSTCS(Collection<SSTableReader> sstables)
+    private List<SSTableReader> getSSTablesForSTCS(Collection<SSTableReader> sstables, Set<SSTableReader> compacting)
     {
-        Iterable<SSTableReader> candidates = cfs.getDataTracker().getUncompactingSSTables(sstables);
+        Iterable<SSTableReader> candidates = Sets.difference(Sets.newHashSet(sstables), compacting);
         List<Pair<SSTableReader,Long>> pairs = SizeTieredCompactionStrategy.createSSTableAndLengthPairs(AbstractCompactionStrategy.filterSuspectSSTables(candidates));
         List<List<SSTableReader>> buckets = SizeTieredCompactionStrategy.getBuckets(pairs,
                                                                                     options.bucketHigh,
@@ -371,6 +456,31 @@ public class LeveledManifest
         return SizeTieredCompactionStrategy.mostInterestingBucket(buckets, 4, 32);
     }
 
+    /**
+     * Records that the compaction of the given candidate was started, so that getOverlappingStarvedSSTables
+     * knows for how many compactions each level went without being compacted into, and so that the next
+     * candidates start with another level.
+     */
+    public synchronized void compactionStarted(CompactionCandidate candidate)
+    {
+        int startLevel = Integer.MAX_VALUE;
+        for (SSTableReader sstable : candidate.sstables)
+            startLevel = Math.min(startLevel, sstable.getSSTableLevel());
+        lastStartedLevel = startLevel;
+
+        if (candidate.level == 0)
+            return;
+
+        for (int i = generations.length - 1; i > 0; i--)
+            compactionCounter[i]++;
+        compactionCounter[candidate.level] = 0;
+        if (logger.isDebugEnabled())
+        {
+            for (int j = 0; j < compactionCounter.length; j++)
+                logger.debug("CompactionCounter: {}: {}", j, compactionCounter[j]);
+        }
+    }
+
     /**
      * If we do something that makes many levels contain too little data (cleanup, change sstable size) we will "never"
      * compact the high levels.
@@ -380,21 +490,13 @@ public class LeveledManifest
      *
      * @param targetLevel the level the candidates will be compacted into
      * @param candidates the original sstables to compact
+     * @param compacting the sstables compacting, or picked for another compaction
      * @return
      */
-    private Collection<SSTableReader> getOverlappingStarvedSSTables(int targetLevel, Collection<SSTableReader> candidates)
+    private Collection<SSTableReader> getOverlappingStarvedSSTables(int targetLevel, Collection<SSTableReader> candidates, Set<SSTableReader> compacting)
     {
         Set<SSTableReader> withStarvedCandidate = new HashSet<>(candidates);
 
-        for (int i = generations.length - 1; i > 0; i--)
-            compactionCounter[i]++;
-        compactionCounter[targetLevel] = 0;
-        if (logger.isDebugEnabled())
-        {
-            for (int j = 0; j < compactionCounter.length; j++)
-                logger.debug("CompactionCounter: {}: {}", j, compactionCounter[j]);
-        }
-
         for (int i = generations.length - 1; i > 0; i--)
         {
             if (getLevelSize(i) > 0)
@@ -414,7 +516,6 @@ public class LeveledManifest
                         if (max == null || candidate.last.compareTo(max) > 0)
                             max = candidate.last;
                     }
-                    Set<SSTableReader> compacting = cfs.getDataTracker().getCompacting();
                     Range<RowPosition> boundaries = new Range<>(min, max);
                     for (SSTableReader sstable : getLevel(i))
                     {
@@ -473,7 +574,8 @@ public class LeveledManifest
         return level;
     }
 
-    private static Set<SSTableReader> overlapping(Collection<SSTableReader> candidates, Iterable<SSTableReader> others)
+    @VisibleForTesting
+    static Set<SSTableReader> overlapping(Collection<SSTableReader> candidates, Iterable<SSTableReader> others)
     {
         assert !candidates.isEmpty();
         /*
@@ -532,30 +634,20 @@ public class LeveledManifest
     };
 
     /**
+     * @param level the level to compact
+     * @param compacting the sstables compacting, or picked for another compaction
      * @return highest-priority sstables to compact for the given level.
      * If no compactions are possible (because of concurrent compactions or because some sstables are blacklisted
      * for prior failure), will return an empty list.  Never returns null.
      */
-    private Collection<SSTableReader> getCandidatesFor(int level)
+    private Collection<SSTableReader> getCandidatesFor(int level, Set<SSTableReader> compacting)
     {
         assert !getLevel(level).isEmpty();
         logger.debug("Choosing candidates for L{}", level);
 
-        final Set<SSTableReader> compacting = cfs.getDataTracker().getCompacting();
-
         if (level == 0)
         {
-            Set<SSTableReader> compactingL0 = getCompacting(0);
-
-            RowPosition lastCompactingKey = null;
-            RowPosition firstCompactingKey = null;
-            for (SSTableReader candidate : compactingL0)
-            {
-                if (firstCompactingKey == null || candidate.first.compareTo(firstCompactingKey) < 0)
-                    firstCompactingKey = candidate.first;
-                if (lastCompactingKey == null || candidate.last.compareTo(lastCompactingKey) > 0)
-                    lastCompactingKey = candidate.last;
-            }
+            Set<SSTableReader> compactingL0 = getCompacting(0, compacting);
 
             // L0 is the dumping ground for new sstables which thus may overlap each other.
             //
@@ -566,6 +658,8 @@ public class LeveledManifest
             // 2. At most MAX_COMPACTING_L0 sstables from L0 will be compacted at once
             // 3. If total candidate size is less than maxSSTableSizeInMB, we won't bother compacting with L1,
             //    and the result of the compaction will stay in L0 instead of being promoted (see promote())
+            // 4. Candidates overlapping no compacting L0 sstable can be compacted alongside them; but the ones
+            //    promoted to L1 must cover a token range with no gap, see getContiguousSSTables()
             //
             // Note that we ignore suspect-ness of L1 sstables here, since if an L1 sstable is suspect we're
             // basically screwed, since we expect all or most L0 sstables to overlap with each L1 sstable.
@@ -584,7 +678,7 @@ public class LeveledManifest
 
                 for (SSTableReader newCandidate : overlappedL0)
                 {
-                    if (firstCompactingKey == null || lastCompactingKey == null || overlapping(firstCompactingKey.getToken(), lastCompactingKey.getToken(), Arrays.asList(newCandidate)).size() == 0)
+                    if (overlapping(newCandidate, compactingL0).isEmpty())
                         candidates.add(newCandidate);
                     remaining.remove(newCandidate);
                 }
@@ -598,6 +692,8 @@ public class LeveledManifest
             }
 
             // leave everything in L0 if we didn't end up with a full sstable's worth of data
+            if (SSTableReader.getTotalBytes(candidates) > maxSSTableSizeInBytes)
+                candidates = getContiguousSSTables(candidates);
             if (SSTableReader.getTotalBytes(candidates) > maxSSTableSizeInBytes)
             {
                 // add sstables from L1 that overlap candidates
@@ -645,11 +741,45 @@ public class LeveledManifest
         return Collections.emptyList();
     }
 
-    private Set<SSTableReader> getCompacting(int level)
+    /**
+     * The sstables compacted from L0 to L1 together must cover a single token range with no gap in it: the
+     * sstables written to L1 could otherwise span the gap, while another compaction to L1 picks the L0 sstables
+     * in the gap, as they overlap no sstable of this one. A compaction of a single token range can only overlap
+     * another one by overlapping one of its sstables, which getCandidatesFor() checks.
+     *
+     * @return the sstables of the range with no gap holding the oldest of the given sstables
+     */
+    private Set<SSTableReader> getContiguousSSTables(Set<SSTableReader> candidates)
+    {
+        SSTableReader oldest = ageSortedSSTables(candidates).get(0);
+        List<SSTableReader> sorted = new ArrayList<>(candidates);
+        Collections.sort(sorted, SSTableReader.sstableComparator);
+
+        Set<SSTableReader> range = new HashSet<>();
+        Token last = null;
+        for (SSTableReader sstable : sorted)
+        {
+            if (last != null && sstable.first.getToken().compareTo(last) > 0)
+            {
+                if (range.contains(oldest))
+                    break;
+                range = new HashSet<>();
+                last = null;
+            }
+            range.add(sstable);
+            if (last == null || sstable.last.getToken().compareTo(last) > 0)
+                last = sstable.last.getToken();
+        }
+        if (range.size() < candidates.size())
+            logger.debug("Compacting the {} L0 sstables of the token range of {} out of {} candidates", range.size(), oldest, candidates.size());
+        return range;
+    }
+
+    private Set<SSTableReader> getCompacting(int level, Set<SSTableReader> compacting)
     {
         Set<SSTableReader> sstables = new HashSet<>();
         Set<SSTableReader> levelSSTables = new HashSet<>(getLevel(level));
-        for (SSTableReader sstable : cfs.getDataTracker().getCompacting())
+        for (SSTableReader sstable : compacting)
         {
             if (levelSSTables.contains(sstable))
                 sstables.add(sstable);
@@ -690,16 +820,27 @@ public class LeveledManifest
         return generations[i];
     }
 
+    /**
+     * @return for each level, the bytes it holds above its ideal size, which compactions have to move to the next level
+     */
+    public synchronized long[] getPendingCompactionBytesPerLevel()
+    {
+        long[] pending = new long[generations.length];
+        for (int i = 0; i < pending.length; i++)
+            pending[i] = Math.max(0L, SSTableReader.getTotalBytes(getLevel(i)) - (long)(maxBytesForLevel(i, maxSSTableSizeInBytes) * 1.001));
+        return pending;
+    }
+
     public synchronized int getEstimatedTasks()
     {
         long tasks = 0;
+        long[] pending = getPendingCompactionBytesPerLevel();
         long[] estimated = new long[generations.length];
 
         for (int i = generations.length - 1; i >= 0; i--)
         {
-            List<SSTableReader> sstables = getLevel(i);
             // If there is 1 byte over TBL - (MBL * 1.001), there is still a task left, so we need to round up.
-            estimated[i] = (long)Math.ceil((double)Math.max(0L, SSTableReader.getTotalBytes(sstables) - (long)(maxBytesForLevel(i, maxSSTableSizeInBytes) * 1.001)) / (double)maxSSTableSizeInBytes);
+            estimated[i] = (long)Math.ceil((double)pending[i] / (double)maxSSTableSizeInBytes);
             tasks += estimated[i];
         }
 
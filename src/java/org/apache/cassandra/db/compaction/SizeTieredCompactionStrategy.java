@@ -104,7 +104,7 @@ public class SizeTieredCompactionStrategy extends AbstractCompactionStrategy
                 sstablesWithTombstones.add(sstable);
         }
         if (sstablesWithTombstones.isEmpty())
-            return Collections.emptyList();
+            return getOverlappingTombstoneCompactionCandidates(candidates, gcBefore);
 
         Collections.sort(sstablesWithTombstones, new SSTableReader.SizeComparator());
         return Collections.singletonList(sstablesWithTombstones.get(0));
@@ -500,5 +500,12 @@ public class SizeTieredCompactionStrategy extends AbstractCompactionStrategy
         {
             return new SplittingSizeTieredCompactionWriter(cfs, allSSTables, nonExpiredSSTables, compactionType);
         }
+
+        @Override
+        protected boolean supportsSubRanges()
+        {
+            // the output is split by size in token order, which sub-ranges would cut across
+            return false;
+        }
     }
 }
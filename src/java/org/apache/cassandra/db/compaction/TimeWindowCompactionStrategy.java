@@ -0,0 +1,392 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.*;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.cql3.statements.CFPropDefs;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.compaction.CompactionManager.CompactionExecutorStatsCollector;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * Groups the sstables in fixed windows of time (compaction_window_size compaction_window_unit, aligned on the
+ * epoch) by their max timestamp, and never compacts sstables of different windows together.
+ *
+ * The sstables of the current window, the newest one holding data, are compacted as size tiered. Once a window
+ * is closed, that is once newer data was written, its sstables are compacted down to a single one, once; whatever
+ * comes late into it (repair, hints, writes with old timestamps) is then compacted as size tiered, so that the
+ * cold data of the window is not rewritten over and over. The number of sstables is thus bounded by the number of
+ * windows holding data, rather than growing with the age of the data as tiers of ever larger windows do.
+ *
+ * Sstables all of whose data has expired are dropped whole, without being rewritten.
+ */
+public class TimeWindowCompactionStrategy extends AbstractCompactionStrategy
+{
+    private static final Logger logger = LoggerFactory.getLogger(TimeWindowCompactionStrategy.class);
+
+    private final TimeWindowCompactionStrategyOptions options;
+    protected volatile int estimatedRemainingTasks;
+    private final Set<SSTableReader> sstables = new HashSet<>();
+    private long lastExpiredCheck;
+    // the closed windows already compacted down, by their lower bound in seconds; this is not persisted, so after a
+    // restart a closed window is compacted down once more if something came late into it
+    private final Set<Long> compactedWindows = new HashSet<>();
+
+    public TimeWindowCompactionStrategy(ColumnFamilyStore cfs, Map<String, String> options)
+    {
+        super(cfs, options);
+        this.estimatedRemainingTasks = 0;
+        this.options = new TimeWindowCompactionStrategyOptions(options);
+    }
+
+    @Override
+    public synchronized AbstractCompactionTask getNextBackgroundTask(int gcBefore)
+    {
+        if (!isEnabled())
+            return null;
+
+        while (true)
+        {
+            Pair<List<SSTableReader>, Long> next = getNextBackgroundSSTables(gcBefore);
+            List<SSTableReader> latestBucket = next.left;
+
+            if (latestBucket.isEmpty())
+                return null;
+
+            if (cfs.getDataTracker().markCompacting(latestBucket))
+            {
+                if (next.right != null)
+                    return new WindowCompactionTask(cfs, latestBucket, gcBefore, next.right);
+                return new CompactionTask(cfs, latestBucket, gcBefore, false);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized boolean isWindowCompacted(long window)
+    {
+        return compactedWindows.contains(window);
+    }
+
+    /**
+     * @return the sstables to compact next, and the lower bound of the closed window they all are if they are
+     * compacted down to a single sstable, or null
+     */
+    private Pair<List<SSTableReader>, Long> getNextBackgroundSSTables(final int gcBefore)
+    {
+        if (!isEnabled() || cfs.getSSTables().isEmpty())
+            return Pair.create(Collections.<SSTableReader>emptyList(), null);
+
+        Set<SSTableReader> uncompacting = Sets.intersection(sstables, cfs.getUncompactingSSTables());
+
+        // finding the sstables overlapping all the others is expensive, so expired sstables are only looked for
+        // every expired_sstable_check_frequency_seconds. Those will be included no matter what.
+        Set<SSTableReader> expired = Collections.emptySet();
+        if (System.currentTimeMillis() - lastExpiredCheck > options.expiredSSTableCheckFrequency)
+        {
+            expired = CompactionController.getFullyExpiredSSTables(cfs, uncompacting, cfs.getOverlappingSSTables(uncompacting), gcBefore);
+            lastExpiredCheck = System.currentTimeMillis();
+        }
+        Set<SSTableReader> candidates = Sets.newHashSet(filterSuspectSSTables(uncompacting));
+
+        Pair<List<SSTableReader>, Long> next = getNextNonExpiredSSTables(Sets.difference(candidates, expired), gcBefore);
+        if (expired.isEmpty())
+            return next;
+
+        logger.debug("Including expired sstables: {}", expired);
+        List<SSTableReader> compactionCandidates = new ArrayList<>(next.left);
+        compactionCandidates.addAll(expired);
+        return Pair.create(compactionCandidates, next.right);
+    }
+
+    private Pair<List<SSTableReader>, Long> getNextNonExpiredSSTables(Iterable<SSTableReader> nonExpiringSSTables, final int gcBefore)
+    {
+        NavigableMap<Long, List<SSTableReader>> buckets = getBuckets(createSSTableAndMaxTimestampPairs(nonExpiringSSTables),
+                                                                     options.windowUnit,
+                                                                     options.windowSize,
+                                                                     options.timestampResolution);
+        logger.debug("Compaction buckets are {}", buckets);
+
+        // forget the windows whose sstables are all gone, and consider the closed windows of a single sstable
+        // compacted, so that what comes late into them is not compacted with it
+        Set<Long> windows = getBuckets(createSSTableAndMaxTimestampPairs(sstables), options.windowUnit, options.windowSize, options.timestampResolution).keySet();
+        compactedWindows.retainAll(windows);
+        for (Map.Entry<Long, List<SSTableReader>> bucket : buckets.entrySet())
+        {
+            if (bucket.getValue().size() == 1 && !bucket.getKey().equals(buckets.lastKey()))
+                compactedWindows.add(bucket.getKey());
+        }
+
+        updateEstimatedCompactionsByTasks(buckets);
+        Pair<List<SSTableReader>, Long> mostInteresting = newestBucket(buckets,
+                                                                       cfs.getMinimumCompactionThreshold(),
+                                                                       cfs.getMaximumCompactionThreshold(),
+                                                                       options.stcsOptions,
+                                                                       compactedWindows);
+        if (!mostInteresting.left.isEmpty())
+            return mostInteresting;
+
+        // if there is no sstable to compact in standard way, try compacting single sstable whose droppable tombstone
+        // ratio is greater than threshold.
+        List<SSTableReader> sstablesWithTombstones = Lists.newArrayList();
+        for (SSTableReader sstable : nonExpiringSSTables)
+        {
+            if (worthDroppingTombstones(sstable, gcBefore))
+                sstablesWithTombstones.add(sstable);
+        }
+        if (sstablesWithTombstones.isEmpty())
+            return Pair.create(getOverlappingTombstoneCompactionCandidates(nonExpiringSSTables, gcBefore), null);
+
+        return Pair.create(Collections.singletonList(Collections.min(sstablesWithTombstones, new SSTableReader.SizeComparator())), null);
+    }
+
+    public static List<Pair<SSTableReader, Long>> createSSTableAndMaxTimestampPairs(Iterable<SSTableReader> sstables)
+    {
+        List<Pair<SSTableReader, Long>> sstableMaxTimestampPairs = Lists.newArrayListWithCapacity(Iterables.size(sstables));
+        for (SSTableReader sstable : sstables)
+            sstableMaxTimestampPairs.add(Pair.create(sstable, sstable.getMaxTimestamp()));
+        return sstableMaxTimestampPairs;
+    }
+
+    @Override
+    public void addSSTable(SSTableReader sstable)
+    {
+        sstables.add(sstable);
+    }
+
+    @Override
+    public void removeSSTable(SSTableReader sstable)
+    {
+        sstables.remove(sstable);
+    }
+
+    /**
+     * @param windowUnit the unit of the size of the windows
+     * @param windowSize the size of the windows, in windowUnit
+     * @param timestampInSeconds the timestamp to find the window of
+     * @return the lower bound, in seconds, of the window the timestamp is in
+     */
+    @VisibleForTesting
+    static long getWindowLowerBound(TimeUnit windowUnit, int windowSize, long timestampInSeconds)
+    {
+        long windowSeconds = windowUnit.toSeconds(windowSize);
+        long lowerBound = timestampInSeconds - timestampInSeconds % windowSeconds;
+        // the remainder of a negative timestamp is negative
+        return lowerBound > timestampInSeconds ? lowerBound - windowSeconds : lowerBound;
+    }
+
+    /**
+     * Group files in the windows of their max timestamp.
+     * @param files pairs consisting of a file and its max timestamp
+     * @param windowUnit the unit of the size of the windows
+     * @param windowSize the size of the windows, in windowUnit
+     * @param timestampResolution the unit of the timestamps
+     * @return the files of each window holding any, by the lower bound of the window in seconds
+     */
+    @VisibleForTesting
+    static <T> NavigableMap<Long, List<T>> getBuckets(Collection<Pair<T, Long>> files, TimeUnit windowUnit, int windowSize, TimeUnit timestampResolution)
+    {
+        NavigableMap<Long, List<T>> buckets = new TreeMap<>();
+        for (Pair<T, Long> file : files)
+        {
+            long window = getWindowLowerBound(windowUnit, windowSize, TimeUnit.SECONDS.convert(file.right, timestampResolution));
+            List<T> bucket = buckets.get(window);
+            if (bucket == null)
+            {
+                bucket = new ArrayList<>();
+                buckets.put(window, bucket);
+            }
+            bucket.add(file.left);
+        }
+        return buckets;
+    }
+
+    private void updateEstimatedCompactionsByTasks(NavigableMap<Long, List<SSTableReader>> buckets)
+    {
+        int n = 0;
+        for (Map.Entry<Long, List<SSTableReader>> bucket : buckets.entrySet())
+        {
+            int size = bucket.getValue().size();
+            if (bucket.getKey().equals(buckets.lastKey()) || compactedWindows.contains(bucket.getKey()))
+            {
+                if (size >= cfs.getMinimumCompactionThreshold())
+                    n += Math.ceil((double) size / cfs.getMaximumCompactionThreshold());
+            }
+            else if (size >= 2)
+            {
+                n += Math.ceil((double) size / cfs.getMaximumCompactionThreshold());
+            }
+        }
+        estimatedRemainingTasks = n;
+    }
+
+    /**
+     * @param buckets the sstables of each window, by lower bound of the window
+     * @param minThreshold minimum number of sstables to compact in the current window, or size tiered.
+     * @param maxThreshold maximum number of sstables to compact at once (the returned bucket will be trimmed down to this).
+     * @param stcsOptions the options of the size tiered compactions of the current window
+     * @param compactedWindows the closed windows already compacted down to a single sstable
+     * @return the sstables to compact, from the newest window with any worth compacting, and the lower bound of
+     * their window if they are all the sstables of a closed window not compacted down yet, or null.
+     */
+    @VisibleForTesting
+    static Pair<List<SSTableReader>, Long> newestBucket(NavigableMap<Long, List<SSTableReader>> buckets,
+                                                        int minThreshold,
+                                                        int maxThreshold,
+                                                        SizeTieredCompactionStrategyOptions stcsOptions,
+                                                        Set<Long> compactedWindows)
+    {
+        for (Map.Entry<Long, List<SSTableReader>> entry : buckets.descendingMap().entrySet())
+        {
+            List<SSTableReader> bucket = entry.getValue();
+            if (entry.getKey().equals(buckets.lastKey()) || compactedWindows.contains(entry.getKey()))
+            {
+                // the current window, and what came late into a closed window, are compacted as size tiered
+                if (bucket.size() < minThreshold)
+                    continue;
+
+                List<List<SSTableReader>> stcsBuckets = SizeTieredCompactionStrategy.getBuckets(SizeTieredCompactionStrategy.createSSTableAndLengthPairs(bucket),
+                                                                                                stcsOptions.bucketHigh,
+                                                                                                stcsOptions.bucketLow,
+                                                                                                stcsOptions.minSSTableSize);
+                List<SSTableReader> stcsInteresting = SizeTieredCompactionStrategy.mostInterestingBucket(stcsBuckets, minThreshold, maxThreshold);
+                if (!stcsInteresting.isEmpty())
+                    return Pair.create(stcsInteresting, null);
+            }
+            else if (bucket.size() >= 2)
+            {
+                // a closed window is compacted down to a single sstable, in as many rounds as maxThreshold requires
+                if (bucket.size() <= maxThreshold)
+                    return Pair.create(bucket, entry.getKey());
+                return Pair.create(trimToThreshold(bucket, maxThreshold), null);
+            }
+        }
+        return Pair.create(Collections.<SSTableReader>emptyList(), null);
+    }
+
+    /**
+     * @param bucket list of sstables
+     * @param maxThreshold maximum number of sstables in a single compaction task.
+     * @return A bucket trimmed to the <code>maxThreshold</code> smallest sstables.
+     */
+    @VisibleForTesting
+    static List<SSTableReader> trimToThreshold(List<SSTableReader> bucket, int maxThreshold)
+    {
+        List<SSTableReader> sorted = new ArrayList<>(bucket);
+        Collections.sort(sorted, new SSTableReader.SizeComparator());
+        return sorted.subList(0, Math.min(sorted.size(), maxThreshold));
+    }
+
+    /**
+     * Compacts each window down to a single sstable, without mixing windows.
+     */
+    @Override
+    public synchronized Collection<AbstractCompactionTask> getMaximalTask(int gcBefore, boolean splitOutput)
+    {
+        Iterable<SSTableReader> sstables = cfs.markAllCompacting();
+        if (sstables == null)
+            return null;
+
+        List<AbstractCompactionTask> tasks = new ArrayList<>();
+        NavigableMap<Long, List<SSTableReader>> buckets = getBuckets(createSSTableAndMaxTimestampPairs(sstables), options.windowUnit, options.windowSize, options.timestampResolution);
+        for (Map.Entry<Long, List<SSTableReader>> bucket : buckets.entrySet())
+        {
+            tasks.add(new CompactionTask(cfs, bucket.getValue(), gcBefore, false));
+            if (!bucket.getKey().equals(buckets.lastKey()))
+                compactedWindows.add(bucket.getKey());
+        }
+        return tasks;
+    }
+
+    @Override
+    public synchronized AbstractCompactionTask getUserDefinedTask(Collection<SSTableReader> sstables, int gcBefore)
+    {
+        assert !sstables.isEmpty(); // checked for by CM.submitUserDefined
+
+        if (!cfs.getDataTracker().markCompacting(sstables))
+        {
+            logger.debug("Unable to mark {} for compaction; probably a background compaction got to it first.  You can disable background compactions temporarily if this is a problem", sstables);
+            return null;
+        }
+
+        return new CompactionTask(cfs, sstables, gcBefore, false).setUserDefined(true);
+    }
+
+    public int getEstimatedRemainingTasks()
+    {
+        return estimatedRemainingTasks;
+    }
+
+    public long getMaxSSTableBytes()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    public static Map<String, String> validateOptions(Map<String, String> options) throws ConfigurationException
+    {
+        Map<String, String> uncheckedOptions = AbstractCompactionStrategy.validateOptions(options);
+        uncheckedOptions = TimeWindowCompactionStrategyOptions.validateOptions(options, uncheckedOptions);
+
+        uncheckedOptions.remove(CFPropDefs.KW_MINCOMPACTIONTHRESHOLD);
+        uncheckedOptions.remove(CFPropDefs.KW_MAXCOMPACTIONTHRESHOLD);
+
+        return uncheckedOptions;
+    }
+
+    public String toString()
+    {
+        return String.format("TimeWindowCompactionStrategy[%s/%s]",
+                cfs.getMinimumCompactionThreshold(),
+                cfs.getMaximumCompactionThreshold());
+    }
+
+    /**
+     * Compacts a closed window down to a single sstable, and records it as compacted once it succeeded: until then,
+     * it is compacted down again rather than as size tiered.
+     */
+    private class WindowCompactionTask extends CompactionTask
+    {
+        private final long window;
+
+        WindowCompactionTask(ColumnFamilyStore cfs, Iterable<SSTableReader> sstables, int gcBefore, long window)
+        {
+            super(cfs, sstables, gcBefore, false);
+            this.window = window;
+        }
+
+        @Override
+        protected int executeInternal(CompactionExecutorStatsCollector collector)
+        {
+            int compacted = super.executeInternal(collector);
+            synchronized (TimeWindowCompactionStrategy.this)
+            {
+                compactedWindows.add(window);
+            }
+            return compacted;
+        }
+    }
+}
@@ -136,6 +136,13 @@ public final class WrappingCompactionStrategy extends AbstractCompactionStrategy
         return repaired.getEstimatedRemainingTasks() + unrepaired.getEstimatedRemainingTasks();
     }
 
+    @Override
+    public synchronized int getMaxConcurrentBackgroundTasks()
+    {
+        assert repaired.getClass().equals(unrepaired.getClass());
+        return (int) Math.min(Integer.MAX_VALUE, (long) repaired.getMaxConcurrentBackgroundTasks() + unrepaired.getMaxConcurrentBackgroundTasks());
+    }
+
     @Override
     public synchronized long getMaxSSTableBytes()
     {
@@ -185,6 +192,20 @@ public final class WrappingCompactionStrategy extends AbstractCompactionStrategy
         return null;
     }
 
+    public synchronized long[] getPendingCompactionBytesPerLevel()
+    {
+        if (this.repaired instanceof LeveledCompactionStrategy && this.unrepaired instanceof LeveledCompactionStrategy)
+        {
+            long[] repairedBytesPerLevel = ((LeveledCompactionStrategy) repaired).getPendingCompactionBytesPerLevel();
+            long[] unrepairedBytesPerLevel = ((LeveledCompactionStrategy) unrepaired).getPendingCompactionBytesPerLevel();
+            long[] res = new long[Math.max(repairedBytesPerLevel.length, unrepairedBytesPerLevel.length)];
+            for (int i = 0; i < res.length; i++)
+                res[i] = (i < repairedBytesPerLevel.length ? repairedBytesPerLevel[i] : 0) + (i < unrepairedBytesPerLevel.length ? unrepairedBytesPerLevel[i] : 0);
+            return res;
+        }
+        return null;
+    }
+
     public static int [] sumArrays(int[] a, int [] b)
     {
         int [] res = new int[Math.max(a.length, b.length)];
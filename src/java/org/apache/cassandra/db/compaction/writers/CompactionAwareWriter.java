@@ -18,6 +18,7 @@
 
 package org.apache.cassandra.db.compaction.writers;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -25,6 +26,9 @@ import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.Directories;
 import org.apache.cassandra.db.compaction.AbstractCompactedRow;
 import org.apache.cassandra.db.compaction.CompactionTask;
+import org.apache.cassandra.db.compaction.OperationType;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 
 
@@ -39,16 +43,52 @@ public abstract class CompactionAwareWriter
     protected final long estimatedTotalKeys;
     protected final long maxAge;
     protected final long minRepairedAt;
+    // the token range the writer gets the partitions of, if the compaction is split into sub-ranges; null otherwise
+    protected final Range<Token> range;
 
     public CompactionAwareWriter(ColumnFamilyStore cfs, Set<SSTableReader> nonExpiredSSTables)
+    {
+        this(cfs, nonExpiredSSTables, null);
+    }
+
+    /**
+     * @param range the token range of the partitions written, when the compaction is split into sub-ranges
+     * compacted in parallel (see CompactionTask); null if the writer gets all of them. The writer of a sub-range
+     * must leave the DataTracker alone: the sstables of all sub-ranges are swapped in at once.
+     */
+    public CompactionAwareWriter(ColumnFamilyStore cfs, Set<SSTableReader> nonExpiredSSTables, Range<Token> range)
     {
         this.cfs = cfs;
         this.nonExpiredSSTables = nonExpiredSSTables;
-        this.estimatedTotalKeys = SSTableReader.getApproximateKeyCount(nonExpiredSSTables);
+        this.range = range;
+        this.estimatedTotalKeys = range == null
+                                ? SSTableReader.getApproximateKeyCount(nonExpiredSSTables)
+                                : estimatedKeysForRange(nonExpiredSSTables, range);
         this.maxAge = CompactionTask.getMaxDataAge(nonExpiredSSTables);
         this.minRepairedAt = CompactionTask.getMinRepairedAt(nonExpiredSSTables);
     }
 
+    private static long estimatedKeysForRange(Set<SSTableReader> sstables, Range<Token> range)
+    {
+        long keys = 0;
+        for (SSTableReader sstable : sstables)
+            keys += sstable.estimatedKeysForRanges(Collections.singleton(range));
+        return keys;
+    }
+
+    /**
+     * @return the size the sstables written are expected to add up to: that of the whole compaction, or of the
+     * share of its keys in the range of the writer
+     */
+    protected long getExpectedWriteSize(OperationType compactionType)
+    {
+        long size = cfs.getExpectedCompactedFileSize(nonExpiredSSTables, compactionType);
+        if (range == null)
+            return size;
+        long totalKeys = SSTableReader.getApproximateKeyCount(nonExpiredSSTables);
+        return totalKeys == 0 ? size : (long) (size * Math.min(1.0, (double) estimatedTotalKeys / totalKeys));
+    }
+
     /**
      * Writes a row in an implementation specific way
      * @param row the row to append
@@ -19,6 +19,7 @@ package org.apache.cassandra.db.compaction.writers;
 
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -28,6 +29,8 @@ import org.slf4j.LoggerFactory;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.compaction.AbstractCompactedRow;
 import org.apache.cassandra.db.compaction.OperationType;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTableRewriter;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
@@ -45,10 +48,24 @@ public class DefaultCompactionWriter extends CompactionAwareWriter
 
     public DefaultCompactionWriter(ColumnFamilyStore cfs, Set<SSTableReader> allSSTables, Set<SSTableReader> nonExpiredSSTables, boolean offline, OperationType compactionType)
     {
-        super(cfs, nonExpiredSSTables);
+        this(cfs, allSSTables, nonExpiredSSTables, offline, compactionType, null);
+    }
+
+    /**
+     * Writer of the given sub-range of a compaction split into sub-ranges: it creates one output file of its own
+     */
+    public DefaultCompactionWriter(ColumnFamilyStore cfs, Set<SSTableReader> allSSTables, Set<SSTableReader> nonExpiredSSTables, OperationType compactionType, Range<Token> range)
+    {
+        this(cfs, allSSTables, nonExpiredSSTables, true, compactionType, range);
+    }
+
+    private DefaultCompactionWriter(ColumnFamilyStore cfs, Set<SSTableReader> allSSTables, Set<SSTableReader> nonExpiredSSTables, boolean offline, OperationType compactionType, Range<Token> range)
+    {
+        super(cfs, nonExpiredSSTables, range);
         logger.debug("Expected bloom filter size : {}", estimatedTotalKeys);
-        sstableWriter = new SSTableRewriter(cfs, allSSTables, maxAge, offline);
-        long expectedWriteSize = cfs.getExpectedCompactedFileSize(nonExpiredSSTables, compactionType);
+        // the rewriter of a sub-range does not move the starts of the sstables rewritten, as the others are still reading them
+        sstableWriter = new SSTableRewriter(cfs, range == null ? allSSTables : Collections.<SSTableReader>emptySet(), maxAge, offline);
+        long expectedWriteSize = getExpectedWriteSize(compactionType);
         File sstableDirectory = cfs.directories.getLocationForDisk(getWriteDirectory(expectedWriteSize));
         SSTableWriter writer = SSTableWriter.create(Descriptor.fromFilename(cfs.getTempSSTablePath(sstableDirectory)),
                                                     estimatedTotalKeys,
@@ -18,6 +18,7 @@
 package org.apache.cassandra.db.compaction.writers;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -26,6 +27,8 @@ import org.apache.cassandra.db.RowIndexEntry;
 import org.apache.cassandra.db.compaction.AbstractCompactedRow;
 import org.apache.cassandra.db.compaction.CompactionTask;
 import org.apache.cassandra.db.compaction.OperationType;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTableRewriter;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
@@ -44,15 +47,29 @@ public class MaxSSTableSizeWriter extends CompactionAwareWriter
 
     public MaxSSTableSizeWriter(ColumnFamilyStore cfs, Set<SSTableReader> allSSTables, Set<SSTableReader> nonExpiredSSTables, long maxSSTableSize, int level, boolean offline, OperationType compactionType)
     {
-        super(cfs, nonExpiredSSTables);
+        this(cfs, allSSTables, nonExpiredSSTables, maxSSTableSize, level, offline, compactionType, null);
+    }
+
+    /**
+     * Writer of the given sub-range of a compaction split into sub-ranges
+     */
+    public MaxSSTableSizeWriter(ColumnFamilyStore cfs, Set<SSTableReader> allSSTables, Set<SSTableReader> nonExpiredSSTables, long maxSSTableSize, int level, OperationType compactionType, Range<Token> range)
+    {
+        this(cfs, allSSTables, nonExpiredSSTables, maxSSTableSize, level, true, compactionType, range);
+    }
+
+    private MaxSSTableSizeWriter(ColumnFamilyStore cfs, Set<SSTableReader> allSSTables, Set<SSTableReader> nonExpiredSSTables, long maxSSTableSize, int level, boolean offline, OperationType compactionType, Range<Token> range)
+    {
+        super(cfs, nonExpiredSSTables, range);
         this.allSSTables = allSSTables;
         this.level = level;
         this.maxSSTableSize = maxSSTableSize;
-        long totalSize = cfs.getExpectedCompactedFileSize(nonExpiredSSTables, compactionType);
+        long totalSize = getExpectedWriteSize(compactionType);
         expectedWriteSize = Math.min(maxSSTableSize, totalSize);
-        estimatedTotalKeys = SSTableReader.getApproximateKeyCount(nonExpiredSSTables);
+        estimatedTotalKeys = super.estimatedTotalKeys;
         estimatedSSTables = Math.max(1, estimatedTotalKeys / maxSSTableSize);
-        sstableWriter = new SSTableRewriter(cfs, allSSTables, CompactionTask.getMaxDataAge(nonExpiredSSTables), offline);
+        // the rewriter of a sub-range does not move the starts of the sstables rewritten, as the others are still reading them
+        sstableWriter = new SSTableRewriter(cfs, range == null ? allSSTables : Collections.<SSTableReader>emptySet(), CompactionTask.getMaxDataAge(nonExpiredSSTables), offline);
         File sstableDirectory = cfs.directories.getLocationForDisk(getWriteDirectory(expectedWriteSize));
         SSTableWriter writer = SSTableWriter.create(Descriptor.fromFilename(cfs.getTempSSTablePath(sstableDirectory)),
                                                     estimatedTotalKeys / estimatedSSTables,
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.hints;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.io.util.DataOutputPlus;
+
+/**
+ * A single hinted mutation together with the time it was created and the ttl (in seconds) it
+ * was written with. A hint whose ttl has elapsed must not be delivered, since its gc grace
+ * may have passed and delivering it could resurrect deleted data.
+ */
+public final class Hint
+{
+    public final Mutation mutation;
+    public final long creationTime; // milliseconds
+    public final int ttl;           // seconds
+
+    public Hint(Mutation mutation, long creationTime, int ttl)
+    {
+        assert ttl > 0;
+        this.mutation = mutation;
+        this.creationTime = creationTime;
+        this.ttl = ttl;
+    }
+
+    public boolean isLive(long now)
+    {
+        return creationTime + ttl * 1000L > now;
+    }
+
+    public static void serialize(Hint hint, DataOutputPlus out, int version) throws IOException
+    {
+        out.writeLong(hint.creationTime);
+        out.writeInt(hint.ttl);
+        Mutation.serializer.serialize(hint.mutation, out, version);
+    }
+
+    public static long serializedSize(Hint hint, int version)
+    {
+        TypeSizes sizes = TypeSizes.NATIVE;
+        return sizes.sizeof(hint.creationTime) + sizes.sizeof(hint.ttl) + Mutation.serializer.serializedSize(hint.mutation, version);
+    }
+
+    public static Hint deserialize(DataInput in, int version) throws IOException
+    {
+        long creationTime = in.readLong();
+        int ttl = in.readInt();
+        return new Hint(Mutation.serializer.deserialize(in, version), creationTime, ttl);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.hints;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.util.FileUtils;
+
+/**
+ * All the hint stores of this node, one per target host, backed by the files of the hints directory.
+ */
+public final class HintsCatalog
+{
+    private static final Logger logger = LoggerFactory.getLogger(HintsCatalog.class);
+
+    private final File directory;
+    private final long maxFileSize;
+    private final ConcurrentMap<UUID, HintsStore> stores = new ConcurrentHashMap<>();
+
+    private HintsCatalog(File directory, long maxFileSize, Map<UUID, List<HintsDescriptor>> existing)
+    {
+        this.directory = directory;
+        this.maxFileSize = maxFileSize;
+        for (Map.Entry<UUID, List<HintsDescriptor>> entry : existing.entrySet())
+            stores.put(entry.getKey(), new HintsStore(entry.getKey(), directory, maxFileSize, entry.getValue()));
+    }
+
+    public static HintsCatalog load()
+    {
+        return load(new File(DatabaseDescriptor.getHintsDirectory()), DatabaseDescriptor.getMaxHintsFileSize());
+    }
+
+    /**
+     * Open the hints found in {@code directory}, ordering the files of each host by creation time.
+     */
+    public static HintsCatalog load(File directory, long maxFileSize)
+    {
+        FileUtils.createDirectory(directory);
+
+        Map<UUID, List<HintsDescriptor>> existing = new HashMap<>();
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                if (!HintsDescriptor.isHintsFile(file.getName()))
+                    continue;
+
+                HintsDescriptor descriptor = HintsDescriptor.fromFileName(file.getName());
+                List<HintsDescriptor> descriptors = existing.get(descriptor.hostId);
+                if (descriptors == null)
+                    existing.put(descriptor.hostId, descriptors = new ArrayList<>());
+                descriptors.add(descriptor);
+            }
+        }
+
+        for (List<HintsDescriptor> descriptors : existing.values())
+        {
+            Collections.sort(descriptors, new Comparator<HintsDescriptor>()
+            {
+                public int compare(HintsDescriptor d1, HintsDescriptor d2)
+                {
+                    return Long.compare(d1.timestamp, d2.timestamp);
+                }
+            });
+        }
+
+        if (!existing.isEmpty())
+            logger.info("Found hints files for {} host(s) in {}", existing.size(), directory);
+        return new HintsCatalog(directory, maxFileSize, existing);
+    }
+
+    public HintsStore get(UUID hostId)
+    {
+        HintsStore store = stores.get(hostId);
+        if (store != null)
+            return store;
+
+        HintsStore newStore = new HintsStore(hostId, directory, maxFileSize, Collections.<HintsDescriptor>emptyList());
+        store = stores.putIfAbsent(hostId, newStore);
+        return store == null ? newStore : store;
+    }
+
+    /**
+     * @return the store for {@code hostId}, or null if no hint was ever written for that host
+     */
+    public HintsStore getIfExists(UUID hostId)
+    {
+        return stores.get(hostId);
+    }
+
+    public Collection<HintsStore> stores()
+    {
+        return stores.values();
+    }
+
+    public long totalSize()
+    {
+        long size = 0;
+        for (HintsStore store : stores.values())
+            size += store.totalSize();
+        return size;
+    }
+
+    public void syncAll()
+    {
+        for (HintsStore store : stores.values())
+            store.sync();
+    }
+
+    public void closeAllWriters()
+    {
+        for (HintsStore store : stores.values())
+            store.closeWriter();
+    }
+
+    public void deleteAllHints()
+    {
+        for (HintsStore store : stores.values())
+            store.deleteAllHints();
+    }
+}
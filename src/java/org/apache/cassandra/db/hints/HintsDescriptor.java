@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.hints;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Objects;
+
+/**
+ * Identifies a single append-only hints file: the host the hints are destined for, the time the
+ * file was created (which orders files of the same host), and the messaging version the
+ * mutations inside it were serialized with.
+ *
+ * Files are named {@code <host id>-<timestamp>-<messaging version>.hints}.
+ */
+public final class HintsDescriptor
+{
+    private static final String SEPARATOR = "-";
+    private static final String FILENAME_EXTENSION = ".hints";
+    private static final Pattern HINTS_FILE_PATTERN =
+        Pattern.compile("^([0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12})-(\\d+)-(\\d+)\\.hints$");
+
+    public final UUID hostId;
+    public final long timestamp;
+    public final int messagingVersion;
+
+    public HintsDescriptor(UUID hostId, long timestamp, int messagingVersion)
+    {
+        this.hostId = hostId;
+        this.timestamp = timestamp;
+        this.messagingVersion = messagingVersion;
+    }
+
+    public String fileName()
+    {
+        return hostId + SEPARATOR + timestamp + SEPARATOR + messagingVersion + FILENAME_EXTENSION;
+    }
+
+    public static boolean isHintsFile(String name)
+    {
+        return HINTS_FILE_PATTERN.matcher(name).matches();
+    }
+
+    public static HintsDescriptor fromFileName(String name)
+    {
+        Matcher matcher = HINTS_FILE_PATTERN.matcher(name);
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Cannot parse hints file name " + name);
+
+        return new HintsDescriptor(UUID.fromString(matcher.group(1)),
+                                   Long.parseLong(matcher.group(2)),
+                                   Integer.parseInt(matcher.group(3)));
+    }
+
+    public File file(File directory)
+    {
+        return new File(directory, fileName());
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (!(o instanceof HintsDescriptor))
+            return false;
+
+        HintsDescriptor that = (HintsDescriptor) o;
+        return hostId.equals(that.hostId) && timestamp == that.timestamp && messagingVersion == that.messagingVersion;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(hostId, timestamp, messagingVersion);
+    }
+
+    @Override
+    public String toString()
+    {
+        return fileName();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.hints;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.db.HintedHandOffManager;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.WriteType;
+import org.apache.cassandra.exceptions.WriteFailureException;
+import org.apache.cassandra.exceptions.WriteTimeoutException;
+import org.apache.cassandra.gms.FailureDetector;
+import org.apache.cassandra.io.FSReadError;
+import org.apache.cassandra.metrics.HintedHandoffMetrics;
+import org.apache.cassandra.net.MessageOut;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.WriteResponseHandler;
+
+/**
+ * Delivers the closed hints files of a {@link HintsStore} to its endpoint.
+ *
+ * Files are read sequentially and their hints sent a page at a time; the position reached is only
+ * advanced once every hint of the page has been acknowledged. A file is deleted once all of its
+ * hints are delivered; if delivery stops part way through (endpoint down, timeout, pause) the file
+ * is put back at the head of the store's queue with the acknowledged position, so the next dispatch
+ * resumes from there instead of resending the whole file.
+ */
+public final class HintsDispatcher
+{
+    private static final Logger logger = LoggerFactory.getLogger(HintsDispatcher.class);
+
+    public interface AbortCondition
+    {
+        boolean shouldAbort();
+    }
+
+    private final HintsStore store;
+    private final InetAddress endpoint;
+    private final RateLimiter rateLimiter;
+    private final HintedHandoffMetrics metrics;
+    private final AbortCondition abortCondition;
+
+    private int delivered;
+
+    public HintsDispatcher(HintsStore store, InetAddress endpoint, RateLimiter rateLimiter, HintedHandoffMetrics metrics, AbortCondition abortCondition)
+    {
+        this.store = store;
+        this.endpoint = endpoint;
+        this.rateLimiter = rateLimiter;
+        this.metrics = metrics;
+        this.abortCondition = abortCondition;
+    }
+
+    /**
+     * @return the number of hints delivered
+     */
+    public int dispatch()
+    {
+        HintsDescriptor descriptor;
+        while ((descriptor = store.poll()) != null)
+        {
+            if (!dispatch(descriptor))
+                return delivered;
+        }
+        logger.info("Finished hinted handoff of {} rows to endpoint {}", delivered, endpoint);
+        return delivered;
+    }
+
+    /**
+     * @return true if the file was fully delivered and deleted
+     */
+    private boolean dispatch(HintsDescriptor descriptor)
+    {
+        long offset = store.getDispatchOffset(descriptor);
+        boolean completed = false;
+        try (HintsReader reader = HintsReader.open(store.directory(), descriptor, offset))
+        {
+            while (true)
+            {
+                if (abortCondition.shouldAbort())
+                {
+                    logger.debug("Hints delivery process is paused, aborting");
+                    return false;
+                }
+
+                if (store.isDeleted(descriptor))
+                {
+                    logger.debug("Hints of {} were deleted during their delivery, aborting", endpoint);
+                    return false;
+                }
+
+                if (!FailureDetector.instance.isAlive(endpoint))
+                {
+                    logger.info("Endpoint {} died during hint delivery; aborting ({} delivered)", endpoint, delivered);
+                    return false;
+                }
+
+                List<WriteResponseHandler<Mutation>> responseHandlers = new ArrayList<>();
+                long pageEnd = offset;
+                long pageBytes = 0;
+                boolean endOfFile = false;
+                // read less hints per page if they are very large
+                for (int i = 0; i < HintedHandOffManager.calculatePageSize((int) (pageBytes / Math.max(1, i))); i++)
+                {
+                    HintsReader.Entry entry = reader.readNext();
+                    if (entry == null)
+                    {
+                        endOfFile = true;
+                        break;
+                    }
+                    pageEnd = entry.endOffset;
+                    pageBytes += entry.size;
+
+                    Mutation mutation = deliverableMutation(entry.hint);
+                    if (mutation == null)
+                    {
+                        metrics.incrSkippedHints();
+                        continue;
+                    }
+
+                    MessageOut<Mutation> message = mutation.createMessage();
+                    rateLimiter.acquire(message.serializedSize(MessagingService.current_version));
+                    WriteResponseHandler<Mutation> responseHandler = new WriteResponseHandler<>(endpoint, WriteType.SIMPLE);
+                    MessagingService.instance().sendRR(message, endpoint, responseHandler, false);
+                    responseHandlers.add(responseHandler);
+                }
+
+                for (WriteResponseHandler<Mutation> handler : responseHandlers)
+                {
+                    try
+                    {
+                        handler.get();
+                    }
+                    catch (WriteTimeoutException|WriteFailureException e)
+                    {
+                        metrics.incrFailedDeliveries(responseHandlers.size());
+                        logger.info("Failed replaying hints to {}; aborting ({} delivered), error : {}",
+                                    endpoint, delivered, e.getMessage());
+                        return false;
+                    }
+                }
+
+                delivered += responseHandlers.size();
+                metrics.incrDeliveredHints(responseHandlers.size());
+                offset = pageEnd;
+
+                if (endOfFile)
+                {
+                    completed = true;
+                    return true;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new FSReadError(e, descriptor.file(store.directory()));
+        }
+        finally
+        {
+            if (completed)
+                store.delete(descriptor);
+            else
+                store.offerFirst(descriptor, offset);
+        }
+    }
+
+    /**
+     * @return the mutation to deliver for {@code hint}, or null if the hint should be dropped because its table
+     * was removed or truncated since, or because its ttl has expired
+     */
+    private static Mutation deliverableMutation(Hint hint)
+    {
+        if (hint == null)
+            return null;
+
+        if (!hint.isLive(System.currentTimeMillis()))
+            return null;
+
+        Mutation mutation = hint.mutation;
+        for (UUID cfId : mutation.getColumnFamilyIds())
+        {
+            if (hint.creationTime <= SystemKeyspace.getTruncatedAt(cfId))
+            {
+                logger.debug("Skipping delivery of hint for truncated table {}", cfId);
+                mutation = mutation.without(cfId);
+            }
+        }
+        return mutation.isEmpty() ? null : mutation;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.hints;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import com.github.tjake.ICRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.db.UnknownColumnFamilyException;
+import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.utils.CRC32Factory;
+
+/**
+ * Sequentially reads the entries of a hints file written by {@link HintsWriter}, verifying the
+ * checksums of every entry. An entry whose body fails verification is skipped, since its size
+ * was verified and the next entry can still be located. Reading stops at the end of the file or
+ * at the first size that fails verification; anything after it cannot be trusted since the next
+ * size header can no longer be located reliably.
+ */
+final class HintsReader implements AutoCloseable
+{
+    private static final Logger logger = LoggerFactory.getLogger(HintsReader.class);
+
+    /**
+     * A single entry read from the file. {@code hint} is null if the mutation targets a table
+     * that no longer exists, or if the entry is corrupted; such entries are still reported so
+     * that the caller can account for their position.
+     */
+    static final class Entry
+    {
+        final Hint hint;
+        final int size;
+        final long endOffset;
+
+        private Entry(Hint hint, int size, long endOffset)
+        {
+            this.hint = hint;
+            this.size = size;
+            this.endOffset = endOffset;
+        }
+    }
+
+    private final HintsDescriptor descriptor;
+    private final RandomAccessReader reader;
+    private boolean corrupted;
+
+    private HintsReader(HintsDescriptor descriptor, RandomAccessReader reader)
+    {
+        this.descriptor = descriptor;
+        this.reader = reader;
+    }
+
+    static HintsReader open(File directory, HintsDescriptor descriptor, long offset)
+    {
+        RandomAccessReader reader = RandomAccessReader.open(descriptor.file(directory));
+        if (offset > 0)
+            reader.seek(offset);
+        return new HintsReader(descriptor, reader);
+    }
+
+    /**
+     * @return true if reading stopped because of a size checksum mismatch rather than the end of the file
+     */
+    boolean isCorrupted()
+    {
+        return corrupted;
+    }
+
+    /**
+     * @return the next entry, or null if the end of the file, or an entry with a corrupted size or
+     * a partially written entry, was reached
+     */
+    Entry readNext() throws IOException
+    {
+        if (corrupted || reader.bytesRemaining() < HintsWriter.ENTRY_OVERHEAD_SIZE)
+            return null;
+
+        long start = reader.getFilePointer();
+        int size = reader.readInt();
+        ICRC32 crc = CRC32Factory.instance.create();
+        crc.updateInt(size);
+        if (crc.getCrc() != reader.readInt() || size < 0 || reader.bytesRemaining() < size + 4)
+            return markCorrupted(start);
+
+        byte[] body = new byte[size];
+        reader.readFully(body);
+        crc = CRC32Factory.instance.create();
+        crc.update(body, 0, size);
+        if (crc.getCrc() != reader.readInt())
+        {
+            logger.warn("Corrupted hint entry in {} at position {}; skipping it", descriptor, start);
+            return new Entry(null, size, reader.getFilePointer());
+        }
+
+        Hint hint;
+        try
+        {
+            hint = Hint.deserialize(new DataInputStream(new FastByteArrayInputStream(body)), descriptor.messagingVersion);
+        }
+        catch (UnknownColumnFamilyException e)
+        {
+            logger.debug("Skipping hint for deleted table in {}", descriptor, e);
+            hint = null;
+        }
+        return new Entry(hint, size, reader.getFilePointer());
+    }
+
+    private Entry markCorrupted(long position)
+    {
+        // a torn write at the tail of the last file written before a crash is expected; anything else is worth a warning
+        if (reader.length() - position > HintsWriter.ENTRY_OVERHEAD_SIZE)
+            logger.warn("Corrupted hint entry in {} at position {}; skipping the rest of the file", descriptor, position);
+        corrupted = true;
+        return null;
+    }
+
+    public void close()
+    {
+        reader.close();
+    }
+}
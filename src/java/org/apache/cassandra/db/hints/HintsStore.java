@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.hints;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.net.MessagingService;
+
+/**
+ * The append-only hint log of a single target host.
+ *
+ * Hints are appended to the currently open file until it reaches the configured maximum size,
+ * at which point the file is closed and queued for dispatch. Dispatch reads closed files
+ * sequentially and deletes each file as a whole once every hint in it has been acknowledged;
+ * a partially delivered file remembers the offset of the last acknowledged entry so that a
+ * later dispatch resumes where the previous one stopped.
+ */
+public final class HintsStore
+{
+    private static final Logger logger = LoggerFactory.getLogger(HintsStore.class);
+
+    public final UUID hostId;
+    private final File directory;
+    private final long maxFileSize;
+
+    private final Deque<HintsDescriptor> dispatchQueue = new ConcurrentLinkedDeque<>();
+    private final Map<HintsDescriptor, Long> dispatchOffsets = new ConcurrentHashMap<>();
+    private final AtomicLong totalSize = new AtomicLong();
+
+    // guarded by this
+    private HintsWriter writer;
+    private long lastTimestamp;
+    // the files taken by a dispatch and not yet returned, and those of them deleted in the meantime
+    private final Set<HintsDescriptor> dispatching = new HashSet<>();
+    private final Set<HintsDescriptor> deletedWhileDispatching = new HashSet<>();
+
+    HintsStore(UUID hostId, File directory, long maxFileSize, List<HintsDescriptor> existing)
+    {
+        this.hostId = hostId;
+        this.directory = directory;
+        this.maxFileSize = maxFileSize;
+
+        for (HintsDescriptor descriptor : existing)
+        {
+            dispatchQueue.offer(descriptor);
+            totalSize.addAndGet(descriptor.file(directory).length());
+            lastTimestamp = Math.max(lastTimestamp, descriptor.timestamp);
+        }
+    }
+
+    public synchronized void write(Hint hint)
+    {
+        if (writer == null)
+            writer = HintsWriter.create(directory, new HintsDescriptor(hostId, nextTimestamp(), MessagingService.current_version));
+
+        totalSize.addAndGet(writer.append(hint));
+
+        if (writer.size() >= maxFileSize)
+            closeWriter();
+    }
+
+    private long nextTimestamp()
+    {
+        lastTimestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+        return lastTimestamp;
+    }
+
+    /**
+     * Close the file currently written to, if any, making its hints available for dispatch.
+     */
+    public synchronized void closeWriter()
+    {
+        if (writer == null)
+            return;
+
+        writer.close();
+        dispatchQueue.offer(writer.descriptor);
+        writer = null;
+    }
+
+    public synchronized void sync()
+    {
+        if (writer != null)
+            writer.sync();
+    }
+
+    /**
+     * @return true if there are hints for this host, either in closed files or in the file being written to
+     */
+    public synchronized boolean hasHints()
+    {
+        return writer != null || !dispatchQueue.isEmpty();
+    }
+
+    public long totalSize()
+    {
+        return totalSize.get();
+    }
+
+    synchronized HintsDescriptor poll()
+    {
+        HintsDescriptor descriptor = dispatchQueue.poll();
+        if (descriptor != null)
+            dispatching.add(descriptor);
+        return descriptor;
+    }
+
+    /**
+     * Return a partially dispatched file to the head of the queue, so that it is the first one
+     * picked up by the next dispatch, unless all hints were deleted during its dispatch: then it is deleted.
+     */
+    synchronized void offerFirst(HintsDescriptor descriptor, long dispatchedOffset)
+    {
+        dispatching.remove(descriptor);
+        if (deletedWhileDispatching.remove(descriptor))
+        {
+            delete(descriptor);
+            return;
+        }
+
+        if (dispatchedOffset > 0)
+            dispatchOffsets.put(descriptor, dispatchedOffset);
+        dispatchQueue.offerFirst(descriptor);
+    }
+
+    /**
+     * @return true if all hints were deleted since the given file was taken by a dispatch, which should then stop
+     */
+    synchronized boolean isDeleted(HintsDescriptor descriptor)
+    {
+        return deletedWhileDispatching.contains(descriptor);
+    }
+
+    long getDispatchOffset(HintsDescriptor descriptor)
+    {
+        Long offset = dispatchOffsets.get(descriptor);
+        return offset == null ? 0 : offset;
+    }
+
+    File directory()
+    {
+        return directory;
+    }
+
+    /**
+     * Delete a fully dispatched file.
+     */
+    synchronized void delete(HintsDescriptor descriptor)
+    {
+        dispatching.remove(descriptor);
+        deletedWhileDispatching.remove(descriptor);
+        File file = descriptor.file(directory);
+        long size = file.length();
+        if (file.exists())
+            FileUtils.deleteWithConfirm(file);
+        dispatchOffsets.remove(descriptor);
+        totalSize.addAndGet(-size);
+        logger.debug("Deleted dispatched hints file {}", descriptor);
+    }
+
+    /**
+     * Delete every hints file of this host, including the one currently written to.
+     * Files that are being dispatched concurrently are marked deleted: their dispatch stops at its next page
+     * and deletes them rather than returning them to the queue.
+     */
+    public synchronized void deleteAllHints()
+    {
+        closeWriter();
+        HintsDescriptor descriptor;
+        while ((descriptor = dispatchQueue.poll()) != null)
+            delete(descriptor);
+        deletedWhileDispatching.addAll(dispatching);
+    }
+}
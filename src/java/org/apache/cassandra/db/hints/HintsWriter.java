@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.hints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import com.github.tjake.ICRC32;
+
+import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.CRC32Factory;
+
+/**
+ * Appends hints to a single hints file. Every entry is laid out as
+ *
+ * [int size][int crc(size)][size bytes of serialized hint][int crc(hint)]
+ *
+ * so that a reader can detect both a torn size header and a corrupted or partially written
+ * body, and stop delivery at the last intact entry.
+ *
+ * Not thread safe: callers (HintsStore) serialize access.
+ */
+final class HintsWriter implements AutoCloseable
+{
+    static final int ENTRY_OVERHEAD_SIZE = 12;
+
+    final HintsDescriptor descriptor;
+    private final File file;
+    private final FileChannel channel;
+    private long written;
+
+    private HintsWriter(HintsDescriptor descriptor, File file, FileChannel channel)
+    {
+        this.descriptor = descriptor;
+        this.file = file;
+        this.channel = channel;
+    }
+
+    static HintsWriter create(File directory, HintsDescriptor descriptor)
+    {
+        File file = descriptor.file(directory);
+        try
+        {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return new HintsWriter(descriptor, file, channel);
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, file);
+        }
+    }
+
+    /**
+     * @return the number of bytes written to the file for this hint, including the entry overhead
+     */
+    int append(Hint hint)
+    {
+        try
+        {
+            int size = (int) Hint.serializedSize(hint, descriptor.messagingVersion);
+            DataOutputBuffer buffer = new DataOutputBuffer(size + ENTRY_OVERHEAD_SIZE);
+            ICRC32 crc = CRC32Factory.instance.create();
+            buffer.writeInt(size);
+            crc.updateInt(size);
+            buffer.writeInt(crc.getCrc());
+
+            int bodyStart = buffer.getLength();
+            Hint.serialize(hint, buffer, descriptor.messagingVersion);
+            assert buffer.getLength() - bodyStart == size;
+            crc = CRC32Factory.instance.create();
+            crc.update(buffer.getData(), bodyStart, size);
+            buffer.writeInt(crc.getCrc());
+
+            ByteBuffer entry = buffer.buffer();
+            int length = entry.remaining();
+            while (entry.hasRemaining())
+                channel.write(entry);
+            written += length;
+            return length;
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, file);
+        }
+    }
+
+    long size()
+    {
+        return written;
+    }
+
+    void sync()
+    {
+        try
+        {
+            channel.force(false);
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, file);
+        }
+    }
+
+    public void close()
+    {
+        try
+        {
+            channel.force(true);
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, file);
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.streaming.messages.StreamMessage;
 import org.apache.cassandra.utils.FBUtilities;
 
 import org.apache.commons.lang3.StringUtils;
@@ -248,6 +249,11 @@ public class VersionedValue implements Comparable<VersionedValue>
             return new VersionedValue(String.valueOf(MessagingService.current_version));
         }
 
+        public VersionedValue streamingVersion()
+        {
+            return new VersionedValue(String.valueOf(StreamMessage.CURRENT_VERSION));
+        }
+
         public VersionedValue internalIP(String private_ip)
         {
             return new VersionedValue(private_ip);
@@ -29,6 +29,7 @@ import java.util.zip.Adler32;
 
 import com.google.common.primitives.Ints;
 
+import org.apache.cassandra.cache.ChunkCache;
 import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.io.FSReadError;
@@ -75,11 +76,16 @@ public class CompressedRandomAccessReader extends RandomAccessReader
     // raw checksum bytes
     private ByteBuffer checksumBytes;
 
+    // only pooled readers, i.e. those serving queries, go through the shared chunk cache; compaction and
+    // streaming scan each chunk once and would only evict hot ones
+    private final boolean useChunkCache;
+
     protected CompressedRandomAccessReader(ChannelProxy channel, CompressionMetadata metadata, PoolingSegmentedFile owner) throws FileNotFoundException
     {
         super(channel, metadata.chunkLength(), metadata.compressedFileLength, metadata.compressor().useDirectOutputByteBuffers(), owner);
         this.metadata = metadata;
         checksum = new Adler32();
+        useChunkCache = owner != null && ChunkCache.instance.isEnabled();
 
         if (!useMmap)
         {
@@ -150,13 +156,10 @@ public class CompressedRandomAccessReader extends RandomAccessReader
         chunkSegments = null;
     }
 
-    private void reBufferStandard()
+    private void reBufferStandard(long position)
     {
         try
         {
-            long position = current();
-            assert position < metadata.dataLength;
-
             CompressionMetadata.Chunk chunk = metadata.chunkFor(position);
 
             if (compressed.capacity() < chunk.length)
@@ -194,14 +197,6 @@ public class CompressedRandomAccessReader extends RandomAccessReader
                 // reset checksum object back to the original (blank) state
                 checksum.reset();
             }
-
-            // buffer offset is always aligned
-            bufferOffset = position & ~(buffer.capacity() - 1);
-            buffer.position((int) (position - bufferOffset));
-            // the length() can be provided at construction time, to override the true (uncompressed) length of the file;
-            // this is permitted to occur within a compressed segment, so we truncate validBufferBytes if we cross the imposed length
-            if (bufferOffset + buffer.limit() > length())
-                buffer.limit((int)(length() - bufferOffset));
         }
         catch (CorruptBlockException e)
         {
@@ -213,13 +208,10 @@ public class CompressedRandomAccessReader extends RandomAccessReader
         }
     }
 
-    private void reBufferMmap()
+    private void reBufferMmap(long position)
     {
         try
         {
-            long position = current();
-            assert position < metadata.dataLength;
-
             CompressionMetadata.Chunk chunk = metadata.chunkFor(position);
 
             Map.Entry<Long, MappedByteBuffer> entry = chunkSegments.floorEntry(chunk.offset);
@@ -263,14 +255,6 @@ public class CompressedRandomAccessReader extends RandomAccessReader
                 // reset checksum object back to the original (blank) state
                 checksum.reset();
             }
-
-            // buffer offset is always aligned
-            bufferOffset = position & ~(buffer.capacity() - 1);
-            buffer.position((int) (position - bufferOffset));
-            // the length() can be provided at construction time, to override the true (uncompressed) length of the file;
-            // this is permitted to occur within a compressed segment, so we truncate validBufferBytes if we cross the imposed length
-            if (bufferOffset + buffer.limit() > length())
-                buffer.limit((int)(length() - bufferOffset));
         }
         catch (CorruptBlockException e)
         {
@@ -282,14 +266,32 @@ public class CompressedRandomAccessReader extends RandomAccessReader
     @Override
     protected void reBuffer()
     {
-        if (useMmap)
-        {
-            reBufferMmap();
-        }
-        else
+        long position = current();
+        assert position < metadata.dataLength;
+
+        // buffer offset is always aligned
+        long chunkPosition = position & ~(buffer.capacity() - 1);
+        if (!useChunkCache || !ChunkCache.instance.get(getPath(), chunkPosition, buffer))
         {
-            reBufferStandard();
+            if (useMmap)
+            {
+                reBufferMmap(position);
+            }
+            else
+            {
+                reBufferStandard(position);
+            }
+
+            if (useChunkCache)
+                ChunkCache.instance.put(getPath(), chunkPosition, buffer);
         }
+
+        bufferOffset = chunkPosition;
+        buffer.position((int) (position - bufferOffset));
+        // the length() can be provided at construction time, to override the true (uncompressed) length of the file;
+        // this is permitted to occur within a compressed segment, so we truncate validBufferBytes if we cross the imposed length
+        if (bufferOffset + buffer.limit() > length())
+            buffer.limit((int)(length() - bufferOffset));
     }
 
     private int checksum(CompressionMetadata.Chunk chunk) throws IOException
@@ -43,6 +43,8 @@ public class Component
         PRIMARY_INDEX("Index.db"),
         // serialized bloom filter for the row keys in the sstable
         FILTER("Filter.db"),
+        // serialized bloom filter over (partition key, clustering prefix), see RowBloomFilter
+        ROW_FILTER("RowFilter.db"),
         // file to hold information about uncompressed data length, chunk offsets etc.
         COMPRESSION_INFO("CompressionInfo.db"),
         // statistical metadata about the content of the sstable
@@ -77,6 +79,7 @@ public class Component
     public final static Component DATA = new Component(Type.DATA);
     public final static Component PRIMARY_INDEX = new Component(Type.PRIMARY_INDEX);
     public final static Component FILTER = new Component(Type.FILTER);
+    public final static Component ROW_FILTER = new Component(Type.ROW_FILTER);
     public final static Component COMPRESSION_INFO = new Component(Type.COMPRESSION_INFO);
     public final static Component STATS = new Component(Type.STATS);
     public final static Component DIGEST = new Component(Type.DIGEST);
@@ -142,27 +145,33 @@ public class Component
         //右边 = Data.db
         Pair<Descriptor,String> path = Descriptor.fromFilename(directory, name);
 
+        return Pair.create(path.left, parse(path.right));
+    }
+
+    /**
+     * @return the component of the given name, the singleton one for the types that don't need ids
+     */
+    public static Component parse(String name)
+    {
         // parse the component suffix
-        Type type = Type.fromRepresentation(path.right);
+        Type type = Type.fromRepresentation(name);
         // build (or retrieve singleton for) the component object
-        Component component;
         switch(type)
         {
-            case DATA:              component = Component.DATA;                         break;
-            case PRIMARY_INDEX:     component = Component.PRIMARY_INDEX;                break;
-            case FILTER:            component = Component.FILTER;                       break;
-            case COMPRESSION_INFO:  component = Component.COMPRESSION_INFO;             break;
-            case STATS:             component = Component.STATS;                        break;
-            case DIGEST:            component = Component.DIGEST;                       break;
-            case CRC:               component = Component.CRC;                          break;
-            case SUMMARY:           component = Component.SUMMARY;                      break;
-            case TOC:               component = Component.TOC;                          break;
-            case CUSTOM:            component = new Component(Type.CUSTOM, path.right); break;
+            case DATA:              return Component.DATA;
+            case PRIMARY_INDEX:     return Component.PRIMARY_INDEX;
+            case FILTER:            return Component.FILTER;
+            case ROW_FILTER:        return Component.ROW_FILTER;
+            case COMPRESSION_INFO:  return Component.COMPRESSION_INFO;
+            case STATS:             return Component.STATS;
+            case DIGEST:            return Component.DIGEST;
+            case CRC:               return Component.CRC;
+            case SUMMARY:           return Component.SUMMARY;
+            case TOC:               return Component.TOC;
+            case CUSTOM:            return new Component(Type.CUSTOM, name);
             default:
                  throw new IllegalStateException();
         }
-
-        return Pair.create(path.left, component);
     }
 
     @Override
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.DeletionInfo;
+import org.apache.cassandra.db.OnDiskAtom;
+import org.apache.cassandra.db.RangeTombstone;
+import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.io.util.SafeMemory;
+import org.apache.cassandra.io.util.SafeMemoryWriter;
+import org.apache.cassandra.utils.FilterFactory;
+import org.apache.cassandra.utils.IFilter;
+import org.apache.cassandra.utils.MurmurHash;
+
+/**
+ * A bloom filter over (partition key, clustering prefix) pairs, stored in the ROW_FILTER component.
+ *
+ * Partitions holding anything that is not tied to a single clustering prefix (a partition or range
+ * tombstone, or a cell with a short clustering prefix) add a partition-wide marker instead, so that
+ * a negative answer from {@link #mayContain} always means the sstable has nothing for that row.
+ */
+public class RowBloomFilter
+{
+    private RowBloomFilter()
+    {
+    }
+
+    public static boolean isEnabled(CFMetaData metadata)
+    {
+        return metadata.getRowBloomFilterFpChance() < 1.0 && metadata.comparator.clusteringPrefixSize() > 0;
+    }
+
+    /**
+     * @return false if the sstable the filter was built for cannot contain the row identified by
+     * {@code key} and the clustering prefix of {@code name}.
+     */
+    public static boolean mayContain(IFilter filter, DecoratedKey key, Composite name, int clusteringSize)
+    {
+        long[] hash = new long[2];
+        hashKey(key.getKey(), hash);
+        if (filter.isPresent(new HashKey(hash[0], hash[1])))
+            return true;
+        hashClustering(name, clusteringSize, hash);
+        return filter.isPresent(new HashKey(hash[0], hash[1]));
+    }
+
+    private static void hashKey(ByteBuffer key, long[] dest)
+    {
+        MurmurHash.hash3_x64_128(key, key.position(), key.remaining(), 0, dest);
+    }
+
+    private static void hashClustering(Composite name, int clusteringSize, long[] dest)
+    {
+        long[] component = new long[2];
+        for (int i = 0; i < clusteringSize; i++)
+        {
+            ByteBuffer bb = name.get(i);
+            MurmurHash.hash3_x64_128(bb, bb.position(), bb.remaining(), dest[0], component);
+            dest[0] = component[0];
+            dest[1] ^= component[1];
+        }
+    }
+
+    private static final class HashKey implements IFilter.FilterKey
+    {
+        private final long hash0;
+        private final long hash1;
+
+        HashKey(long hash0, long hash1)
+        {
+            this.hash0 = hash0;
+            this.hash1 = hash1;
+        }
+
+        public void filterHash(long[] dest)
+        {
+            dest[0] = hash0;
+            dest[1] = hash1;
+        }
+    }
+
+    /**
+     * Collects the row hashes of an sstable while it is written. The number of rows is not known
+     * up front, so the hashes are buffered off-heap and the filter is sized once the sstable is complete.
+     */
+    public static class Builder implements AutoCloseable
+    {
+        private static final int HASH_SIZE = 16;
+
+        private final int clusteringSize;
+        private final SafeMemoryWriter hashes;
+        private final long[] keyHash = new long[2];
+        private final long[] rowHash = new long[2];
+        private Composite lastName;
+        private boolean partitionMarked;
+
+        public Builder(CFMetaData metadata, long expectedKeys)
+        {
+            this.clusteringSize = metadata.comparator.clusteringPrefixSize();
+            this.hashes = new SafeMemoryWriter(Math.max(1, expectedKeys) * HASH_SIZE).order(ByteOrder.nativeOrder());
+        }
+
+        public void startPartition(ByteBuffer key, DeletionInfo deletionInfo)
+        {
+            hashKey(key, keyHash);
+            lastName = null;
+            partitionMarked = false;
+            if (!deletionInfo.isLive())
+                markPartition();
+        }
+
+        /**
+         * Records a partition whose rows are not individually known, matching every row lookup.
+         */
+        public void addPartition(ByteBuffer key)
+        {
+            hashKey(key, keyHash);
+            lastName = null;
+            partitionMarked = false;
+            markPartition();
+        }
+
+        /**
+         * Makes the current partition match every row lookup.
+         */
+        public void markPartition()
+        {
+            if (partitionMarked)
+                return;
+            partitionMarked = true;
+            append(keyHash[0], keyHash[1]);
+        }
+
+        public void add(OnDiskAtom atom)
+        {
+            if (atom instanceof RangeTombstone)
+            {
+                markPartition();
+                return;
+            }
+
+            Composite name = atom.name();
+            if (name.isStatic())
+                return;
+            if (name.size() < clusteringSize)
+            {
+                markPartition();
+                return;
+            }
+            if (lastName != null && samePrefix(lastName, name))
+                return;
+
+            lastName = name;
+            rowHash[0] = keyHash[0];
+            rowHash[1] = keyHash[1];
+            hashClustering(name, clusteringSize, rowHash);
+            append(rowHash[0], rowHash[1]);
+        }
+
+        private boolean samePrefix(Composite c1, Composite c2)
+        {
+            for (int i = 0; i < clusteringSize; i++)
+                if (!c1.get(i).equals(c2.get(i)))
+                    return false;
+            return true;
+        }
+
+        private void append(long hash0, long hash1)
+        {
+            try
+            {
+                hashes.writeLong(hash0);
+                hashes.writeLong(hash1);
+            }
+            catch (IOException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+
+        public long count()
+        {
+            return hashes.length() / HASH_SIZE;
+        }
+
+        public IFilter build(double fpChance)
+        {
+            long count = count();
+            IFilter filter = FilterFactory.getFilter(Math.max(1, count), fpChance, true);
+            SafeMemory memory = hashes.currentBuffer();
+            for (long i = 0; i < count; i++)
+                filter.add(new HashKey(memory.getLong(i * HASH_SIZE), memory.getLong(i * HASH_SIZE + 8)));
+            return filter;
+        }
+
+        public void close()
+        {
+            hashes.close();
+        }
+    }
+}
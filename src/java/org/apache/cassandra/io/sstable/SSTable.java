@@ -150,6 +150,11 @@ public abstract class SSTable
         return descriptor.ksname;
     }
 
+    public Set<Component> getComponents()
+    {
+        return Collections.unmodifiableSet(components);
+    }
+
     /**
      * @return Descriptor and Component pair. null if given file is not acceptable as SSTable component.
      *         If component is of unknown type, returns CUSTOM component.
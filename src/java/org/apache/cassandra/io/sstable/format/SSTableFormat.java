@@ -49,7 +49,7 @@ public interface SSTableFormat
 
     AbstractCompactedRow getCompactedRowWriter(CompactionController controller, ImmutableList<OnDiskAtomIterator> onDiskAtomIterators);
 
-    RowIndexEntry.IndexSerializer<?> getIndexSerializer(CFMetaData cfm);
+    RowIndexEntry.IndexSerializer<?> getIndexSerializer(CFMetaData cfm, Version version);
 
     public static enum Type
     {
@@ -28,6 +28,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Ordering;
+import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.RateLimiter;
 
@@ -178,6 +179,8 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
     protected SegmentedFile dfile;
     protected IndexSummary indexSummary;
     protected IFilter bf;
+    // filter over (partition key, clustering prefix), see RowBloomFilter; always present if the sstable has none
+    protected IFilter rowFilter = FilterFactory.AlwaysPresent;
 
     protected final RowIndexEntry.IndexSerializer rowIndexEntrySerializer;
 
@@ -516,11 +519,29 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
                                       StatsMetadata sstableMetadata,
                                       OpenReason openReason)
     {
-        assert desc != null && partitioner != null && ifile != null && dfile != null && isummary != null && bf != null && sstableMetadata != null;
+        return internalOpen(desc, components, metadata, partitioner, ifile, dfile, isummary, bf, FilterFactory.AlwaysPresent,
+                            maxDataAge, sstableMetadata, openReason);
+    }
+
+    public static SSTableReader internalOpen(Descriptor desc,
+                                      Set<Component> components,
+                                      CFMetaData metadata,
+                                      IPartitioner partitioner,
+                                      SegmentedFile ifile,
+                                      SegmentedFile dfile,
+                                      IndexSummary isummary,
+                                      IFilter bf,
+                                      IFilter rowFilter,
+                                      long maxDataAge,
+                                      StatsMetadata sstableMetadata,
+                                      OpenReason openReason)
+    {
+        assert desc != null && partitioner != null && ifile != null && dfile != null && isummary != null && bf != null && rowFilter != null && sstableMetadata != null;
 
         SSTableReader reader = internalOpen(desc, components, metadata, partitioner, maxDataAge, sstableMetadata, openReason);
 
         reader.bf = bf;
+        reader.rowFilter = rowFilter;
         reader.ifile = ifile;
         reader.dfile = dfile;
         reader.indexSummary = isummary;
@@ -555,7 +576,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         this.sstableMetadata = sstableMetadata;
         this.maxDataAge = maxDataAge;
         this.openReason = openReason;
-        this.rowIndexEntrySerializer = descriptor.version.getSSTableFormat().getIndexSerializer(metadata);
+        this.rowIndexEntrySerializer = descriptor.version.getSSTableFormat().getIndexSerializer(metadata, descriptor.version);
     }
 
     public static long getTotalBytes(Iterable<SSTableReader> sstables)
@@ -628,6 +649,9 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
             load(false, true);
             loadBloomFilter();
         }
+
+        if (components.contains(Component.ROW_FILTER) && RowBloomFilter.isEnabled(metadata))
+            loadRowFilter();
     }
 
     /**
@@ -649,6 +673,14 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         }
     }
 
+    private void loadRowFilter() throws IOException
+    {
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(descriptor.filenameFor(Component.ROW_FILTER)))))
+        {
+            rowFilter = FilterFactory.deserialize(stream, true);
+        }
+    }
+
     /**
      * Loads ifile, dfile and indexSummary, and optionally recreates the bloom filter.
      * @param saveSummaryIfCreated for bulk loading purposes, if the summary was absent and needed to be built, you can
@@ -733,7 +765,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
             try (IndexSummaryBuilder summaryBuilder = summaryLoaded ? null : new IndexSummaryBuilder(estimatedKeys, metadata.getMinIndexInterval(), samplingLevel))
             {
                 long indexPosition;
-                RowIndexEntry.IndexSerializer rowIndexSerializer = descriptor.getFormat().getIndexSerializer(metadata);
+                RowIndexEntry.IndexSerializer rowIndexSerializer = descriptor.getFormat().getIndexSerializer(metadata, descriptor.version);
 
                 while ((indexPosition = primaryIndex.getFilePointer()) != indexSize)
                 {
@@ -928,7 +960,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
             assert openReason != OpenReason.EARLY;
             SSTableReader replacement = internalOpen(descriptor, components, metadata, partitioner, ifile.sharedCopy(),
                                                           dfile.sharedCopy(), indexSummary.sharedCopy(), bf.sharedCopy(),
-                                                          maxDataAge, sstableMetadata, OpenReason.MOVED_START);
+                                                          rowFilter.sharedCopy(), maxDataAge, sstableMetadata, OpenReason.MOVED_START);
             // TODO: make data/index start accurate for compressed files
             // TODO: merge with caller's firstKeyBeyond() work,to save time
             if (newStart.compareTo(first) > 0)
@@ -971,7 +1003,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
 
             SSTableReader replacement = internalOpen(descriptor, components, metadata, partitioner, ifile.sharedCopy(),
                                                           dfile.sharedCopy(), indexSummary.sharedCopy(), bf.sharedCopy(),
-                                                          maxDataAge, sstableMetadata, OpenReason.SHADOWED);
+                                                          rowFilter.sharedCopy(), maxDataAge, sstableMetadata, OpenReason.SHADOWED);
             replacement.first = first;
             replacement.last = last;
             setReplacedBy(replacement);
@@ -1033,8 +1065,8 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
             parent.metric.liveDiskSpaceUsed.inc(newSize - oldSize);
 
             SSTableReader replacement = internalOpen(descriptor, components, metadata, partitioner, ifile.sharedCopy(),
-                                                     dfile.sharedCopy(), newSummary, bf.sharedCopy(), maxDataAge,
-                                                     sstableMetadata, OpenReason.METADATA_CHANGE);
+                                                     dfile.sharedCopy(), newSummary, bf.sharedCopy(), rowFilter.sharedCopy(),
+                                                     maxDataAge, sstableMetadata, OpenReason.METADATA_CHANGE);
             replacement.first = this.first;
             replacement.last = this.last;
             setReplacedBy(replacement);
@@ -1188,6 +1220,11 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         return bf;
     }
 
+    public IFilter getRowFilter()
+    {
+        return rowFilter;
+    }
+
     public long getBloomFilterSerializedSize()
     {
         return bf.serializedSize();
@@ -1424,6 +1461,41 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         return null;
     }
 
+    /**
+     * Hints to the OS that the index entry of the given key is about to be looked up, by reading ahead the
+     * block of the primary index that the summary points to, unless the key cannot be in this sstable or its
+     * position is already in the key cache.
+     */
+    public void prefetchIndex(DecoratedKey key)
+    {
+        if (key.compareTo(first) < 0 || key.compareTo(last) > 0 || !bf.isPresent(key))
+            return;
+        if (getCachedPosition(key, false) != null)
+            return;
+
+        int sampledIndex = getIndexSummaryIndexFromBinarySearchResult(indexSummary.binarySearch(key));
+        long start = sampledIndex < 0 ? 0 : indexSummary.getPosition(sampledIndex);
+        long end = sampledIndex + 1 < indexSummary.size() ? indexSummary.getPosition(sampledIndex + 1) : ifile.onDiskLength;
+        ifile.prefetch(start, Ints.saturatedCast(end - start));
+    }
+
+    /**
+     * Hints to the OS that the start of the given partition is about to be read. This looks the key up in the
+     * index, so the index should have been prefetched first, and caches the position found for the read.
+     */
+    public void prefetchData(DecoratedKey key)
+    {
+        RowIndexEntry entry = getCachedPosition(key, false);
+        if (entry == null)
+        {
+            entry = getPosition(key, Operator.EQ, false);
+            if (entry == null)
+                return;
+            cacheKey(key, entry);
+        }
+        dfile.prefetch(entry.position, RandomAccessReader.DEFAULT_BUFFER_SIZE);
+    }
+
     /**
      * Get position updating key cache and stats.
      * @see #getPosition(org.apache.cassandra.db.RowPosition, SSTableReader.Operator, boolean)
@@ -1883,6 +1955,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         private final Descriptor descriptor;
         private final CFMetaData metadata;
         private IFilter bf;
+        private IFilter rowFilter;
         private IndexSummary summary;
 
         private SegmentedFile dfile;
@@ -1905,6 +1978,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         {
             this.setup = true;
             this.bf = reader.bf;
+            this.rowFilter = reader.rowFilter;
             this.summary = reader.indexSummary;
             this.dfile = reader.dfile;
             this.ifile = reader.ifile;
@@ -1945,6 +2019,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
                     if (barrier != null)
                         barrier.await();
                     bf.close();
+                    rowFilter.close();
                     if (summary != null)
                         summary.close();
                     if (runOnClose != null)
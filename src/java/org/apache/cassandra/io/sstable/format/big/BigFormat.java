@@ -94,9 +94,9 @@ public class BigFormat implements SSTableFormat
     }
 
     @Override
-    public RowIndexEntry.IndexSerializer getIndexSerializer(CFMetaData cfMetaData)
+    public RowIndexEntry.IndexSerializer getIndexSerializer(CFMetaData cfMetaData, Version version)
     {
-        return new RowIndexEntry.Serializer(new IndexHelper.IndexInfo.Serializer(cfMetaData.comparator));
+        return new RowIndexEntry.Serializer(new IndexHelper.IndexInfo.Serializer(cfMetaData.comparator), version);
     }
 
     static class WriterFactory extends SSTableWriter.Factory
@@ -125,7 +125,7 @@ public class BigFormat implements SSTableFormat
     // we always incremented the major version.
     static class BigVersion extends Version
     {
-        public static final String current_version = "la";
+        public static final String current_version = "lb";
         public static final String earliest_supported_version = "jb";
 
         // jb (2.0.1): switch from crc32 to adler32 for compression checksums
@@ -135,6 +135,7 @@ public class BigFormat implements SSTableFormat
         //             switch uncompressed checksums to adler32
         //             tracks presense of legacy (local and remote) counter shards
         // la (3.0.0): new file name format
+        // lb (3.0.0): promoted column indexes end with the offsets of their IndexInfo
 
         private final boolean isLatestVersion;
         private final boolean hasSamplingLevel;
@@ -143,6 +144,7 @@ public class BigFormat implements SSTableFormat
         private final boolean hasRepairedAt;
         private final boolean tracksLegacyCounterShards;
         private final boolean newFileName;
+        private final boolean hasIndexInfoOffsets;
 
         public BigVersion(String version)
         {
@@ -155,6 +157,7 @@ public class BigFormat implements SSTableFormat
             hasRepairedAt = version.compareTo("ka") >= 0;
             tracksLegacyCounterShards = version.compareTo("ka") >= 0;
             newFileName = version.compareTo("la") >= 0;
+            hasIndexInfoOffsets = version.compareTo("lb") >= 0;
         }
 
         @Override
@@ -199,6 +202,12 @@ public class BigFormat implements SSTableFormat
             return newFileName;
         }
 
+        @Override
+        public boolean hasIndexInfoOffsets()
+        {
+            return hasIndexInfoOffsets;
+        }
+
         @Override
         public boolean isCompatible()
         {
@@ -135,7 +135,7 @@ public class BigTableWriter extends SSTableWriter
         RowIndexEntry entry;
         try
         {
-            entry = row.write(startPosition, dataFile);
+            entry = row.write(startPosition, dataFile, iwriter.rowFilterBuilder);
             if (entry == null)
                 return null;
             long endPosition = dataFile.getFilePointer();
@@ -164,7 +164,7 @@ public class BigTableWriter extends SSTableWriter
         long endPosition;
         try
         {
-            RowIndexEntry entry = rawAppend(cf, startPosition, decoratedKey, dataFile.stream);
+            RowIndexEntry entry = rawAppend(cf, startPosition, decoratedKey, dataFile.stream, iwriter.rowFilterBuilder);
             endPosition = dataFile.getFilePointer();
             afterAppend(decoratedKey, endPosition, entry);
         }
@@ -175,11 +175,11 @@ public class BigTableWriter extends SSTableWriter
         metadataCollector.update(endPosition - startPosition, cf.getColumnStats());
     }
 
-    private static RowIndexEntry rawAppend(ColumnFamily cf, long startPosition, DecoratedKey key, DataOutputPlus out) throws IOException
+    private static RowIndexEntry rawAppend(ColumnFamily cf, long startPosition, DecoratedKey key, DataOutputPlus out, RowBloomFilter.Builder rowFilter) throws IOException
     {
         assert cf.hasColumns() || cf.isMarkedForDelete();
 
-        ColumnIndex.Builder builder = new ColumnIndex.Builder(cf, key.getKey(), out);
+        ColumnIndex.Builder builder = new ColumnIndex.Builder(cf, key.getKey(), out, rowFilter);
         ColumnIndex index = builder.build(cf); //里面会往Data.db文件中写一行数据
 
         out.writeShort(END_OF_ROW); //行结束标志
@@ -206,7 +206,7 @@ public class BigTableWriter extends SSTableWriter
         ColumnFamily cf = ArrayBackedSortedColumns.factory.create(metadata);
         cf.delete(DeletionTime.serializer.deserialize(in));
 
-        ColumnIndex.Builder columnIndexer = new ColumnIndex.Builder(cf, key.getKey(), dataFile.stream);
+        ColumnIndex.Builder columnIndexer = new ColumnIndex.Builder(cf, key.getKey(), dataFile.stream, iwriter.rowFilterBuilder);
 
         if (cf.deletionInfo().getTopLevelDeletion().localDeletionTime < Integer.MAX_VALUE)
         {
@@ -391,6 +391,7 @@ public class BigTableWriter extends SSTableWriter
                                                            dfile,
                                                            iwriter.summary.build(partitioner),
                                                            iwriter.bf.sharedCopy(),
+                                                           iwriter.rowFilter.sharedCopy(),
                                                            maxDataAge,
                                                            metadata,
                                                            finishType.openReason);
@@ -406,6 +407,7 @@ public class BigTableWriter extends SSTableWriter
         if (finishType.isFinal)
         {
             iwriter.bf.close();
+            iwriter.rowFilter.close();
             iwriter.summary.close();
             // try to save the summaries to disk
             sstable.saveSummary(iwriter.builder, dbuilder);
@@ -436,7 +438,10 @@ public class BigTableWriter extends SSTableWriter
             iwriter.close();
             dataFile.close();
             if (type == FinishType.CLOSE)
+            {
                 iwriter.bf.close();
+                iwriter.rowFilter.close();
+            }
         }
 
 //<<<<<<< HEAD
@@ -515,6 +520,9 @@ public class BigTableWriter extends SSTableWriter
         public final SegmentedFile.Builder builder;
         public final IndexSummaryBuilder summary;
         public final IFilter bf;
+        // row hashes are buffered until close(), when the row filter can be sized
+        public RowBloomFilter.Builder rowFilterBuilder;
+        public IFilter rowFilter = FilterFactory.AlwaysPresent;
         private FileMark mark;
 
         IndexWriter(long keyCount, final SequentialWriter dataFile)
@@ -523,6 +531,8 @@ public class BigTableWriter extends SSTableWriter
             builder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode(), false);
             summary = new IndexSummaryBuilder(keyCount, metadata.getMinIndexInterval(), Downsampling.BASE_SAMPLING_LEVEL);
             bf = FilterFactory.getFilter(keyCount, metadata.getBloomFilterFpChance(), true);
+            if (components.contains(Component.ROW_FILTER))
+                rowFilterBuilder = new RowBloomFilter.Builder(metadata, keyCount);
             // register listeners to be alerted when the data files are flushed
             indexFile.setPostFlushListener(new Runnable()
             {
@@ -573,6 +583,9 @@ public class BigTableWriter extends SSTableWriter
             summary.close();
             indexFile.abort();
             bf.close();
+            if (rowFilterBuilder != null)
+                rowFilterBuilder.close();
+            rowFilter.close();
             builder.close();
         }
 
@@ -601,6 +614,26 @@ public class BigTableWriter extends SSTableWriter
                 }
             }
 
+            if (rowFilterBuilder != null)
+            {
+                rowFilter = rowFilterBuilder.build(metadata.getRowBloomFilterFpChance());
+                rowFilterBuilder.close();
+                rowFilterBuilder = null;
+
+                String path = descriptor.filenameFor(Component.ROW_FILTER);
+                try (FileOutputStream fos = new FileOutputStream(path);
+                     DataOutputStreamPlus stream = new BufferedDataOutputStreamPlus(fos))
+                {
+                    FilterFactory.serialize(rowFilter, stream);
+                    stream.flush();
+                    fos.getFD().sync();
+                }
+                catch (IOException e)
+                {
+                    throw new FSWriteError(e, path);
+                }
+            }
+
             // index
             long position = indexFile.getFilePointer();
             indexFile.close(); // calls force
@@ -614,7 +647,7 @@ public class BigTableWriter extends SSTableWriter
 
         public void resetAndTruncate()
         {
-            // we can't un-set the bloom filter addition, but extra keys in there are harmless.
+            // we can't un-set the bloom filter additions (nor those of the row filter), but extra keys in there are harmless.
             // we can't reset dbuilder either, but that is the last thing called in afterappend so
             // we assume that if that worked then we won't be trying to reset.
             indexFile.resetAndTruncate(mark);
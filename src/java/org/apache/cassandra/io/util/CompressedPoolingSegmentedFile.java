@@ -17,8 +17,11 @@
 */
 package org.apache.cassandra.io.util;
 
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.RateLimiter;
 
+import org.apache.cassandra.cache.ChunkCache;
+
 import org.apache.cassandra.io.compress.CompressedRandomAccessReader;
 import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.compress.CompressedThrottledReader;
@@ -53,6 +56,7 @@ public class CompressedPoolingSegmentedFile extends PoolingSegmentedFile impleme
         {
             super.tidy();
             metadata.close();
+            ChunkCache.instance.invalidateFile(channel.filePath());
         }
     }
 
@@ -81,6 +85,16 @@ public class CompressedPoolingSegmentedFile extends PoolingSegmentedFile impleme
         super.dropPageCache(metadata.chunkFor(before).offset);
     }
 
+    public void prefetch(long position, int length)
+    {
+        if (position >= metadata.dataLength)
+            return;
+        CompressionMetadata.Chunk first = metadata.chunkFor(position);
+        CompressionMetadata.Chunk last = metadata.chunkFor(Math.min(position + length, metadata.dataLength) - 1);
+        // each chunk is followed by its 4 byte checksum
+        super.prefetch(first.offset, Ints.checkedCast(last.offset + last.length + 4 - first.offset));
+    }
+
     public RandomAccessReader createReader()
     {
         return CompressedRandomAccessReader.open(channel, metadata, null);
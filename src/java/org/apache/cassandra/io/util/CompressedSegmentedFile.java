@@ -17,6 +17,7 @@
  */
 package org.apache.cassandra.io.util;
 
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.RateLimiter;
 
 import org.apache.cassandra.io.compress.CompressedRandomAccessReader;
@@ -97,6 +98,16 @@ public class CompressedSegmentedFile extends SegmentedFile implements ICompresse
         super.dropPageCache(metadata.chunkFor(before).offset);
     }
 
+    public void prefetch(long position, int length)
+    {
+        if (position >= metadata.dataLength)
+            return;
+        CompressionMetadata.Chunk first = metadata.chunkFor(position);
+        CompressionMetadata.Chunk last = metadata.chunkFor(Math.min(position + length, metadata.dataLength) - 1);
+        // each chunk is followed by its 4 byte checksum
+        super.prefetch(first.offset, Ints.checkedCast(last.offset + last.length + 4 - first.offset));
+    }
+
     public RandomAccessReader createReader()
     {
         return CompressedRandomAccessReader.open(channel, metadata);
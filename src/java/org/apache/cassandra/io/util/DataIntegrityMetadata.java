@@ -135,6 +135,7 @@ public class DataIntegrityMetadata
         public void close()
         {
             this.digestReader.close();
+            this.dataReader.close();
         }
     }
 
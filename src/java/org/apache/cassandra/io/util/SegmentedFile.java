@@ -146,6 +146,14 @@ public abstract class SegmentedFile extends SharedCloseableImpl
         CLibrary.trySkipCache(channel.getFileDescriptor(), 0, before);
     }
 
+    /**
+     * Hints that the given range of the (uncompressed) file is about to be read.
+     */
+    public void prefetch(long position, int length)
+    {
+        CLibrary.tryWillNeed(channel.getFileDescriptor(), position, length);
+    }
+
     /**
      * @return A SegmentedFile.Builder.
      */
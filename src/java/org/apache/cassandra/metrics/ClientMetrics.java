@@ -21,6 +21,9 @@ package org.apache.cassandra.metrics;
 import java.util.concurrent.Callable;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 
 import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
 
@@ -30,9 +33,22 @@ public class ClientMetrics
     private static final MetricNameFactory factory = new DefaultNameFactory("Client");
     
     public static final ClientMetrics instance = new ClientMetrics();
+
+    /** Number of responses written to a client connection by each flush */
+    public final Histogram responsesPerFlush;
+    /** Latency of the reads run inline on the event loop that received them */
+    public final Timer inlineRequestLatency;
+    /** Latency of the requests handed to the request executor, including the handoff */
+    public final Timer dispatchedRequestLatency;
+    /** Number of reads that could have run inline, but were handed off for lack of event loop time */
+    public final Meter inlineRequestFallbacks;
     
     private ClientMetrics()
     {
+        responsesPerFlush = Metrics.histogram(factory.createMetricName("ResponsesPerFlush"));
+        inlineRequestLatency = Metrics.timer(factory.createMetricName("InlineRequestLatency"));
+        dispatchedRequestLatency = Metrics.timer(factory.createMetricName("DispatchedRequestLatency"));
+        inlineRequestFallbacks = Metrics.meter(factory.createMetricName("InlineRequestFallbacks"));
     }
 
     public void addCounter(String name, final Callable<Integer> provider)
@@ -76,6 +76,8 @@ public class ColumnFamilyMetrics
     public final Counter pendingFlushes;
     /** Estimate of number of pending compactios for this CF */
     public final Gauge<Integer> pendingCompactions;
+    /** Bytes each level holds above its ideal size with leveled compaction, empty with other strategies */
+    public final Gauge<long[]> pendingCompactionBytesPerLevel;
     /** Number of SSTables on disk for this CF */
     public final Gauge<Integer> liveSSTableCount;
     /** Disk space used by SSTables belonging to this CF */
@@ -137,6 +139,16 @@ public class ColumnFamilyMetrics
     private static final MetricNameFactory globalNameFactory = new AllColumnFamilyMetricNameFactory();
 
     public final Counter speculativeRetries;
+    /** Bytes that were not written to the commit log because the table has durable_writes disabled */
+    public final Counter commitLogBytesAvoided;
+    /** SSTables skipped on reads because their row bloom filter ruled out the requested rows */
+    public final Counter rowBloomFilterSkips;
+    /** SSTables read because of their row bloom filter that held none of the requested rows */
+    public final Counter rowBloomFilterFalsePositives;
+    /** SSTables read because of their row bloom filter that held some of the requested rows */
+    public final Counter rowBloomFilterTruePositives;
+    /** Tombstones (and expired cells) dropped by the compactions of the table, as estimated by their sstable metadata */
+    public final Counter compactionDroppedTombstones;
 
     public final static LatencyMetrics globalReadLatency = new LatencyMetrics(globalNameFactory, "Read");
     public final static LatencyMetrics globalWriteLatency = new LatencyMetrics(globalNameFactory, "Write");
@@ -219,14 +231,14 @@ public class ColumnFamilyMetrics
         {
             public Long getValue()
             {
-                return cfs.getDataTracker().getView().getCurrentMemtable().getAllocator().onHeap().owns();
+                return cfs.getDataTracker().getView().getCurrentMemtable().getOnHeapOwns();
             }
         });
         memtableOffHeapSize = createColumnFamilyGauge("MemtableOffHeapSize", new Gauge<Long>()
         {
             public Long getValue()
             {
-                return cfs.getDataTracker().getView().getCurrentMemtable().getAllocator().offHeap().owns();
+                return cfs.getDataTracker().getView().getCurrentMemtable().getOffHeapOwns();
             }
         });
         memtableLiveDataSize = createColumnFamilyGauge("MemtableLiveDataSize", new Gauge<Long>()
@@ -242,7 +254,7 @@ public class ColumnFamilyMetrics
             {
                 long size = 0;
                 for (ColumnFamilyStore cfs2 : cfs.concatWithIndexes())
-                    size += cfs2.getDataTracker().getView().getCurrentMemtable().getAllocator().onHeap().owns();
+                    size += cfs2.getDataTracker().getView().getCurrentMemtable().getOnHeapOwns();
                 return size;
             }
         });
@@ -252,7 +264,7 @@ public class ColumnFamilyMetrics
             {
                 long size = 0;
                 for (ColumnFamilyStore cfs2 : cfs.concatWithIndexes())
-                    size += cfs2.getDataTracker().getView().getCurrentMemtable().getAllocator().offHeap().owns();
+                    size += cfs2.getDataTracker().getView().getCurrentMemtable().getOffHeapOwns();
                 return size;
             }
         });
@@ -341,6 +353,14 @@ public class ColumnFamilyMetrics
                 return cfs.getCompactionStrategy().getEstimatedRemainingTasks();
             }
         });
+        pendingCompactionBytesPerLevel = Metrics.register(factory.createMetricName("PendingCompactionBytesPerLevel"), new Gauge<long[]>()
+        {
+            public long[] getValue()
+            {
+                long[] pending = cfs.getPendingCompactionBytesPerLevel();
+                return pending == null ? new long[0] : pending;
+            }
+        });
         liveSSTableCount = createColumnFamilyGauge("LiveSSTableCount", new Gauge<Integer>()
         {
             public Integer getValue()
@@ -559,6 +579,11 @@ public class ColumnFamilyMetrics
             }
         });
         speculativeRetries = createColumnFamilyCounter("SpeculativeRetries");
+        commitLogBytesAvoided = createColumnFamilyCounter("CommitLogBytesAvoided");
+        rowBloomFilterSkips = createColumnFamilyCounter("RowBloomFilterSkips");
+        rowBloomFilterFalsePositives = createColumnFamilyCounter("RowBloomFilterFalsePositives");
+        rowBloomFilterTruePositives = createColumnFamilyCounter("RowBloomFilterTruePositives");
+        compactionDroppedTombstones = createColumnFamilyCounter("CompactionDroppedTombstones");
         keyCacheHitRate = Metrics.register(factory.createMetricName("KeyCacheHitRate"), new RatioGauge()
         {
             @Override
@@ -626,6 +651,7 @@ public class ColumnFamilyMetrics
         rangeLatency.release();
         Metrics.remove(factory.createMetricName("EstimatedRowSizeHistogram"));
         Metrics.remove(factory.createMetricName("EstimatedColumnCountHistogram"));
+        Metrics.remove(factory.createMetricName("PendingCompactionBytesPerLevel"));
         Metrics.remove(factory.createMetricName("KeyCacheHitRate"));
         Metrics.remove(factory.createMetricName("CoordinatorReadLatency"));
         Metrics.remove(factory.createMetricName("CoordinatorScanLatency"));
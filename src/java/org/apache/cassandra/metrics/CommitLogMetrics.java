@@ -18,7 +18,10 @@
 package org.apache.cassandra.metrics;
 
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
 import org.apache.cassandra.db.commitlog.AbstractCommitLogService;
 import org.apache.cassandra.db.commitlog.CommitLogSegmentManager;
@@ -42,11 +45,23 @@ public class CommitLogMetrics
     public final Timer waitingOnSegmentAllocation;
     /** The time spent waiting on CL sync; for Periodic this is only occurs when the sync is lagging its sync interval */
     public final Timer waitingOnCommit;
+    /** The number of mutations made durable by each sync that had any to persist */
+    public final Histogram mutationsPerSync;
+    /** Number of commit log segments left to replay; non-zero only while replaying on startup */
+    public final Counter pendingReplaySegments;
+    /** Mutations applied by commit log replay */
+    public final Meter replayedMutations;
+    /** Serialized mutation bytes read by commit log replay */
+    public final Meter replayedBytes;
     
     public CommitLogMetrics()
     {
         waitingOnSegmentAllocation = Metrics.timer(factory.createMetricName("WaitingOnSegmentAllocation"));
         waitingOnCommit = Metrics.timer(factory.createMetricName("WaitingOnCommit"));
+        mutationsPerSync = Metrics.histogram(factory.createMetricName("MutationsPerSync"));
+        pendingReplaySegments = Metrics.counter(factory.createMetricName("PendingReplaySegments"));
+        replayedMutations = Metrics.meter(factory.createMetricName("ReplayedMutations"));
+        replayedBytes = Metrics.meter(factory.createMetricName("ReplayedBytes"));
     }
 
     public void attach(final AbstractCommitLogService service, final CommitLogSegmentManager allocator)
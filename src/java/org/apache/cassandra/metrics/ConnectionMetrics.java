@@ -19,8 +19,10 @@ package org.apache.cassandra.metrics;
 
 import java.net.InetAddress;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 
 import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
 
@@ -54,6 +56,15 @@ public class ConnectionMetrics
     /** Number of timeouts for specific IP */
     public final Meter timeouts;
 
+    /** Bytes handed to the deflate compressor of the connections to this peer */
+    public final Counter uncompressedBytes;
+    /** Bytes the deflate compressor of the connections to this peer wrote out */
+    public final Counter compressedBytes;
+    /** Compressed bytes over uncompressed bytes, for the deflate compressor */
+    public final Gauge<Double> compressionRatio;
+    /** Time spent compressing each batch of messages with the deflate compressor */
+    public final Timer compressionTime;
+
     private final MetricNameFactory factory;
 
     /**
@@ -112,6 +123,17 @@ public class ConnectionMetrics
             }
         });
         timeouts = Metrics.meter(factory.createMetricName("Timeouts"));
+        uncompressedBytes = Metrics.counter(factory.createMetricName("UncompressedBytes"));
+        compressedBytes = Metrics.counter(factory.createMetricName("CompressedBytes"));
+        compressionRatio = Metrics.register(factory.createMetricName("CompressionRatio"), new Gauge<Double>()
+        {
+            public Double getValue()
+            {
+                long uncompressed = uncompressedBytes.getCount();
+                return uncompressed == 0 ? 0 : (double) compressedBytes.getCount() / uncompressed;
+            }
+        });
+        compressionTime = Metrics.timer(factory.createMetricName("CompressionTime"));
     }
 
     public void release()
@@ -123,5 +145,9 @@ public class ConnectionMetrics
         Metrics.remove(factory.createMetricName("SmallMessageCompletedTasks"));
         Metrics.remove(factory.createMetricName("SmallMessageDroppedTasks"));
         Metrics.remove(factory.createMetricName("Timeouts"));
+        Metrics.remove(factory.createMetricName("UncompressedBytes"));
+        Metrics.remove(factory.createMetricName("CompressedBytes"));
+        Metrics.remove(factory.createMetricName("CompressionRatio"));
+        Metrics.remove(factory.createMetricName("CompressionTime"));
     }
 }
@@ -30,9 +30,13 @@ public class DroppedMessageMetrics
     /** Number of dropped messages */
     public final Meter dropped;
 
+    /** Number of dropped messages that had timed out while queued for an outbound connection */
+    public final Meter expired;
+
     public DroppedMessageMetrics(MessagingService.Verb verb)
     {
         MetricNameFactory factory = new DefaultNameFactory("DroppedMessage", verb.toString());
         dropped = Metrics.meter(factory.createMetricName("Dropped"));
+        expired = Metrics.meter(factory.createMetricName("Expired"));
     }
 }
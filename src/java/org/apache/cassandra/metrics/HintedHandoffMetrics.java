@@ -21,8 +21,11 @@ import java.net.InetAddress;
 import java.util.Map.Entry;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
 import org.apache.cassandra.db.HintedHandOffManager;
 import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.hints.HintsCatalog;
 import org.apache.cassandra.utils.UUIDGen;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +63,44 @@ public class HintedHandoffMetrics
         }
     });
 
+    /** Number of hints delivered and acknowledged by their target */
+    public final Meter deliveredHints;
+    /** Number of hints whose delivery timed out or failed; they are retried on the next delivery */
+    public final Meter failedDeliveries;
+    /** Number of hints dropped on delivery because they expired or their table was dropped or truncated */
+    public final Meter skippedHints;
+    /** Total size on disk of the hint logs, in bytes */
+    public final Gauge<Long> hintsOnDisk;
+
+    public HintedHandoffMetrics(final HintsCatalog catalog)
+    {
+        deliveredHints = Metrics.meter(factory.createMetricName("DeliveredHints"));
+        failedDeliveries = Metrics.meter(factory.createMetricName("FailedDeliveries"));
+        skippedHints = Metrics.meter(factory.createMetricName("SkippedHints"));
+        hintsOnDisk = Metrics.register(factory.createMetricName("HintsOnDisk"), new Gauge<Long>()
+        {
+            public Long getValue()
+            {
+                return catalog.totalSize();
+            }
+        });
+    }
+
+    public void incrDeliveredHints(int count)
+    {
+        deliveredHints.mark(count);
+    }
+
+    public void incrFailedDeliveries(int count)
+    {
+        failedDeliveries.mark(count);
+    }
+
+    public void incrSkippedHints()
+    {
+        skippedHints.mark();
+    }
+
     public void incrCreatedHints(InetAddress address)
     {
         createdHintCounts.getUnchecked(address).inc();
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
+
+/**
+ * Metrics for message payloads serialized once and shared between the outbound connections they are sent on.
+ */
+public class SerializedPayloadMetrics
+{
+    private static final MetricNameFactory factory = new DefaultNameFactory("SerializedPayload");
+
+    /** Number of payloads serialized into a shared buffer */
+    public static final Meter allocations = Metrics.meter(factory.createMetricName("Allocations"));
+    /** Size in bytes of the shared buffers allocated */
+    public static final Histogram allocationSize = Metrics.histogram(factory.createMetricName("AllocationSize"));
+    /** Bytes currently held by shared buffers still queued on some connection */
+    public static final Counter bytesInUse = Metrics.counter(factory.createMetricName("BytesInUse"));
+    /** Time spent serializing payloads into shared buffers */
+    public static final Timer serializationTime = Metrics.timer(factory.createMetricName("SerializationTime"));
+    /** Number of times a connection wrote a shared buffer instead of serializing the payload again */
+    public static final Meter reuses = Metrics.meter(factory.createMetricName("Reuses"));
+}
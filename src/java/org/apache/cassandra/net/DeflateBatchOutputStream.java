@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.apache.cassandra.metrics.ConnectionMetrics;
+
+/**
+ * The compressing stream of the {@code deflate} internode compressor.
+ *
+ * Rather than compressing fixed size blocks independently, like {@link net.jpountz.lz4.LZ4BlockOutputStream},
+ * it compresses the messages written between two flushes (a coalesced batch) as one raw deflate frame, ended with a
+ * sync flush so the peer can decode it as soon as it arrives. The same deflater is used for the lifetime of the
+ * connection, so each frame can refer back to the last 32KB sent: the many small, similar messages of a connection
+ * compress against their predecessors instead of each on its own.
+ *
+ * The peer reads the stream with an {@link java.util.zip.Inflater} in nowrap mode.
+ */
+class DeflateBatchOutputStream extends OutputStream
+{
+    static final int LEVEL = Deflater.BEST_SPEED;
+
+    private final OutputStream out;
+    private final ConnectionMetrics metrics;
+    private final Deflater deflater = new Deflater(LEVEL, true);
+
+    // the messages of the current batch, handed to the deflater when full or flushed
+    private final byte[] input;
+    private int inputLength;
+    private final byte[] output;
+    // whether the deflater holds some of the current batch
+    private boolean inFrame;
+
+    // time spent compressing the current batch so far, and the totals already reported to the metrics
+    private long batchNanos;
+    private long reportedIn;
+    private long reportedOut;
+
+    DeflateBatchOutputStream(OutputStream out, int bufferSize, ConnectionMetrics metrics)
+    {
+        this.out = out;
+        this.metrics = metrics;
+        this.input = new byte[bufferSize];
+        this.output = new byte[bufferSize];
+    }
+
+    public void write(int b) throws IOException
+    {
+        if (inputLength == input.length)
+            compress(Deflater.NO_FLUSH);
+        input[inputLength++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (inputLength == input.length)
+                compress(Deflater.NO_FLUSH);
+            int count = Math.min(len, input.length - inputLength);
+            System.arraycopy(b, off, input, inputLength, count);
+            inputLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Ends the current frame, and writes out all of it.
+     */
+    public void flush() throws IOException
+    {
+        if (inputLength > 0 || inFrame)
+        {
+            compress(Deflater.SYNC_FLUSH);
+            inFrame = false;
+
+            if (metrics != null)
+            {
+                metrics.compressionTime.update(batchNanos, TimeUnit.NANOSECONDS);
+                metrics.uncompressedBytes.inc(deflater.getBytesRead() - reportedIn);
+                metrics.compressedBytes.inc(deflater.getBytesWritten() - reportedOut);
+            }
+            reportedIn = deflater.getBytesRead();
+            reportedOut = deflater.getBytesWritten();
+            batchNanos = 0;
+        }
+        out.flush();
+    }
+
+    private void compress(int flush) throws IOException
+    {
+        deflater.setInput(input, 0, inputLength);
+        inputLength = 0;
+        inFrame = true;
+        while (true)
+        {
+            long start = System.nanoTime();
+            int length = deflater.deflate(output, 0, output.length, flush);
+            batchNanos += System.nanoTime() - start;
+            // with SYNC_FLUSH, a full output buffer may mean there is more to come
+            if (length == 0 && deflater.needsInput())
+                return;
+            out.write(output, 0, length);
+        }
+    }
+
+    public void close() throws IOException
+    {
+        try
+        {
+            out.close();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+/**
+ * One outbound messaging connection to a peer, as held by {@link OutboundTcpConnectionPool}.
+ * Messages are queued with {@link #enqueue} and written in order by the transport.
+ */
+public interface IOutboundConnection
+{
+    /**
+     * Start the connection. Connecting to the peer happens lazily, when the first message is queued.
+     */
+    void start();
+
+    void enqueue(MessageOut<?> message, int id);
+
+    /**
+     * Drop all queued messages and close the current socket; the next message queued reconnects,
+     * unless {@code destroy} is true.
+     */
+    void closeSocket(boolean destroy);
+
+    /**
+     * Close the current socket once the messages queued so far have been written.
+     */
+    void softCloseSocket();
+
+    int getTargetVersion();
+
+    int getPendingMessages();
+
+    long getCompletedMesssages();
+
+    long getDroppedMessages();
+}
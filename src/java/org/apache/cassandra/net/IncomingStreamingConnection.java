@@ -52,8 +52,9 @@ public class IncomingStreamingConnection extends Thread
         try
         {
             // streaming connections are per-session and have a fixed version.  we can't do anything with a wrong-version stream connection, so drop it.
-            if (version != StreamMessage.CURRENT_VERSION)
-                throw new IOException(String.format("Received stream using protocol version %d (my version %d). Terminating connection", version, MessagingService.current_version));
+            // the initiator picks the version of the session, the highest one both sides advertise
+            if (version < StreamMessage.VERSION_30 || version > StreamMessage.CURRENT_VERSION)
+                throw new IOException(String.format("Received stream using protocol version %d (my version %d). Terminating connection", version, StreamMessage.CURRENT_VERSION));
 
             DataInput input = new DataInputStream(socket.getInputStream());
             StreamInitMessage init = StreamInitMessage.serializer.deserialize(input, version);
@@ -22,6 +22,8 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.zip.Checksum;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,14 +48,19 @@ public class IncomingTcpConnection extends Thread
 
     private final int version;
     private final boolean compressed;
+    private final boolean deflate;
     private final Socket socket;
     public InetAddress from;
 
-    public IncomingTcpConnection(int version, boolean compressed, Socket socket)
+    /**
+     * @param deflate whether the peer asked for the deflate compressor, which we then agree to
+     */
+    public IncomingTcpConnection(int version, boolean compressed, boolean deflate, Socket socket)
     {
         assert socket != null;
         this.version = version;
         this.compressed = compressed;
+        this.deflate = deflate;
         this.socket = socket;
         if (DatabaseDescriptor.getInternodeRecvBufferSize() != null)
         {
@@ -109,7 +116,7 @@ public class IncomingTcpConnection extends Thread
     {
         // handshake (true) endpoint versions
         DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-        out.writeInt(MessagingService.current_version);
+        out.writeInt(MessagingService.current_version | (deflate ? OutboundTcpConnection.DEFLATE_ACCEPTED : 0));
         out.flush();
         DataInput in = new DataInputStream(socket.getInputStream());
         int maxVersion = in.readInt();
@@ -122,7 +129,11 @@ public class IncomingTcpConnection extends Thread
         if (compressed)
         {
             logger.debug("Upgrading incoming connection to be compressed");
-            if (version < MessagingService.VERSION_21)
+            if (deflate)
+            {
+                in = new DataInputStream(new InflaterInputStream(socket.getInputStream(), new Inflater(true), BUFFER_SIZE));
+            }
+            else if (version < MessagingService.VERSION_21)
             {
                 in = new DataInputStream(new SnappyInputStream(socket.getInputStream()));
             }
@@ -165,11 +176,8 @@ public class IncomingTcpConnection extends Thread
         else
             id = input.readInt();
 
-        long timestamp = System.currentTimeMillis();
         // make sure to readInt, even if cross_node_to is not enabled
-        int partial = input.readInt(); //读timestamp
-        if (DatabaseDescriptor.hasCrossNodeTimeout())
-            timestamp = (timestamp & 0xFFFFFFFF00000000L) | (((partial & 0xFFFFFFFFL) << 2) >> 2);
+        long timestamp = constructTimestamp(input.readInt()); //读timestamp
 
         MessageIn message = MessageIn.read(input, version, id);
         if (message == null)
@@ -188,6 +196,18 @@ public class IncomingTcpConnection extends Thread
         return message.from;
     }
 
+    /**
+     * Rebuild the sender's timestamp from the low 32 bits sent with each message, if cross_node_timeout
+     * is enabled; otherwise the message counts as created now.
+     */
+    static long constructTimestamp(int partial)
+    {
+        long timestamp = System.currentTimeMillis();
+        if (DatabaseDescriptor.hasCrossNodeTimeout())
+            timestamp = (timestamp & 0xFFFFFFFF00000000L) | (((partial & 0xFFFFFFFFL) << 2) >> 2);
+        return timestamp;
+    }
+
     private void close()
     {
         try
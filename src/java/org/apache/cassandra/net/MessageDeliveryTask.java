@@ -23,10 +23,15 @@ import java.util.EnumSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.concurrent.TokenAffine;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.ReadCommand;
 import org.apache.cassandra.db.filter.TombstoneOverwhelmingException;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.service.StorageService;
 
-public class MessageDeliveryTask implements Runnable
+public class MessageDeliveryTask implements Runnable, TokenAffine
 {
     private static final Logger logger = LoggerFactory.getLogger(MessageDeliveryTask.class);
 
@@ -83,6 +88,15 @@ public class MessageDeliveryTask implements Runnable
             Gossiper.instance.setLastProcessedMessageAt(constructionTime);
     }
 
+    public Token affinityToken()
+    {
+        if (message.payload instanceof Mutation)
+            return StorageService.getPartitioner().getToken(((Mutation) message.payload).key());
+        if (message.payload instanceof ReadCommand)
+            return StorageService.getPartitioner().getToken(((ReadCommand) message.payload).key);
+        return null;
+    }
+
     private void handleFailure(Throwable t)
     {
         if (message.doCallbackOnFailure())
@@ -106,6 +106,16 @@ public class MessageOut<T>
     }
 
     public void serialize(DataOutputPlus out, int version) throws IOException
+    {
+        serializeHeader(out, version);
+        if (payload != null)
+            serializer.serialize(payload, out, version);
+    }
+
+    /**
+     * Serialize everything but the payload, which is expected to follow, of the size announced at the end.
+     */
+    public void serializeHeader(DataOutputPlus out, int version) throws IOException
     {
         CompactEndpointSerializationHelper.serialize(from, out);
 
@@ -121,8 +131,6 @@ public class MessageOut<T>
         long longSize = payloadSize(version);
         assert longSize <= Integer.MAX_VALUE; // larger values are supported in sstables but not messages
         out.writeInt((int) longSize);
-        if (payload != null)
-            serializer.serialize(payload, out, version);
     }
 
     public int serializedSize(int version)
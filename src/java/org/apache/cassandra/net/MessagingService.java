@@ -545,7 +545,7 @@ public final class MessagingService implements MessagingServiceMBean
     }
 
 
-    public OutboundTcpConnection getConnection(InetAddress to, MessageOut msg)
+    public IOutboundConnection getConnection(InetAddress to, MessageOut msg)
     {
         return getConnectionPool(to).getConnection(msg);
     }
@@ -703,7 +703,7 @@ public final class MessagingService implements MessagingServiceMBean
                 return;
 
         // get pooled connection (really, connection queue)
-        OutboundTcpConnection connection = getConnection(to, message);
+        IOutboundConnection connection = getConnection(to, message);
 
         // write it
         connection.enqueue(message, id);
@@ -882,6 +882,17 @@ public final class MessagingService implements MessagingServiceMBean
         droppedMessages.get(verb).dropped.mark();
     }
 
+    /**
+     * Count a message dropped because it timed out before an outbound connection could write it.
+     */
+    public void incrementExpiredMessages(Verb verb)
+    {
+        assert DROPPABLE_VERBS.contains(verb) : "Verb " + verb + " should not legally be dropped";
+        DroppedMessageMetrics metrics = droppedMessages.get(verb);
+        metrics.dropped.mark();
+        metrics.expired.mark();
+    }
+
     private void logDroppedMessages()
     {
         boolean logTpstats = false;
@@ -941,9 +952,17 @@ public final class MessagingService implements MessagingServiceMBean
                     logger.debug("Connection version {} from {}", version, socket.getInetAddress());
                     socket.setSoTimeout(0);
 
+                    boolean compressed = MessagingService.getBits(header, 2, 1) == 1;
+                    boolean deflate = compressed && MessagingService.getBits(header, 4, 1) == 1;
+                    if (!isStream && NettyInternodeTransport.canAccept(socket, version))
+                    {
+                        NettyInternodeTransport.instance.accept(socket.getChannel(), version, compressed, deflate);
+                        continue;
+                    }
+
                     Thread thread = isStream
                                   ? new IncomingStreamingConnection(version, socket)
-                                  : new IncomingTcpConnection(version, MessagingService.getBits(header, 2, 1) == 1, socket);
+                                  : new IncomingTcpConnection(version, compressed, deflate, socket);
                     thread.start();
                 }
                 catch (AsynchronousCloseException e)
@@ -0,0 +1,435 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import net.jpountz.xxhash.XXHashFactory;
+
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.UnknownColumnFamilyException;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.JVMStabilityInspector;
+
+/**
+ * Event loops and inbound channel handlers of the Netty internode transport (internode_transport: netty).
+ *
+ * Outbound connections ({@link NettyOutboundConnection}) are made on the outbound event loops, which use native
+ * epoll when it is available. Incoming connections are still accepted, and their header read, by the
+ * MessagingService accept thread, because streaming and encrypted connections need a blocking socket; message
+ * connections are then registered with the inbound event loops instead of getting a thread of their own.
+ * The inbound loops are always NIO ones, since the accepted sockets are java.nio channels.
+ *
+ * The wire format is the one of {@link OutboundTcpConnection} and {@link IncomingTcpConnection}, so either end
+ * of a connection may use either transport.
+ */
+public final class NettyInternodeTransport
+{
+    private static final Logger logger = LoggerFactory.getLogger(NettyInternodeTransport.class);
+
+    private static final boolean enableEpoll = Boolean.valueOf(System.getProperty(Config.PROPERTY_PREFIX + "internode.epoll.enabled", "true"));
+    private static final int EVENT_LOOP_THREADS = Integer.getInteger(Config.PROPERTY_PREFIX + "internode_event_loop_threads",
+                                                                     FBUtilities.getAvailableProcessors());
+
+    public static final NettyInternodeTransport instance = new NettyInternodeTransport();
+
+    private final EventLoopGroup outboundGroup;
+    private final EventLoopGroup inboundGroup;
+    private final Class<? extends Channel> outboundChannelClass;
+
+    private NettyInternodeTransport()
+    {
+        if (enableEpoll && Epoll.isAvailable())
+        {
+            outboundGroup = new EpollEventLoopGroup(EVENT_LOOP_THREADS, new DefaultThreadFactory("MessagingService-Outbound", true));
+            outboundChannelClass = EpollSocketChannel.class;
+            logger.info("Internode messaging using native Epoll event loop");
+        }
+        else
+        {
+            outboundGroup = new NioEventLoopGroup(EVENT_LOOP_THREADS, new DefaultThreadFactory("MessagingService-Outbound", true));
+            outboundChannelClass = NioSocketChannel.class;
+            logger.info("Internode messaging using Java NIO event loop");
+        }
+        inboundGroup = new NioEventLoopGroup(EVENT_LOOP_THREADS, new DefaultThreadFactory("MessagingService-Inbound", true));
+    }
+
+    /**
+     * @return true if a message connection with the given socket and header version can be served by the Netty
+     * transport; SSL sockets have no channel, and older versions may use Snappy rather than LZ4 compression.
+     */
+    static boolean canAccept(Socket socket, int version)
+    {
+        return DatabaseDescriptor.getInternodeTransport() == Config.InternodeTransport.netty
+               && socket.getChannel() != null
+               && version >= MessagingService.VERSION_21
+               && version <= MessagingService.current_version;
+    }
+
+    EventLoop nextOutboundLoop()
+    {
+        return outboundGroup.next();
+    }
+
+    Class<? extends Channel> outboundChannelClass()
+    {
+        return outboundChannelClass;
+    }
+
+    /**
+     * Hand a connection whose protocol magic and header have already been read over to the inbound event loops.
+     */
+    void accept(SocketChannel socket, int version, boolean compressed, boolean deflate)
+    {
+        NioSocketChannel channel;
+        try
+        {
+            channel = new NioSocketChannel(socket);
+        }
+        catch (RuntimeException e)
+        {
+            logger.debug("Unable to register connection from {}", socket.socket().getInetAddress(), e);
+            FileUtils.closeQuietly(socket);
+            return;
+        }
+
+        channel.config().setAllocator(PooledByteBufAllocator.DEFAULT);
+        if (DatabaseDescriptor.getInternodeRecvBufferSize() != null)
+            channel.config().setOption(ChannelOption.SO_RCVBUF, DatabaseDescriptor.getInternodeRecvBufferSize());
+        channel.pipeline().addLast("handshake", new InboundHandshakeHandler(version, compressed, deflate));
+        inboundGroup.register(channel);
+    }
+
+    /**
+     * Replies with our messaging version, then reads the peer's own version and address. Once done it installs
+     * the (optional) decompressor and the message decoder, and hands them whatever bytes follow.
+     */
+    private static final class InboundHandshakeHandler extends ByteToMessageDecoder
+    {
+        private final int version;
+        private final boolean compressed;
+        private final boolean deflate;
+
+        InboundHandshakeHandler(int version, boolean compressed, boolean deflate)
+        {
+            this.version = version;
+            this.compressed = compressed;
+            this.deflate = deflate;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception
+        {
+            // handshake (true) endpoint versions
+            ByteBuf buf = ctx.alloc().buffer(4);
+            buf.writeInt(MessagingService.current_version | (deflate ? OutboundTcpConnection.DEFLATE_ACCEPTED : 0));
+            ctx.writeAndFlush(buf);
+            super.channelActive(ctx);
+        }
+
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
+        {
+            // max version, then the address as its length in one byte followed by the address bytes
+            if (in.readableBytes() < 5 || in.readableBytes() < 5 + in.getUnsignedByte(in.readerIndex() + 4))
+                return;
+
+            ByteBufInputStream input = new ByteBufInputStream(in);
+            int maxVersion = input.readInt();
+            InetAddress from = CompactEndpointSerializationHelper.deserialize(input);
+            // record the (true) version of the endpoint
+            MessagingService.instance().setVersion(from, maxVersion);
+            logger.debug("Set version for {} to {} (will use {})", from, maxVersion, MessagingService.instance().getVersion(from));
+
+            ChannelPipeline pipeline = ctx.pipeline();
+            pipeline.addLast("messageDecoder", new MessageInDecoder(version));
+            if (compressed)
+            {
+                logger.debug("Upgrading incoming connection to be compressed");
+                pipeline.addBefore("messageDecoder", "decompressor", deflate ? new InflateDecoder() : new LZ4BlockDecoder());
+            }
+            pipeline.remove(this);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+        {
+            logger.debug("Error during handshake with {}; closing", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * Cuts the stream into messages, as written by {@link OutboundTcpConnection#writeInternal}, and delivers each
+     * one as soon as all of its bytes have arrived. The frame length is worked out from the message header without
+     * deserializing anything, so a large message is only deserialized once.
+     */
+    static final class MessageInDecoder extends ByteToMessageDecoder
+    {
+        private final int version;
+
+        MessageInDecoder(int version)
+        {
+            this.version = version;
+        }
+
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
+        {
+            int length = frameLength(in);
+            if (length < 0)
+                return;
+
+            ByteBufInputStream input = new ByteBufInputStream(in.slice(in.readerIndex(), length));
+            in.skipBytes(length);
+
+            MessagingService.validateMagic(input.readInt());
+            int id = input.readInt();
+            // make sure to readInt, even if cross_node_to is not enabled
+            long timestamp = IncomingTcpConnection.constructTimestamp(input.readInt());
+            MessageIn<?> message;
+            try
+            {
+                message = MessageIn.read(input, version, id);
+            }
+            catch (UnknownColumnFamilyException e)
+            {
+                // the whole message has been consumed, so unlike a stream we can just carry on with the next one
+                logger.warn("UnknownColumnFamilyException reading from {}", ctx.channel().remoteAddress(), e);
+                return;
+            }
+            // null means the callback expired; nothing to do
+            if (message != null)
+                MessagingService.instance().receive(message, id, timestamp);
+        }
+
+        /**
+         * @return the length of the message starting at the reader index, or -1 if its header, or the message,
+         * has not been fully received yet
+         */
+        static int frameLength(ByteBuf in) throws IOException
+        {
+            int start = in.readerIndex();
+            int end = in.writerIndex();
+            if (end - start < 4)
+                return -1;
+            MessagingService.validateMagic(in.getInt(start));
+
+            // magic, id, timestamp, then the length of the sender's address
+            int index = start + 12;
+            if (index + 1 > end)
+                return -1;
+            index += 1 + in.getUnsignedByte(index);
+
+            // verb and parameter count
+            if (index + 8 > end)
+                return -1;
+            int parameterCount = in.getInt(index + 4);
+            index += 8;
+            for (int i = 0; i < parameterCount; i++)
+            {
+                if (index + 2 > end)
+                    return -1;
+                index += 2 + in.getUnsignedShort(index);
+                if (index + 4 > end)
+                    return -1;
+                index += 4 + checkLength(in.getInt(index));
+            }
+
+            if (index + 4 > end)
+                return -1;
+            long length = (long) index + 4 + checkLength(in.getInt(index)) - start;
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Message of " + length + " bytes is too large");
+            return start + length > end ? -1 : (int) length;
+        }
+
+        private static int checkLength(int length) throws IOException
+        {
+            if (length < 0)
+                throw new IOException("Invalid length " + length + " in message header");
+            return length;
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+        {
+            JVMStabilityInspector.inspectThrowable(cause);
+            logger.debug("Error reading from {}; closing", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * Decodes the block format of {@link net.jpountz.lz4.LZ4BlockOutputStream}, which compressed outgoing
+     * connections use, without blocking for a whole block.
+     */
+    static final class LZ4BlockDecoder extends ByteToMessageDecoder
+    {
+        private static final byte[] MAGIC = new byte[]{ 'L', 'Z', '4', 'B', 'l', 'o', 'c', 'k' };
+        private static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + 4 + 4;
+        private static final int COMPRESSION_METHOD_RAW = 0x10;
+        private static final int COMPRESSION_METHOD_LZ4 = 0x20;
+
+        private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+        private final Checksum checksum = XXHashFactory.fastestInstance().newStreamingHash32(OutboundTcpConnection.LZ4_HASH_SEED).asChecksum();
+        private byte[] compressed = new byte[0];
+
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
+        {
+            if (in.readableBytes() < HEADER_LENGTH)
+                return;
+
+            int start = in.readerIndex();
+            for (int i = 0; i < MAGIC.length; i++)
+                if (in.getByte(start + i) != MAGIC[i])
+                    throw new IOException("Stream is corrupted");
+
+            int method = in.getUnsignedByte(start + MAGIC.length) & 0xF0;
+            int compressedLength = Integer.reverseBytes(in.getInt(start + MAGIC.length + 1));
+            int originalLength = Integer.reverseBytes(in.getInt(start + MAGIC.length + 5));
+            int check = Integer.reverseBytes(in.getInt(start + MAGIC.length + 9));
+            if ((method != COMPRESSION_METHOD_RAW && method != COMPRESSION_METHOD_LZ4)
+                || originalLength < 0 || compressedLength < 0
+                || (method == COMPRESSION_METHOD_RAW && originalLength != compressedLength))
+                throw new IOException("Stream is corrupted");
+
+            if (in.readableBytes() < HEADER_LENGTH + compressedLength)
+                return;
+            in.skipBytes(HEADER_LENGTH);
+
+            // an empty block marks the end of the stream; the sender is closing the connection
+            if (originalLength == 0)
+                return;
+
+            byte[] decompressed = new byte[originalLength];
+            if (method == COMPRESSION_METHOD_RAW)
+            {
+                in.readBytes(decompressed);
+            }
+            else
+            {
+                if (compressed.length < compressedLength)
+                    compressed = new byte[Math.max(compressedLength, compressed.length * 2)];
+                in.readBytes(compressed, 0, compressedLength);
+                if (decompressor.decompress(compressed, 0, decompressed, 0, originalLength) != compressedLength)
+                    throw new IOException("Stream is corrupted");
+            }
+
+            checksum.reset();
+            checksum.update(decompressed, 0, originalLength);
+            if ((int) checksum.getValue() != check)
+                throw new IOException("Stream is corrupted");
+
+            out.add(ctx.alloc().buffer(originalLength).writeBytes(decompressed));
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+        {
+            logger.debug("Error decompressing data from {}; closing", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * Decodes the stream of {@link DeflateBatchOutputStream}: raw deflate, sync flushed at the end of each batch,
+     * so whatever arrives can be inflated right away.
+     */
+    static final class InflateDecoder extends ByteToMessageDecoder
+    {
+        private static final int CHUNK_SIZE = 1 << 16;
+
+        private final Inflater inflater = new Inflater(true);
+        private byte[] input = new byte[0];
+
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
+        {
+            int length = in.readableBytes();
+            if (input.length < length)
+                input = new byte[Math.max(length, input.length * 2)];
+            in.readBytes(input, 0, length);
+            inflater.setInput(input, 0, length);
+
+            try
+            {
+                while (true)
+                {
+                    ByteBuf inflated = ctx.alloc().heapBuffer(CHUNK_SIZE);
+                    int count = inflater.inflate(inflated.array(), inflated.arrayOffset(), CHUNK_SIZE);
+                    if (count > 0)
+                        out.add(inflated.writerIndex(count));
+                    else
+                        inflated.release();
+
+                    // a full chunk may leave more output behind, even once all the input is consumed
+                    if (count < CHUNK_SIZE && inflater.needsInput())
+                        return;
+                    // the sender never finishes the stream, nor uses a preset dictionary
+                    if (inflater.finished() || inflater.needsDictionary())
+                        throw new IOException("Stream is corrupted");
+                }
+            }
+            catch (DataFormatException e)
+            {
+                throw new IOException("Stream is corrupted", e);
+            }
+        }
+
+        @Override
+        protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception
+        {
+            inflater.end();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+        {
+            logger.debug("Error decompressing data from {}; closing", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,622 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Checksum;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.util.DataOutputStreamPlus;
+import org.apache.cassandra.io.util.WrappedDataOutputStreamPlus;
+import org.apache.cassandra.net.OutboundTcpConnection.QueuedMessage;
+import org.apache.cassandra.net.OutboundTcpConnection.RetriedQueuedMessage;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.JVMStabilityInspector;
+import org.apache.cassandra.utils.NanoTimeToCurrentTimeMillis;
+
+/**
+ * An outbound connection served by one of the {@link NettyInternodeTransport} event loops instead of a thread of
+ * its own. It speaks the same handshake and message framing as {@link OutboundTcpConnection}.
+ *
+ * Messages are queued by any thread; the event loop drains the queue, serializes the messages into pooled buffers
+ * and flushes once per drain, so messages queued while a write is in progress are naturally coalesced.
+ * All the connection state other than the queue and counters is only touched on the event loop.
+ */
+public class NettyOutboundConnection implements IOutboundConnection
+{
+    private static final Logger logger = LoggerFactory.getLogger(NettyOutboundConnection.class);
+
+    private final OutboundTcpConnectionPool poolReference;
+    private final EventLoop eventLoop;
+
+    private final OutboundMessageQueue backlog = new OutboundMessageQueue();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile long completed;
+    private volatile int targetVersion = MessagingService.current_version;
+    private volatile boolean isStopped = false;
+
+    // event loop only
+    private Channel channel;
+    private boolean handshaken;
+    private boolean compressed;
+    private boolean retryScheduled;
+    private long connectStartNanos = -1;
+    private BatchOutputStream batch;
+    private DataOutputStreamPlus out;
+    private List<QueuedMessage> retryable = new ArrayList<>();
+
+    private final Runnable drainTask = new Runnable()
+    {
+        public void run()
+        {
+            drain();
+        }
+    };
+
+    public NettyOutboundConnection(OutboundTcpConnectionPool pool)
+    {
+        this.poolReference = pool;
+        this.eventLoop = NettyInternodeTransport.instance.nextOutboundLoop();
+    }
+
+    public void start()
+    {
+        // nothing to start: we connect when the first message is queued
+    }
+
+    public void enqueue(MessageOut<?> message, int id)
+    {
+        backlog.offer(new QueuedMessage(message, id));
+        scheduleDrain();
+    }
+
+    public void closeSocket(boolean destroy)
+    {
+        isStopped = destroy;
+        eventLoop.execute(new Runnable()
+        {
+            public void run()
+            {
+                backlog.releaseAll();
+                disconnect();
+            }
+        });
+    }
+
+    public void softCloseSocket()
+    {
+        enqueue(OutboundTcpConnection.CLOSE_SENTINEL, -1);
+    }
+
+    public int getTargetVersion()
+    {
+        return targetVersion;
+    }
+
+    public int getPendingMessages()
+    {
+        return backlog.size();
+    }
+
+    public long getCompletedMesssages()
+    {
+        return completed;
+    }
+
+    public long getDroppedMessages()
+    {
+        return backlog.getExpiredMessages();
+    }
+
+    private void scheduleDrain()
+    {
+        if (drainScheduled.compareAndSet(false, true))
+            eventLoop.execute(drainTask);
+    }
+
+    /**
+     * Write out as much of the backlog as the channel will take; the backlog expires droppable messages on the way.
+     * Stops when the channel is not writable; we are called again once it is.
+     */
+    private void drain()
+    {
+        drainScheduled.set(false);
+        if (isStopped)
+        {
+            backlog.releaseAll();
+            disconnect();
+            return;
+        }
+
+        boolean wrote = false;
+        QueuedMessage qm;
+        // we are the only consumer, so the message we peek is the one we poll
+        while ((qm = backlog.peek()) != null)
+        {
+            if (qm.message == OutboundTcpConnection.CLOSE_SENTINEL)
+            {
+                backlog.poll();
+                if (wrote)
+                    flush();
+                wrote = false;
+                disconnect();
+                continue;
+            }
+
+            if (!handshaken)
+            {
+                if (channel == null && !retryScheduled)
+                    connect();
+                break;
+            }
+
+            if (!channel.isWritable())
+                break;
+
+            backlog.poll();
+            wrote |= write(qm);
+        }
+
+        if (wrote)
+            flush();
+    }
+
+    private boolean write(QueuedMessage qm)
+    {
+        try
+        {
+            OutboundTcpConnection.traceSend(qm.message, poolReference.endPoint());
+
+            long timestampMillis = NanoTimeToCurrentTimeMillis.convert(qm.timestampNanos);
+            ByteBuf shared = sharedPayload(qm.message);
+            ChannelFuture payloadWrite = null;
+            if (shared == null)
+            {
+                OutboundTcpConnection.writeInternal(out, qm.message, qm.id, timestampMillis, targetVersion);
+            }
+            else
+            {
+                // hand the payload serialized once for all replicas to the channel as is, behind its header
+                OutboundTcpConnection.writeFrameHeader(out, qm.id, timestampMillis, targetVersion);
+                qm.message.serializeHeader(out, targetVersion);
+                writeBatch();
+                payloadWrite = channel.write(shared);
+            }
+
+            completed++;
+            if (qm.shouldRetry())
+            {
+                // released once we know whether it has to be retried
+                retryable.add(qm);
+                qm = null;
+                // the payload went to the channel on its own, so its write tells whether the message made it
+                if (payloadWrite != null)
+                    retryOnFailure(payloadWrite);
+            }
+            if (batch.size() >= OutboundTcpConnection.BUFFER_SIZE)
+                writeBatch();
+            return true;
+        }
+        catch (Exception e)
+        {
+            JVMStabilityInspector.inspectThrowable(e);
+            // a partially serialized message would corrupt the stream, so start over on a new connection
+            logger.error("error writing to {}", poolReference.endPoint(), e);
+            disconnect();
+            return false;
+        }
+        finally
+        {
+            if (qm != null)
+                qm.release();
+        }
+    }
+
+    /**
+     * @return the payload of {@code message} already serialized for our peer, if it was, unless it has to go
+     * through the compressor
+     */
+    private ByteBuf sharedPayload(MessageOut<?> message)
+    {
+        if (compressed || !(message.serializer instanceof SerializedPayload))
+            return null;
+        return ((SerializedPayload<?>) message.serializer).retainedBuffer(targetVersion);
+    }
+
+    private void flush()
+    {
+        if (!handshaken)
+            return;
+        try
+        {
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            // we only ever write to memory
+            throw new AssertionError(e);
+        }
+        writeBatch();
+        channel.flush();
+    }
+
+    /**
+     * Hand what has been serialized so far to the channel. Should the write fail, the messages that must not be
+     * lost are queued again, once, to be retried after re-connecting (see CASSANDRA-5393).
+     */
+    private void writeBatch()
+    {
+        if (batch.size() == 0)
+            return;
+
+        retryOnFailure(channel.write(batch.take()));
+    }
+
+    /**
+     * Release the messages written so far that must not be lost once {@code future}, the write of their last
+     * bytes, completes, queueing them again if it failed.
+     */
+    private void retryOnFailure(ChannelFuture future)
+    {
+        if (retryable.isEmpty())
+            return;
+
+        final List<QueuedMessage> toRetry = retryable;
+        retryable = new ArrayList<>();
+        future.addListener(new ChannelFutureListener()
+        {
+            public void operationComplete(ChannelFuture future)
+            {
+                for (QueuedMessage qm : toRetry)
+                {
+                    if (!future.isSuccess())
+                        backlog.offer(new RetriedQueuedMessage(qm));
+                    qm.release();
+                }
+                if (!future.isSuccess())
+                    scheduleDrain();
+            }
+        });
+    }
+
+    private void connect()
+    {
+        final InetAddress endpoint = poolReference.endPoint();
+        if (logger.isDebugEnabled())
+            logger.debug("attempting to connect to {}", endpoint);
+
+        if (connectStartNanos == -1)
+            connectStartNanos = System.nanoTime();
+        targetVersion = MessagingService.instance().getVersion(endpoint);
+        // LZ4 only: before 2.1 the compressed stream was Snappy, so talk uncompressed to those nodes
+        compressed = OutboundTcpConnection.shouldCompressConnection(endpoint) && targetVersion >= MessagingService.VERSION_21;
+
+        Bootstrap bootstrap = new Bootstrap()
+                              .group(eventLoop)
+                              .channel(NettyInternodeTransport.instance.outboundChannelClass())
+                              .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                              .option(ChannelOption.SO_KEEPALIVE, true)
+                              .option(ChannelOption.TCP_NODELAY, OutboundTcpConnection.isLocalDC(endpoint)
+                                                                 ? OutboundTcpConnection.INTRADC_TCP_NODELAY
+                                                                 : DatabaseDescriptor.getInterDCTcpNoDelay())
+                              .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) DatabaseDescriptor.getRpcTimeout())
+                              .option(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, OutboundTcpConnection.BUFFER_SIZE)
+                              .option(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, 4 * OutboundTcpConnection.BUFFER_SIZE)
+                              .handler(new ConnectionHandler());
+        if (DatabaseDescriptor.getInternodeSendBufferSize() != null)
+            bootstrap.option(ChannelOption.SO_SNDBUF, DatabaseDescriptor.getInternodeSendBufferSize());
+
+        ChannelFuture future = bootstrap.connect(endpoint, DatabaseDescriptor.getStoragePort());
+        channel = future.channel();
+        future.addListener(new ChannelFutureListener()
+        {
+            public void operationComplete(ChannelFuture future)
+            {
+                if (future.channel() != channel)
+                    return;
+
+                if (!future.isSuccess())
+                {
+                    if (logger.isTraceEnabled())
+                        logger.trace("unable to connect to " + endpoint, future.cause());
+                    connectFailed();
+                    return;
+                }
+
+                ByteBuf header = channel.alloc().buffer(8);
+                try
+                {
+                    ByteBufOutputStream headerOut = new ByteBufOutputStream(header);
+                    headerOut.writeInt(MessagingService.PROTOCOL_MAGIC);
+                    OutboundTcpConnection.writeHeader(headerOut,
+                                                      targetVersion,
+                                                      compressed,
+                                                      compressed && OutboundTcpConnection.shouldRequestDeflate(targetVersion));
+                }
+                catch (IOException e)
+                {
+                    throw new AssertionError(e);
+                }
+                channel.writeAndFlush(header);
+                scheduleHandshakeTimeout(channel);
+            }
+        });
+    }
+
+    private void scheduleHandshakeTimeout(final Channel connecting)
+    {
+        eventLoop.schedule(new Runnable()
+        {
+            public void run()
+            {
+                if (connecting != channel || handshaken)
+                    return;
+
+                // no version is returned, so disconnect an try again: we will either get a different target
+                // version or if the same version the handshake will finally succeed
+                logger.debug("Target max version is {}; no version information yet, will retry", OutboundTcpConnection.NO_VERSION);
+                if (DatabaseDescriptor.getSeeds().contains(poolReference.endPoint()))
+                    logger.warn("Seed gossip version is {}; will not connect with that version", OutboundTcpConnection.NO_VERSION);
+                connectFailed();
+            }
+        }, OutboundTcpConnection.WAIT_FOR_VERSION_MAX_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retry the connection shortly, unless we have been trying for longer than the rpc timeout: then drop what is
+     * queued, else gossip messages back up.
+     */
+    private void connectFailed()
+    {
+        disconnect();
+        if (System.nanoTime() - connectStartNanos >= TimeUnit.MILLISECONDS.toNanos(DatabaseDescriptor.getRpcTimeout()))
+        {
+            connectStartNanos = -1;
+            backlog.releaseAll();
+            return;
+        }
+
+        retryScheduled = true;
+        eventLoop.schedule(new Runnable()
+        {
+            public void run()
+            {
+                retryScheduled = false;
+                drain();
+            }
+        }, OutboundTcpConnection.OPEN_RETRY_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void handshakeComplete(Channel ch, int maxTargetVersion)
+    {
+        if (ch != channel)
+            return;
+
+        boolean deflate = (maxTargetVersion & OutboundTcpConnection.DEFLATE_ACCEPTED) != 0;
+        maxTargetVersion &= ~OutboundTcpConnection.DEFLATE_ACCEPTED;
+
+        InetAddress endpoint = poolReference.endPoint();
+        MessagingService.instance().setVersion(endpoint, maxTargetVersion);
+
+        if (targetVersion > maxTargetVersion)
+        {
+            logger.debug("Target max version is {}; will reconnect with that version", maxTargetVersion);
+            disconnect();
+            drain();
+            return;
+        }
+
+        if (targetVersion < maxTargetVersion && targetVersion < MessagingService.current_version)
+        {
+            logger.trace("Detected higher max version {} (using {}); will reconnect when queued messages are done",
+                         maxTargetVersion, targetVersion);
+            softCloseSocket();
+        }
+
+        batch = new BatchOutputStream(channel);
+        try
+        {
+            DataOutputStreamPlus handshakeOut = new WrappedDataOutputStreamPlus(batch);
+            handshakeOut.writeInt(MessagingService.current_version);
+            CompactEndpointSerializationHelper.serialize(FBUtilities.getBroadcastAddress(), handshakeOut);
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+        writeBatch();
+
+        if (compressed && deflate)
+        {
+            logger.trace("Upgrading OutputStream to be compressed");
+            out = new WrappedDataOutputStreamPlus(new DeflateBatchOutputStream(batch,
+                                                                               OutboundTcpConnection.BUFFER_SIZE,
+                                                                               poolReference.getMetrics()));
+        }
+        else if (compressed)
+        {
+            logger.trace("Upgrading OutputStream to be compressed");
+            LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+            Checksum checksum = XXHashFactory.fastestInstance().newStreamingHash32(OutboundTcpConnection.LZ4_HASH_SEED).asChecksum();
+            out = new WrappedDataOutputStreamPlus(new LZ4BlockOutputStream(batch,
+                                                                           1 << 14,  // 16k block size
+                                                                           compressor,
+                                                                           checksum,
+                                                                           true)); // no async flushing
+        }
+        else
+        {
+            out = new WrappedDataOutputStreamPlus(batch);
+        }
+
+        handshaken = true;
+        connectStartNanos = -1;
+        drain();
+        flush();
+    }
+
+    private void disconnect()
+    {
+        if (channel == null)
+            return;
+
+        channel.close();
+        channel = null;
+        handshaken = false;
+        out = null;
+        if (batch != null)
+            batch.release();
+        batch = null;
+        for (QueuedMessage qm : retryable)
+            qm.release();
+        retryable.clear();
+    }
+
+    private void channelClosed(Channel ch)
+    {
+        if (ch != channel)
+            return;
+
+        logger.debug("connection to {} closed", poolReference.endPoint());
+        disconnect();
+        if (!backlog.isEmpty())
+            scheduleDrain();
+    }
+
+    /**
+     * Reads the version the peer answers the connection header with, and follows the state of the channel.
+     */
+    private final class ConnectionHandler extends ByteToMessageDecoder
+    {
+        private boolean versionReceived;
+
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+        {
+            if (versionReceived)
+            {
+                in.skipBytes(in.readableBytes());
+                return;
+            }
+            if (in.readableBytes() < 4)
+                return;
+
+            versionReceived = true;
+            handshakeComplete(ctx.channel(), in.readInt());
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+        {
+            if (ctx.channel().isWritable())
+                scheduleDrain();
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception
+        {
+            channelClosed(ctx.channel());
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("error writing to {}", poolReference.endPoint(), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * Collects serialized messages into a pooled direct buffer, which is handed to the channel once it holds
+     * BUFFER_SIZE bytes or the drain ends.
+     */
+    private static final class BatchOutputStream extends OutputStream
+    {
+        private final Channel channel;
+        private ByteBuf buffer;
+
+        BatchOutputStream(Channel channel)
+        {
+            this.channel = channel;
+        }
+
+        public void write(int b)
+        {
+            buffer().writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            buffer().writeBytes(b, off, len);
+        }
+
+        private ByteBuf buffer()
+        {
+            if (buffer == null)
+                buffer = channel.alloc().ioBuffer(OutboundTcpConnection.BUFFER_SIZE);
+            return buffer;
+        }
+
+        int size()
+        {
+            return buffer == null ? 0 : buffer.readableBytes();
+        }
+
+        ByteBuf take()
+        {
+            ByteBuf taken = buffer;
+            buffer = null;
+            return taken;
+        }
+
+        void release()
+        {
+            if (buffer != null)
+                buffer.release();
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.collect.Iterators;
+
+import org.apache.cassandra.net.OutboundTcpConnection.QueuedMessage;
+import org.apache.cassandra.utils.concurrent.MpscArrayQueue;
+
+/**
+ * The backlog of an outbound connection: any thread may queue messages, a single thread (the connection's writer
+ * thread or event loop) takes them.
+ *
+ * Messages are kept in two lock-free lanes. Responses and gossip go to a priority lane that is served ahead of the
+ * bulk lane, so they are not held up behind a burst of mutations; to keep the bulk lane from starving, one bulk
+ * message is taken after every {@link #PRIORITY_BURST} consecutive priority ones.
+ *
+ * Droppable messages that have outlived their timeout are expired as they reach the head of their lane, and
+ * reported through the {@link org.apache.cassandra.metrics.DroppedMessageMetrics} of their verb.
+ *
+ * Iteration is weakly consistent, over the priority lane and then the bulk lane, so it is not the order messages
+ * are taken in; removal of arbitrary elements is not supported.
+ */
+class OutboundMessageQueue extends AbstractQueue<QueuedMessage> implements BlockingQueue<QueuedMessage>
+{
+    static final EnumSet<MessagingService.Verb> PRIORITY_VERBS = EnumSet.of(MessagingService.Verb.REQUEST_RESPONSE,
+                                                                            MessagingService.Verb.INTERNAL_RESPONSE,
+                                                                            MessagingService.Verb.GOSSIP_DIGEST_SYN,
+                                                                            MessagingService.Verb.GOSSIP_DIGEST_ACK,
+                                                                            MessagingService.Verb.GOSSIP_DIGEST_ACK2,
+                                                                            MessagingService.Verb.GOSSIP_SHUTDOWN,
+                                                                            MessagingService.Verb.ECHO);
+
+    static final int PRIORITY_BURST = 32;
+
+    private final MpscArrayQueue<QueuedMessage> priority = new Lane();
+    private final MpscArrayQueue<QueuedMessage> bulk = new Lane();
+    private final AtomicLong expired = new AtomicLong();
+
+    // the consumer, if it is parked waiting for a message
+    private volatile Thread waiting;
+
+    // consumer only
+    private int priorityStreak;
+
+    public boolean offer(QueuedMessage qm)
+    {
+        lane(qm).offer(qm);
+        Thread waiting = this.waiting;
+        if (waiting != null)
+            LockSupport.unpark(waiting);
+        return true;
+    }
+
+    public void put(QueuedMessage qm)
+    {
+        offer(qm);
+    }
+
+    public boolean offer(QueuedMessage qm, long timeout, TimeUnit unit)
+    {
+        return offer(qm);
+    }
+
+    private MpscArrayQueue<QueuedMessage> lane(QueuedMessage qm)
+    {
+        // the close sentinel borrows a response verb, but must stay behind the mutations queued before it
+        return qm.message != OutboundTcpConnection.CLOSE_SENTINEL && PRIORITY_VERBS.contains(qm.message.verb)
+               ? priority
+               : bulk;
+    }
+
+    /**
+     * @return the lane the next message is to be taken from, having expired the timed out messages at the
+     * head of the lanes, or null if both are empty
+     */
+    private MpscArrayQueue<QueuedMessage> next()
+    {
+        long nowNanos = System.nanoTime();
+        QueuedMessage first = expireHead(priority, nowNanos);
+        if (first != null && priorityStreak < PRIORITY_BURST)
+            return priority;
+        if (expireHead(bulk, nowNanos) != null)
+            return bulk;
+        return first != null ? priority : null;
+    }
+
+    private QueuedMessage expireHead(MpscArrayQueue<QueuedMessage> lane, long nowNanos)
+    {
+        QueuedMessage qm;
+        while ((qm = lane.peek()) != null && qm.isTimedOut(TimeUnit.MILLISECONDS.toNanos(qm.message.getTimeout()), nowNanos))
+        {
+            lane.poll();
+            qm.release();
+            expired.incrementAndGet();
+            MessagingService.instance().incrementExpiredMessages(qm.message.verb);
+        }
+        return qm;
+    }
+
+    public QueuedMessage poll()
+    {
+        MpscArrayQueue<QueuedMessage> lane = next();
+        if (lane == null)
+            return null;
+        priorityStreak = lane == priority ? priorityStreak + 1 : 0;
+        return lane.poll();
+    }
+
+    public QueuedMessage peek()
+    {
+        MpscArrayQueue<QueuedMessage> lane = next();
+        return lane == null ? null : lane.peek();
+    }
+
+    public QueuedMessage take() throws InterruptedException
+    {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public QueuedMessage poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        QueuedMessage qm = poll();
+        if (qm != null)
+            return qm;
+
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        waiting = Thread.currentThread();
+        try
+        {
+            // producers publish their message before checking for a waiting consumer, and we register before
+            // checking for a message, so one of us always sees the other
+            while ((qm = poll()) == null && remaining > 0)
+            {
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                remaining = deadline - System.nanoTime();
+            }
+            return qm;
+        }
+        finally
+        {
+            waiting = null;
+        }
+    }
+
+    public int drainTo(Collection<? super QueuedMessage> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super QueuedMessage> c, int maxElements)
+    {
+        int count = 0;
+        QueuedMessage qm;
+        while (count < maxElements && (qm = poll()) != null)
+        {
+            c.add(qm);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Discards the queued messages without counting them as expired. May be called by any thread.
+     */
+    public void clear()
+    {
+        priority.discard();
+        bulk.discard();
+    }
+
+    /**
+     * Discards the queued messages without counting them as expired, releasing their payloads right away rather
+     * than as the consumer skips them, for when nothing will consume the queue any more. Must only be called by the
+     * consumer; messages whose producers have not completed yet are left to the next call.
+     */
+    public void releaseAll()
+    {
+        clear();
+        QueuedMessage qm;
+        while ((qm = priority.poll()) != null)
+            qm.release();
+        while ((qm = bulk.poll()) != null)
+            qm.release();
+    }
+
+    public boolean isEmpty()
+    {
+        return priority.isEmpty() && bulk.isEmpty();
+    }
+
+    public int size()
+    {
+        return priority.size() + bulk.size();
+    }
+
+    public int remainingCapacity()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the number of messages expired in this queue since it was created
+     */
+    public long getExpiredMessages()
+    {
+        return expired.get();
+    }
+
+    /**
+     * @return a weakly consistent iterator over the queued messages, that may be used by any thread
+     */
+    public Iterator<QueuedMessage> iterator()
+    {
+        return Iterators.concat(priority.iterator(), bulk.iterator());
+    }
+
+    public boolean remove(Object o)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    private static final class Lane extends MpscArrayQueue<QueuedMessage>
+    {
+        protected void onDiscard(QueuedMessage qm)
+        {
+            qm.release();
+        }
+    }
+}
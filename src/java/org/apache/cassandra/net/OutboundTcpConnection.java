@@ -25,12 +25,9 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.Checksum;
 
 import org.slf4j.Logger;
@@ -61,7 +58,7 @@ import com.google.common.util.concurrent.Uninterruptibles;
 
 //OutboundTcpConnection负责发消息，MessagingService.SocketThread.run()负责接收消息
 //此类的流程是通过enqueue方法加消息，然后在run()中轮循，最后写往指定的Socket
-public class OutboundTcpConnection extends Thread
+public class OutboundTcpConnection extends Thread implements IOutboundConnection
 {
     private static final Logger logger = LoggerFactory.getLogger(OutboundTcpConnection.class);
 
@@ -71,13 +68,13 @@ public class OutboundTcpConnection extends Thread
      * Enabled/disable TCP_NODELAY for intradc connections. Defaults to enabled.
      */
     private static final String INTRADC_TCP_NODELAY_PROPERTY = PREFIX + "otc_intradc_tcp_nodelay";
-    private static final boolean INTRADC_TCP_NODELAY = Boolean.valueOf(System.getProperty(INTRADC_TCP_NODELAY_PROPERTY, "true"));
+    static final boolean INTRADC_TCP_NODELAY = Boolean.valueOf(System.getProperty(INTRADC_TCP_NODELAY_PROPERTY, "true"));
 
     /*
      * Size of buffer in output stream
      */
     private static final String BUFFER_SIZE_PROPERTY = PREFIX + "otc_buffer_size";
-    private static final int BUFFER_SIZE = Integer.getInteger(BUFFER_SIZE_PROPERTY, 1024 * 64);
+    static final int BUFFER_SIZE = Integer.getInteger(BUFFER_SIZE_PROPERTY, 1024 * 64);
 
     private static CoalescingStrategy newCoalescingStrategy(String displayName)
     {
@@ -113,16 +110,19 @@ public class OutboundTcpConnection extends Thread
                     "Value provided for coalescing window must be greather than 0: " + coalescingWindow);
     }
 
-    private static final MessageOut CLOSE_SENTINEL = new MessageOut(MessagingService.Verb.INTERNAL_RESPONSE);
+    static final MessageOut CLOSE_SENTINEL = new MessageOut(MessagingService.Verb.INTERNAL_RESPONSE);
     private volatile boolean isStopped = false;
 
-    private static final int OPEN_RETRY_DELAY = 100; // ms between retries
+    static final int OPEN_RETRY_DELAY = 100; // ms between retries
     public static final int WAIT_FOR_VERSION_MAX_TIME = 5000;
-    private static final int NO_VERSION = Integer.MIN_VALUE;
+    static final int NO_VERSION = Integer.MIN_VALUE;
+    // set in the version a peer answers a connection header with, when it agrees to deflate compression;
+    // peers that know nothing about it answer with their bare version, and decompress with LZ4
+    static final int DEFLATE_ACCEPTED = 1 << 30;
 
     static final int LZ4_HASH_SEED = 0x9747b28c;
 
-    private final BlockingQueue<QueuedMessage> backlog = new LinkedBlockingQueue<>();
+    private final OutboundMessageQueue backlog = new OutboundMessageQueue();
 
     private final OutboundTcpConnectionPool poolReference;
 
@@ -130,7 +130,6 @@ public class OutboundTcpConnection extends Thread
     private DataOutputStreamPlus out;
     private Socket socket;
     private volatile long completed;
-    private final AtomicLong dropped = new AtomicLong();
     private volatile int currentMsgBufferCount = 0;
     private int targetVersion = MessagingService.current_version;
 
@@ -141,7 +140,7 @@ public class OutboundTcpConnection extends Thread
         cs = newCoalescingStrategy(pool.endPoint().getHostAddress());
     }
 
-    private static boolean isLocalDC(InetAddress targetHost)
+    static boolean isLocalDC(InetAddress targetHost)
     {
         String remoteDC = DatabaseDescriptor.getEndpointSnitch().getDatacenter(targetHost);
         String localDC = DatabaseDescriptor.getEndpointSnitch().getDatacenter(FBUtilities.getBroadcastAddress());
@@ -150,26 +149,20 @@ public class OutboundTcpConnection extends Thread
 
     public void enqueue(MessageOut<?> message, int id)
     {
-        if (backlog.size() > 1024)
-            expireMessages();
-        try
-        {
-            backlog.put(new QueuedMessage(message, id));
-        }
-        catch (InterruptedException e)
-        {
-            throw new AssertionError(e);
-        }
+        // once stopped, nothing would take the message, nor release its payload
+        if (isStopped)
+            return;
+        backlog.offer(new QueuedMessage(message, id));
     }
 
-    void closeSocket(boolean destroyThread)
+    public void closeSocket(boolean destroyThread)
     {
         backlog.clear();
         isStopped = destroyThread; // Exit loop to stop the thread
-        enqueue(CLOSE_SENTINEL, -1);
+        backlog.offer(new QueuedMessage(CLOSE_SENTINEL, -1));
     }
 
-    void softCloseSocket()
+    public void softCloseSocket()
     {
         enqueue(CLOSE_SENTINEL, -1);
     }
@@ -216,8 +209,9 @@ public class OutboundTcpConnection extends Thread
             int count = drainedMessages.size();
             //The timestamp of the first message has already been provided to the coalescing strategy
             //so skip logging it.
-            for (QueuedMessage qm : drainedMessages)
+            for (int i = 0; i < drainedMessages.size(); i++)
             {
+                QueuedMessage qm = drainedMessages.get(i);
                 try
                 {
                     MessageOut<?> m = qm.message;
@@ -225,7 +219,11 @@ public class OutboundTcpConnection extends Thread
                     {
                         disconnect();
                         if (isStopped)
+                        {
+                            for (QueuedMessage remaining : drainedMessages.subList(i + 1, drainedMessages.size()))
+                                remaining.release();
                             break outer;
+                        }
                         continue;
                     }
 //<<<<<<< HEAD
@@ -239,9 +237,8 @@ public class OutboundTcpConnection extends Thread
 //                    if (qm.isTimedOut(m.getTimeout()))
 //=======
 
-                    if (qm.isTimedOut(TimeUnit.MILLISECONDS.toNanos(m.getTimeout()), System.nanoTime()))
-                        dropped.incrementAndGet();
-                    else if (socket != null || connect())
+                    // droppable messages that timed out were expired by the backlog as we took them
+                    if (socket != null || connect())
                         writeConnected(qm, count == 1 && backlog.isEmpty());
                     else
                         // clear out the queue, else gossip messages back up.
@@ -254,10 +251,17 @@ public class OutboundTcpConnection extends Thread
                     // but we want to catch anything bad we don't drop the messages in the current batch
                     logger.error("error processing a message intended for {}", poolReference.endPoint(), e);
                 }
+                finally
+                {
+                    qm.release();
+                }
                 currentMsgBufferCount = --count;
             }
             drainedMessages.clear();
         }
+
+        // the thread is done with the backlog: release what is left in it, discarded or queued since
+        backlog.releaseAll();
     }
 
     public int getPendingMessages()
@@ -272,43 +276,29 @@ public class OutboundTcpConnection extends Thread
 
     public long getDroppedMessages()
     {
-        return dropped.get();
+        return backlog.getExpiredMessages();
     }
 
     private boolean shouldCompressConnection()
+    {
+        return shouldCompressConnection(poolReference.endPoint());
+    }
+
+    static boolean shouldCompressConnection(InetAddress endpoint)
     {
         // assumes version >= 1.2
         return DatabaseDescriptor.internodeCompression() == Config.InternodeCompression.all
-               || (DatabaseDescriptor.internodeCompression() == Config.InternodeCompression.dc && !isLocalDC(poolReference.endPoint()));
+               || (DatabaseDescriptor.internodeCompression() == Config.InternodeCompression.dc && !isLocalDC(endpoint));
     }
 
     private void writeConnected(QueuedMessage qm, boolean flush)
     {
         try
         {
-            byte[] sessionBytes = qm.message.parameters.get(Tracing.TRACE_HEADER);
-            if (sessionBytes != null)
-            {
-                UUID sessionId = UUIDGen.getUUID(ByteBuffer.wrap(sessionBytes));
-                TraceState state = Tracing.instance.get(sessionId);
-                String message = String.format("Sending message to %s", poolReference.endPoint());
-                // session may have already finished; see CASSANDRA-5668
-                if (state == null)
-                {
-                    byte[] traceTypeBytes = qm.message.parameters.get(Tracing.TRACE_TYPE);
-                    Tracing.TraceType traceType = traceTypeBytes == null ? Tracing.TraceType.QUERY : Tracing.TraceType.deserialize(traceTypeBytes[0]);
-                    TraceState.mutateWithTracing(ByteBuffer.wrap(sessionBytes), message, -1, traceType.getTTL());
-                }
-                else
-                {
-                    state.trace(message);
-                    if (qm.message.verb == MessagingService.Verb.REQUEST_RESPONSE)
-                        Tracing.instance.doneWithNonLocalSession(state);
-                }
-            }
+            traceSend(qm.message, poolReference.endPoint());
 
             long timestampMillis = NanoTimeToCurrentTimeMillis.convert(qm.timestampNanos);
-            writeInternal(qm.message, qm.id, timestampMillis);
+            writeInternal(out, qm.message, qm.id, timestampMillis, targetVersion);
 
             completed++;
             if (flush)
@@ -325,16 +315,7 @@ public class OutboundTcpConnection extends Thread
                 // if the message was important, such as a repair acknowledgement, put it back on the queue
                 // to retry after re-connecting.  See CASSANDRA-5393
                 if (qm.shouldRetry())
-                {
-                    try
-                    {
-                        backlog.put(new RetriedQueuedMessage(qm));
-                    }
-                    catch (InterruptedException e1)
-                    {
-                        throw new AssertionError(e1);
-                    }
-                }
+                    backlog.offer(new RetriedQueuedMessage(qm));
             }
             else
             {
@@ -344,8 +325,38 @@ public class OutboundTcpConnection extends Thread
         }
     }
 
+    static void traceSend(MessageOut<?> message, InetAddress to)
+    {
+        byte[] sessionBytes = message.parameters.get(Tracing.TRACE_HEADER);
+        if (sessionBytes == null)
+            return;
+
+        UUID sessionId = UUIDGen.getUUID(ByteBuffer.wrap(sessionBytes));
+        TraceState state = Tracing.instance.get(sessionId);
+        String traceMessage = String.format("Sending message to %s", to);
+        // session may have already finished; see CASSANDRA-5668
+        if (state == null)
+        {
+            byte[] traceTypeBytes = message.parameters.get(Tracing.TRACE_TYPE);
+            Tracing.TraceType traceType = traceTypeBytes == null ? Tracing.TraceType.QUERY : Tracing.TraceType.deserialize(traceTypeBytes[0]);
+            TraceState.mutateWithTracing(ByteBuffer.wrap(sessionBytes), traceMessage, -1, traceType.getTTL());
+        }
+        else
+        {
+            state.trace(traceMessage);
+            if (message.verb == MessagingService.Verb.REQUEST_RESPONSE)
+                Tracing.instance.doneWithNonLocalSession(state);
+        }
+    }
+
     //对应IncomingTcpConnection.receiveMessage(DataInputStream, int)
-    private void writeInternal(MessageOut message, int id, long timestamp) throws IOException
+    static void writeInternal(DataOutputStreamPlus out, MessageOut message, int id, long timestamp, int targetVersion) throws IOException
+    {
+        writeFrameHeader(out, id, timestamp, targetVersion);
+        message.serialize(out, targetVersion);
+    }
+
+    static void writeFrameHeader(DataOutputStreamPlus out, int id, long timestamp, int targetVersion) throws IOException
     {
         out.writeInt(MessagingService.PROTOCOL_MAGIC);
 
@@ -357,24 +368,40 @@ public class OutboundTcpConnection extends Thread
         // int cast cuts off the high-order half of the timestamp, which we can assume remains
         // the same between now and when the recipient reconstructs it.
         out.writeInt((int) timestamp);
-        message.serialize(out, targetVersion);
     }
 
-    private static void writeHeader(DataOutput out, int version, boolean compressionEnabled) throws IOException
+    static void writeHeader(DataOutput out, int version, boolean compressionEnabled) throws IOException
+    {
+        writeHeader(out, version, compressionEnabled, false);
+    }
+
+    static void writeHeader(DataOutput out, int version, boolean compressionEnabled, boolean deflateRequested) throws IOException
     {
         // 2 bits: unused.  used to be "serializer type," which was always Binary
         // 1 bit: compression
         // 1 bit: streaming mode
-        // 3 bits: unused
+        // 1 bit: deflate compression requested (see DEFLATE_ACCEPTED)
+        // 2 bits: unused
         // 8 bits: version
         // 15 bits: unused
         int header = 0;
         if (compressionEnabled)
             header |= 4;
+        if (deflateRequested)
+            header |= 16;
         header |= (version << 8);
         out.writeInt(header);
     }
 
+    /**
+     * Whether to ask the peer for the deflate compressor rather than LZ4, on a compressed connection.
+     */
+    static boolean shouldRequestDeflate(int targetVersion)
+    {
+        return DatabaseDescriptor.getInternodeCompressor() == Config.InternodeCompressor.deflate
+               && targetVersion >= MessagingService.VERSION_21;
+    }
+
     private void disconnect()
     {
         if (socket != null)
@@ -431,12 +458,16 @@ public class OutboundTcpConnection extends Thread
 
                 out = new BufferedDataOutputStreamPlus(socket.getChannel(), BUFFER_SIZE);
 
+                boolean compress = shouldCompressConnection();
                 out.writeInt(MessagingService.PROTOCOL_MAGIC);
-                writeHeader(out, targetVersion, shouldCompressConnection());
+                writeHeader(out, targetVersion, compress, compress && shouldRequestDeflate(targetVersion));
                 out.flush();
 
                 DataInputStream in = new DataInputStream(socket.getInputStream());
                 int maxTargetVersion = handshakeVersion(in);
+                boolean deflate = maxTargetVersion != NO_VERSION && (maxTargetVersion & DEFLATE_ACCEPTED) != 0;
+                if (maxTargetVersion != NO_VERSION)
+                    maxTargetVersion &= ~DEFLATE_ACCEPTED;
                 if (maxTargetVersion == NO_VERSION)
                 {
                     // no version is returned, so disconnect an try again: we will either get
@@ -470,11 +501,17 @@ public class OutboundTcpConnection extends Thread
                 out.writeInt(MessagingService.current_version);
                 //发送本机的ip地址
                 CompactEndpointSerializationHelper.serialize(FBUtilities.getBroadcastAddress(), out);
-                if (shouldCompressConnection())
+                if (compress)
                 {
                     out.flush();
                     logger.trace("Upgrading OutputStream to be compressed");
-                    if (targetVersion < MessagingService.VERSION_21)
+                    if (deflate)
+                    {
+                        out = new WrappedDataOutputStreamPlus(new DeflateBatchOutputStream(socket.getOutputStream(),
+                                                                                           BUFFER_SIZE,
+                                                                                           poolReference.getMetrics()));
+                    }
+                    else if (targetVersion < MessagingService.VERSION_21)
                     {
                         // Snappy is buffered, so no need for extra buffering output stream
                         out = new WrappedDataOutputStreamPlus(new SnappyOutputStream(socket.getOutputStream()));
@@ -546,21 +583,8 @@ public class OutboundTcpConnection extends Thread
         return version.get();
     }
 
-    private void expireMessages()
-    {
-        Iterator<QueuedMessage> iter = backlog.iterator();
-        while (iter.hasNext())
-        {
-            QueuedMessage qm = iter.next();
-            if (qm.timestampNanos >= System.nanoTime() - qm.message.getTimeout())
-                return;
-            iter.remove();
-            dropped.incrementAndGet();
-        }
-    }
-
     /** messages that have not been retried yet */
-    private static class QueuedMessage implements Coalescable
+    static class QueuedMessage implements Coalescable
     {
         final MessageOut<?> message;
         final int id;
@@ -573,6 +597,17 @@ public class OutboundTcpConnection extends Thread
             this.id = id;
             this.timestampNanos = System.nanoTime();
             this.droppable = MessagingService.DROPPABLE_VERBS.contains(message.verb);
+            if (message.serializer instanceof SerializedPayload)
+                ((SerializedPayload<?>) message.serializer).retain();
+        }
+
+        /**
+         * Let go of the shared payload buffer, if any, once the message has been written or dropped.
+         */
+        void release()
+        {
+            if (message.serializer instanceof SerializedPayload)
+                ((SerializedPayload<?>) message.serializer).release();
         }
 
         /** don't drop a non-droppable message just because it's timestamp is expired */
@@ -592,7 +627,7 @@ public class OutboundTcpConnection extends Thread
         }
     }
 
-    private static class RetriedQueuedMessage extends QueuedMessage
+    static class RetriedQueuedMessage extends QueuedMessage
     {
         RetriedQueuedMessage(QueuedMessage msg)
         {
@@ -25,6 +25,8 @@ import java.nio.channels.SocketChannel;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -42,8 +44,8 @@ public class OutboundTcpConnectionPool
     // pointer for the real Address.
     private final InetAddress id;
     private final CountDownLatch started;
-    public final OutboundTcpConnection smallMessages;
-    public final OutboundTcpConnection largeMessages;
+    public final IOutboundConnection smallMessages;
+    public final IOutboundConnection largeMessages;
     // pointer to the reset Address.
     private InetAddress resetEndpoint;
     private ConnectionMetrics metrics;
@@ -52,6 +54,12 @@ public class OutboundTcpConnectionPool
     //ackCon负责REQUEST_RESPONSE、INTERNAL_RESPONSE、GOSSIP
     //其他的由cmdCon负责
     OutboundTcpConnectionPool(InetAddress remoteEp)
+    {
+        this(remoteEp, SystemKeyspace.getPreferredIP(remoteEp));
+    }
+
+    @VisibleForTesting
+    OutboundTcpConnectionPool(InetAddress remoteEp, InetAddress preferredIp)
     {
         /*
         CREATE TABLE peers (
@@ -67,18 +75,29 @@ public class OutboundTcpConnectionPool
          ) WITH COMMENT='known peers in the cluster'
          */
         id = remoteEp;
-        resetEndpoint = SystemKeyspace.getPreferredIP(remoteEp);
+        resetEndpoint = preferredIp;
         started = new CountDownLatch(1);
 
-        smallMessages = new OutboundTcpConnection(this);
-        largeMessages = new OutboundTcpConnection(this);
+        smallMessages = newConnection();
+        largeMessages = newConnection();
+    }
+
+    /**
+     * Unencrypted connections use the Netty transport when internode_transport is netty; encrypted ones
+     * are always accepted by a blocking SSL server socket on the other side, so they stay on their own thread.
+     */
+    private IOutboundConnection newConnection()
+    {
+        if (DatabaseDescriptor.getInternodeTransport() == Config.InternodeTransport.netty && !isEncryptedChannel(id))
+            return new NettyOutboundConnection(this);
+        return new OutboundTcpConnection(this);
     }
 
     /**
      * returns the appropriate connection based on message type.
      * returns null if a connection could not be established.
      */
-    OutboundTcpConnection getConnection(MessageOut msg)
+    IOutboundConnection getConnection(MessageOut msg)
     {
         return msg.payloadSize(smallMessages.getTargetVersion()) > LARGE_MESSAGE_THRESHOLD
                ? largeMessages
@@ -87,13 +106,13 @@ public class OutboundTcpConnectionPool
 
     void reset()
     {
-        for (OutboundTcpConnection conn : new OutboundTcpConnection[] { smallMessages, largeMessages })
+        for (IOutboundConnection conn : new IOutboundConnection[] { smallMessages, largeMessages })
             conn.closeSocket(false);
     }
 
     public void resetToNewerVersion(int version)
     {
-        for (OutboundTcpConnection conn : new OutboundTcpConnection[] { smallMessages, largeMessages })
+        for (IOutboundConnection conn : new IOutboundConnection[] { smallMessages, largeMessages })
         {
             if (version > conn.getTargetVersion())
                 conn.softCloseSocket();
@@ -109,7 +128,7 @@ public class OutboundTcpConnectionPool
     {
         SystemKeyspace.updatePreferredIP(id, remoteEP);
         resetEndpoint = remoteEP;
-        for (OutboundTcpConnection conn : new OutboundTcpConnection[] { smallMessages, largeMessages })
+        for (IOutboundConnection conn : new IOutboundConnection[] { smallMessages, largeMessages })
             conn.softCloseSocket();
 
         // release previous metrics and create new one with reset address
@@ -117,6 +136,11 @@ public class OutboundTcpConnectionPool
         metrics = new ConnectionMetrics(resetEndpoint, this);
     }
 
+    ConnectionMetrics getMetrics()
+    {
+        return metrics;
+    }
+
     public long getTimeouts()
     {
        return metrics.timeouts.getCount();
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.io.util.DataOutputBufferFixed;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.metrics.SerializedPayloadMetrics;
+
+/**
+ * A message payload serialized once, for the current messaging version, into a pooled direct buffer that every
+ * connection the message is sent on writes as is, instead of serializing the payload again.
+ *
+ * It stands in as the serializer of the messages it is sent with (see {@link #createMessage}), and falls back
+ * to the payload's own serializer for peers on another messaging version.
+ *
+ * The buffer is reference counted: whoever creates it holds one reference until it is done sending, and each
+ * queued message holds another until its connection has written or dropped it. The buffer returns to the pool
+ * when the last one is released.
+ */
+public class SerializedPayload<T> implements IVersionedSerializer<T>
+{
+    private final T payload;
+    private final IVersionedSerializer<T> serializer;
+    private final int version;
+    private final ByteBuf buffer;
+
+    private SerializedPayload(T payload, IVersionedSerializer<T> serializer, int version, ByteBuf buffer)
+    {
+        this.payload = payload;
+        this.serializer = serializer;
+        this.version = version;
+        this.buffer = buffer;
+    }
+
+    public static <T> SerializedPayload<T> create(T payload, IVersionedSerializer<T> serializer)
+    {
+        return create(payload, serializer, MessagingService.current_version);
+    }
+
+    public static <T> SerializedPayload<T> create(T payload, IVersionedSerializer<T> serializer, int version)
+    {
+        long start = System.nanoTime();
+        long size = serializer.serializedSize(payload, version);
+        assert size <= Integer.MAX_VALUE; // larger values are supported in sstables but not messages
+
+        ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer((int) size, (int) size);
+        try
+        {
+            DataOutputBufferFixed out = new DataOutputBufferFixed(buffer.nioBuffer(0, (int) size));
+            serializer.serialize(payload, out, version);
+            assert out.getLength() == size : String.format("Serialized %d bytes, expected %d", out.getLength(), size);
+            buffer.writerIndex((int) size);
+        }
+        catch (IOException e)
+        {
+            // we only write to memory
+            buffer.release();
+            throw new AssertionError(e);
+        }
+        catch (RuntimeException | Error e)
+        {
+            buffer.release();
+            throw e;
+        }
+
+        SerializedPayloadMetrics.serializationTime.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        SerializedPayloadMetrics.allocations.mark();
+        SerializedPayloadMetrics.allocationSize.update(size);
+        SerializedPayloadMetrics.bytesInUse.inc(size);
+        return new SerializedPayload<>(payload, serializer, version, buffer);
+    }
+
+    public MessageOut<T> createMessage(MessagingService.Verb verb)
+    {
+        return new MessageOut<>(verb, payload, this);
+    }
+
+    /**
+     * Take a reference to the buffer, for as long as a queued message may write it.
+     */
+    public void retain()
+    {
+        buffer.retain();
+    }
+
+    public void release()
+    {
+        if (buffer.release())
+            SerializedPayloadMetrics.bytesInUse.dec(buffer.capacity());
+    }
+
+    /**
+     * @return a view of the serialized bytes holding its own reference to the buffer, to hand to a channel
+     * that releases it once written, or null if {@code version} is not the one serialized for
+     */
+    ByteBuf retainedBuffer(int version)
+    {
+        if (version != this.version)
+            return null;
+        SerializedPayloadMetrics.reuses.mark();
+        return buffer.duplicate().retain();
+    }
+
+    public void serialize(T t, DataOutputPlus out, int version) throws IOException
+    {
+        if (t != payload || version != this.version)
+        {
+            serializer.serialize(t, out, version);
+            return;
+        }
+        SerializedPayloadMetrics.reuses.mark();
+        out.write(buffer.nioBuffer());
+    }
+
+    public T deserialize(DataInput in, int version) throws IOException
+    {
+        return serializer.deserialize(in, version);
+    }
+
+    public long serializedSize(T t, int version)
+    {
+        return t == payload && version == this.version
+               ? buffer.readableBytes()
+               : serializer.serializedSize(t, version);
+    }
+}
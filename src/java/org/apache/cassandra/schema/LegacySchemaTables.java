@@ -100,6 +100,7 @@ public class LegacySchemaTables
                 + "default_time_to_live int,"
                 + "default_validator text,"
                 + "dropped_columns map<text, bigint>,"
+                + "durable_writes boolean,"
                 + "gc_grace_seconds int,"
                 + "is_dense boolean,"
                 + "key_validator text,"
@@ -107,9 +108,12 @@ public class LegacySchemaTables
                 + "max_compaction_threshold int,"
                 + "max_index_interval int,"
                 + "memtable_flush_period_in_ms int,"
+                + "memtable_index text,"
+                + "memtable_shards int,"
                 + "min_compaction_threshold int,"
                 + "min_index_interval int,"
                 + "read_repair_chance double,"
+                + "row_bloom_filter_fp_chance double,"
                 + "speculative_retry text,"
                 + "subcomparator text,"
                 + "type text,"
@@ -874,15 +878,19 @@ public class LegacySchemaTables
         adder.add("compression_parameters", json(table.compressionParameters.asThriftOptions()));
         adder.add("default_time_to_live", table.getDefaultTimeToLive());
         adder.add("default_validator", table.getDefaultValidator().toString());
+        adder.add("durable_writes", table.getDurableWrites());
         adder.add("gc_grace_seconds", table.getGcGraceSeconds());
         adder.add("key_validator", table.getKeyValidator().toString());
         adder.add("local_read_repair_chance", table.getDcLocalReadRepairChance());
         adder.add("max_compaction_threshold", table.getMaxCompactionThreshold());
         adder.add("max_index_interval", table.getMaxIndexInterval());
         adder.add("memtable_flush_period_in_ms", table.getMemtableFlushPeriod());
+        adder.add("memtable_index", table.getMemtableIndex().toString());
+        adder.add("memtable_shards", table.getMemtableShards());
         adder.add("min_compaction_threshold", table.getMinCompactionThreshold());
         adder.add("min_index_interval", table.getMinIndexInterval());
         adder.add("read_repair_chance", table.getReadRepairChance());
+        adder.add("row_bloom_filter_fp_chance", table.getRowBloomFilterFpChance());
         adder.add("speculative_retry", table.getSpeculativeRetry().toString());
 
         for (Map.Entry<ColumnIdentifier, Long> entry : table.getDroppedColumns().entrySet())
@@ -1081,11 +1089,19 @@ public class LegacySchemaTables
             cfm.comment(result.getString("comment"));
         if (result.has("memtable_flush_period_in_ms"))
             cfm.memtableFlushPeriod(result.getInt("memtable_flush_period_in_ms"));
+        if (result.has("memtable_index"))
+            cfm.memtableIndex(MemtablePartitionIndex.Type.fromString(result.getString("memtable_index")));
+        if (result.has("memtable_shards"))
+            cfm.memtableShards(result.getInt("memtable_shards"));
         cfm.caching(CachingOptions.fromString(result.getString("caching")));
         if (result.has("default_time_to_live"))
             cfm.defaultTimeToLive(result.getInt("default_time_to_live"));
+        if (result.has("durable_writes"))
+            cfm.durableWrites(result.getBoolean("durable_writes"));
         if (result.has("speculative_retry"))
             cfm.speculativeRetry(CFMetaData.SpeculativeRetry.fromString(result.getString("speculative_retry")));
+        if (result.has("row_bloom_filter_fp_chance"))
+            cfm.rowBloomFilterFpChance(result.getDouble("row_bloom_filter_fp_chance"));
         cfm.compactionStrategyClass(CFMetaData.createCompactionStrategy(result.getString("compaction_strategy_class")));
         cfm.compressionParameters(CompressionParameters.create(fromJsonMap(result.getString("compression_parameters"))));
         cfm.compactionStrategyOptions(fromJsonMap(result.getString("compaction_strategy_options")));
@@ -71,6 +71,48 @@ public abstract class AbstractReadExecutor
         handler = new ReadCallback<>(resolver, consistencyLevel, command, targetReplicas);
     }
 
+    // whether the local read, if any, may be run on the calling thread
+    private boolean localReadInline = true;
+    // the batch holding the local read back until its partitions are prefetched, if any
+    private StorageProxy.LocalReadBatch localReadBatch;
+
+    // set on the threads that must run their local reads themselves, without going through the READ stage
+    private static final ThreadLocal<Boolean> localReadsOnCallingThread = new ThreadLocal<>();
+
+    /**
+     * Makes the local reads of the calling thread run on it rather than through the READ stage, until called
+     * again with false: for event loops running reads inline (see InlineReadHandler), which must never wait
+     * for a READ stage permit.
+     */
+    public static void setLocalReadsOnCallingThread(boolean onCallingThread)
+    {
+        if (onCallingThread)
+            localReadsOnCallingThread.set(Boolean.TRUE);
+        else
+            localReadsOnCallingThread.remove();
+    }
+
+    /**
+     * Hands the local read, if any, to the READ stage instead of possibly running it on the calling thread, so
+     * that the local reads of a multi-partition query proceed concurrently; through the given batch, if not null,
+     * so that it waits for its partitions to be prefetched.
+     */
+    void deferLocalRead(StorageProxy.LocalReadBatch batch)
+    {
+        localReadInline = false;
+        localReadBatch = batch;
+    }
+
+    boolean readsLocally()
+    {
+        for (InetAddress replica : targetReplicas)
+        {
+            if (isLocalRequest(replica))
+                return true;
+        }
+        return false;
+    }
+
     private static boolean isLocalRequest(InetAddress replica)
     {
         return replica.equals(FBUtilities.getBroadcastAddress()) && StorageProxy.OPTIMIZE_LOCAL_REQUESTS;
@@ -109,7 +151,13 @@ public abstract class AbstractReadExecutor
         if (hasLocalEndpoint)
         {
             logger.trace("reading {} locally", readCommand.isDigestQuery() ? "digest" : "data");
-            StageManager.getStage(Stage.READ).maybeExecuteImmediately(new LocalReadRunnable(command, handler));
+            LocalReadRunnable runnable = new LocalReadRunnable(command, handler);
+            if (localReadsOnCallingThread.get() != null)
+                runnable.run();
+            else if (localReadInline)
+                StageManager.getStage(Stage.READ).maybeExecuteImmediately(runnable);
+            else if (localReadBatch == null || !localReadBatch.add(runnable))
+                StageManager.getStage(Stage.READ).execute(runnable);
         }
     }
 
@@ -262,10 +262,11 @@ public class CassandraDaemon
             }
         });
 
-        // check all directories(data, commitlog, saved cache) for existence and permission
+        // check all directories(data, commitlog, saved cache, hints) for existence and permission
         Iterable<String> dirs = Iterables.concat(Arrays.asList(DatabaseDescriptor.getAllDataFileLocations()),
                                                  Arrays.asList(DatabaseDescriptor.getCommitLogLocation(),
-                                                               DatabaseDescriptor.getSavedCachesLocation()));
+                                                               DatabaseDescriptor.getSavedCachesLocation(),
+                                                               DatabaseDescriptor.getHintsDirectory()));
 
         SigarLibrary sigarLibrary = new SigarLibrary();
         if (sigarLibrary.initialized())
@@ -37,6 +37,7 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.concurrent.TokenAffine;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
@@ -891,77 +892,92 @@ public class StorageProxy implements StorageProxyMBean
     {
         // extra-datacenter replicas, grouped by dc
         Map<String, Collection<InetAddress>> dcGroups = null;
-        // only need to create a Message for non-local writes
+        // only need to create a Message for non-local writes; its payload is serialized once for all of them
+        SerializedPayload<Mutation> serialized = null;
         MessageOut<Mutation> message = null;
 
         boolean insertLocal = false;
 
-
-        for (InetAddress destination : targets)
+        try
         {
-            // avoid OOMing due to excess hints.  we need to do this check even for "live" nodes, since we can
-            // still generate hints for those if it's overloaded or simply dead but not yet known-to-be-dead.
-            // The idea is that if we have over maxHintsInProgress hints in flight, this is probably due to
-            // a small number of nodes causing problems, so we should avoid shutting down writes completely to
-            // healthy nodes.  Any node with no hintsInProgress is considered healthy.
-            if (StorageMetrics.totalHintsInProgress.getCount() > maxHintsInProgress
-                    && (getHintsInProgressFor(destination).get() > 0 && shouldHint(destination)))
-            {
-                throw new OverloadedException("Too many in flight hints: " + StorageMetrics.totalHintsInProgress.getCount());
-            }
-
-            if (FailureDetector.instance.isAlive(destination))
+            for (InetAddress destination : targets)
             {
-                if (destination.equals(FBUtilities.getBroadcastAddress()) && OPTIMIZE_LOCAL_REQUESTS)
+                // avoid OOMing due to excess hints.  we need to do this check even for "live" nodes, since we can
+                // still generate hints for those if it's overloaded or simply dead but not yet known-to-be-dead.
+                // The idea is that if we have over maxHintsInProgress hints in flight, this is probably due to
+                // a small number of nodes causing problems, so we should avoid shutting down writes completely to
+                // healthy nodes.  Any node with no hintsInProgress is considered healthy.
+                if (StorageMetrics.totalHintsInProgress.getCount() > maxHintsInProgress
+                        && (getHintsInProgressFor(destination).get() > 0 && shouldHint(destination)))
                 {
-                    insertLocal = true;
-                } else
+                    throw new OverloadedException("Too many in flight hints: " + StorageMetrics.totalHintsInProgress.getCount());
+                }
+
+                if (FailureDetector.instance.isAlive(destination))
                 {
-                    // belongs on a different server
-                    if (message == null)
-                        message = mutation.createMessage();
-                    String dc = DatabaseDescriptor.getEndpointSnitch().getDatacenter(destination);
-                    // direct writes to local DC or old Cassandra versions
-                    // (1.1 knows how to forward old-style String message IDs; updated to int in 2.0)
-                    //先发本地的，再发非本地数据中心的
-                    if (localDataCenter.equals(dc))
+                    if (destination.equals(FBUtilities.getBroadcastAddress()) && OPTIMIZE_LOCAL_REQUESTS)
                     {
-                        MessagingService.instance().sendRR(message, destination, responseHandler, true);
+                        insertLocal = true;
                     } else
                     {
-                        Collection<InetAddress> messages = (dcGroups != null) ? dcGroups.get(dc) : null;
-                        if (messages == null)
+                        // belongs on a different server
+                        if (message == null)
                         {
-                            messages = new ArrayList<InetAddress>(3); // most DCs will have <= 3 replicas
-                            if (dcGroups == null)
-                                dcGroups = new HashMap<String, Collection<InetAddress>>();
-                            dcGroups.put(dc, messages);
+                            serialized = SerializedPayload.create(mutation, Mutation.serializer);
+                            message = serialized.createMessage(MessagingService.Verb.MUTATION);
+                        }
+                        String dc = DatabaseDescriptor.getEndpointSnitch().getDatacenter(destination);
+                        // direct writes to local DC or old Cassandra versions
+                        // (1.1 knows how to forward old-style String message IDs; updated to int in 2.0)
+                        //先发本地的，再发非本地数据中心的
+                        if (localDataCenter.equals(dc))
+                        {
+                            MessagingService.instance().sendRR(message, destination, responseHandler, true);
+                        } else
+                        {
+                            Collection<InetAddress> messages = (dcGroups != null) ? dcGroups.get(dc) : null;
+                            if (messages == null)
+                            {
+                                messages = new ArrayList<InetAddress>(3); // most DCs will have <= 3 replicas
+                                if (dcGroups == null)
+                                    dcGroups = new HashMap<String, Collection<InetAddress>>();
+                                dcGroups.put(dc, messages);
+                            }
+                            messages.add(destination);
                         }
-                        messages.add(destination);
                     }
+                } else
+                {
+                    //目标节点临时不可用时，先存到system.hints表
+                    if (!shouldHint(destination))
+                        continue;
+
+                    // Schedule a local hint
+                    submitHint(mutation, destination, responseHandler);
                 }
-            } else
+            }
+
+            if (insertLocal)
+                insertLocal(mutation, responseHandler);
+
+            if (dcGroups != null)
             {
-                //目标节点临时不可用时，先存到system.hints表
-                if (!shouldHint(destination))
-                    continue;
+                // for each datacenter, send the message to one node to relay the write to other replicas
+                if (message == null)
+                {
+                    serialized = SerializedPayload.create(mutation, Mutation.serializer);
+                    message = serialized.createMessage(MessagingService.Verb.MUTATION);
+                }
 
-                // Schedule a local hint
-                submitHint(mutation, destination, responseHandler);
+                for (Collection<InetAddress> dcTargets : dcGroups.values())
+                    sendMessagesToNonlocalDC(message, dcTargets, responseHandler);
             }
         }
-
-        if (insertLocal)
-            insertLocal(mutation, responseHandler);
-
-        if (dcGroups != null)
+        finally
         {
-            // for each datacenter, send the message to one node to relay the write to other replicas
-            if (message == null)
-                message = mutation.createMessage();
-
-            for (Collection<InetAddress> dcTargets : dcGroups.values())
-                sendMessagesToNonlocalDC(message, dcTargets, responseHandler);
+            // the queued messages hold their own references to the buffer
+            if (serialized != null)
+                serialized.release();
         }
     }
 
@@ -1021,7 +1037,7 @@ public class StorageProxy implements StorageProxyMBean
         assert ttl > 0;
         UUID hostId = StorageService.instance.getTokenMetadata().getHostId(target);
         assert hostId != null : "Missing host ID for " + target.getHostAddress();
-        HintedHandOffManager.instance.hintFor(mutation, now, ttl, hostId).apply();
+        HintedHandOffManager.instance.write(mutation, now, ttl, hostId);
         StorageMetrics.totalHints.inc();
     }
 
@@ -1065,7 +1081,7 @@ public class StorageProxy implements StorageProxyMBean
     private static void insertLocal(final Mutation mutation, final AbstractWriteResponseHandler<IMutation> responseHandler)
     {
 
-        StageManager.getStage(Stage.MUTATION).maybeExecuteImmediately(new LocalMutationRunnable()
+        StageManager.getStage(Stage.MUTATION).maybeExecuteImmediately(new LocalMutationRunnable(mutation.key())
         {
             public void runMayThrow()
             {
@@ -1370,17 +1386,23 @@ public class StorageProxy implements StorageProxyMBean
             if (!commandsToRetry.isEmpty())
                 Tracing.trace("Retrying {} commands", commandsToRetry.size());
 
-            // send out read requests
             for (int i = 0; i < commands.size(); i++)
             {
                 ReadCommand command = commands.get(i);
                 assert !command.isDigestQuery();
 
-                AbstractReadExecutor exec = AbstractReadExecutor.getReadExecutor(command, consistencyLevel);
-                exec.executeAsync();
-                readExecutors[i] = exec;
+                readExecutors[i] = AbstractReadExecutor.getReadExecutor(command, consistencyLevel);
             }
 
+            LocalReadBatch localReads = readExecutors.length > 1 ? batchLocalReads(readExecutors) : null;
+
+            // send out read requests
+            for (AbstractReadExecutor exec : readExecutors)
+                exec.executeAsync();
+
+            if (localReads != null)
+                StageManager.getStage(Stage.READ).execute(localReads);
+
             for (AbstractReadExecutor exec : readExecutors)
                 exec.maybeTryAdditionalReplicas();
 
@@ -1524,7 +1546,97 @@ public class StorageProxy implements StorageProxyMBean
         return rows;
     }
 
-    static class LocalReadRunnable extends DroppableRunnable
+    /**
+     * Defers the local reads of a multi-partition query, and when several of them are from the same table,
+     * batches them behind a prefetch of their partitions (see LocalReadBatch).
+     *
+     * @return the batch to run once the remote requests are out, or null if no table has several local reads
+     */
+    private static LocalReadBatch batchLocalReads(AbstractReadExecutor[] readExecutors)
+    {
+        Map<Pair<String, String>, List<DecoratedKey>> keysByTable = new HashMap<>();
+        List<AbstractReadExecutor> localReads = new ArrayList<>();
+        for (AbstractReadExecutor exec : readExecutors)
+        {
+            if (!exec.readsLocally())
+                continue;
+
+            localReads.add(exec);
+            Pair<String, String> table = Pair.create(exec.command.ksName, exec.command.cfName);
+            List<DecoratedKey> keys = keysByTable.get(table);
+            if (keys == null)
+            {
+                keys = new ArrayList<>();
+                keysByTable.put(table, keys);
+            }
+            keys.add(StorageService.getPartitioner().decorateKey(exec.command.key));
+        }
+
+        Iterator<List<DecoratedKey>> iter = keysByTable.values().iterator();
+        while (iter.hasNext())
+        {
+            if (iter.next().size() < 2)
+                iter.remove();
+        }
+
+        LocalReadBatch batch = keysByTable.isEmpty() ? null : new LocalReadBatch(keysByTable);
+        for (AbstractReadExecutor exec : localReads)
+            exec.deferLocalRead(batch);
+        return batch;
+    }
+
+    /**
+     * The local reads of a multi-partition query, held back until the OS has been told to read ahead the index
+     * blocks, then the first data block, of each of their partitions, in token order. Finding the data blocks
+     * reads the index, so the positions found are put in the key cache, for the reads not to look them up again.
+     * Runs on the READ stage, and only hands the reads to it once done.
+     */
+    static class LocalReadBatch implements Runnable
+    {
+        private final Map<Pair<String, String>, List<DecoratedKey>> keysByTable;
+        // null once the batch has run: the reads deferred since then go straight to the READ stage
+        private List<Runnable> reads = new ArrayList<>();
+
+        LocalReadBatch(Map<Pair<String, String>, List<DecoratedKey>> keysByTable)
+        {
+            this.keysByTable = keysByTable;
+        }
+
+        /**
+         * @return false if the batch has already run, in which case the caller must run the read itself
+         */
+        synchronized boolean add(Runnable read)
+        {
+            if (reads == null)
+                return false;
+            reads.add(read);
+            return true;
+        }
+
+        public void run()
+        {
+            List<Runnable> toRun;
+            try
+            {
+                for (Map.Entry<Pair<String, String>, List<DecoratedKey>> entry : keysByTable.entrySet())
+                    Keyspace.open(entry.getKey().left).getColumnFamilyStore(entry.getKey().right).prefetchIndex(entry.getValue());
+                for (Map.Entry<Pair<String, String>, List<DecoratedKey>> entry : keysByTable.entrySet())
+                    Keyspace.open(entry.getKey().left).getColumnFamilyStore(entry.getKey().right).prefetchData(entry.getValue());
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    toRun = reads;
+                    reads = null;
+                }
+                for (Runnable read : toRun)
+                    StageManager.getStage(Stage.READ).execute(read);
+            }
+        }
+    }
+
+    static class LocalReadRunnable extends DroppableRunnable implements TokenAffine
     {
         private final ReadCommand command;
         private final ReadCallback<ReadResponse, Row> handler;
@@ -1537,6 +1649,11 @@ public class StorageProxy implements StorageProxyMBean
             this.handler = handler;
         }
 
+        public Token affinityToken()
+        {
+            return StorageService.getPartitioner().getToken(command.key);
+        }
+
         protected void runMayThrow()
         {
             try
@@ -2189,9 +2306,20 @@ public class StorageProxy implements StorageProxyMBean
      * Like DroppableRunnable, but if it aborts, it will rerun (on the mutation stage) after
      * marking itself as a hint in progress so that the hint backpressure mechanism can function.
      */
-    private static abstract class LocalMutationRunnable implements Runnable
+    private static abstract class LocalMutationRunnable implements Runnable, TokenAffine
     {
         private final long constructionTime = System.currentTimeMillis();
+        private final ByteBuffer key;
+
+        LocalMutationRunnable(ByteBuffer key)
+        {
+            this.key = key;
+        }
+
+        public Token affinityToken()
+        {
+            return StorageService.getPartitioner().getToken(key);
+        }
 
         public final void run()
         {
@@ -638,9 +638,10 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
                 for (Keyspace keyspace : Keyspace.all())
                 {
                     KSMetaData ksm = Schema.instance.getKSMetaData(keyspace.getName());
-                    if (!ksm.durableWrites)
+                    for (ColumnFamilyStore cfs : keyspace.getColumnFamilyStores())
                     {
-                        for (ColumnFamilyStore cfs : keyspace.getColumnFamilyStores())
+                        // anything that was not written to the commit log has to be flushed to survive the restart
+                        if (!ksm.durableWrites || !cfs.metadata.getDurableWrites())
                             flushes.add(cfs.forceFlush());
                     }
                 }
@@ -740,6 +741,7 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
             UUID localHostId = SystemKeyspace.getLocalHostId();
             getTokenMetadata().updateHostId(localHostId, FBUtilities.getBroadcastAddress());
             appStates.put(ApplicationState.NET_VERSION, valueFactory.networkVersion());
+            appStates.put(ApplicationState.STREAMING_VERSION, valueFactory.streamingVersion());
             appStates.put(ApplicationState.HOST_ID, valueFactory.hostId(localHostId));
             appStates.put(ApplicationState.RPC_ADDRESS, valueFactory.rpcaddress(DatabaseDescriptor.getBroadcastRpcAddress()));
             appStates.put(ApplicationState.RELEASE_VERSION, valueFactory.releaseVersion());
@@ -2306,7 +2308,7 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
 
         if (tokenMetadata.isMember(endpoint))
         {
-            HintedHandOffManager.instance.scheduleHintDelivery(endpoint, true);
+            HintedHandOffManager.instance.scheduleHintDelivery(endpoint);
             notifyUp(endpoint);
         }
     }
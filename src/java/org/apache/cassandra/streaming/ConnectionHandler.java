@@ -25,8 +25,11 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -37,6 +40,7 @@ import com.google.common.util.concurrent.SettableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.io.util.DataOutputStreamPlus;
 import org.apache.cassandra.io.util.BufferedDataOutputStreamPlus;
 import org.apache.cassandra.io.util.WrappedDataOutputStreamPlus;
@@ -52,6 +56,13 @@ import org.apache.cassandra.utils.JVMStabilityInspector;
  * Internally, ConnectionHandler manages thread to receive incoming {@link StreamMessage} and thread to
  * send outgoing message. Messages are encoded/decoded on those thread and handed to
  * {@link StreamSession#messageReceived(org.apache.cassandra.streaming.messages.StreamMessage)}.
+ *
+ * <p>
+ * When {@code stream_data_connections_per_session} is more than one, the initiator opens that many connections in
+ * each direction. The first pair carries the control messages; files go out on the others, whose handlers all take
+ * from one queue, so that a connection done with a file picks the next one up. The receiving side knows nothing of
+ * the setting: it attaches every connection after the first one as a data connection. Throttling is shared across
+ * all of them, as {@link StreamManager.StreamRateLimiter} limits the node as a whole.
  */
 public class ConnectionHandler
 {
@@ -62,6 +73,11 @@ public class ConnectionHandler
     private IncomingMessageHandler incoming;
     private OutgoingMessageHandler outgoing;
 
+    // extra connections for files only, and the queue of the files they send
+    private final List<IncomingMessageHandler> dataIncoming = new CopyOnWriteArrayList<>();
+    private final List<OutgoingMessageHandler> dataOutgoing = new CopyOnWriteArrayList<>();
+    private final PriorityBlockingQueue<StreamMessage> fileQueue = OutgoingMessageHandler.newMessageQueue();
+
     ConnectionHandler(StreamSession session)
     {
         this.session = session;
@@ -80,13 +96,29 @@ public class ConnectionHandler
     {
         logger.debug("[Stream #{}] Sending stream init for incoming stream", session.planId());
         Socket incomingSocket = session.createConnection();
-        incoming.start(incomingSocket, StreamMessage.CURRENT_VERSION);
+        incoming.start(incomingSocket, session.protocolVersion());
         incoming.sendInitMessage(incomingSocket, true);
 
         logger.debug("[Stream #{}] Sending stream init for outgoing stream", session.planId());
         Socket outgoingSocket = session.createConnection();
-        outgoing.start(outgoingSocket, StreamMessage.CURRENT_VERSION);
+        outgoing.start(outgoingSocket, session.protocolVersion());
         outgoing.sendInitMessage(outgoingSocket, false);
+
+        for (int i = 1; i < DatabaseDescriptor.getStreamDataConnectionsPerSession(); i++)
+        {
+            logger.debug("[Stream #{}] Sending stream init for data connections #{}", session.planId(), i);
+            IncomingMessageHandler dataIn = new IncomingMessageHandler(session);
+            Socket dataInSocket = session.createConnection();
+            dataIn.start(dataInSocket, session.protocolVersion());
+            dataIncoming.add(dataIn);
+            dataIn.sendInitMessage(dataInSocket, true);
+
+            OutgoingMessageHandler dataOut = new OutgoingMessageHandler(session, fileQueue);
+            Socket dataOutSocket = session.createConnection();
+            dataOut.start(dataOutSocket, session.protocolVersion());
+            dataOutgoing.add(dataOut);
+            dataOut.sendInitMessage(dataOutSocket, false);
+        }
     }
 
     /**
@@ -96,22 +128,54 @@ public class ConnectionHandler
      * @param version Streaming message version
      * @throws IOException
      */
-    public void initiateOnReceivingSide(Socket socket, boolean isForOutgoing, int version) throws IOException
+    public synchronized void initiateOnReceivingSide(Socket socket, boolean isForOutgoing, int version) throws IOException
     {
+        // a data connection of a session done with already
+        if (outgoing.isClosed())
+        {
+            socket.close();
+            return;
+        }
+        session.protocolVersion(version);
+
+        // the first connection in each direction is the control one, any other one only carries files
         if (isForOutgoing)
-            outgoing.start(socket, version);
+        {
+            if (!outgoing.isStarted())
+            {
+                outgoing.start(socket, version);
+                return;
+            }
+            OutgoingMessageHandler dataOut = new OutgoingMessageHandler(session, fileQueue);
+            dataOut.start(socket, version);
+            dataOutgoing.add(dataOut);
+        }
         else
-            incoming.start(socket, version);
+        {
+            if (!incoming.isStarted())
+            {
+                incoming.start(socket, version);
+                return;
+            }
+            IncomingMessageHandler dataIn = new IncomingMessageHandler(session);
+            dataIn.start(socket, version);
+            dataIncoming.add(dataIn);
+        }
     }
 
     public ListenableFuture<?> close()
     {
         logger.debug("[Stream #{}] Closing stream connection handler on {}", session.planId(), session.peer);
 
-        ListenableFuture<?> inClosed = incoming == null ? Futures.immediateFuture(null) : incoming.close();
-        ListenableFuture<?> outClosed = outgoing == null ? Futures.immediateFuture(null) : outgoing.close();
+        List<ListenableFuture<?>> closed = new ArrayList<>(2 + dataIncoming.size() + dataOutgoing.size());
+        closed.add(incoming == null ? Futures.immediateFuture(null) : incoming.close());
+        closed.add(outgoing == null ? Futures.immediateFuture(null) : outgoing.close());
+        for (MessageHandler handler : dataIncoming)
+            closed.add(handler.close());
+        for (MessageHandler handler : dataOutgoing)
+            closed.add(handler.close());
 
-        return Futures.allAsList(inClosed, outClosed);
+        return Futures.allAsList(closed);
     }
 
     /**
@@ -130,7 +194,19 @@ public class ConnectionHandler
         if (outgoing.isClosed())
             throw new RuntimeException("Outgoing stream handler has been closed");
 
-        outgoing.enqueue(message);
+        // until the data connections of the receiving side are attached, files go on the control connection
+        if (message.type == StreamMessage.Type.FILE && !dataOutgoing.isEmpty())
+            fileQueue.put(message);
+        else
+            outgoing.enqueue(message);
+    }
+
+    /**
+     * @return the number of connections files are sent on
+     */
+    public int dataConnections()
+    {
+        return Math.max(1, dataOutgoing.size());
     }
 
     /**
@@ -198,6 +274,11 @@ public class ConnectionHandler
             new Thread(this, name() + "-" + session.peer).start();
         }
 
+        public boolean isStarted()
+        {
+            return socket != null;
+        }
+
         public ListenableFuture<?> close()
         {
             // Assume it wasn't closed. Not a huge deal if we create a future on a race
@@ -285,18 +366,31 @@ public class ConnectionHandler
          * The size will grow when received streaming request.
          *
          * Queue is also PriorityQueue so that prior messages can go out fast.
+         *
+         * The handlers of the data connections of a session share theirs.
          */
-        private final PriorityBlockingQueue<StreamMessage> messageQueue = new PriorityBlockingQueue<>(64, new Comparator<StreamMessage>()
-        {
-            public int compare(StreamMessage o1, StreamMessage o2)
-            {
-                return o2.getPriority() - o1.getPriority();
-            }
-        });
+        private final PriorityBlockingQueue<StreamMessage> messageQueue;
 
         OutgoingMessageHandler(StreamSession session)
+        {
+            this(session, newMessageQueue());
+        }
+
+        OutgoingMessageHandler(StreamSession session, PriorityBlockingQueue<StreamMessage> messageQueue)
         {
             super(session);
+            this.messageQueue = messageQueue;
+        }
+
+        static PriorityBlockingQueue<StreamMessage> newMessageQueue()
+        {
+            return new PriorityBlockingQueue<>(64, new Comparator<StreamMessage>()
+            {
+                public int compare(StreamMessage o1, StreamMessage o2)
+                {
+                    return o2.getPriority() - o1.getPriority();
+                }
+            });
         }
 
         protected String name()
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.streaming;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.common.base.Throwables;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableFormat;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.SSTableWriter;
+import org.apache.cassandra.io.sstable.format.Version;
+import org.apache.cassandra.io.sstable.metadata.MetadataType;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.io.util.DataIntegrityMetadata;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.streaming.messages.FileMessageHeader;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * Reads the component files of an SSTable sent whole (see {@link EntireSSTableStreamWriter}) straight from the
+ * stream into temporary files, without decoding a single partition.
+ *
+ * The files only become a live sstable once every file of the receiving task has been received: see
+ * {@link #finish}.
+ */
+public class EntireSSTableStreamReader
+{
+    private static final Logger logger = LoggerFactory.getLogger(EntireSSTableStreamReader.class);
+
+    private final UUID cfId;
+    private final Map<Component, Long> components;
+    private final StreamSession session;
+    private final Version inputVersion;
+    private final SSTableFormat.Type format;
+
+    public EntireSSTableStreamReader(FileMessageHeader header, StreamSession session)
+    {
+        assert header.isEntireSSTable();
+        this.session = session;
+        this.cfId = header.cfId;
+        this.components = header.components;
+        this.inputVersion = header.format.info.getVersion(header.version);
+        this.format = header.format;
+    }
+
+    /**
+     * @param channel where this reads data from
+     * @return the temporary descriptor of the SSTable transferred
+     * @throws IOException if reading the remote sstable fails. Will throw an RTE if local write fails.
+     */
+    public Descriptor read(ReadableByteChannel channel) throws IOException
+    {
+        logger.debug("reading entire sstable from {}, components = {}", session.peer, components.keySet());
+        long totalSize = totalSize();
+
+        Pair<String, String> kscf = Schema.instance.getCF(cfId);
+        if (kscf == null)
+        {
+            // schema was dropped during streaming
+            drain(channel, 0);
+            throw new IOException("CF " + cfId + " was dropped during streaming");
+        }
+        if (!inputVersion.isCompatible())
+        {
+            drain(channel, 0);
+            throw new IOException("Cannot read sstables of version " + inputVersion + " sent whole by " + session.peer);
+        }
+        ColumnFamilyStore cfs = Keyspace.open(kscf.left).getColumnFamilyStore(kscf.right);
+
+        Directories.DataDirectory localDir = cfs.directories.getWriteableLocation(totalSize);
+        if (localDir == null)
+        {
+            drain(channel, 0);
+            throw new IOException("Insufficient disk space to store " + totalSize + " bytes");
+        }
+        // the files are named after the version they were written in, not the one we would write
+        Descriptor desc = Descriptor.fromFilename(cfs.getTempSSTablePath(cfs.directories.getLocationForDisk(localDir), inputVersion, format));
+
+        long bytesRead = 0;
+        try
+        {
+            for (Map.Entry<Component, Long> component : components.entrySet())
+            {
+                try (FileChannel out = FileChannel.open(Paths.get(desc.filenameFor(component.getKey())),
+                                                        StandardOpenOption.CREATE_NEW,
+                                                        StandardOpenOption.WRITE))
+                {
+                    long length = component.getValue();
+                    long written = 0;
+                    while (written < length)
+                    {
+                        long transferred = out.transferFrom(channel, written, Math.min(EntireSSTableStreamWriter.CHUNK_SIZE, length - written));
+                        if (transferred <= 0)
+                            throw new EOFException("Stream ended " + (length - written) + " bytes before the end of " + out);
+
+                        written += transferred;
+                        bytesRead += transferred;
+                        session.progress(desc, ProgressInfo.Direction.IN, bytesRead, totalSize);
+                    }
+                    out.force(true);
+                }
+            }
+            verify(desc);
+            return desc;
+        }
+        catch (Throwable e)
+        {
+            delete(desc, components);
+            drain(channel, bytesRead);
+            if (e instanceof IOException)
+                throw (IOException) e;
+            else
+                throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Checks the data file received against the digest the sender computed when writing it, before anything opens
+     * the sstable: the files were copied as they are, so nothing else checksums them on the way.
+     */
+    private void verify(Descriptor desc) throws IOException
+    {
+        if (!components.containsKey(Component.DIGEST))
+            throw new IOException("No digest sent with the sstable sent whole by " + session.peer);
+
+        try (DataIntegrityMetadata.FileDigestValidator validator = DataIntegrityMetadata.fileDigestValidator(desc))
+        {
+            validator.validate();
+        }
+    }
+
+    /**
+     * Moves the files of an sstable received whole into place, gives it the repairedAt time and level of the
+     * header it came with, in place of those it had on the sender, and opens it.
+     *
+     * @param tmpdesc the temporary descriptor the files were received with
+     * @return the sstable received
+     */
+    public static SSTableReader finish(Descriptor tmpdesc, FileMessageHeader header, ColumnFamilyStore cfs)
+    {
+        Descriptor desc = SSTableWriter.rename(tmpdesc, header.components.keySet());
+        try
+        {
+            StatsMetadata stats = (StatsMetadata) desc.getMetadataSerializer().deserialize(desc, MetadataType.STATS);
+            if (stats.repairedAt != header.repairedAt)
+                desc.getMetadataSerializer().mutateRepairedAt(desc, header.repairedAt);
+            if (stats.sstableLevel != header.sstableLevel)
+                desc.getMetadataSerializer().mutateLevel(desc, header.sstableLevel);
+
+            return SSTableReader.open(desc, header.components.keySet(), cfs.metadata, cfs.partitioner);
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, desc.filenameFor(Component.STATS));
+        }
+    }
+
+    /**
+     * Deletes whichever files of an sstable received whole exist.
+     */
+    public static void delete(Descriptor desc, Map<Component, Long> components)
+    {
+        for (Component component : components.keySet())
+            FileUtils.delete(desc.filenameFor(component));
+    }
+
+    private void drain(ReadableByteChannel channel, long bytesRead) throws IOException
+    {
+        InputStream in = Channels.newInputStream(channel);
+        long toSkip = totalSize() - bytesRead;
+        while (toSkip > 0)
+        {
+            long skipped = in.skip(toSkip);
+            // InputStream.skip can return -1 if the stream is inaccessible
+            if (skipped <= 0)
+                break;
+            toSkip -= skipped;
+        }
+    }
+
+    private long totalSize()
+    {
+        long size = 0;
+        for (long componentSize : components.values())
+            size += componentSize;
+        return size;
+    }
+}
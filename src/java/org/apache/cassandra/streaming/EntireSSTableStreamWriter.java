@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.streaming;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Function;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.util.ChannelProxy;
+import org.apache.cassandra.io.util.DataOutputStreamPlus;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * StreamWriter that sends the component files of a whole SSTable as they are, rather than sections of its data.
+ *
+ * Each file goes from the page cache to the socket with {@link java.nio.channels.FileChannel#transferTo}, so
+ * that no byte of it is copied through the heap, nor re-checksummed; the receiver moves the files into place
+ * (see {@link EntireSSTableStreamReader}) instead of rebuilding the sstable partition by partition.
+ */
+public class EntireSSTableStreamWriter extends StreamWriter
+{
+    public static final int CHUNK_SIZE = 10 * 1024 * 1024;
+
+    /** The components sent, in order; those the sstable lacks are skipped, and the receiver rebuilds them */
+    private static final List<Component> STREAMED_COMPONENTS = Arrays.asList(Component.DATA,
+                                                                             Component.PRIMARY_INDEX,
+                                                                             Component.SUMMARY,
+                                                                             Component.FILTER,
+                                                                             Component.ROW_FILTER,
+                                                                             Component.STATS,
+                                                                             Component.COMPRESSION_INFO,
+                                                                             Component.DIGEST,
+                                                                             Component.CRC,
+                                                                             Component.TOC);
+
+    private final Map<Component, Long> components;
+
+    public EntireSSTableStreamWriter(SSTableReader sstable, Collection<Pair<Long, Long>> sections, Map<Component, Long> components, StreamSession session)
+    {
+        super(sstable, sections, session);
+        this.components = components;
+    }
+
+    /**
+     * @return true if the sstable can be sent whole to stream the given ranges: it must lie entirely within one of
+     * them, and neither be opened early nor have moved its start, so that all of its data is live; it must also
+     * have a digest of its data, for the receiver to verify the files against. Counter sstables never qualify: the
+     * receiver must clear the local shards of their cells (see BigTableWriter.appendFromStream).
+     */
+    public static boolean canStreamEntirely(SSTableReader sstable, Collection<Range<Token>> normalizedRanges)
+    {
+        if (sstable.metadata.isCounter())
+            return false;
+        if (sstable.openReason != SSTableReader.OpenReason.NORMAL && sstable.openReason != SSTableReader.OpenReason.METADATA_CHANGE)
+            return false;
+        if (!sstable.getComponents().contains(Component.DIGEST))
+            return false;
+        // older sstables go through the rewrite, which upgrades them
+        if (!sstable.descriptor.version.isLatestVersion())
+            return false;
+
+        // the normalized ranges do not wrap, so a range holding both ends of the sstable holds all of it
+        for (Range<Token> range : normalizedRanges)
+        {
+            if (range.contains(sstable.first.getToken()) && range.contains(sstable.last.getToken()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the size of each of the component files of the sstable to send, in the order they are sent
+     */
+    public static Map<Component, Long> components(SSTableReader sstable)
+    {
+        Map<Component, Long> components = new LinkedHashMap<>(STREAMED_COMPONENTS.size());
+        for (Component component : STREAMED_COMPONENTS)
+        {
+            if (sstable.getComponents().contains(component))
+                components.put(component, new File(sstable.descriptor.filenameFor(component)).length());
+        }
+        return components;
+    }
+
+    @Override
+    public void write(DataOutputStreamPlus out) throws IOException
+    {
+        long totalSize = totalSize();
+        long progress = 0L;
+
+        for (Map.Entry<Component, Long> component : components.entrySet())
+        {
+            String filename = sstable.descriptor.filenameFor(component.getKey());
+            // the sstable is referenced until the receiver acknowledges it, so its files cannot go away
+            try (final ChannelProxy fc = new ChannelProxy(filename))
+            {
+                long length = component.getValue();
+                long bytesTransferred = 0;
+                while (bytesTransferred < length)
+                {
+                    final long position = bytesTransferred;
+                    final int toTransfer = (int) Math.min(CHUNK_SIZE, length - bytesTransferred);
+                    limiter.acquire(toTransfer);
+                    long lastWrite = out.applyToChannel(new Function<WritableByteChannel, Long>()
+                    {
+                        public Long apply(WritableByteChannel wbc)
+                        {
+                            return fc.transferTo(position, toTransfer, wbc);
+                        }
+                    });
+                    if (lastWrite <= 0)
+                        throw new EOFException(String.format("%s is shorter than the %d bytes announced to %s", filename, length, session.peer));
+
+                    bytesTransferred += lastWrite;
+                    progress += lastWrite;
+                    session.progress(sstable.descriptor, ProgressInfo.Direction.OUT, progress, totalSize);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected long totalSize()
+    {
+        long size = 0;
+        for (long componentSize : components.values())
+            size += componentSize;
+        return size;
+    }
+}
@@ -69,13 +69,21 @@ public class StreamLockfile
 
     public void create(Collection<SSTableWriter> sstables)
     {
-        List<String> sstablePaths = new ArrayList<>(sstables.size());
+        List<Descriptor> descriptors = new ArrayList<>(sstables.size());
         for (SSTableWriter writer : sstables)
+            descriptors.add(writer.descriptor);
+        createForDescriptors(descriptors);
+    }
+
+    public void createForDescriptors(Collection<Descriptor> descriptors)
+    {
+        List<String> sstablePaths = new ArrayList<>(descriptors.size());
+        for (Descriptor descriptor : descriptors)
         {
             /* write out the file names *without* the 'tmp-file' flag in the file name.
                this class will not need to clean up tmp files (on restart), CassandraDaemon does that already,
                just make sure we delete the fully-formed SSTRs. */
-            sstablePaths.add(writer.descriptor.asType(Descriptor.Type.FINAL).baseFilename());
+            sstablePaths.add(descriptor.asType(Descriptor.Type.FINAL).baseFilename());
         }
 
         try
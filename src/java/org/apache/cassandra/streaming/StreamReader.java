@@ -52,6 +52,7 @@ import org.apache.cassandra.utils.Pair;
 public class StreamReader
 {
     private static final Logger logger = LoggerFactory.getLogger(StreamReader.class);
+    protected final FileMessageHeader header;
     protected final UUID cfId;
     protected final long estimatedKeys;
     protected final Collection<Pair<Long, Long>> sections;
@@ -66,6 +67,7 @@ public class StreamReader
     public StreamReader(FileMessageHeader header, StreamSession session)
     {
         this.session = session;
+        this.header = header;
         this.cfId = header.cfId;
         this.estimatedKeys = header.estimatedKeys;
         this.sections = header.sections;
@@ -97,11 +99,15 @@ public class StreamReader
 
         DataInputStream dis = new DataInputStream(new LZFInputStream(Channels.newInputStream(channel)));
         BytesReadTracker in = new BytesReadTracker(dis);
+        // bytes of the sections received up to the end of the last partition written
+        long partitionsRead = 0;
         try
         {
             while (in.getBytesRead() < totalSize)
             {
+                writer.mark();
                 writeRow(writer, in, cfs);
+                partitionsRead = in.getBytesRead();
 
                 // TODO move this to BytesReadTracker
                 session.progress(desc, ProgressInfo.Direction.IN, in.getBytesRead(), totalSize);
@@ -109,7 +115,7 @@ public class StreamReader
             return writer;
         } catch (Throwable e)
         {
-            writer.abort();
+            abort(writer, e, partitionsRead == 0 ? -1 : positionOf(partitionsRead));
             drain(dis, in.getBytesRead());
             if (e instanceof IOException)
                 throw (IOException) e;
@@ -147,6 +153,52 @@ public class StreamReader
         }
     }
 
+    /**
+     * Aborts the writer of a file that could not be read in full, unless the session can resume the file, and
+     * the stream rather than this node failed: then what was written of it up to the last partition received in
+     * full is handed over to the session (see StreamSession#receivedPartially).
+     *
+     * @param position where in the sender's data file the first partition not received starts, -1 if it is the
+     * first one of the file
+     */
+    protected void abort(SSTableWriter writer, Throwable e, long position)
+    {
+        if (position < 0 || !(e instanceof IOException) || !session.isResumable(header))
+        {
+            writer.abort();
+            return;
+        }
+
+        try
+        {
+            // drop what was written of the partition being received
+            writer.resetAndTruncate();
+        }
+        catch (Throwable t)
+        {
+            writer.abort();
+            return;
+        }
+        session.receivedPartially(header, writer, position);
+    }
+
+    /**
+     * @return the position in the sender's data file of the given number of bytes into the sections
+     */
+    protected long positionOf(long bytesRead)
+    {
+        long position = 0;
+        for (Pair<Long, Long> section : sections)
+        {
+            long length = section.right - section.left;
+            if (bytesRead < length)
+                return section.left + bytesRead;
+            bytesRead -= length;
+            position = section.right;
+        }
+        return position;
+    }
+
     protected long totalSize()
     {
         long size = 0;
@@ -22,17 +22,30 @@ import java.io.IOError;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.format.SSTableWriter;
+import org.apache.cassandra.streaming.messages.FileMessageHeader;
+import org.apache.cassandra.streaming.messages.ResumeMessage;
+import org.apache.cassandra.utils.JVMStabilityInspector;
 import org.apache.cassandra.utils.Pair;
 
 import org.apache.cassandra.utils.concurrent.Refs;
@@ -42,6 +55,8 @@ import org.apache.cassandra.utils.concurrent.Refs;
  */
 public class StreamReceiveTask extends StreamTask
 {
+    private static final Logger logger = LoggerFactory.getLogger(StreamReceiveTask.class);
+
     private static final ExecutorService executor = Executors.newCachedThreadPool(new NamedThreadFactory("StreamReceiveTask"));
 
     // number of files to receive
@@ -54,6 +69,13 @@ public class StreamReceiveTask extends StreamTask
 
     //  holds references to SSTables received
     protected Collection<SSTableWriter> sstables;
+    //  holds the temporary descriptors of the SSTables received whole, with the headers they came with
+    protected Map<Descriptor, FileMessageHeader> entireSSTables;
+    //  holds the source ids of the SSTables received that are kept if the session fails (see ResumeMessage)
+    protected Map<SSTableWriter, String> sourceIds;
+    //  holds what was received of the files cut short that are kept if the session fails, by source id, with
+    //  where in the sender's data file to resume them from
+    protected Map<String, Pair<SSTableWriter, Long>> partialFiles;
 
     public StreamReceiveTask(StreamSession session, UUID cfId, int totalFiles, long totalSize)
     {
@@ -61,6 +83,9 @@ public class StreamReceiveTask extends StreamTask
         this.totalFiles = totalFiles;
         this.totalSize = totalSize;
         this.sstables = new ArrayList<>(totalFiles);
+        this.entireSSTables = new LinkedHashMap<>();
+        this.sourceIds = new HashMap<>();
+        this.partialFiles = new HashMap<>();
     }
 
     /**
@@ -76,7 +101,73 @@ public class StreamReceiveTask extends StreamTask
         assert cfId.equals(sstable.metadata.cfId);
 
         sstables.add(sstable);
-        if (sstables.size() == totalFiles)
+        maybeComplete();
+    }
+
+    /**
+     * Process received file, that the session may resume.
+     *
+     * @param sstable SSTable file received.
+     * @param header header the file came with.
+     */
+    public synchronized void received(SSTableWriter sstable, FileMessageHeader header)
+    {
+        if (done)
+            return;
+
+        // the file was sent again in full after it was cut short
+        Pair<SSTableWriter, Long> partial = partialFiles.remove(header.sourceId);
+        if (partial != null)
+            partial.left.abort();
+        if (session.isResumable(header))
+            sourceIds.put(sstable, header.sourceId);
+        received(sstable);
+    }
+
+    /**
+     * Process what was received of a file cut short, up to the end of the last partition received in full.
+     *
+     * @param sstable SSTable file holding the partitions received.
+     * @param header header the file came with.
+     * @param position where in the sender's data file the first partition not received starts.
+     */
+    public synchronized void receivedPartially(SSTableWriter sstable, FileMessageHeader header, long position)
+    {
+        Pair<SSTableWriter, Long> previous = partialFiles.get(header.sourceId);
+        if (done || (previous != null && previous.right >= position))
+        {
+            sstable.abort();
+            return;
+        }
+
+        if (previous != null)
+            previous.left.abort();
+        partialFiles.put(header.sourceId, Pair.create(sstable, position));
+    }
+
+    /**
+     * Process the files of an SSTable received whole.
+     *
+     * @param entireSSTable temporary descriptor of the files received.
+     * @param header header the files came with.
+     */
+    public synchronized void received(Descriptor entireSSTable, FileMessageHeader header)
+    {
+        if (done)
+        {
+            EntireSSTableStreamReader.delete(entireSSTable, header.components);
+            return;
+        }
+
+        assert cfId.equals(header.cfId);
+
+        entireSSTables.put(entireSSTable, header);
+        maybeComplete();
+    }
+
+    private void maybeComplete()
+    {
+        if (sstables.size() + entireSSTables.size() == totalFiles)
         {
             done = true;
             executor.submit(new OnCompletionRunnable(this));
@@ -108,32 +199,141 @@ public class StreamReceiveTask extends StreamTask
             if (kscf == null)
             {
                 // schema was dropped during streaming
-                for (SSTableWriter writer : task.sstables)
-                    writer.abort();
-                task.sstables.clear();
+                task.abortReceived();
+                return;
+            }
+            ColumnFamilyStore cfs = Keyspace.open(kscf.left).getColumnFamilyStore(kscf.right);
+
+            addSSTables(cfs, task.sstables, task.entireSSTables);
+            task.sstables.clear();
+            task.entireSSTables.clear();
+            task.sourceIds.clear();
+            for (Pair<SSTableWriter, Long> partial : task.partialFiles.values())
+                partial.left.abort();
+            task.partialFiles.clear();
+
+            task.session.taskCompleted(task);
+        }
+    }
+
+    /**
+     * Finishes the sstables received and makes them live.
+     */
+    private static void addSSTables(ColumnFamilyStore cfs, Collection<SSTableWriter> writers, Map<Descriptor, FileMessageHeader> entireSSTables)
+    {
+        int count = writers.size() + entireSSTables.size();
+        File lockfiledir = cfs.directories.getWriteableLocationAsFile(count * 256L);
+        if (lockfiledir == null)
+            throw new IOError(new IOException("All disks full"));
+        StreamLockfile lockfile = new StreamLockfile(lockfiledir, UUID.randomUUID());
+        List<Descriptor> descriptors = new ArrayList<>(count);
+        for (SSTableWriter writer : writers)
+            descriptors.add(writer.descriptor);
+        descriptors.addAll(entireSSTables.keySet());
+        lockfile.createForDescriptors(descriptors);
+
+        List<SSTableReader> readers = new ArrayList<>();
+        for (SSTableWriter writer : writers)
+            readers.add(writer.closeAndOpenReader());
+        // the partitions of the sstables received whole did not go through StreamReader, which invalidates
+        // their cached rows one by one
+        List<Bounds<Token>> invalidatedBounds = new ArrayList<>(entireSSTables.size());
+        for (Map.Entry<Descriptor, FileMessageHeader> entry : entireSSTables.entrySet())
+        {
+            SSTableReader reader = EntireSSTableStreamReader.finish(entry.getKey(), entry.getValue(), cfs);
+            invalidatedBounds.add(new Bounds<>(reader.first.getToken(), reader.last.getToken()));
+            readers.add(reader);
+        }
+        lockfile.delete();
+
+        if (!invalidatedBounds.isEmpty())
+            cfs.invalidateRowCache(invalidatedBounds);
+
+        try (Refs<SSTableReader> refs = Refs.ref(readers))
+        {
+            // add sstables and build secondary indexes
+            cfs.addSSTables(readers);
+            cfs.indexManager.maybeBuildSecondaryIndexes(readers, cfs.indexManager.allIndexesNames());
+        }
+    }
+
+    /**
+     * Keeps the files received by a session that failed, which can be resumed, and records how much of each was
+     * received for the next session with the same peer to resume from.
+     */
+    private static class OnResumableAbortRunnable implements Runnable
+    {
+        private final StreamReceiveTask task;
+
+        public OnResumableAbortRunnable(StreamReceiveTask task)
+        {
+            this.task = task;
+        }
+
+        public void run()
+        {
+            Pair<String, String> kscf = Schema.instance.getCF(task.cfId);
+            if (kscf == null)
+            {
+                task.abortReceived();
                 return;
             }
             ColumnFamilyStore cfs = Keyspace.open(kscf.left).getColumnFamilyStore(kscf.right);
 
-            File lockfiledir = cfs.directories.getWriteableLocationAsFile(task.sstables.size() * 256L);
-            if (lockfiledir == null)
-                throw new IOError(new IOException("All disks full"));
-            StreamLockfile lockfile = new StreamLockfile(lockfiledir, UUID.randomUUID());
-            lockfile.create(task.sstables);
-            List<SSTableReader> readers = new ArrayList<>();
+            List<SSTableWriter> kept = new ArrayList<>();
+            Map<Descriptor, FileMessageHeader> keptEntire = new LinkedHashMap<>();
+            Map<String, Long> positions = new HashMap<>();
             for (SSTableWriter writer : task.sstables)
-                readers.add(writer.closeAndOpenReader());
-            lockfile.delete();
+            {
+                String sourceId = task.sourceIds.get(writer);
+                if (sourceId == null)
+                {
+                    writer.abort();
+                    continue;
+                }
+                kept.add(writer);
+                positions.put(sourceId, ResumeMessage.RECEIVED);
+            }
+            for (Map.Entry<String, Pair<SSTableWriter, Long>> partial : task.partialFiles.entrySet())
+            {
+                kept.add(partial.getValue().left);
+                positions.put(partial.getKey(), partial.getValue().right);
+            }
+            for (Map.Entry<Descriptor, FileMessageHeader> entry : task.entireSSTables.entrySet())
+            {
+                if (!task.session.isResumable(entry.getValue()))
+                {
+                    EntireSSTableStreamReader.delete(entry.getKey(), entry.getValue().components);
+                    continue;
+                }
+                keptEntire.put(entry.getKey(), entry.getValue());
+                positions.put(entry.getValue().sourceId, ResumeMessage.RECEIVED);
+            }
             task.sstables.clear();
+            task.entireSSTables.clear();
+            task.sourceIds.clear();
+            task.partialFiles.clear();
 
-            try (Refs<SSTableReader> refs = Refs.ref(readers))
+            try
             {
-                // add sstables and build secondary indexes
-                cfs.addSSTables(readers);
-                cfs.indexManager.maybeBuildSecondaryIndexes(readers, cfs.indexManager.allIndexesNames());
+                addSSTables(cfs, kept, keptEntire);
+            }
+            catch (Throwable t)
+            {
+                JVMStabilityInspector.inspectThrowable(t);
+                logger.warn("[Stream #{}] Could not keep the {} files received from {} before the session failed",
+                            task.session.planId(), positions.size(), task.session.peer, t);
+                for (SSTableWriter writer : kept)
+                    writer.abort();
+                for (Map.Entry<Descriptor, FileMessageHeader> entry : keptEntire.entrySet())
+                    EntireSSTableStreamReader.delete(entry.getKey(), entry.getValue().components);
+                return;
             }
 
-            task.session.taskCompleted(task);
+            for (Map.Entry<String, Long> position : positions.entrySet())
+                SystemKeyspace.updateStreamedFile(task.session.peer, position.getKey(), position.getValue());
+            logger.info("[Stream #{}] Kept {} files received from {} for the next session to resume from",
+                        task.session.planId(), positions.size(), task.session.peer);
         }
     }
 
@@ -149,8 +349,33 @@ public class StreamReceiveTask extends StreamTask
             return;
 
         done = true;
+        if (sourceIds.isEmpty() && partialFiles.isEmpty() && !hasResumableEntireSSTables())
+            abortReceived();
+        else
+            executor.submit(new OnResumableAbortRunnable(this));
+    }
+
+    private boolean hasResumableEntireSSTables()
+    {
+        for (FileMessageHeader header : entireSSTables.values())
+        {
+            if (session.isResumable(header))
+                return true;
+        }
+        return false;
+    }
+
+    private void abortReceived()
+    {
         for (SSTableWriter writer : sstables)
             writer.abort();
         sstables.clear();
+        for (Map.Entry<Descriptor, FileMessageHeader> entry : entireSSTables.entrySet())
+            EntireSSTableStreamReader.delete(entry.getKey(), entry.getValue().components);
+        entireSSTables.clear();
+        for (Pair<SSTableWriter, Long> partial : partialFiles.values())
+            partial.left.abort();
+        partialFiles.clear();
+        sourceIds.clear();
     }
 }
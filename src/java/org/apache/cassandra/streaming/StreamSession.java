@@ -23,16 +23,21 @@ import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.collect.*;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.SSTableWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.RowPosition;
+import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.dht.AbstractBounds;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
@@ -62,6 +67,8 @@ import org.apache.cassandra.utils.concurrent.Refs;
  *       two connections to the remote node (the follower in the following) with whom to stream and send
  *       a StreamInit message. The first connection will be the incoming connection for the
  *       initiator, and the second connection will be the outgoing.
+ *       With stream_data_connections_per_session above one, further pairs of connections follow,
+ *       over which files are sent in parallel (see ConnectionHandler).
  *   (b) Upon reception of that StreamInit message, the follower creates its own StreamSession,
  *       initialize it if it still does not exist, and attach connecting socket to its ConnectionHandler
  *       according to StreamInit message's isForOutgoing flag.
@@ -135,16 +142,21 @@ public class StreamSession implements IEndpointStateChangeSubscriber
     private final Map<UUID, StreamTransferTask> transfers = new ConcurrentHashMap<>();
     // data receivers, filled after receiving prepare message
     private final Map<UUID, StreamReceiveTask> receivers = new ConcurrentHashMap<>();
+    // what the peer kept of the files sent by failed sessions, by source id, filled after receiving resume message
+    private final Map<String, Long> resumePositions = new ConcurrentHashMap<>();
     private final StreamingMetrics metrics;
     /* can be null when session is created in remote */
     private final StreamConnectionFactory factory;
 
     public final ConnectionHandler handler;
 
-    private int retries;
+    // files are received on as many threads as there are data connections
+    private final AtomicInteger retries = new AtomicInteger();
 
     private AtomicBoolean isAborted = new AtomicBoolean(false);
     private final boolean keepSSTableLevel;
+    // the streaming protocol version of all connections of the session: chosen by the initiator, received by the other side
+    private volatile int protocolVersion;
 
     public static enum State
     {
@@ -175,6 +187,39 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         this.handler = new ConnectionHandler(this);
         this.metrics = StreamingMetrics.get(connecting);
         this.keepSSTableLevel = keepSSTableLevel;
+        this.protocolVersion = negotiateProtocolVersion(peer);
+    }
+
+    /**
+     * @return the highest streaming protocol version both this node and the given peer support, as the peer
+     * advertises it in gossip; nodes that do not advertise it only speak {@link StreamMessage#VERSION_30}, and
+     * so do clients, such as the bulk loader, which do not gossip
+     */
+    public static int negotiateProtocolVersion(InetAddress peer)
+    {
+        if (Config.isClientMode())
+            return StreamMessage.VERSION_30;
+        if (peer.equals(FBUtilities.getBroadcastAddress()))
+            return StreamMessage.CURRENT_VERSION;
+
+        EndpointState state = Gossiper.instance.getEndpointStateForEndpoint(peer);
+        VersionedValue version = state == null ? null : state.getApplicationState(ApplicationState.STREAMING_VERSION);
+        if (version == null)
+            return StreamMessage.VERSION_30;
+        return Math.min(StreamMessage.CURRENT_VERSION, Integer.parseInt(version.value));
+    }
+
+    public int protocolVersion()
+    {
+        return protocolVersion;
+    }
+
+    /**
+     * Sets the version the initiator opened the connections of the session with.
+     */
+    void protocolVersion(int version)
+    {
+        this.protocolVersion = version;
     }
 
     public UUID planId()
@@ -299,6 +344,7 @@ public class StreamSession implements IEndpointStateChangeSubscriber
     private List<SSTableStreamingSections> getSSTableSectionsForRanges(Collection<Range<Token>> ranges, Collection<ColumnFamilyStore> stores, long overriddenRepairedAt)
     {
         Refs<SSTableReader> refs = new Refs<>();
+        List<SSTableStreamingSections> sections = new ArrayList<>();
         try
         {
             for (ColumnFamilyStore cfStore : stores)
@@ -309,26 +355,141 @@ public class StreamSession implements IEndpointStateChangeSubscriber
                 refs.addAll(cfStore.selectAndReference(cfStore.viewFilter(rowBoundsList)).refs);
             }
 
-            List<SSTableStreamingSections> sections = new ArrayList<>(refs.size());
             for (SSTableReader sstable : refs)
             {
                 long repairedAt = overriddenRepairedAt;
                 if (overriddenRepairedAt == ActiveRepairService.UNREPAIRED_SSTABLE)
                     repairedAt = sstable.getSSTableMetadata().repairedAt;
+                // peers of older versions know nothing of the component files in the header
+                boolean entireSSTable = protocolVersion >= StreamMessage.VERSION_31
+                                        && DatabaseDescriptor.streamEntireSSTables()
+                                        && EntireSSTableStreamWriter.canStreamEntirely(sstable, ranges);
+                List<Pair<Long, Long>> positions = sstable.getPositionsForRanges(ranges);
+                int parts = entireSSTable ? 1 : splitCount(positions);
+                if (parts > 1)
+                {
+                    splitSections(sstable, refs.get(sstable), ranges, parts, repairedAt, sections);
+                    continue;
+                }
                 sections.add(new SSTableStreamingSections(sstable, refs.get(sstable),
-                                                          sstable.getPositionsForRanges(ranges),
+                                                          positions,
                                                           sstable.estimatedKeysForRanges(ranges),
-                                                          repairedAt));
+                                                          repairedAt,
+                                                          entireSSTable));
             }
             return sections;
         }
         catch (Throwable t)
         {
+            // the references taken for the parts of split sstables
+            for (SSTableStreamingSections section : sections)
+            {
+                if (section.ref != refs.get(section.sstable))
+                    section.ref.release();
+            }
             refs.release();
             throw t;
         }
     }
 
+    /**
+     * @return the number of files to send the given sections of an sstable in, so that they go on as many data
+     * connections: one unless stream_sstable_split_size_in_mb is set and they are bigger than that
+     */
+    private static int splitCount(List<Pair<Long, Long>> positions)
+    {
+        long splitSize = DatabaseDescriptor.getStreamSSTableSplitSize();
+        int connections = DatabaseDescriptor.getStreamDataConnectionsPerSession();
+        if (splitSize == 0 || connections == 1)
+            return 1;
+
+        long size = 0;
+        for (Pair<Long, Long> position : positions)
+            size += position.right - position.left;
+        return (int) Math.min(connections, (size + splitSize - 1) / splitSize);
+    }
+
+    /**
+     * Splits what is to be streamed of an sstable into the given number of files, at the keys of its index
+     * summary, so that each holds about the same number of partitions. The first one uses the reference already
+     * held on the sstable, the others take their own one.
+     */
+    private static void splitSections(SSTableReader sstable, Ref<SSTableReader> ref, Collection<Range<Token>> ranges, int parts, long repairedAt, List<SSTableStreamingSections> sections)
+    {
+        List<Token> samples = new ArrayList<>();
+        for (Range<Token> range : ranges)
+        {
+            for (DecoratedKey key : sstable.getKeySamples(range))
+                samples.add(key.getToken());
+        }
+
+        List<Token> boundaries = new ArrayList<>(parts - 1);
+        for (int i = 1; i < parts && !samples.isEmpty(); i++)
+        {
+            Token boundary = samples.get(i * samples.size() / parts);
+            if (boundaries.isEmpty() || boundary.compareTo(boundaries.get(boundaries.size() - 1)) > 0)
+                boundaries.add(boundary);
+        }
+
+        boolean first = true;
+        for (List<Range<Token>> partRanges : splitRanges(ranges, boundaries))
+        {
+            List<Pair<Long, Long>> positions = sstable.getPositionsForRanges(partRanges);
+            if (positions.isEmpty())
+                continue;
+
+            sections.add(new SSTableStreamingSections(sstable, first ? ref : sstable.ref(),
+                                                      positions,
+                                                      sstable.estimatedKeysForRanges(partRanges),
+                                                      repairedAt));
+            first = false;
+        }
+        // nothing was left to stream: hand the reference over all the same, for it to be released
+        if (first)
+            sections.add(new SSTableStreamingSections(sstable, ref, Collections.<Pair<Long, Long>>emptyList(), 0, repairedAt));
+    }
+
+    /**
+     * Cuts normalized ranges at the given tokens.
+     *
+     * @param ranges normalized ranges
+     * @param boundaries sorted tokens to cut at
+     * @return one list of ranges per boundary, plus one: the i-th holds the parts of the ranges that lie after the
+     * (i-1)-th boundary up to the i-th one, included
+     */
+    static List<List<Range<Token>>> splitRanges(Collection<Range<Token>> ranges, List<Token> boundaries)
+    {
+        List<List<Range<Token>>> parts = new ArrayList<>(boundaries.size() + 1);
+        for (int i = 0; i <= boundaries.size(); i++)
+            parts.add(new ArrayList<Range<Token>>());
+
+        for (Range<Token> range : ranges)
+        {
+            Token left = range.left;
+            for (Token boundary : boundaries)
+            {
+                if (range.contains(boundary) && !boundary.equals(range.right))
+                {
+                    parts.get(boundaries.indexOf(boundary)).add(new Range<>(left, boundary));
+                    left = boundary;
+                }
+            }
+            parts.get(partOf(range.right, boundaries)).add(new Range<>(left, range.right));
+        }
+        return parts;
+    }
+
+    // the part of the tokens up to the given one, included
+    private static int partOf(Token right, List<Token> boundaries)
+    {
+        if (right.isMinimum())
+            return boundaries.size();
+        int part = 0;
+        while (part < boundaries.size() && boundaries.get(part).compareTo(right) < 0)
+            part++;
+        return part;
+    }
+
     public void addTransferFiles(Collection<SSTableStreamingSections> sstableDetails)
     {
         Iterator<SSTableStreamingSections> iter = sstableDetails.iterator();
@@ -343,6 +504,24 @@ public class StreamSession implements IEndpointStateChangeSubscriber
                 continue;
             }
 
+            String sourceId = sourceId(details.sstable, details.sections);
+            List<Pair<Long, Long>> sections = details.sections;
+            long estimatedKeys = details.estimatedKeys;
+            Long resumePosition = resumePositions.get(sourceId);
+            if (resumePosition != null && (resumePosition == ResumeMessage.RECEIVED || !details.entireSSTable))
+            {
+                sections = trimSections(sections, resumePosition);
+                if (sections.isEmpty())
+                {
+                    logger.debug("[Stream #{}] Not sending {} again to {}", planId(), sourceId, peer);
+                    details.ref.release();
+                    iter.remove();
+                    continue;
+                }
+                estimatedKeys = Math.max(1, estimatedKeys * sectionsSize(sections) / sectionsSize(details.sections));
+                logger.debug("[Stream #{}] Resuming {} to {} from position {}", planId(), sourceId, peer, resumePosition);
+            }
+
             UUID cfId = details.sstable.metadata.cfId;
             StreamTransferTask task = transfers.get(cfId);
             if (task == null)
@@ -350,11 +529,45 @@ public class StreamSession implements IEndpointStateChangeSubscriber
                 task = new StreamTransferTask(this, cfId);
                 transfers.put(cfId, task);
             }
-            task.addTransferFile(details.sstable, details.ref, details.estimatedKeys, details.sections, details.repairedAt);
+            task.addTransferFile(details.sstable, details.ref, estimatedKeys, sections, details.repairedAt, details.entireSSTable, sourceId);
             iter.remove();
         }
     }
 
+    /**
+     * @return the identifier of the given sections of an sstable, the same in all sessions, for the receiver to
+     * tell what it already has of them
+     */
+    static String sourceId(SSTableReader sstable, List<Pair<Long, Long>> sections)
+    {
+        Descriptor desc = sstable.descriptor;
+        return String.format("%s/%s/%d/%d:%d-%d", desc.ksname, desc.cfname, desc.generation, sections.size(),
+                             sections.get(0).left, sections.get(sections.size() - 1).right);
+    }
+
+    /**
+     * @return the parts of the given sections from the given position of the data file on
+     */
+    static List<Pair<Long, Long>> trimSections(List<Pair<Long, Long>> sections, long position)
+    {
+        List<Pair<Long, Long>> trimmed = new ArrayList<>(sections.size());
+        for (Pair<Long, Long> section : sections)
+        {
+            if (section.right <= position)
+                continue;
+            trimmed.add(section.left >= position ? section : Pair.create(position, section.right));
+        }
+        return trimmed;
+    }
+
+    private static long sectionsSize(List<Pair<Long, Long>> sections)
+    {
+        long size = 0;
+        for (Pair<Long, Long> section : sections)
+            size += section.right - section.left;
+        return size;
+    }
+
     public static class SSTableStreamingSections
     {
         public final SSTableReader sstable;
@@ -362,14 +575,22 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         public final List<Pair<Long, Long>> sections;
         public final long estimatedKeys;
         public final long repairedAt;
+        /** true if the component files of the sstable are to be sent as they are (see EntireSSTableStreamWriter) */
+        public final boolean entireSSTable;
+
+        public SSTableStreamingSections(SSTableReader sstable, Ref<SSTableReader> ref, List<Pair<Long, Long>> sections, long estimatedKeys, long repairedAt)
+        {
+            this(sstable, ref, sections, estimatedKeys, repairedAt, false);
+        }
 
-        public SSTableStreamingSections(SSTableReader sstable, Ref ref, List<Pair<Long, Long>> sections, long estimatedKeys, long repairedAt)
+        public SSTableStreamingSections(SSTableReader sstable, Ref<SSTableReader> ref, List<Pair<Long, Long>> sections, long estimatedKeys, long repairedAt, boolean entireSSTable)
         {
             this.sstable = sstable;
             this.ref = ref;
             this.sections = sections;
             this.estimatedKeys = estimatedKeys;
             this.repairedAt = repairedAt;
+            this.entireSSTable = entireSSTable;
         }
     }
 
@@ -384,6 +605,11 @@ public class StreamSession implements IEndpointStateChangeSubscriber
                 for (StreamTask task : Iterables.concat(receivers.values(), transfers.values()))
                     task.abort();
             }
+            else if (!requests.isEmpty() && DatabaseDescriptor.isStreamingResumeEnabled())
+            {
+                // what was kept of the files of failed sessions is now part of the data received
+                SystemKeyspace.clearStreamedFiles(peer);
+            }
 
             // Note that we shouldn't block on this close because this method is called on the handler
             // incoming thread (so we would deadlock).
@@ -451,6 +677,10 @@ public class StreamSession implements IEndpointStateChangeSubscriber
             case SESSION_FAILED:
                 sessionFailed();
                 break;
+
+            case RESUME:
+                resume(((ResumeMessage) message).positions);
+                break;
         }
     }
 
@@ -459,6 +689,14 @@ public class StreamSession implements IEndpointStateChangeSubscriber
      */
     public void onInitializationComplete()
     {
+        // tell the peer what was kept of the files it sent before, ahead of the requests for them, if it knows of resuming
+        if (!requests.isEmpty() && DatabaseDescriptor.isStreamingResumeEnabled() && protocolVersion >= StreamMessage.VERSION_31)
+        {
+            Map<String, Long> positions = SystemKeyspace.getStreamedFiles(peer);
+            if (!positions.isEmpty())
+                handler.sendMessage(new ResumeMessage(positions));
+        }
+
         // send prepare message
         state(State.PREPARING);
         PrepareMessage prepare = new PrepareMessage();
@@ -513,6 +751,44 @@ public class StreamSession implements IEndpointStateChangeSubscriber
             startStreamingFiles();
     }
 
+    /**
+     * Call back on receiving {@code StreamMessage.Type.RESUME} message.
+     *
+     * @param positions where to resume the files the peer already received some of from, by source id
+     */
+    public void resume(Map<String, Long> positions)
+    {
+        logger.info("[Stream #{}] {} kept {} files of failed sessions, which will not be sent again in full", planId(), peer, positions.size());
+        resumePositions.putAll(positions);
+    }
+
+    /**
+     * @return true if what is received of the file of the given header is kept if this session fails, for the
+     * next one to resume from: it must be unrepaired, this node must have requested it, and the peer must be able
+     * to resume it
+     */
+    public boolean isResumable(FileMessageHeader header)
+    {
+        return DatabaseDescriptor.isStreamingResumeEnabled()
+               && protocolVersion >= StreamMessage.VERSION_31
+               && !requests.isEmpty()
+               && header.repairedAt == ActiveRepairService.UNREPAIRED_SSTABLE
+               && !header.sourceId.isEmpty();
+    }
+
+    /**
+     * Call back after receiving part of a file, up to the end of the partition at the given position of the
+     * sender's data file, before the stream was cut.
+     */
+    public void receivedPartially(FileMessageHeader header, SSTableWriter writer, long position)
+    {
+        StreamReceiveTask task = receivers.get(header.cfId);
+        if (task == null)
+            writer.abort();
+        else
+            task.receivedPartially(writer, header, position);
+    }
+
     /**
      * Call back after sending FileMessageHeader.
      *
@@ -543,7 +819,10 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         metrics.incomingBytes.inc(headerSize);
         // send back file received message
         handler.sendMessage(new ReceivedMessage(message.header.cfId, message.header.sequenceNumber));
-        receivers.get(message.header.cfId).received(message.sstable);
+        if (message.header.isEntireSSTable())
+            receivers.get(message.header.cfId).received(message.entireSSTable, message.header);
+        else
+            receivers.get(message.header.cfId).received(message.sstable, message.header);
     }
 
     public void progress(Descriptor desc, ProgressInfo.Direction direction, long bytes, long total)
@@ -601,8 +880,7 @@ public class StreamSession implements IEndpointStateChangeSubscriber
     {
         logger.warn("[Stream #{}] Retrying for following error", planId(), e);
         // retry
-        retries++;
-        if (retries > DatabaseDescriptor.getMaxStreamingRetries())
+        if (retries.incrementAndGet() > DatabaseDescriptor.getMaxStreamingRetries())
             onError(new IOException("Too many retries for " + header, e));
         else
             handler.sendMessage(new RetryMessage(header.cfId, header.sequenceNumber));
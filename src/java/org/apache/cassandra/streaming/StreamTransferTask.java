@@ -52,10 +52,20 @@ public class StreamTransferTask extends StreamTask
         super(session, cfId);
     }
 
-    public synchronized void addTransferFile(SSTableReader sstable, Ref ref, long estimatedKeys, List<Pair<Long, Long>> sections, long repairedAt)
+    public synchronized void addTransferFile(SSTableReader sstable, Ref<SSTableReader> ref, long estimatedKeys, List<Pair<Long, Long>> sections, long repairedAt)
+    {
+        addTransferFile(sstable, ref, estimatedKeys, sections, repairedAt, false);
+    }
+
+    public synchronized void addTransferFile(SSTableReader sstable, Ref<SSTableReader> ref, long estimatedKeys, List<Pair<Long, Long>> sections, long repairedAt, boolean entireSSTable)
+    {
+        addTransferFile(sstable, ref, estimatedKeys, sections, repairedAt, entireSSTable, "");
+    }
+
+    public synchronized void addTransferFile(SSTableReader sstable, Ref<SSTableReader> ref, long estimatedKeys, List<Pair<Long, Long>> sections, long repairedAt, boolean entireSSTable, String sourceId)
     {
         assert sstable != null && cfId.equals(sstable.metadata.cfId);
-        OutgoingFileMessage message = new OutgoingFileMessage(sstable, ref, sequenceNumber.getAndIncrement(), estimatedKeys, sections, repairedAt, session.keepSSTableLevel());
+        OutgoingFileMessage message = new OutgoingFileMessage(sstable, ref, sequenceNumber.getAndIncrement(), estimatedKeys, sections, repairedAt, session.keepSSTableLevel(), entireSSTable, sourceId);
         files.put(message.header.sequenceNumber, message);
         totalSize += message.header.size();
     }
@@ -78,6 +78,8 @@ public class CompressedStreamReader extends StreamReader
 
         CompressedInputStream cis = new CompressedInputStream(Channels.newInputStream(channel), compressionInfo);
         BytesReadTracker in = new BytesReadTracker(new DataInputStream(cis));
+        // position in the sender's data file of the end of the last partition written; its chunks were verified
+        long position = -1;
         try
         {
             for (Pair<Long, Long> section : sections)
@@ -91,7 +93,9 @@ public class CompressedStreamReader extends StreamReader
 
                 while (in.getBytesRead() < sectionLength)
                 {
+                    writer.mark();
                     writeRow(writer, in, cfs);
+                    position = section.left + in.getBytesRead();
 
                     // when compressed, report total bytes of compressed chunks read since remoteFile.size is the sum of chunks transferred
                     session.progress(desc, ProgressInfo.Direction.IN, cis.getTotalCompressedBytesRead(), totalSize);
@@ -101,7 +105,7 @@ public class CompressedStreamReader extends StreamReader
         }
         catch (Throwable e)
         {
-            writer.abort();
+            abort(writer, e, position);
             drain(cis, in.getBytesRead());
             if (e instanceof IOException)
                 throw (IOException) e;
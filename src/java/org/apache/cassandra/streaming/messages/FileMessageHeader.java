@@ -20,12 +20,16 @@ package org.apache.cassandra.streaming.messages;
 import java.io.DataInput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.apache.cassandra.db.TypeSizes;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.format.SSTableFormat;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.net.MessagingService;
@@ -52,6 +56,13 @@ public class FileMessageHeader
     public final CompressionInfo compressionInfo;
     public final long repairedAt;
     public final int sstableLevel;
+    /** The size of each component file of an sstable sent whole, in the order they are sent; empty otherwise */
+    public final Map<Component, Long> components;
+    /**
+     * Identifies the file sent the same way across streaming sessions, whatever part of it this one sends, for
+     * the receiver to tell how much of it it already has (see ResumeMessage); empty if unknown
+     */
+    public final String sourceId;
 
     public FileMessageHeader(UUID cfId,
                              int sequenceNumber,
@@ -62,6 +73,35 @@ public class FileMessageHeader
                              CompressionInfo compressionInfo,
                              long repairedAt,
                              int sstableLevel)
+    {
+        this(cfId, sequenceNumber, version, format, estimatedKeys, sections, compressionInfo, repairedAt, sstableLevel, Collections.<Component, Long>emptyMap());
+    }
+
+    public FileMessageHeader(UUID cfId,
+                             int sequenceNumber,
+                             String version,
+                             SSTableFormat.Type format,
+                             long estimatedKeys,
+                             List<Pair<Long, Long>> sections,
+                             CompressionInfo compressionInfo,
+                             long repairedAt,
+                             int sstableLevel,
+                             Map<Component, Long> components)
+    {
+        this(cfId, sequenceNumber, version, format, estimatedKeys, sections, compressionInfo, repairedAt, sstableLevel, components, "");
+    }
+
+    public FileMessageHeader(UUID cfId,
+                             int sequenceNumber,
+                             String version,
+                             SSTableFormat.Type format,
+                             long estimatedKeys,
+                             List<Pair<Long, Long>> sections,
+                             CompressionInfo compressionInfo,
+                             long repairedAt,
+                             int sstableLevel,
+                             Map<Component, Long> components,
+                             String sourceId)
     {
         this.cfId = cfId;
         this.sequenceNumber = sequenceNumber;
@@ -72,6 +112,16 @@ public class FileMessageHeader
         this.compressionInfo = compressionInfo;
         this.repairedAt = repairedAt;
         this.sstableLevel = sstableLevel;
+        this.components = components;
+        this.sourceId = sourceId;
+    }
+
+    /**
+     * @return true if the component files of the sstable are sent as they are, rather than sections of its data
+     */
+    public boolean isEntireSSTable()
+    {
+        return !components.isEmpty();
     }
 
     /**
@@ -80,7 +130,12 @@ public class FileMessageHeader
     public long size()
     {
         long size = 0;
-        if (compressionInfo != null)
+        if (isEntireSSTable())
+        {
+            for (long componentSize : components.values())
+                size += componentSize;
+        }
+        else if (compressionInfo != null)
         {
             // calculate total length of transferring chunks
             for (CompressionMetadata.Chunk chunk : compressionInfo.chunks)
@@ -107,6 +162,7 @@ public class FileMessageHeader
         sb.append(", compressed?: ").append(compressionInfo != null);
         sb.append(", repairedAt: ").append(repairedAt);
         sb.append(", level: ").append(sstableLevel);
+        sb.append(", entire sstable?: ").append(isEntireSSTable());
         sb.append(')');
         return sb.toString();
     }
@@ -153,6 +209,22 @@ public class FileMessageHeader
             CompressionInfo.serializer.serialize(header.compressionInfo, out, version);
             out.writeLong(header.repairedAt);
             out.writeInt(header.sstableLevel);
+
+            if (version >= StreamMessage.VERSION_31)
+            {
+                out.writeInt(header.components.size());
+                for (Map.Entry<Component, Long> component : header.components.entrySet())
+                {
+                    out.writeUTF(component.getKey().name);
+                    out.writeLong(component.getValue());
+                }
+            }
+            else if (header.isEntireSSTable())
+            {
+                throw new UnsupportedOperationException("Can't stream entire sstables to nodes of streaming version < " + StreamMessage.VERSION_31);
+            }
+            if (version >= StreamMessage.VERSION_31)
+                out.writeUTF(header.sourceId);
         }
 
         public FileMessageHeader deserialize(DataInput in, int version) throws IOException
@@ -173,7 +245,22 @@ public class FileMessageHeader
             CompressionInfo compressionInfo = CompressionInfo.serializer.deserialize(in, MessagingService.current_version);
             long repairedAt = in.readLong();
             int sstableLevel = in.readInt();
-            return new FileMessageHeader(cfId, sequenceNumber, sstableVersion, format, estimatedKeys, sections, compressionInfo, repairedAt, sstableLevel);
+
+            Map<Component, Long> components = Collections.emptyMap();
+            String sourceId = "";
+            if (version >= StreamMessage.VERSION_31)
+            {
+                int componentCount = in.readInt();
+                if (componentCount > 0)
+                {
+                    components = new LinkedHashMap<>(componentCount);
+                    for (int k = 0; k < componentCount; k++)
+                        components.put(Component.parse(in.readUTF()), in.readLong());
+                }
+            }
+            if (version >= StreamMessage.VERSION_31)
+                sourceId = in.readUTF();
+            return new FileMessageHeader(cfId, sequenceNumber, sstableVersion, format, estimatedKeys, sections, compressionInfo, repairedAt, sstableLevel, components, sourceId);
         }
 
         public long serializedSize(FileMessageHeader header, int version)
@@ -195,6 +282,18 @@ public class FileMessageHeader
             }
             size += CompressionInfo.serializer.serializedSize(header.compressionInfo, version);
             size += TypeSizes.NATIVE.sizeof(header.sstableLevel);
+
+            if (version >= StreamMessage.VERSION_31)
+            {
+                size += TypeSizes.NATIVE.sizeof(header.components.size());
+                for (Map.Entry<Component, Long> component : header.components.entrySet())
+                {
+                    size += TypeSizes.NATIVE.sizeof(component.getKey().name);
+                    size += TypeSizes.NATIVE.sizeof(component.getValue());
+                }
+            }
+            if (version >= StreamMessage.VERSION_31)
+                size += TypeSizes.NATIVE.sizeof(header.sourceId);
             return size;
         }
     }
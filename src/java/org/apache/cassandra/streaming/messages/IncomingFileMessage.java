@@ -22,8 +22,11 @@ import java.io.IOException;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.format.SSTableWriter;
 import org.apache.cassandra.io.util.DataOutputStreamPlus;
+import org.apache.cassandra.streaming.EntireSSTableStreamReader;
 import org.apache.cassandra.streaming.StreamReader;
 import org.apache.cassandra.streaming.StreamSession;
 import org.apache.cassandra.streaming.compress.CompressedStreamReader;
@@ -40,11 +43,14 @@ public class IncomingFileMessage extends StreamMessage
         {
             DataInputStream input = new DataInputStream(Channels.newInputStream(in));
             FileMessageHeader header = FileMessageHeader.serializer.deserialize(input, version);
-            StreamReader reader = header.compressionInfo == null ? new StreamReader(header, session)
-                    : new CompressedStreamReader(header, session);
 
             try
             {
+                if (header.isEntireSSTable())
+                    return new IncomingFileMessage(new EntireSSTableStreamReader(header, session).read(in), header);
+
+                StreamReader reader = header.compressionInfo == null ? new StreamReader(header, session)
+                        : new CompressedStreamReader(header, session);
                 return new IncomingFileMessage(reader.read(in), header);
             }
             catch (Throwable t)
@@ -63,6 +69,8 @@ public class IncomingFileMessage extends StreamMessage
 
     public FileMessageHeader header;
     public SSTableWriter sstable;
+    /** the temporary descriptor of the files received, if the sstable was sent whole; null otherwise */
+    public Descriptor entireSSTable;
 
     public IncomingFileMessage(SSTableWriter sstable, FileMessageHeader header)
     {
@@ -71,10 +79,18 @@ public class IncomingFileMessage extends StreamMessage
         this.sstable = sstable;
     }
 
+    public IncomingFileMessage(Descriptor entireSSTable, FileMessageHeader header)
+    {
+        super(Type.FILE);
+        this.header = header;
+        this.entireSSTable = entireSSTable;
+    }
+
     @Override
     public String toString()
     {
-        return "File (" + header + ", file: " + sstable.getFilename() + ")";
+        String filename = sstable == null ? entireSSTable.filenameFor(Component.DATA) : sstable.getFilename();
+        return "File (" + header + ", file: " + filename + ")";
     }
 }
 
@@ -19,11 +19,15 @@ package org.apache.cassandra.streaming.messages;
 
 import java.io.IOException;
 import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.util.DataOutputStreamPlus;
+import org.apache.cassandra.streaming.EntireSSTableStreamWriter;
 import org.apache.cassandra.streaming.StreamSession;
 import org.apache.cassandra.streaming.StreamWriter;
 import org.apache.cassandra.streaming.compress.CompressedStreamWriter;
@@ -48,7 +52,11 @@ public class OutgoingFileMessage extends StreamMessage
             FileMessageHeader.serializer.serialize(message.header, out, version);
 
             final SSTableReader reader = message.sstable;
-            StreamWriter writer = message.header.compressionInfo == null ?
+            StreamWriter writer;
+            if (message.header.isEntireSSTable())
+                writer = new EntireSSTableStreamWriter(reader, message.header.sections, message.header.components, session);
+            else
+                writer = message.header.compressionInfo == null ?
                     new StreamWriter(reader, message.header.sections, session) :
                     new CompressedStreamWriter(reader,
                             message.header.sections,
@@ -62,14 +70,26 @@ public class OutgoingFileMessage extends StreamMessage
     public final SSTableReader sstable;
     public final Ref<SSTableReader> ref;
 
-    public OutgoingFileMessage(SSTableReader sstable, Ref ref, int sequenceNumber, long estimatedKeys, List<Pair<Long, Long>> sections, long repairedAt, boolean keepSSTableLevel)
+    public OutgoingFileMessage(SSTableReader sstable, Ref<SSTableReader> ref, int sequenceNumber, long estimatedKeys, List<Pair<Long, Long>> sections, long repairedAt, boolean keepSSTableLevel)
+    {
+        this(sstable, ref, sequenceNumber, estimatedKeys, sections, repairedAt, keepSSTableLevel, false);
+    }
+
+    public OutgoingFileMessage(SSTableReader sstable, Ref<SSTableReader> ref, int sequenceNumber, long estimatedKeys, List<Pair<Long, Long>> sections, long repairedAt, boolean keepSSTableLevel, boolean entireSSTable)
+    {
+        this(sstable, ref, sequenceNumber, estimatedKeys, sections, repairedAt, keepSSTableLevel, entireSSTable, "");
+    }
+
+    public OutgoingFileMessage(SSTableReader sstable, Ref<SSTableReader> ref, int sequenceNumber, long estimatedKeys, List<Pair<Long, Long>> sections, long repairedAt, boolean keepSSTableLevel, boolean entireSSTable, String sourceId)
     {
         super(Type.FILE);
         this.sstable = sstable;
         this.ref = ref;
 
+        // the files of an sstable sent whole carry their own compression info
+        Map<Component, Long> components = entireSSTable ? EntireSSTableStreamWriter.components(sstable) : Collections.<Component, Long>emptyMap();
         CompressionInfo compressionInfo = null;
-        if (sstable.compression)
+        if (sstable.compression && !entireSSTable)
         {
             CompressionMetadata meta = sstable.getCompressionMetadata();
             compressionInfo = new CompressionInfo(meta.getChunksForSections(sections), meta.parameters);
@@ -82,7 +102,9 @@ public class OutgoingFileMessage extends StreamMessage
                                             sections,
                                             compressionInfo,
                                             repairedAt,
-                                            keepSSTableLevel ? sstable.getSSTableLevel() : 0);
+                                            keepSSTableLevel ? sstable.getSSTableLevel() : 0,
+                                            components,
+                                            sourceId);
     }
 
     @Override
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.streaming.messages;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cassandra.io.util.DataOutputStreamPlus;
+import org.apache.cassandra.streaming.StreamSession;
+
+/**
+ * Sent ahead of the PrepareMessage by a node requesting files, to tell the peer what it kept of the files it was
+ * sent by sessions that failed: the peer does not send again those it received in full, and sends the others
+ * from where they were cut.
+ */
+public class ResumeMessage extends StreamMessage
+{
+    /** Position of a file received in full */
+    public static final long RECEIVED = Long.MAX_VALUE;
+
+    public static Serializer<ResumeMessage> serializer = new Serializer<ResumeMessage>()
+    {
+        public ResumeMessage deserialize(ReadableByteChannel in, int version, StreamSession session) throws IOException
+        {
+            DataInput input = new DataInputStream(Channels.newInputStream(in));
+            int count = input.readInt();
+            Map<String, Long> positions = new HashMap<>(count);
+            for (int i = 0; i < count; i++)
+                positions.put(input.readUTF(), input.readLong());
+            return new ResumeMessage(positions);
+        }
+
+        public void serialize(ResumeMessage message, DataOutputStreamPlus out, int version, StreamSession session) throws IOException
+        {
+            out.writeInt(message.positions.size());
+            for (Map.Entry<String, Long> position : message.positions.entrySet())
+            {
+                out.writeUTF(position.getKey());
+                out.writeLong(position.getValue());
+            }
+        }
+    };
+
+    /** Where to resume each file from, in the sender's data file, by source id (see FileMessageHeader#sourceId) */
+    public final Map<String, Long> positions;
+
+    public ResumeMessage(Map<String, Long> positions)
+    {
+        super(Type.RESUME);
+        this.positions = positions;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Resume (" + positions.size() + " files)";
+    }
+}
@@ -34,7 +34,9 @@ public abstract class StreamMessage
     /** Streaming protocol version */
     public static final int VERSION_20 = 2;
     public static final int VERSION_30 = 3;
-    public static final int CURRENT_VERSION = VERSION_30;
+    /** Adds the component files of sstables sent whole and the source id to the file header, and {@link Type#RESUME} */
+    public static final int VERSION_31 = 4;
+    public static final int CURRENT_VERSION = VERSION_31;
 
     public static void serialize(StreamMessage message, DataOutputStreamPlus out, int version, StreamSession session) throws IOException
     {
@@ -78,7 +80,9 @@ public abstract class StreamMessage
         RECEIVED(3, 4, ReceivedMessage.serializer),
         RETRY(4, 4, RetryMessage.serializer),
         COMPLETE(5, 1, CompleteMessage.serializer),
-        SESSION_FAILED(6, 5, SessionFailedMessage.serializer);
+        SESSION_FAILED(6, 5, SessionFailedMessage.serializer),
+        // ahead of PREPARE, which it is sent before
+        RESUME(7, 6, ResumeMessage.serializer);
 
         public static Type get(byte type)
         {
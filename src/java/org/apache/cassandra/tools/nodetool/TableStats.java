@@ -156,6 +156,20 @@ public class TableStats extends NodeToolCmd
                     }
                 }
 
+                long[] pendingBytesPerLevel = table.getPendingCompactionBytesPerLevel();
+                if (pendingBytesPerLevel != null)
+                {
+                    System.out.print("\t\tPending compaction bytes in each level: [");
+                    for (int level = 0; level < pendingBytesPerLevel.length; level++)
+                    {
+                        System.out.print(pendingBytesPerLevel[level]);
+                        if (level < pendingBytesPerLevel.length - 1)
+                            System.out.print(", ");
+                        else
+                            System.out.println("]");
+                    }
+                }
+
                 Long memtableOffHeapSize = null;
                 Long bloomFilterOffHeapSize = null;
                 Long indexSummaryOffHeapSize = null;
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.transport;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import org.apache.cassandra.auth.AllowAllAuthorizer;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.CQLStatement;
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.statements.ParsedStatement;
+import org.apache.cassandra.cql3.statements.SelectStatement;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.filter.IDiskAtomFilter;
+import org.apache.cassandra.metrics.ClientMetrics;
+import org.apache.cassandra.service.AbstractReadExecutor;
+import org.apache.cassandra.service.ClientState;
+import org.apache.cassandra.service.StorageProxy;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.transport.messages.ExecuteMessage;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Runs, on the event loop that received them, the requests that can be answered from this node's memory without
+ * waiting on anything: prepared reads of a single partition at ONE or LOCAL_ONE, of which this node is the
+ * preferred replica, and which is either cached in the row cache as far as the read goes, or in a table with no
+ * sstables yet. Such a read then costs no thread handoff at all, where it would otherwise go through the request
+ * executor; its local read runs on the event loop too, rather than possibly waiting for a READ stage permit.
+ *
+ * Reads are never run inline when authorization is enabled, as checking their permissions may have to read them.
+ *
+ * Every other request is handed to the request executor as usual. So are inline candidates once the event loop
+ * has spent {@code native_transport_inline_read_budget_in_us} of the current millisecond running reads, so that
+ * the reads cannot starve the loop's other channels: a read slower than expected only uses up the budget sooner.
+ */
+@ChannelHandler.Sharable
+class InlineReadHandler extends ChannelInboundHandlerAdapter
+{
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // the time spent running reads inline by an event loop, in its current window
+    private static final class Budget
+    {
+        long windowStart;
+        long spentNanos;
+    }
+
+    private static final ThreadLocal<Budget> budgets = new ThreadLocal<Budget>()
+    {
+        protected Budget initialValue()
+        {
+            return new Budget();
+        }
+    };
+
+    private final long budgetNanos = TimeUnit.MICROSECONDS.toNanos(DatabaseDescriptor.getNativeTransportInlineReadBudgetInMicros());
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+    {
+        if (msg instanceof ExecuteMessage && canExecuteInline((ExecuteMessage) msg))
+        {
+            Budget budget = budgets.get();
+            long start = System.nanoTime();
+            if (start - budget.windowStart >= WINDOW_NANOS)
+            {
+                budget.windowStart = start;
+                budget.spentNanos = 0;
+            }
+
+            if (budget.spentNanos < budgetNanos)
+            {
+                AbstractReadExecutor.setLocalReadsOnCallingThread(true);
+                try
+                {
+                    Message.Dispatcher.process(ctx, (Message.Request) msg);
+                }
+                finally
+                {
+                    AbstractReadExecutor.setLocalReadsOnCallingThread(false);
+                }
+                long elapsed = System.nanoTime() - start;
+                budget.spentNanos += elapsed;
+                ClientMetrics.instance.inlineRequestLatency.update(elapsed, TimeUnit.NANOSECONDS);
+                return;
+            }
+            ClientMetrics.instance.inlineRequestFallbacks.mark();
+        }
+
+        if (msg instanceof Message.Request)
+            ((Message.Request) msg).handedOffNanos = System.nanoTime();
+        ctx.fireChannelRead(msg);
+    }
+
+    /**
+     * @return true if the request is a read this node can answer from memory on its own; any request this
+     * cannot tell for sure, including the invalid ones, is left to the request executor
+     */
+    static boolean canExecuteInline(ExecuteMessage message)
+    {
+        if (message.isTracingRequested() || StorageService.instance.isBootstrapMode())
+            return false;
+
+        // checking the permissions of the request may have to read them, should they not be cached
+        if (!(DatabaseDescriptor.getAuthorizer() instanceof AllowAllAuthorizer))
+            return false;
+
+        ConsistencyLevel cl = message.options.getConsistency();
+        if (cl != ConsistencyLevel.ONE && cl != ConsistencyLevel.LOCAL_ONE)
+            return false;
+
+        try
+        {
+            ParsedStatement.Prepared prepared = ClientState.getCQLQueryHandler().getPrepared(message.statementId);
+            if (prepared == null)
+                return false;
+            CQLStatement statement = prepared.statement;
+            if (!(statement instanceof SelectStatement))
+                return false;
+
+            // the cheap checks go first: most reads of a table with sstables and no row cache are not inline candidates
+            SelectStatement select = (SelectStatement) statement;
+            Keyspace keyspace = Keyspace.open(select.keyspace());
+            ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(select.columnFamily());
+            boolean memtableOnly = cfs.getSSTables().isEmpty();
+            if (!memtableOnly && !cfs.isRowCacheEnabled())
+                return false;
+
+            QueryOptions options = message.options.prepare(prepared.boundNames);
+            Collection<ByteBuffer> keys = select.getPartitionKeys(options);
+            if (keys == null || keys.size() != 1)
+                return false;
+            ByteBuffer key = keys.iterator().next();
+
+            if (!memtableOnly)
+            {
+                // the row cache may only hold the head of the partition, which must then hold all the read selects
+                ColumnFamily cached = cfs.getRawCachedRow(StorageService.getPartitioner().decorateKey(key));
+                if (cached == null)
+                    return false;
+                if (!cfs.metadata.getCaching().rowCache.cacheFullPartitions())
+                {
+                    IDiskAtomFilter filter = select.getReadFilter(options);
+                    if (filter == null || !cfs.isFilterFullyCoveredBy(filter, cached, System.currentTimeMillis()))
+                        return false;
+                }
+            }
+
+            // the read goes to the first of the sorted live replicas (see AbstractReadExecutor.getReadExecutor)
+            List<InetAddress> replicas = StorageProxy.getLiveSortedEndpoints(keyspace, key);
+            return !replicas.isEmpty() && replicas.get(0).equals(FBUtilities.getBroadcastAddress());
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+    }
+}
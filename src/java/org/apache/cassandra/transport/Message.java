@@ -20,7 +20,7 @@ package org.apache.cassandra.transport;
 import java.util.ArrayList;
 import java.io.IOException;
 import java.util.EnumSet;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,11 +36,14 @@ import io.netty.channel.*;
 import io.netty.handler.codec.MessageToMessageDecoder;
 import io.netty.handler.codec.MessageToMessageEncoder;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.metrics.ClientMetrics;
 import org.apache.cassandra.transport.messages.*;
 import org.apache.cassandra.service.QueryState;
 import org.apache.cassandra.utils.JVMStabilityInspector;
@@ -221,6 +224,9 @@ public abstract class Message
         {
             return tracingRequested;
         }
+
+        // when the request was handed from its event loop to the request executor, if it was timed (see InlineReadHandler)
+        long handedOffNanos;
     }
 
     public static abstract class Response extends Message
@@ -385,12 +391,12 @@ public abstract class Message
     @ChannelHandler.Sharable
     public static class Dispatcher extends SimpleChannelInboundHandler<Request>
     {
-        private static class FlushItem
+        static class FlushItem
         {
             final ChannelHandlerContext ctx;
             final Object response;
             final Frame sourceFrame;
-            private FlushItem(ChannelHandlerContext ctx, Object response, Frame sourceFrame)
+            FlushItem(ChannelHandlerContext ctx, Object response, Frame sourceFrame)
             {
                 this.ctx = ctx;
                 this.sourceFrame = sourceFrame;
@@ -398,18 +404,37 @@ public abstract class Message
             }
         }
 
-        private static final class Flusher implements Runnable
+        /**
+         * Writes the responses of the channels of an event loop, and coalesces their flushes: the responses
+         * produced while the loop keeps receiving more are written out together, once no more are coming or the
+         * oldest has waited {@code native_transport_max_flush_delay_in_us}, so that a channel with many requests
+         * in flight is flushed (with a single gathering write) once per batch rather than once per response.
+         */
+        @VisibleForTesting
+        static class Flusher implements Runnable
         {
+            // the most responses written before the channels are flushed, however short the wait
+            static final int MAX_BATCH = 50;
+            // how often a running flusher looks for new responses
+            static final long TICK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
             final EventLoop eventLoop;
+            final long maxDelayNanos;
             final ConcurrentLinkedQueue<FlushItem> queued = new ConcurrentLinkedQueue<>();
             final AtomicBoolean running = new AtomicBoolean(false);
-            final HashSet<ChannelHandlerContext> channels = new HashSet<>();
+            // the channels written to since the last flush, with the number of responses written to each
+            final Map<ChannelHandlerContext, Integer> channels = new HashMap<>();
             final List<FlushItem> flushed = new ArrayList<>();
-            int runsSinceFlush = 0;
+            long firstUnflushedNanos;
             int runsWithNoWork = 0;
             private Flusher(EventLoop eventLoop)
+            {
+                this(eventLoop, TimeUnit.MICROSECONDS.toNanos(DatabaseDescriptor.getNativeTransportMaxFlushDelayInMicros()));
+            }
+            Flusher(EventLoop eventLoop, long maxDelayNanos)
             {
                 this.eventLoop = eventLoop;
+                this.maxDelayNanos = maxDelayNanos;
             }
             void start()
             {
@@ -425,24 +450,29 @@ public abstract class Message
                 FlushItem flush;
                 while ( null != (flush = queued.poll()) )
                 {
-                    channels.add(flush.ctx);
+                    if (flushed.isEmpty())
+                        firstUnflushedNanos = System.nanoTime();
+                    Integer written = channels.get(flush.ctx);
+                    channels.put(flush.ctx, written == null ? 1 : written + 1);
                     flush.ctx.write(flush.response, flush.ctx.voidPromise());
                     flushed.add(flush);
                     doneWork = true;
                 }
 
-                runsSinceFlush++;
-
-                if (!doneWork || runsSinceFlush > 2 || flushed.size() > 50)
+                // flush once the responses stop coming, or the oldest one has waited long enough
+                long waitedNanos = System.nanoTime() - firstUnflushedNanos;
+                if (!flushed.isEmpty() && (!doneWork || waitedNanos >= maxDelayNanos || flushed.size() >= MAX_BATCH))
                 {
-                    for (ChannelHandlerContext channel : channels)
-                        channel.flush();
+                    for (Map.Entry<ChannelHandlerContext, Integer> channel : channels.entrySet())
+                    {
+                        channel.getKey().flush();
+                        ClientMetrics.instance.responsesPerFlush.update(channel.getValue());
+                    }
                     for (FlushItem item : flushed)
                         item.sourceFrame.release();
 
                     channels.clear();
                     flushed.clear();
-                    runsSinceFlush = 0;
                 }
 
                 if (doneWork)
@@ -460,7 +490,12 @@ public abstract class Message
                     }
                 }
 
-                eventLoop.schedule(this, 10000, TimeUnit.NANOSECONDS);
+                // don't hold the pending responses past their deadline
+                schedule(flushed.isEmpty() ? TICK_NANOS : Math.max(0, Math.min(TICK_NANOS, maxDelayNanos - waitedNanos)));
+            }
+            void schedule(long delayNanos)
+            {
+                eventLoop.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
             }
         }
 
@@ -473,6 +508,17 @@ public abstract class Message
 
         @Override
         public void channelRead0(ChannelHandlerContext ctx, Request request)
+        {
+            process(ctx, request);
+            if (request.handedOffNanos != 0)
+                ClientMetrics.instance.dispatchedRequestLatency.update(System.nanoTime() - request.handedOffNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Executes the request and queues its response for flushing, on the calling thread: the request executor,
+         * or the channel's event loop for the requests {@link InlineReadHandler} runs inline.
+         */
+        static void process(ChannelHandlerContext ctx, Request request)
         {
 
             final Response response;
@@ -503,7 +549,7 @@ public abstract class Message
             flush(new FlushItem(ctx, response, request.getSourceFrame()));
         }
 
-        private void flush(FlushItem item)
+        private static void flush(FlushItem item)
         {
             EventLoop loop = item.ctx.channel().eventLoop();
             Flusher flusher = flusherLookup.get(loop);
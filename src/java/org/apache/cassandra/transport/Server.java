@@ -270,6 +270,7 @@ public class Server implements CassandraDaemon.Server
         private static final Frame.Encoder frameEncoder = new Frame.Encoder();
         private static final Message.Dispatcher dispatcher = new Message.Dispatcher();
         private static final ConnectionLimitHandler connectionLimitHandler = new ConnectionLimitHandler();
+        private static final InlineReadHandler inlineReadHandler = new InlineReadHandler();
 
         private final Server server;
 
@@ -303,6 +304,10 @@ public class Server implements CassandraDaemon.Server
             pipeline.addLast("messageDecoder", messageDecoder);
             pipeline.addLast("messageEncoder", messageEncoder);
 
+            // runs the reads it can on the event loop, and passes the other requests on to the executor
+            if (DatabaseDescriptor.getNativeTransportInlineReads())
+                pipeline.addLast("inlineReads", inlineReadHandler);
+
             pipeline.addLast(server.eventExecutorGroup, "executor", dispatcher);
         }
     }
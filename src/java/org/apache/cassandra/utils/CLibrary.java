@@ -192,6 +192,19 @@ public final class CLibrary
     }
 
     public static void trySkipCache(int fd, long offset, int len)
+    {
+        tryFadvise(fd, offset, len, POSIX_FADV_DONTNEED);
+    }
+
+    /**
+     * Hints the kernel to start reading the given range of the file into the page cache.
+     */
+    public static void tryWillNeed(int fd, long offset, int len)
+    {
+        tryFadvise(fd, offset, len, POSIX_FADV_WILLNEED);
+    }
+
+    private static void tryFadvise(int fd, long offset, int len, int advice)
     {
         if (fd < 0)
             return;
@@ -200,7 +213,7 @@ public final class CLibrary
         {
             if (System.getProperty("os.name").toLowerCase().contains("linux"))
             {
-                posix_fadvise(fd, offset, len, POSIX_FADV_DONTNEED);
+                posix_fadvise(fd, offset, len, advice);
             }
         }
         catch (UnsatisfiedLinkError e)
@@ -70,28 +70,82 @@ public abstract class MergeIterator<In,Out> extends AbstractIterator<Out> implem
         reducer.close();
     }
 
-    /** A MergeIterator that consumes multiple input values per output value. */
+    /**
+     * A MergeIterator that consumes multiple input values per output value.
+     *
+     * The candidates are merged by a loser tree: each internal node of a complete binary tree over the candidates
+     * keeps the loser of the match between the winners of its two subtrees, and the overall winner is kept apart.
+     * Once the winner has been consumed and advanced, only the matches on its path to the root are replayed, which
+     * takes exactly one comparison per level, and does not allocate.
+     *
+     * Each node also records whether its loser compares equal to the winner it lost to, so that all the candidates
+     * equal to the winner are found by walking these flags down from the root, without comparing anything. As
+     * consumed candidates are only advanced when the next value is requested, the reducer may still use the
+     * values it was given (and the state of their iterators) until then.
+     *
+     * When the same candidate wins twice in a row, the best of the candidates it beat is remembered, so that for as
+     * long as the values of the winner stay below it, the tree is left alone: a run of values coming from a single
+     * candidate costs one comparison per value.
+     */
     private static final class ManyToOne<In,Out> extends MergeIterator<In,Out>
     {
-        // a queue for return: all candidates must be open and have at least one item
-        protected final PriorityQueue<Candidate<In>> queue;
-        // a stack of the last consumed candidates, so that we can lazily call 'advance()'
-        // TODO: if we had our own PriorityQueue implementation we could stash items
-        // at the end of its array, so we wouldn't need this storage
-        protected final ArrayDeque<Candidate<In>> candidates;
+        private static final int UNKNOWN = -1;
+        private static final int NONE = -2;
+
+        private final Candidate<In>[] candidates;
+        private final int size;
+        // tree[0] is the overall winner and tree[1..size-1] the losers of the internal nodes; the leaf of the
+        // candidate i is the node size + i, and the parent of node n is n / 2
+        private final int[] tree;
+        // equal[n] is true if the loser of node n compares equal to the winner of the subtree of n
+        private final boolean[] equal;
+
+        // the candidates consumed by the last call to consume(), and the node each one was found equal at
+        private final int[] consumed;
+        private final int[] consumedAt;
+        private int consumedCount;
+
+        // the best of the candidates the winner beat on its way to the root, NONE if they are all exhausted, or
+        // UNKNOWN; only valid while the winner stays the same
+        private int runnerUp = UNKNOWN;
+
         public ManyToOne(List<? extends Iterator<In>> iters, Comparator<In> comp, Reducer<In, Out> reducer)
         {
             super(iters, reducer);
-            this.queue = new PriorityQueue<>(Math.max(1, iters.size()));
-            for (Iterator<In> iter : iters)
+            this.size = iters.size();
+            @SuppressWarnings("unchecked")
+            Candidate<In>[] candidates = (Candidate<In>[]) new Candidate<?>[size];
+            this.candidates = candidates;
+            for (int i = 0; i < size; i++)
             {
-                Candidate<In> candidate = new Candidate<>(iter, comp);
-                if (!candidate.advance())
-                    // was empty
-                    continue;
-                this.queue.add(candidate);
+                candidates[i] = new Candidate<>(iters.get(i), comp);
+                candidates[i].advance();
             }
-            this.candidates = new ArrayDeque<>(queue.size());
+
+            this.tree = new int[Math.max(1, size)];
+            this.equal = new boolean[Math.max(1, size)];
+            this.consumed = new int[size];
+            this.consumedAt = new int[size];
+            if (size > 0)
+                build();
+        }
+
+        /** Plays all the matches of the tree, bottom-up. */
+        private void build()
+        {
+            int[] winners = new int[2 * size];
+            for (int i = 0; i < size; i++)
+                winners[size + i] = i;
+            for (int node = size - 1; node > 0; node--)
+            {
+                int left = winners[2 * node];
+                int right = winners[2 * node + 1];
+                int cmp = compare(left, right);
+                winners[node] = cmp <= 0 ? left : right;
+                tree[node] = cmp <= 0 ? right : left;
+                equal[node] = cmp == 0 && !candidates[left].exhausted;
+            }
+            tree[0] = winners[1];
         }
 
         protected final Out computeNext()
@@ -103,27 +157,106 @@ public abstract class MergeIterator<In,Out> extends AbstractIterator<Out> implem
         /** Consume values by sending them to the reducer while they are equal. */
         protected final Out consume()
         {
-            reducer.onKeyChange();
-            Candidate<In> candidate = queue.peek();
-            if (candidate == null)
+            if (size == 0 || candidates[tree[0]].exhausted)
                 return endOfData();
-            do
+
+            reducer.onKeyChange();
+            consumed[0] = tree[0];
+            consumedAt[0] = 0;
+            consumedCount = 1;
+            for (int i = 0; i < consumedCount; i++)
             {
-                candidate = queue.poll();
-                candidates.push(candidate);
-                reducer.reduce(candidate.item);
+                int candidate = consumed[i];
+                reducer.reduce(candidates[candidate].item);
+                // the losers equal to this candidate are on its path, below the node it was itself found at
+                for (int node = (size + candidate) >> 1; node > consumedAt[i]; node >>= 1)
+                {
+                    if (equal[node])
+                    {
+                        consumed[consumedCount] = tree[node];
+                        consumedAt[consumedCount] = node;
+                        consumedCount++;
+                    }
+                }
             }
-            while (queue.peek() != null && queue.peek().compareTo(candidate) == 0);
             return reducer.getReduced();
         }
 
-        /** Advance and re-enqueue all items we consumed in the last iteration. */
+        /** Advance all the candidates we consumed in the last iteration, and replay their matches. */
         protected final void advance()
         {
-            Candidate<In> candidate;
-            while ((candidate = candidates.pollFirst()) != null)
-                if (candidate.advance())
-                    queue.add(candidate);
+            if (consumedCount == 1)
+            {
+                int winner = consumed[0];
+                consumedCount = 0;
+                candidates[winner].advance();
+                // none of the losers on the path of the winner was equal to it, or it would not have been consumed
+                // alone, so as long as it stays below all of them, the tree is unchanged
+                if (runnerUp != UNKNOWN && !candidates[winner].exhausted && (runnerUp == NONE || compare(winner, runnerUp) < 0))
+                    return;
+
+                replay(winner);
+                runnerUp = tree[0] == winner ? runnerUp(winner) : UNKNOWN;
+                return;
+            }
+
+            // a replay only holds for the overall winner, whose path the losers of the others are not on; but the
+            // candidates not yet advanced are all equal and below the others, so one of them is always the winner
+            for (int i = 0; i < consumedCount; i++)
+            {
+                int winner = tree[0];
+                candidates[winner].advance();
+                replay(winner);
+            }
+            consumedCount = 0;
+            runnerUp = UNKNOWN;
+        }
+
+        /** Replays the matches on the path of the given candidate, whose value changed. */
+        private void replay(int candidate)
+        {
+            int winner = candidate;
+            for (int node = (size + candidate) >> 1; node > 0; node >>= 1)
+            {
+                int loser = tree[node];
+                int cmp = compare(winner, loser);
+                if (cmp > 0)
+                {
+                    tree[node] = winner;
+                    winner = loser;
+                    equal[node] = false;
+                }
+                else
+                {
+                    equal[node] = cmp == 0 && !candidates[winner].exhausted;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        /** @return the best of the candidates the given winner beat, or NONE if they are all exhausted */
+        private int runnerUp(int winner)
+        {
+            int best = NONE;
+            for (int node = (size + winner) >> 1; node > 0; node >>= 1)
+            {
+                int loser = tree[node];
+                if (!candidates[loser].exhausted && (best == NONE || compare(loser, best) < 0))
+                    best = loser;
+            }
+            return best;
+        }
+
+        /** Exhausted candidates compare after all the others. */
+        private int compare(int left, int right)
+        {
+            Candidate<In> l = candidates[left];
+            Candidate<In> r = candidates[right];
+            if (l.exhausted)
+                return r.exhausted ? 0 : 1;
+            if (r.exhausted)
+                return -1;
+            return l.compareTo(r);
         }
     }
 
@@ -133,6 +266,7 @@ public abstract class MergeIterator<In,Out> extends AbstractIterator<Out> implem
         private final Iterator<In> iter;
         private final Comparator<In> comp;
         private In item;
+        private boolean exhausted;
 
         public Candidate(Iterator<In> iter, Comparator<In> comp)
         {
@@ -144,7 +278,11 @@ public abstract class MergeIterator<In,Out> extends AbstractIterator<Out> implem
         protected boolean advance()
         {
             if (!iter.hasNext())
+            {
+                item = null;
+                exhausted = true;
                 return false;
+            }
             item = iter.next();
             return true;
         }
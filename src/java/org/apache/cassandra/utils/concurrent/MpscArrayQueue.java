@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils.concurrent;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * An unbounded, lock-free queue supporting any number of concurrent producers but a single consumer.
+ *
+ * Items are stored in a linked list of fixed size array chunks: a producer claims a position with a single
+ * atomic increment and then publishes its item in the slot of that position, so producers never contend on
+ * anything but the tail counter. The consumer follows the positions in order, freeing chunks as it leaves them.
+ *
+ * An item whose position has been claimed but not yet published is not visible to the consumer, and neither are
+ * the items behind it: {@link #poll()} may therefore return null while {@link #size()} is positive, for as long as
+ * that producer is between the two steps.
+ *
+ * Besides the consumer, any thread may {@link #discard()} the items queued so far; the consumer skips them, and
+ * may {@link #iterator() iterate} over the items.
+ *
+ * @param <E>
+ */
+public class MpscArrayQueue<E> implements Iterable<E>
+{
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final class Chunk<E>
+    {
+        final long base;
+        final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+        volatile Chunk<E> next;
+
+        Chunk(long base)
+        {
+            this.base = base;
+        }
+
+        Chunk<E> next()
+        {
+            Chunk<E> next = this.next;
+            if (next != null)
+                return next;
+            Chunk<E> created = new Chunk<>(base + CHUNK_SIZE);
+            return nextUpdater.compareAndSet(this, null, created) ? created : this.next;
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private static final AtomicReferenceFieldUpdater<Chunk<?>, Chunk<?>> nextUpdater = (AtomicReferenceFieldUpdater) AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+    }
+
+    // producers: the next position to claim, and a chunk no later than the one holding it
+    private volatile long tail;
+    private volatile Chunk<E> tailChunk;
+
+    // consumer: the next position to read, and the chunk holding it
+    private volatile long head;
+    private volatile Chunk<E> headChunk;
+
+    // the positions before this one have been discarded
+    private volatile long discardBefore;
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final AtomicLongFieldUpdater<MpscArrayQueue<?>> tailUpdater = (AtomicLongFieldUpdater) AtomicLongFieldUpdater.newUpdater(MpscArrayQueue.class, "tail");
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final AtomicLongFieldUpdater<MpscArrayQueue<?>> headUpdater = (AtomicLongFieldUpdater) AtomicLongFieldUpdater.newUpdater(MpscArrayQueue.class, "head");
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final AtomicLongFieldUpdater<MpscArrayQueue<?>> discardBeforeUpdater = (AtomicLongFieldUpdater) AtomicLongFieldUpdater.newUpdater(MpscArrayQueue.class, "discardBefore");
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final AtomicReferenceFieldUpdater<MpscArrayQueue<?>, Chunk<?>> tailChunkUpdater = (AtomicReferenceFieldUpdater) AtomicReferenceFieldUpdater.newUpdater(MpscArrayQueue.class, Chunk.class, "tailChunk");
+
+    public MpscArrayQueue()
+    {
+        Chunk<E> first = new Chunk<>(0);
+        tailChunk = first;
+        headChunk = first;
+    }
+
+    /**
+     * Adds an item to the tail of the queue. May be called by any thread.
+     */
+    public void offer(E item)
+    {
+        assert item != null;
+        // read the chunk before claiming: it only ever moves to chunks holding already claimed positions,
+        // so it cannot be past ours
+        Chunk<E> chunk = tailChunk;
+        long position = tailUpdater.getAndIncrement(this);
+        while (position >= chunk.base + CHUNK_SIZE)
+            chunk = chunk.next();
+        chunk.slots.set((int) (position & CHUNK_MASK), item);
+
+        Chunk<E> cur;
+        while ((cur = tailChunk).base < chunk.base && !tailChunkUpdater.compareAndSet(this, cur, chunk));
+    }
+
+    /**
+     * @return the item at the head of the queue, without removing it, or null if none is visible yet.
+     * Must only be called by the consumer.
+     */
+    public E peek()
+    {
+        if (!skipDiscarded())
+            return null;
+        long position = head;
+        Chunk<E> chunk = headChunk;
+        if (position == chunk.base + CHUNK_SIZE)
+        {
+            chunk = chunk.next;
+            if (chunk == null)
+                return null;
+        }
+        return chunk.slots.get((int) (position & CHUNK_MASK));
+    }
+
+    /**
+     * Removes and returns the item at the head of the queue, or null if none is visible yet.
+     * Must only be called by the consumer.
+     */
+    public E poll()
+    {
+        return skipDiscarded() ? pollInternal() : null;
+    }
+
+    /**
+     * @return false if some discarded items could not be skipped, because their producers have not completed yet
+     */
+    private boolean skipDiscarded()
+    {
+        long discardBefore = this.discardBefore;
+        while (head < discardBefore)
+        {
+            E item = pollInternal();
+            if (item == null)
+                return false;
+            onDiscard(item);
+        }
+        return true;
+    }
+
+    /**
+     * Called by the consumer for each discarded item it skips.
+     */
+    protected void onDiscard(E item)
+    {
+    }
+
+    private E pollInternal()
+    {
+        long position = head;
+        Chunk<E> chunk = headChunk;
+        if (position == chunk.base + CHUNK_SIZE)
+        {
+            chunk = chunk.next;
+            if (chunk == null)
+                return null;
+            headChunk = chunk;
+        }
+        int slot = (int) (position & CHUNK_MASK);
+        E item = chunk.slots.get(slot);
+        if (item == null)
+            return null;
+        chunk.slots.lazySet(slot, null);
+        headUpdater.lazySet(this, position + 1);
+        return item;
+    }
+
+    /**
+     * Discards all the items offered before this call; may be called by any thread.
+     */
+    public void discard()
+    {
+        long tail = this.tail;
+        long cur;
+        while ((cur = discardBefore) < tail && !discardBeforeUpdater.compareAndSet(this, cur, tail));
+    }
+
+    /**
+     * @return a weakly consistent iterator over the items visible to the consumer, in order: it never throws
+     * ConcurrentModificationException, and may or may not see the items offered, polled or discarded after it
+     * was created. May be called by any thread; removal is not supported.
+     */
+    public Iterator<E> iterator()
+    {
+        return new AbstractIterator<E>()
+        {
+            // read the chunk before the position: the consumer moves to a chunk before it moves past its base
+            private Chunk<E> chunk = headChunk;
+            private long position;
+
+            protected E computeNext()
+            {
+                while (true)
+                {
+                    // skip what was polled or discarded since
+                    position = Math.max(position, Math.max(head, discardBefore));
+                    if (position >= tail)
+                        return endOfData();
+                    while (position >= chunk.base + CHUNK_SIZE)
+                    {
+                        if (chunk.next == null)
+                            return endOfData();
+                        chunk = chunk.next;
+                    }
+                    E item = chunk.slots.get((int) (position & CHUNK_MASK));
+                    if (item != null)
+                    {
+                        position++;
+                        return item;
+                    }
+                    // either polled since we read the head, or its producer has not completed yet, which hides
+                    // the items behind it from the consumer too
+                    if (position >= head)
+                        return endOfData();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return true if no item has been offered that has not been polled yet; may be called by any thread
+     */
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    /**
+     * @return the number of items offered but not yet polled, including items whose producer has not
+     * completed yet; may be called by any thread
+     */
+    public int size()
+    {
+        // read head first, so that we never see it past tail
+        long head = Math.max(this.head, discardBefore);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, tail - head));
+    }
+}
@@ -113,6 +113,30 @@ public abstract class MemoryUtil
             putLongByByte(address, l);
     }
 
+    /**
+     * The address must be 8 byte aligned.
+     */
+    public static void setLongVolatile(long address, long l)
+    {
+        unsafe.putLongVolatile(null, address, l);
+    }
+
+    /**
+     * The address must be 8 byte aligned.
+     */
+    public static long getLongVolatile(long address)
+    {
+        return unsafe.getLongVolatile(null, address);
+    }
+
+    /**
+     * The address must be 8 byte aligned.
+     */
+    public static boolean compareAndSwapLong(long address, long expected, long update)
+    {
+        return unsafe.compareAndSwapLong(null, address, expected, update);
+    }
+
     public static byte getByte(long address)
     {
         return unsafe.getByte(address);
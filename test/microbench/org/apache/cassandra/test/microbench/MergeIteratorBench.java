@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.MergeIterator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the loser tree merge of MergeIterator with the PriorityQueue merge it replaced, over sources of
+ * 16 byte keys as compaction and range reads merge them.
+ *
+ * With "interleaved" keys, each source holds keys spread over the whole range, as sstables of a size-tiered table
+ * do; with "runs", each source holds many consecutive runs of keys, as sstables flushed one after the other by a
+ * table written in key order do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1,jvmArgsAppend = "-Xmx512M")
+@Threads(1)
+@State(Scope.Benchmark)
+public class MergeIteratorBench
+{
+    @Param({"2", "8", "32", "128"})
+    private int sources;
+
+    @Param({"priority_queue", "loser_tree"})
+    private String merge;
+
+    @Param({"interleaved", "runs"})
+    private String keys;
+
+    // the number of keys of all the sources together
+    @Param({"65536"})
+    private int totalKeys;
+
+    private static final int RUN_LENGTH = 256;
+
+    private static final Comparator<ByteBuffer> comparator = new Comparator<ByteBuffer>()
+    {
+        public int compare(ByteBuffer o1, ByteBuffer o2)
+        {
+            return ByteBufferUtil.compareUnsigned(o1, o2);
+        }
+    };
+
+    private ByteBuffer[][] data;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        long[][] values = new long[sources][totalKeys / sources];
+        for (int i = 0; i < sources; i++)
+        {
+            if (keys.equals("interleaved"))
+            {
+                // a few keys are in several sources, as rows updated after they were flushed are
+                for (int j = 0; j < values[i].length; j++)
+                    values[i][j] = random.nextInt(totalKeys * 4);
+            }
+            else
+            {
+                // the run j of the source i holds the keys of the slice j * sources + i of the key range
+                for (int j = 0; j < values[i].length; j++)
+                    values[i][j] = ((long) (j / RUN_LENGTH) * sources + i) * RUN_LENGTH + j % RUN_LENGTH;
+            }
+        }
+
+        data = new ByteBuffer[sources][];
+        for (int i = 0; i < sources; i++)
+        {
+            long[] sorted = values[i];
+            Arrays.sort(sorted);
+            List<ByteBuffer> source = new ArrayList<>(sorted.length);
+            for (int j = 0; j < sorted.length; j++)
+            {
+                if (j > 0 && sorted[j] == sorted[j - 1])
+                    continue;
+                ByteBuffer key = ByteBuffer.allocate(16);
+                key.putLong(0, 0x1234567890abcdefL);
+                key.putLong(8, sorted[j]);
+                source.add(key);
+            }
+            data[i] = source.toArray(new ByteBuffer[source.size()]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(65536)
+    public void merge(Blackhole bh)
+    {
+        List<Iterator<ByteBuffer>> iterators = new ArrayList<>(sources);
+        for (ByteBuffer[] source : data)
+            iterators.add(Iterators.forArray(source));
+
+        Counter reducer = new Counter();
+        Iterator<Integer> merged = merge.equals("loser_tree")
+                                   ? MergeIterator.get(iterators, comparator, reducer)
+                                   : new PriorityQueueMerge(iterators, comparator, reducer);
+        while (merged.hasNext())
+            bh.consume(merged.next());
+    }
+
+    /** Counts the sources of each key */
+    private static final class Counter extends MergeIterator.Reducer<ByteBuffer, Integer>
+    {
+        private int count;
+
+        public void reduce(ByteBuffer current)
+        {
+            count++;
+        }
+
+        protected void onKeyChange()
+        {
+            count = 0;
+        }
+
+        protected Integer getReduced()
+        {
+            return count;
+        }
+    }
+
+    /**
+     * The merge of MergeIterator before the loser tree: every value is polled from and offered back to a
+     * PriorityQueue of its sources.
+     */
+    private static final class PriorityQueueMerge extends AbstractIterator<Integer>
+    {
+        private final Counter reducer;
+        private final PriorityQueue<Candidate<ByteBuffer>> queue;
+        private final ArrayDeque<Candidate<ByteBuffer>> candidates;
+
+        PriorityQueueMerge(List<Iterator<ByteBuffer>> iters, Comparator<ByteBuffer> comp, Counter reducer)
+        {
+            this.reducer = reducer;
+            this.queue = new PriorityQueue<>(Math.max(1, iters.size()));
+            for (Iterator<ByteBuffer> iter : iters)
+            {
+                Candidate<ByteBuffer> candidate = new Candidate<>(iter, comp);
+                if (candidate.advance())
+                    queue.add(candidate);
+            }
+            this.candidates = new ArrayDeque<>(queue.size());
+        }
+
+        protected Integer computeNext()
+        {
+            Candidate<ByteBuffer> candidate;
+            while ((candidate = candidates.pollFirst()) != null)
+                if (candidate.advance())
+                    queue.add(candidate);
+
+            reducer.onKeyChange();
+            candidate = queue.peek();
+            if (candidate == null)
+                return endOfData();
+            do
+            {
+                candidate = queue.poll();
+                candidates.push(candidate);
+                reducer.reduce(candidate.item);
+            }
+            while (queue.peek() != null && queue.peek().compareTo(candidate) == 0);
+            return reducer.getReduced();
+        }
+    }
+
+    private static final class Candidate<In> implements Comparable<Candidate<In>>
+    {
+        private final Iterator<In> iter;
+        private final Comparator<In> comp;
+        private In item;
+
+        Candidate(Iterator<In> iter, Comparator<In> comp)
+        {
+            this.iter = iter;
+            this.comp = comp;
+        }
+
+        boolean advance()
+        {
+            if (!iter.hasNext())
+                return false;
+            item = iter.next();
+            return true;
+        }
+
+        public int compareTo(Candidate<In> that)
+        {
+            return comp.compare(this.item, that.item);
+        }
+    }
+}
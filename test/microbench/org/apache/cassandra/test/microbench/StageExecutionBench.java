@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.cassandra.concurrent.SharedExecutorPool;
+import org.apache.cassandra.concurrent.TokenAffine;
+import org.apache.cassandra.concurrent.TokenAffinePool;
+import org.apache.cassandra.concurrent.TracingAwareExecutorService;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Token;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the shared executor pool with the token-range-affine workers of the thread-per-core execution mode, on
+ * tasks that each update the state of one of many partitions, as the read and mutation stages do.
+ *
+ * With the shared pool, the state of a partition moves between the caches of the cores of whichever threads update
+ * it; with the affine workers, it stays with the one worker owning its token.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1,jvmArgsAppend = "-Xmx512M")
+@Threads(4)
+@State(Scope.Benchmark)
+public class StageExecutionBench
+{
+    @Param({"shared", "thread_per_core"})
+    private String mode;
+
+    @Param({"4"})
+    private int workers;
+
+    @Param({"65536"})
+    private int partitions;
+
+    // the number of 8 byte fields of the partition state each task updates
+    @Param({"16"})
+    private int fieldsPerTask;
+
+    private static final int BATCH = 256;
+
+    private TracingAwareExecutorService executor;
+    private Token[] tokens;
+    private AtomicLongArray[] states;
+
+    @Setup
+    public void setup()
+    {
+        executor = mode.equals("shared")
+                   ? new SharedExecutorPool("StageExecutionBench").newExecutor(workers, Integer.MAX_VALUE, "bench", "shared")
+                   : new TokenAffinePool("StageExecutionBench", Murmur3Partitioner.instance, workers).newExecutor("bench", "affine");
+
+        tokens = new Token[partitions];
+        states = new AtomicLongArray[partitions];
+        for (int i = 0; i < partitions; i++)
+        {
+            tokens[i] = new Murmur3Partitioner.LongToken(ThreadLocalRandom.current().nextLong());
+            states[i] = new AtomicLongArray(fieldsPerTask);
+        }
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException
+    {
+        executor.shutdown();
+    }
+
+    private final class Update implements Runnable, TokenAffine
+    {
+        final int partition;
+        final CountDownLatch done;
+
+        Update(int partition, CountDownLatch done)
+        {
+            this.partition = partition;
+            this.done = done;
+        }
+
+        public Token affinityToken()
+        {
+            return tokens[partition];
+        }
+
+        public void run()
+        {
+            AtomicLongArray state = states[partition];
+            for (int i = 0; i < state.length(); i++)
+                state.incrementAndGet(i);
+            done.countDown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void updates() throws InterruptedException
+    {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < BATCH; i++)
+            executor.execute(new Update(random.nextInt(partitions), done));
+        done.await();
+    }
+}
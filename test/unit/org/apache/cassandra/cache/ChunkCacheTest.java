@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkCacheTest
+{
+    private static ByteBuffer chunk(int size, byte fill)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining())
+            buffer.put(fill);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testGetCopiesCachedChunk()
+    {
+        ChunkCache cache = ChunkCache.instance;
+        assertTrue(cache.isEnabled());
+
+        cache.put("/tmp/ChunkCacheTest-get", 0, chunk(100, (byte) 1));
+        cache.put("/tmp/ChunkCacheTest-get", 65536, chunk(50, (byte) 2));
+
+        for (boolean direct : new boolean[]{ false, true })
+        {
+            ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(65536) : ByteBuffer.allocate(65536);
+            assertTrue(cache.get("/tmp/ChunkCacheTest-get", 65536, buffer));
+            assertEquals(0, buffer.position());
+            assertEquals(50, buffer.limit());
+            while (buffer.hasRemaining())
+                assertEquals(2, buffer.get());
+
+            assertFalse(cache.get("/tmp/ChunkCacheTest-get", 131072, buffer));
+        }
+    }
+
+    @Test
+    public void testInvalidateFile()
+    {
+        ChunkCache cache = ChunkCache.instance;
+        for (int i = 0; i < 3; i++)
+            cache.put("/tmp/ChunkCacheTest-a", i * 65536, chunk(100, (byte) 1));
+        cache.put("/tmp/ChunkCacheTest-b", 0, chunk(100, (byte) 1));
+        assertEquals(3, cache.indexedChunks("/tmp/ChunkCacheTest-a"));
+
+        cache.invalidateFile("/tmp/ChunkCacheTest-a");
+
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        for (int i = 0; i < 3; i++)
+            assertFalse(cache.get("/tmp/ChunkCacheTest-a", i * 65536, buffer));
+        assertEquals(0, cache.indexedChunks("/tmp/ChunkCacheTest-a"));
+        assertTrue(cache.get("/tmp/ChunkCacheTest-b", 0, buffer));
+        assertEquals(1, cache.indexedChunks("/tmp/ChunkCacheTest-b"));
+    }
+
+    @Test
+    public void testEvictionUnindexesChunk()
+    {
+        ChunkCache cache = ChunkCache.instance;
+        cache.put("/tmp/ChunkCacheTest-evicted", 0, chunk(100, (byte) 1));
+        assertEquals(1, cache.indexedChunks("/tmp/ChunkCacheTest-evicted"));
+
+        long capacity = cache.capacity();
+        cache.setCapacity(0);
+        cache.setCapacity(capacity);
+
+        assertEquals(0, cache.indexedChunks("/tmp/ChunkCacheTest-evicted"));
+        assertFalse(cache.get("/tmp/ChunkCacheTest-evicted", 0, ByteBuffer.allocate(100)));
+    }
+
+    @Test
+    public void testMetrics()
+    {
+        ChunkCache cache = ChunkCache.instance;
+        long hits = cache.metrics.hits.getCount();
+        long misses = cache.metrics.misses.getCount();
+
+        cache.put("/tmp/ChunkCacheTest-metrics", 0, chunk(10, (byte) 1));
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        cache.get("/tmp/ChunkCacheTest-metrics", 0, buffer);
+        cache.get("/tmp/ChunkCacheTest-metrics", 10, buffer);
+
+        assertEquals(hits + 1, cache.metrics.hits.getCount());
+        assertEquals(misses + 1, cache.metrics.misses.getCount());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenAffineExecutorTest
+{
+    private static final TokenAffinePool pool = new TokenAffinePool("TokenAffineExecutorTest", Murmur3Partitioner.instance, 4);
+
+    // a token in the range of each worker
+    private static final long[] RANGE_TOKENS = { Long.MIN_VALUE + 1, Long.MIN_VALUE / 2, 0, Long.MAX_VALUE };
+
+    private static Token token(long value)
+    {
+        return new Murmur3Partitioner.LongToken(value);
+    }
+
+    private static class Task implements Runnable, TokenAffine
+    {
+        final Token token;
+        final CountDownLatch done;
+        volatile Thread ranOn;
+
+        Task(Token token, CountDownLatch done)
+        {
+            this.token = token;
+            this.done = done;
+        }
+
+        public Token affinityToken()
+        {
+            return token;
+        }
+
+        public void run()
+        {
+            ranOn = Thread.currentThread();
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void testRangesOfEqualWidth()
+    {
+        // the ring of the Murmur3Partitioner is bisected at -1, then at -2^62 - 1 and 2^62 - 1
+        assertEquals(0, pool.workerIndex(token(Long.MIN_VALUE + 1)));
+        assertEquals(0, pool.workerIndex(token(Long.MIN_VALUE / 2 - 1)));
+        assertEquals(1, pool.workerIndex(token(Long.MIN_VALUE / 2)));
+        assertEquals(1, pool.workerIndex(token(-1)));
+        assertEquals(2, pool.workerIndex(token(0)));
+        assertEquals(2, pool.workerIndex(token(Long.MAX_VALUE / 2)));
+        assertEquals(3, pool.workerIndex(token(Long.MAX_VALUE / 2 + 1)));
+        assertEquals(3, pool.workerIndex(token(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testTasksRunOnTheirTokenOwner() throws InterruptedException
+    {
+        TokenAffineExecutor executor = pool.newExecutor("test", "owner");
+        List<Task> tasks = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(400);
+        for (int i = 0; i < 400; i++)
+        {
+            Task task = new Task(token(RANGE_TOKENS[i % 4]), done);
+            tasks.add(task);
+            executor.execute(task);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        ConcurrentHashMap<Integer, Thread> owners = new ConcurrentHashMap<>();
+        for (int i = 0; i < tasks.size(); i++)
+        {
+            Thread previous = owners.putIfAbsent(i % 4, tasks.get(i).ranOn);
+            if (previous != null)
+                assertSame(previous, tasks.get(i).ranOn);
+        }
+        for (int i = 0; i < 4; i++)
+            for (int j = i + 1; j < 4; j++)
+                assertNotSame(owners.get(i), owners.get(j));
+
+        assertEquals(400, executor.getCompletedTasks());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExecuteImmediatelyOnlyOnOwner() throws Exception
+    {
+        final TokenAffineExecutor executor = pool.newExecutor("test", "immediately");
+        final AtomicReference<Thread> outer = new AtomicReference<>();
+        final AtomicReference<Thread> sameRange = new AtomicReference<>();
+        final Task otherRange = new Task(token(Long.MAX_VALUE), new CountDownLatch(1));
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Task(token(0), done)
+        {
+            public void run()
+            {
+                outer.set(Thread.currentThread());
+                executor.maybeExecuteImmediately(new Task(token(1), new CountDownLatch(1))
+                {
+                    public void run()
+                    {
+                        sameRange.set(Thread.currentThread());
+                    }
+                });
+                executor.maybeExecuteImmediately(otherRange);
+                // ran inline, or not at all yet
+                assertTrue(sameRange.get() == outer.get());
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(otherRange.done.await(10, TimeUnit.SECONDS));
+        assertSame(outer.get(), sameRange.get());
+        assertNotSame(outer.get(), otherRange.ranOn);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSubmitAndShutdown() throws Exception
+    {
+        TokenAffineExecutor executor = pool.newExecutor("test", "submit");
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<?> blocked = executor.submit(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+
+        executor.shutdown();
+        assertTrue(executor.isShutdown());
+        assertFalse(executor.awaitTermination(100, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        blocked.get(10, TimeUnit.SECONDS);
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
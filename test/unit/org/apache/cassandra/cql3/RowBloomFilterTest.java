@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cql3;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.FilterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RowBloomFilterTest extends CQLTester
+{
+    @Test
+    public void testSkipSSTablesWithoutRow() throws Throwable
+    {
+        createTable("CREATE TABLE %s (a int, b int, c text, PRIMARY KEY (a, b)) WITH row_bloom_filter_fp_chance = 0.01");
+        ColumnFamilyStore cfs = Keyspace.open(keyspace()).getColumnFamilyStore(currentTable());
+
+        execute("INSERT INTO %s (a, b, c) VALUES (1, 1, '1')");
+        execute("INSERT INTO %s (a, b, c) VALUES (1, 2, '2')");
+        cfs.forceBlockingFlush();
+        execute("INSERT INTO %s (a, b, c) VALUES (1, 3, '3')");
+        cfs.forceBlockingFlush();
+
+        for (SSTableReader sstable : cfs.getSSTables())
+        {
+            assertTrue(new File(sstable.descriptor.filenameFor(Component.ROW_FILTER)).exists());
+            assertTrue(sstable.getRowFilter() != FilterFactory.AlwaysPresent);
+        }
+
+        long skips = cfs.metric.rowBloomFilterSkips.getCount();
+        assertRows(execute("SELECT c FROM %s WHERE a = 1 AND b = 3"), row("3"));
+        assertRows(execute("SELECT c FROM %s WHERE a = 1 AND b IN (1, 2)"), row("1"), row("2"));
+        assertEmpty(execute("SELECT c FROM %s WHERE a = 1 AND b = 4"));
+        assertTrue(cfs.metric.rowBloomFilterSkips.getCount() > skips);
+
+        // range reads never consult the row filter
+        assertRows(execute("SELECT c FROM %s WHERE a = 1 AND b >= 2"), row("2"), row("3"));
+
+        cfs.forceMajorCompaction();
+        assertEquals(1, cfs.getSSTables().size());
+        assertRows(execute("SELECT c FROM %s WHERE a = 1 AND b = 1"), row("1"));
+        assertRows(execute("SELECT c FROM %s WHERE a = 1 AND b = 3"), row("3"));
+    }
+
+    @Test
+    public void testDeletionsAreNotSkipped() throws Throwable
+    {
+        createTable("CREATE TABLE %s (a int, b int, c int, d text, PRIMARY KEY (a, b, c)) WITH row_bloom_filter_fp_chance = 0.01");
+        ColumnFamilyStore cfs = Keyspace.open(keyspace()).getColumnFamilyStore(currentTable());
+
+        execute("INSERT INTO %s (a, b, c, d) VALUES (1, 1, 1, '1') USING TIMESTAMP 1");
+        execute("INSERT INTO %s (a, b, c, d) VALUES (2, 1, 1, '1') USING TIMESTAMP 1");
+        cfs.forceBlockingFlush();
+
+        // a range tombstone and a partition tombstone, neither of which names the rows they shadow
+        execute("DELETE FROM %s USING TIMESTAMP 2 WHERE a = 1 AND b = 1");
+        execute("DELETE FROM %s USING TIMESTAMP 2 WHERE a = 2");
+        cfs.forceBlockingFlush();
+
+        assertEmpty(execute("SELECT d FROM %s WHERE a = 1 AND b = 1 AND c = 1"));
+        assertEmpty(execute("SELECT d FROM %s WHERE a = 2 AND b = 1 AND c = 1"));
+
+        cfs.forceMajorCompaction();
+        assertEmpty(execute("SELECT d FROM %s WHERE a = 1 AND b = 1 AND c = 1"));
+        assertEmpty(execute("SELECT d FROM %s WHERE a = 2 AND b = 1 AND c = 1"));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Throwable
+    {
+        createTable("CREATE TABLE %s (a int, b int, c text, PRIMARY KEY (a, b))");
+        ColumnFamilyStore cfs = Keyspace.open(keyspace()).getColumnFamilyStore(currentTable());
+
+        execute("INSERT INTO %s (a, b, c) VALUES (1, 1, '1')");
+        cfs.forceBlockingFlush();
+
+        for (SSTableReader sstable : cfs.getSSTables())
+            assertFalse(new File(sstable.descriptor.filenameFor(Component.ROW_FILTER)).exists());
+        assertRows(execute("SELECT c FROM %s WHERE a = 1 AND b = 1"), row("1"));
+    }
+
+    @Test
+    public void testInvalidFpChance() throws Throwable
+    {
+        createTable("CREATE TABLE %s (a int, b int, c text, PRIMARY KEY (a, b))");
+        assertInvalid("ALTER TABLE %s WITH row_bloom_filter_fp_chance = 0");
+        assertInvalid("ALTER TABLE %s WITH row_bloom_filter_fp_chance = 1.5");
+    }
+}
@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -100,6 +101,7 @@ import static org.apache.cassandra.Util.rp;
 import static org.apache.cassandra.utils.ByteBufferUtil.bytes;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -184,6 +186,40 @@ public class ColumnFamilyStoreTest
         assertEquals(1, cfs.metric.sstablesPerReadHistogram.cf.getCount());
     }
 
+    @Test
+    public void testPrefetchLeavesCacheStatsUntouched()
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(CF_STANDARD1);
+        cfs.truncateBlocking();
+
+        List<DecoratedKey> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            Mutation rm = new Mutation(KEYSPACE1, ByteBufferUtil.bytes("key" + i));
+            rm.add(CF_STANDARD1, cellname("Column1"), ByteBufferUtil.bytes("asdf"), 0);
+            rm.applyUnsafe();
+            keys.add(Util.dk("key" + i));
+        }
+        cfs.forceBlockingFlush();
+        keys.add(Util.dk("missing"));
+
+        SSTableReader sstable = cfs.getSSTables().iterator().next();
+        long requests = sstable.getKeyCacheRequest();
+        long truePositives = sstable.getBloomFilterTruePositiveCount();
+        Collections.reverse(keys);
+        cfs.prefetchIndex(keys);
+        cfs.prefetchData(keys);
+        assertEquals(requests, sstable.getKeyCacheRequest());
+        assertEquals(truePositives, sstable.getBloomFilterTruePositiveCount());
+
+        // the positions found for the data prefetch are cached, so the reads do not look them up again
+        long hits = sstable.getKeyCacheHit();
+        for (int i = 0; i < 10; i++)
+            assertNotNull(cfs.getColumnFamily(Util.namesQueryFilter(cfs, Util.dk("key" + i), "Column1")));
+        assertEquals(hits + 10, sstable.getKeyCacheHit());
+    }
+
     @Test
     public void testGetColumnWithWrongBF()
     {
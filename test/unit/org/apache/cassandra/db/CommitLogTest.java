@@ -66,6 +66,7 @@ public class CommitLogTest
     private static final String KEYSPACE2 = "CommitLogTestNonDurable";
     private static final String CF1 = "Standard1";
     private static final String CF2 = "Standard2";
+    private static final String CF3 = "NonDurable";
 
     @BeforeClass
     public static void defineSchema() throws ConfigurationException
@@ -75,7 +76,8 @@ public class CommitLogTest
                                     SimpleStrategy.class,
                                     KSMetaData.optsWithRF(1),
                                     SchemaLoader.standardCFMD(KEYSPACE1, CF1),
-                                    SchemaLoader.standardCFMD(KEYSPACE1, CF2));
+                                    SchemaLoader.standardCFMD(KEYSPACE1, CF2),
+                                    SchemaLoader.standardCFMD(KEYSPACE1, CF3).durableWrites(false));
         SchemaLoader.createKeyspace(KEYSPACE2,
                                     false,
                                     true,
@@ -367,6 +369,31 @@ public class CommitLogTest
         Assert.assertEquals(null, row.cf);
     }
     
+    @Test
+    public void testNonDurableTableSkipsCommitLog() throws IOException
+    {
+        CommitLog.instance.resetUnsafe(true);
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF3);
+        long avoided = cfs.metric.commitLogBytesAvoided.getCount();
+        ReplayPosition position = CommitLog.instance.getContext();
+
+        Mutation rm = new Mutation(KEYSPACE1, bytes("k"));
+        rm.add(CF3, Util.cellname("c1"), ByteBufferUtil.bytes("abcd"), 0);
+        rm.apply();
+
+        Assert.assertEquals(position, CommitLog.instance.getContext());
+        Assert.assertTrue(cfs.metric.commitLogBytesAvoided.getCount() > avoided);
+
+        // only the durable table of a mixed mutation is logged and replayed
+        rm = new Mutation(KEYSPACE1, bytes("k"));
+        rm.add(CF1, Util.cellname("c1"), ByteBufferUtil.bytes("abcd"), 0);
+        rm.add(CF3, Util.cellname("c2"), ByteBufferUtil.bytes("abcd"), 0);
+        rm.apply();
+
+        CommitLog.instance.resetUnsafe(false);
+        Assert.assertEquals(1, CommitLog.instance.recover());
+    }
+
     private void testDescriptorPersistence(CommitLogDescriptor desc) throws IOException
     {
         ByteBuffer buf = ByteBuffer.allocate(1024);
@@ -135,6 +135,32 @@ public class HintedHandOffTest
         assert getNoOfHints() == 0;
     }
 
+    @Test
+    public void testMigrateLegacyHints() throws Exception
+    {
+        Keyspace systemKeyspace = Keyspace.open("system");
+        ColumnFamilyStore hintStore = systemKeyspace.getColumnFamilyStore(SystemKeyspace.HINTS);
+        hintStore.clearUnsafe();
+        HintedHandOffManager.instance.truncateAllHints();
+
+        // insert 1 hint in the legacy table
+        Mutation rm = new Mutation(KEYSPACE4, ByteBufferUtil.bytes(1));
+        rm.add(STANDARD1_CF, Util.cellname(COLUMN1), ByteBufferUtil.EMPTY_BYTE_BUFFER, System.currentTimeMillis());
+
+        HintedHandOffManager.instance.hintFor(rm,
+                                              System.currentTimeMillis(),
+                                              HintedHandOffManager.calculateHintTTL(rm),
+                                              UUID.randomUUID())
+                                     .applyUnsafe();
+        assertEquals(1, getNoOfHints());
+
+        HintedHandOffManager.instance.migrateLegacyHints();
+
+        // the table is drained and the hint is now pending in the hint log
+        assertEquals(0, getNoOfHints());
+        assertEquals(1, HintedHandOffManager.instance.listEndpointsPendingHints().size());
+    }
+
     private int getNoOfHints()
     {
         String req = "SELECT * FROM system.%s";
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.KSMetaData;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemtableShardsTest
+{
+    private static final String KEYSPACE1 = "MemtableShardsTest";
+    private static final String CF_SHARDED = "Sharded";
+    private static final int SHARDS = 4;
+
+    @BeforeClass
+    public static void defineSchema() throws ConfigurationException
+    {
+        SchemaLoader.prepareServer();
+        SchemaLoader.createKeyspace(KEYSPACE1,
+                                    SimpleStrategy.class,
+                                    KSMetaData.optsWithRF(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE1, CF_SHARDED).memtableShards(SHARDS));
+    }
+
+    // the first byte spreads the keys evenly over the ring of the ByteOrderedPartitioner used by the tests
+    private static ByteBuffer key(int i)
+    {
+        return ByteBuffer.wrap(new byte[]{ (byte) i, 'k' });
+    }
+
+    @Test
+    public void testReadsAndFlushAcrossShards()
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(CF_SHARDED);
+        cfs.truncateBlocking();
+
+        assertEquals(SHARDS, cfs.getDataTracker().getView().getCurrentMemtable().shardCount());
+
+        for (int i = 0; i < 256; i++)
+        {
+            Mutation rm = new Mutation(KEYSPACE1, key(i));
+            rm.add(CF_SHARDED, Util.cellname("c"), ByteBufferUtil.bytes(i), 0);
+            rm.applyUnsafe();
+        }
+
+        for (int i = 0; i < 256; i++)
+            assertNotNull(Util.getColumnFamily(keyspace, Util.dk(key(i)), CF_SHARDED));
+        assertRangeSliceOrdered(cfs);
+
+        Memtable memtable = cfs.getDataTracker().getView().getCurrentMemtable();
+        assertTrue(memtable.isLive());
+        cfs.forceBlockingFlush();
+        // the memory of every shard is given back
+        assertFalse(memtable.isLive());
+
+        // one sstable per shard, covering disjoint token ranges
+        List<SSTableReader> sstables = new ArrayList<>(cfs.getSSTables());
+        assertEquals(SHARDS, sstables.size());
+        Collections.sort(sstables, SSTableReader.sstableComparator);
+        for (int i = 1; i < sstables.size(); i++)
+            assertTrue(sstables.get(i - 1).last.compareTo(sstables.get(i).first) < 0);
+
+        assertRangeSliceOrdered(cfs);
+    }
+
+    @Test
+    public void testEntryIteratorRemoveAcrossShards()
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(CF_SHARDED);
+        cfs.truncateBlocking();
+
+        for (int i = 0; i < 256; i++)
+        {
+            Mutation rm = new Mutation(KEYSPACE1, key(i));
+            rm.add(CF_SHARDED, Util.cellname("c"), ByteBufferUtil.bytes(i), 0);
+            rm.applyUnsafe();
+        }
+
+        Memtable memtable = cfs.getDataTracker().getView().getCurrentMemtable();
+        assertTrue(memtable.getLiveDataSize() > 0);
+        RowPosition minimum = cfs.partitioner.getMinimumToken().minKeyBound();
+        Iterator<Map.Entry<DecoratedKey, ColumnFamily>> iter = memtable.getEntryIterator(minimum, minimum);
+        int removed = 0;
+        while (iter.hasNext())
+        {
+            iter.next();
+            iter.remove();
+            removed++;
+        }
+        assertEquals(256, removed);
+        assertEquals(0, memtable.getLiveDataSize());
+        assertTrue(memtable.isClean());
+    }
+
+    private static void assertRangeSliceOrdered(ColumnFamilyStore cfs)
+    {
+        List<Row> rows = Util.getRangeSlice(cfs);
+        assertEquals(256, rows.size());
+        for (int i = 0; i < 256; i++)
+            assertEquals(key(i), rows.get(i).key.getKey());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.marshal.BytesType;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+import org.apache.cassandra.utils.memory.NativeAllocator;
+import org.apache.cassandra.utils.memory.NativePool;
+
+import static org.junit.Assert.*;
+
+public class NativeSkipListPartitionIndexTest
+{
+    private static final CFMetaData metadata = CFMetaData.denseCFMetaData("ks", "cf", BytesType.instance);
+    private static final Murmur3Partitioner partitioner = Murmur3Partitioner.instance;
+
+    private static DecoratedKey key(int i)
+    {
+        return partitioner.decorateKey(ByteBufferUtil.bytes(i));
+    }
+
+    @Test
+    public void testConcurrentInsertsAndOrderedIteration() throws Exception
+    {
+        final NativeAllocator allocator = new NativePool(Integer.MAX_VALUE, Integer.MAX_VALUE, 1f, null).newAllocator();
+        final OpOrder.Group group = new OpOrder().start();
+        final NativeSkipListPartitionIndex index = new NativeSkipListPartitionIndex();
+        final int threads = 4;
+        final int keys = 10000;
+
+        // every thread inserts every key, so each putIfAbsent races with the same insert from the others
+        final ConcurrentMap<DecoratedKey, AtomicBTreeColumns> winners = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+        {
+            futures.add(executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    for (int i = 0; i < keys; i++)
+                    {
+                        AtomicBTreeColumns partition = AtomicBTreeColumns.factory.create(metadata);
+                        if (index.putIfAbsent(key(i), partition, allocator, group) == null)
+                            assertNull(winners.put(key(i), partition));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+
+        assertEquals(keys, index.size());
+        assertEquals(keys, winners.size());
+
+        for (Map.Entry<DecoratedKey, AtomicBTreeColumns> entry : winners.entrySet())
+            assertSame(entry.getValue(), index.get(entry.getKey()));
+        assertNull(index.get(key(keys)));
+
+        List<DecoratedKey> expected = new ArrayList<>(winners.keySet());
+        Collections.sort(expected);
+        Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = index.entryIterator();
+        for (DecoratedKey key : expected)
+        {
+            assertTrue(iter.hasNext());
+            Map.Entry<DecoratedKey, AtomicBTreeColumns> entry = iter.next();
+            assertEquals(key, entry.getKey());
+            assertSame(winners.get(key), entry.getValue());
+        }
+        assertFalse(iter.hasNext());
+
+        // ranges are inclusive on both ends, and a minimum end bound means no upper bound
+        DecoratedKey from = expected.get(100);
+        DecoratedKey to = expected.get(200);
+        assertEquals(101, count(index.entryIterator(from, to)));
+        assertEquals(keys - 100, count(index.entryIterator(from, partitioner.getMinimumToken().minKeyBound())));
+        assertEquals(101, count(index.entryIterator(from.getToken().minKeyBound(), to.getToken().maxKeyBound())));
+        assertEquals(99, count(index.entryIterator(from.getToken().maxKeyBound(), to.getToken().minKeyBound())));
+
+        allocator.setDiscarding();
+        allocator.setDiscarded();
+    }
+
+    private static int count(Iterator<?> iter)
+    {
+        int count = 0;
+        while (iter.hasNext())
+        {
+            iter.next();
+            count++;
+        }
+        return count;
+    }
+}
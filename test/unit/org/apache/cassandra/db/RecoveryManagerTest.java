@@ -38,8 +38,10 @@ import org.junit.runner.RunWith;
 import org.apache.cassandra.SchemaLoader;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.commitlog.CommitLogArchiver;
+import org.apache.cassandra.utils.ByteBufferUtil;
 
 import static org.apache.cassandra.Util.column;
+import static org.apache.cassandra.Util.expiringColumn;
 import static org.apache.cassandra.db.KeyspaceTest.assertColumns;
 import static org.apache.cassandra.Util.cellname;
 
@@ -199,4 +201,40 @@ public class RecoveryManagerTest
         cf = Util.getColumnFamily(keyspace1, dk, "Standard1");
         Assert.assertEquals(2, cf.getColumnCount());
     }
+
+    @Test
+    public void testRecoverManyPartitions() throws IOException
+    {
+        CommitLog.instance.resetUnsafe(true);
+        Keyspace keyspace1 = Keyspace.open(KEYSPACE1);
+
+        // overwrite every partition with the same timestamp and value, but a ttl: of two such cells, the one
+        // applied first is kept, so replay has to preserve per-partition order across lanes
+        for (int i = 0; i < 500; i++)
+        {
+            ColumnFamily cf = ArrayBackedSortedColumns.factory.create(KEYSPACE1, "Standard1");
+            cf.addColumn(column("col", "val1", 1));
+            new Mutation(KEYSPACE1, Util.dk("key" + i).getKey(), cf).apply();
+
+            cf = ArrayBackedSortedColumns.factory.create(KEYSPACE1, "Standard1");
+            cf.addColumn(expiringColumn("col", "val1", 1, 3600));
+            new Mutation(KEYSPACE1, Util.dk("key" + i).getKey(), cf).apply();
+        }
+        assertFirstWriteKept(keyspace1, 500);
+
+        keyspace1.getColumnFamilyStore("Standard1").clearUnsafe();
+        CommitLog.instance.resetUnsafe(false); // disassociate segments from live CL
+        Assert.assertEquals(1000, CommitLog.instance.recover());
+        assertFirstWriteKept(keyspace1, 500);
+    }
+
+    private static void assertFirstWriteKept(Keyspace keyspace, int partitions)
+    {
+        for (int i = 0; i < partitions; i++)
+        {
+            Cell cell = Util.getColumnFamily(keyspace, Util.dk("key" + i), "Standard1").getColumn(cellname("col"));
+            Assert.assertEquals(ByteBufferUtil.bytes("val1"), cell.value());
+            Assert.assertFalse(cell instanceof ExpiringCell);
+        }
+    }
 }
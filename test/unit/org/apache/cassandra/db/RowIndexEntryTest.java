@@ -18,7 +18,10 @@
 package org.apache.cassandra.db;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import junit.framework.Assert;
 import org.apache.cassandra.SchemaLoader;
@@ -29,6 +32,9 @@ import org.apache.cassandra.db.composites.CellNames;
 import org.apache.cassandra.db.composites.SimpleDenseCellNameType;
 import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.io.sstable.IndexHelper;
+import org.apache.cassandra.io.sstable.format.Version;
+import org.apache.cassandra.io.sstable.format.big.BigFormat;
+import org.apache.cassandra.io.util.ByteBufferDataInput;
 import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.locator.SimpleStrategy;
 import org.apache.cassandra.utils.ByteBufferUtil;
@@ -76,4 +82,59 @@ public class RowIndexEntryTest extends SchemaLoader
         serializer.serialize(withIndex, buffer);
         Assert.assertEquals(buffer.getLength(), serializer.serializedSize(withIndex));
     }
+
+    @Test
+    public void testCompactColumnIndex() throws IOException
+    {
+        SimpleDenseCellNameType type = new SimpleDenseCellNameType(UTF8Type.instance);
+        ColumnFamily cf = ArrayBackedSortedColumns.factory.create(standardCFMD("Keyspace1", "Standard1"));
+        ColumnIndex.Builder builder = new ColumnIndex.Builder(cf, ByteBufferUtil.bytes("a"), new DataOutputBuffer());
+        int size = 0;
+        for (int i = 0; size < DatabaseDescriptor.getColumnIndexSize() * 10; i++)
+        {
+            Cell column = new BufferCell(CellNames.simpleDense(ByteBufferUtil.bytes(String.format("c%06d", i))), ByteBufferUtil.bytes("v"), 0);
+            size += column.serializedSize(type, TypeSizes.NATIVE);
+            builder.add(column);
+        }
+        RowIndexEntry<IndexHelper.IndexInfo> original = RowIndexEntry.create(42, DeletionTime.LIVE, builder.build());
+        List<IndexHelper.IndexInfo> expected = original.columnsIndex();
+        Assert.assertTrue(expected.size() > 2);
+
+        IndexHelper.IndexInfo.Serializer idxSerializer = new IndexHelper.IndexInfo.Serializer(type);
+        for (Version version : Arrays.asList(BigFormat.latestVersion, BigFormat.instance.getVersion("la")))
+        {
+            RowIndexEntry.Serializer serializer = new RowIndexEntry.Serializer(idxSerializer, version);
+            DataOutputBuffer buffer = new DataOutputBuffer();
+            serializer.serialize(original, buffer);
+            Assert.assertEquals(buffer.getLength(), serializer.serializedSize(original));
+
+            ByteBuffer serialized = ByteBuffer.wrap(buffer.getData(), 0, buffer.getLength());
+            RowIndexEntry<IndexHelper.IndexInfo> deserialized = serializer.deserialize(new ByteBufferDataInput(serialized, null, 0, 0), version);
+            Assert.assertEquals(42, deserialized.position);
+            Assert.assertEquals(DeletionTime.LIVE, deserialized.deletionTime());
+
+            List<IndexHelper.IndexInfo> actual = deserialized.columnsIndex();
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+            {
+                Assert.assertEquals(expected.get(i).firstName, actual.get(i).firstName);
+                Assert.assertEquals(expected.get(i).lastName, actual.get(i).lastName);
+                Assert.assertEquals(expected.get(i).offset, actual.get(i).offset);
+                Assert.assertEquals(expected.get(i).width, actual.get(i).width);
+            }
+
+            for (IndexHelper.IndexInfo info : expected)
+            {
+                Assert.assertEquals(IndexHelper.indexFor(info.firstName, expected, type, false, -1),
+                                    IndexHelper.indexFor(info.firstName, actual, type, false, -1));
+                Assert.assertEquals(IndexHelper.indexFor(info.lastName, expected, type, true, -1),
+                                    IndexHelper.indexFor(info.lastName, actual, type, true, -1));
+            }
+
+            // re-serializing the deserialized entry gives back the same bytes
+            DataOutputBuffer reserialized = new DataOutputBuffer();
+            serializer.serialize(deserialized, reserialized);
+            Assert.assertEquals(serialized, ByteBuffer.wrap(reserialized.getData(), 0, reserialized.getLength()));
+        }
+    }
 }
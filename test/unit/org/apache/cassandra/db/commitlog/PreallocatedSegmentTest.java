@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.commitlog;
+
+import java.io.IOException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.KSMetaData;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PreallocatedSegmentTest
+{
+    private static final String KEYSPACE1 = "PreallocatedSegmentTest";
+    private static final String CF1 = "Standard1";
+
+    @BeforeClass
+    public static void defineSchema() throws ConfigurationException
+    {
+        SchemaLoader.prepareServer();
+        SchemaLoader.createKeyspace(KEYSPACE1,
+                                    SimpleStrategy.class,
+                                    KSMetaData.optsWithRF(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE1, CF1));
+        DatabaseDescriptor.setCommitLogAccessMode(Config.CommitLogAccessMode.standard);
+    }
+
+    @AfterClass
+    public static void restoreAccessMode()
+    {
+        DatabaseDescriptor.setCommitLogAccessMode(Config.CommitLogAccessMode.mmap);
+        CommitLog.instance.resetUnsafe(true);
+    }
+
+    private static DecoratedKey write(String key)
+    {
+        DecoratedKey dk = Util.dk(key);
+        Mutation rm = new Mutation(KEYSPACE1, dk.getKey());
+        rm.add(CF1, Util.cellname("c"), ByteBufferUtil.bytes(key), 0);
+        rm.apply();
+        return dk;
+    }
+
+    private static ColumnFamily read(DecoratedKey dk)
+    {
+        return Util.getColumnFamily(Keyspace.open(KEYSPACE1), dk, CF1);
+    }
+
+    @Test
+    public void testReplay() throws IOException
+    {
+        CommitLog.instance.resetUnsafe(true);
+        DecoratedKey dk = write("replayed");
+        assertTrue(CommitLog.instance.allocator.allocatingFrom() instanceof PreallocatedSegment);
+
+        Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF1).clearUnsafe();
+        CommitLog.instance.resetUnsafe(false);
+        CommitLog.instance.recover();
+
+        assertNotNull(read(dk));
+    }
+
+    @Test
+    public void testRecycledSegmentIgnoresStaleData() throws IOException
+    {
+        CommitLog.instance.resetUnsafe(true);
+        DecoratedKey dk = write("stale");
+
+        // close the segment and reuse its file, which still holds the mutation beyond the new segment's header
+        CommitLogSegment segment = CommitLog.instance.allocator.allocatingFrom();
+        assertTrue(segment.isRecyclable());
+        segment.close();
+        CommitLogSegment.recycle(CommitLog.instance, segment).close();
+
+        Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF1).clearUnsafe();
+        CommitLog.instance.resetUnsafe(false);
+        CommitLog.instance.recover();
+
+        assertNull(read(dk));
+    }
+}
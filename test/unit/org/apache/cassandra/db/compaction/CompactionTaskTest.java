@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompactionTaskTest
+{
+    private static final Token MIN = new LongToken(Long.MIN_VALUE);
+
+    @Test
+    public void testSubRangesSplitSamplesEvenly()
+    {
+        List<Token> samples = new ArrayList<>();
+        for (long i = 1; i <= 100; i++)
+            samples.add(new LongToken(i * 10));
+
+        List<Range<Token>> ranges = CompactionTask.subRanges(samples, 4, MIN);
+        assertEquals(4, ranges.size());
+        assertEquals(new Range<Token>(MIN, new LongToken(260)), ranges.get(0));
+        assertEquals(new Range<Token>(new LongToken(260), new LongToken(510)), ranges.get(1));
+        assertEquals(new Range<Token>(new LongToken(510), new LongToken(760)), ranges.get(2));
+        assertEquals(new Range<Token>(new LongToken(760), MIN), ranges.get(3));
+    }
+
+    @Test
+    public void testSubRangesSkipEmptyRanges()
+    {
+        List<Token> samples = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            samples.add(new LongToken(42));
+        samples.add(new LongToken(100));
+
+        // most boundaries fall on the same token, which must not make empty ranges
+        List<Range<Token>> ranges = CompactionTask.subRanges(samples, 8, MIN);
+        assertEquals(2, ranges.size());
+        assertEquals(new Range<Token>(MIN, new LongToken(42)), ranges.get(0));
+        assertEquals(new Range<Token>(new LongToken(42), MIN), ranges.get(1));
+    }
+
+    @Test
+    public void testSubRangesWithoutSamples()
+    {
+        List<Range<Token>> ranges = CompactionTask.subRanges(Collections.<Token>emptyList(), 8, MIN);
+        assertEquals(Collections.singletonList(new Range<>(MIN, MIN)), ranges);
+    }
+}
@@ -29,9 +29,12 @@ import org.apache.cassandra.SchemaLoader;
 import org.apache.cassandra.Util;
 import org.apache.cassandra.config.KSMetaData;
 import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.columniterator.IdentityQueryFilter;
 import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
+import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
+import org.apache.cassandra.db.compaction.writers.DefaultCompactionWriter;
 import org.apache.cassandra.db.filter.QueryFilter;
 import org.apache.cassandra.db.marshal.BytesType;
 import org.apache.cassandra.db.marshal.LongType;
@@ -42,6 +45,9 @@ import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.format.SSTableWriter;
 import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
 import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.notifications.INotification;
+import org.apache.cassandra.notifications.INotificationConsumer;
+import org.apache.cassandra.notifications.SSTableListChangedNotification;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.Pair;
@@ -64,6 +70,7 @@ public class CompactionsTest
     private static final String CF_STANDARD2 = "Standard2";
     private static final String CF_STANDARD3 = "Standard3";
     private static final String CF_STANDARD4 = "Standard4";
+    private static final String CF_SUBRANGE = "SubRange";
     private static final String CF_SUPER1 = "Super1";
     private static final String CF_SUPER5 = "Super5";
     private static final String CF_SUPERGC = "SuperDirectGC";
@@ -81,6 +88,7 @@ public class CompactionsTest
                                     SchemaLoader.standardCFMD(KEYSPACE1, CF_STANDARD2),
                                     SchemaLoader.standardCFMD(KEYSPACE1, CF_STANDARD3),
                                     SchemaLoader.standardCFMD(KEYSPACE1, CF_STANDARD4),
+                                    SchemaLoader.standardCFMD(KEYSPACE1, CF_SUBRANGE).minIndexInterval(4),
                                     SchemaLoader.superCFMD(KEYSPACE1, CF_SUPER1, LongType.instance),
                                     SchemaLoader.superCFMD(KEYSPACE1, CF_SUPER5, BytesType.instance),
                                     SchemaLoader.superCFMD(KEYSPACE1, CF_SUPERGC, BytesType.instance).gcGraceSeconds(0));
@@ -265,6 +273,61 @@ public class CompactionsTest
         assertMaxTimestamp(store, timestamp2);
     }
 
+    @Test
+    public void testOverlappingTombstoneSizeTieredCompaction() throws Exception
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        ColumnFamilyStore store = keyspace.getColumnFamilyStore(CF_STANDARD4);
+        store.clearUnsafe();
+        store.metadata.gcGraceSeconds(1);
+        store.metadata.compactionStrategyOptions.put("tombstone_compaction_interval", "1");
+        store.metadata.compactionStrategyOptions.put("overlapping_tombstone_compaction", "false");
+        store.reload();
+        store.setCompactionStrategyClass(SizeTieredCompactionStrategy.class.getName());
+
+        // disable compaction while flushing
+        store.disableAutoCompaction();
+
+        // sstable1 holds keys [0..9], and sstable2 the tombstones of all of their cells
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++)
+        {
+            Mutation rm = new Mutation(KEYSPACE1, ByteBufferUtil.bytes(String.valueOf(i)));
+            rm.add(CF_STANDARD4, Util.cellname("col"), ByteBufferUtil.EMPTY_BYTE_BUFFER, timestamp);
+            rm.applyUnsafe();
+        }
+        store.forceBlockingFlush();
+        for (int i = 0; i < 10; i++)
+        {
+            Mutation rm = new Mutation(KEYSPACE1, ByteBufferUtil.bytes(String.valueOf(i)));
+            rm.delete(CF_STANDARD4, Util.cellname("col"), timestamp + 1);
+            rm.applyUnsafe();
+        }
+        store.forceBlockingFlush();
+        assertEquals(2, store.getSSTables().size());
+
+        // wait for the tombstones to be droppable
+        TimeUnit.SECONDS.sleep(3);
+
+        // the tombstones cannot be dropped compacting sstable2 alone, as they shadow the cells of sstable1
+        store.enableAutoCompaction();
+        FBUtilities.waitOnFutures(CompactionManager.instance.submitBackground(store));
+        while (CompactionManager.instance.getPendingTasks() > 0 || CompactionManager.instance.getActiveCompactions() > 0)
+            TimeUnit.SECONDS.sleep(1);
+        assertEquals(2, store.getSSTables().size());
+
+        store.metadata.compactionStrategyOptions.put("overlapping_tombstone_compaction", "true");
+        store.reload();
+        long droppedBefore = store.metric.compactionDroppedTombstones.getCount();
+
+        // compacted together, the cells and their tombstones are all gone
+        FBUtilities.waitOnFutures(CompactionManager.instance.submitBackground(store));
+        while (CompactionManager.instance.getPendingTasks() > 0 || CompactionManager.instance.getActiveCompactions() > 0)
+            TimeUnit.SECONDS.sleep(1);
+        assertEquals(0, store.getSSTables().size());
+        assertEquals(10, store.metric.compactionDroppedTombstones.getCount() - droppedBefore);
+    }
+
     public static void assertMaxTimestamp(ColumnFamilyStore cfs, long maxTimestampExpected)
     {
         long maxTimestampObserved = Long.MIN_VALUE;
@@ -633,4 +696,139 @@ public class CompactionsTest
                                                                        200, 209,
                                                                        300, 301)));
     }
+
+    private static final int SUB_RANGE_KEYS = 100;
+
+    private static void populateSubRanges(ColumnFamilyStore cfs)
+    {
+        // three sstables over the same partitions, each overwriting the column of the previous one
+        for (int f = 0; f < 3; f++)
+        {
+            for (int i = 0; i < SUB_RANGE_KEYS; i++)
+            {
+                Mutation rm = new Mutation(KEYSPACE1, ByteBufferUtil.bytes(String.format("%03d", i)));
+                rm.add(CF_SUBRANGE, Util.cellname("col"), ByteBufferUtil.bytes(f), f);
+                rm.add(CF_SUBRANGE, Util.cellname("col" + f), ByteBufferUtil.bytes(f), f);
+                rm.applyUnsafe();
+            }
+            cfs.forceBlockingFlush();
+        }
+    }
+
+    private static void assertSubRangeData(ColumnFamilyStore cfs)
+    {
+        for (int i = 0; i < SUB_RANGE_KEYS; i++)
+        {
+            DecoratedKey key = Util.dk(String.format("%03d", i));
+            ColumnFamily cf = cfs.getColumnFamily(QueryFilter.getIdentityFilter(key, CF_SUBRANGE, System.currentTimeMillis()));
+            assertEquals(ByteBufferUtil.bytes(2), cf.getColumn(Util.cellname("col")).value());
+            for (int f = 0; f < 3; f++)
+                assertEquals(ByteBufferUtil.bytes(f), cf.getColumn(Util.cellname("col" + f)).value());
+        }
+    }
+
+    private static void runSplitInSubRanges(ColumnFamilyStore cfs, CompactionTask task)
+    {
+        int parallelism = DatabaseDescriptor.getCompactionSubRangeParallelism();
+        int minSizeInMB = (int) (DatabaseDescriptor.getCompactionSubRangeMinSize() / (1024 * 1024));
+        DatabaseDescriptor.setCompactionSubRangeParallelism(4);
+        DatabaseDescriptor.setCompactionSubRangeMinSizeInMB(0);
+        try
+        {
+            assertTrue(cfs.getDataTracker().markCompacting(task.sstables));
+            task.execute(null);
+        }
+        finally
+        {
+            DatabaseDescriptor.setCompactionSubRangeParallelism(parallelism);
+            DatabaseDescriptor.setCompactionSubRangeMinSizeInMB(minSizeInMB);
+        }
+    }
+
+    @Test
+    public void testSubRangeCompaction() throws Exception
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF_SUBRANGE);
+        cfs.disableAutoCompaction();
+        cfs.truncateBlocking();
+        populateSubRanges(cfs);
+        Collection<SSTableReader> originals = cfs.getSSTables();
+        assertEquals(3, originals.size());
+
+        final List<SSTableListChangedNotification> notifications = new ArrayList<>();
+        INotificationConsumer consumer = new INotificationConsumer()
+        {
+            public void handleNotification(INotification notification, Object sender)
+            {
+                if (notification instanceof SSTableListChangedNotification)
+                    notifications.add((SSTableListChangedNotification) notification);
+            }
+        };
+        cfs.getDataTracker().subscribe(consumer);
+        try
+        {
+            runSplitInSubRanges(cfs, new CompactionTask(cfs, originals, cfs.gcBefore(System.currentTimeMillis()), false));
+        }
+        finally
+        {
+            cfs.getDataTracker().unsubscribe(consumer);
+        }
+
+        // every sub-range wrote sstables of its own, and they all replaced the compacted ones at once
+        List<SSTableReader> compacted = new ArrayList<>(cfs.getSSTables());
+        assertTrue(compacted.size() > 1);
+        assertEquals(1, notifications.size());
+        assertEquals(new HashSet<>(originals), new HashSet<>(notifications.get(0).removed));
+        assertEquals(new HashSet<>(compacted), new HashSet<>(notifications.get(0).added));
+        Collections.sort(compacted, SSTableReader.sstableComparator);
+        for (int i = 1; i < compacted.size(); i++)
+            assertTrue(compacted.get(i - 1).last.compareTo(compacted.get(i).first) < 0);
+        assertSubRangeData(cfs);
+    }
+
+    @Test
+    public void testFailedSubRangeCompaction() throws Exception
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF_SUBRANGE);
+        cfs.disableAutoCompaction();
+        cfs.truncateBlocking();
+        SSTableDeletingTask.waitForDeletions();
+        populateSubRanges(cfs);
+        Collection<SSTableReader> originals = cfs.getSSTables();
+
+        CompactionTask task = new CompactionTask(cfs, originals, cfs.gcBefore(System.currentTimeMillis()), false)
+        {
+            @Override
+            protected CompactionAwareWriter getSubRangeCompactionAwareWriter(ColumnFamilyStore cfs, Set<SSTableReader> allSSTables, Set<SSTableReader> nonExpiredSSTables, final Range<Token> range)
+            {
+                return new DefaultCompactionWriter(cfs, allSSTables, nonExpiredSSTables, compactionType, range)
+                {
+                    @Override
+                    public boolean append(AbstractCompactedRow row)
+                    {
+                        // the last sub-range fails, the others complete
+                        if (range.right.isMinimum())
+                            throw new RuntimeException("failing sub-range " + range);
+                        return super.append(row);
+                    }
+                };
+            }
+        };
+        try
+        {
+            runSplitInSubRanges(cfs, task);
+            fail("the compaction should have failed");
+        }
+        catch (RuntimeException e)
+        {
+            // expected
+        }
+
+        // the compacted sstables are still live, and what the other sub-ranges wrote is gone
+        assertEquals(new HashSet<>(originals), new HashSet<>(cfs.getSSTables()));
+        assertTrue(cfs.getDataTracker().getCompacting().isEmpty());
+        SSTableDeletingTask.waitForDeletions();
+        assertEquals(originals.size(), cfs.directories.sstableLister().list().size());
+        assertSubRangeData(cfs);
+    }
 }
@@ -18,8 +18,10 @@
 package org.apache.cassandra.db.compaction;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -37,11 +39,14 @@ import org.junit.runner.RunWith;
 import org.apache.cassandra.OrderedJUnit4ClassRunner;
 import org.apache.cassandra.SchemaLoader;
 import org.apache.cassandra.Util;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.KSMetaData;
+import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.filter.QueryFilter;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
@@ -52,10 +57,13 @@ import org.apache.cassandra.notifications.SSTableRepairStatusChanged;
 import org.apache.cassandra.repair.RepairJobDesc;
 import org.apache.cassandra.repair.Validator;
 import org.apache.cassandra.service.ActiveRepairService;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(OrderedJUnit4ClassRunner.class)
@@ -352,4 +360,188 @@ public class LeveledCompactionStrategyTest
         assertTrue(unrepaired.manifest.getLevel(1).contains(sstable2));
         assertFalse(repaired.manifest.getLevel(1).contains(sstable2));
     }
+
+    @Test
+    public void testCompactionCandidatesDoNotOverlap() throws Exception
+    {
+        byte [] b = new byte[100 * 1024];
+        new Random().nextBytes(b);
+        ByteBuffer value = ByteBuffer.wrap(b); // 100 KB value, make it easy to have multiple files
+
+        // Enough data to have a level 1 and 2
+        int rows = 20;
+        int columns = 10;
+
+        // Adds enough data to trigger multiple sstable per level
+        for (int r = 0; r < rows; r++)
+        {
+            DecoratedKey key = Util.dk(String.valueOf(r));
+            Mutation rm = new Mutation(KEYSPACE1, key.getKey());
+            for (int c = 0; c < columns; c++)
+            {
+                rm.add(CF_STANDARDDLEVELED, Util.cellname("column" + c), value, 0);
+            }
+            rm.applyUnsafe();
+            cfs.forceBlockingFlush();
+        }
+        waitForLeveling(cfs);
+        cfs.disableAutoCompaction();
+
+        while(CompactionManager.instance.isCompacting(Arrays.asList(cfs)))
+            Thread.sleep(100);
+
+        // and new data in L0, to compact alongside the higher levels
+        for (int r = rows; r < 2 * rows; r++)
+        {
+            DecoratedKey key = Util.dk(String.valueOf(r));
+            Mutation rm = new Mutation(KEYSPACE1, key.getKey());
+            for (int c = 0; c < columns; c++)
+            {
+                rm.add(CF_STANDARDDLEVELED, Util.cellname("column" + c), value, 0);
+            }
+            rm.applyUnsafe();
+            cfs.forceBlockingFlush();
+        }
+
+        LeveledCompactionStrategy strategy = (LeveledCompactionStrategy) ((WrappingCompactionStrategy) cfs.getCompactionStrategy()).getWrappedStrategies().get(1);
+        assertTrue(strategy.getPendingCompactionBytesPerLevel()[0] > 0);
+        assertEquals(Math.max(1, strategy.getEstimatedRemainingTasks()), strategy.getMaxConcurrentBackgroundTasks());
+
+        List<LeveledManifest.CompactionCandidate> candidates = strategy.manifest.getCompactionCandidates();
+        assertFalse(candidates.isEmpty());
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            for (int j = i + 1; j < candidates.size(); j++)
+            {
+                LeveledManifest.CompactionCandidate first = candidates.get(i);
+                LeveledManifest.CompactionCandidate second = candidates.get(j);
+                for (SSTableReader sstable : first.sstables)
+                    assertFalse("candidates should not share sstables", second.sstables.contains(sstable));
+                if (first.level > 0 && first.level == second.level)
+                    assertTrue("candidates should not write overlapping sstables to the same level",
+                               LeveledManifest.overlapping(first.sstables, second.sstables).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testDisjointL0CompactionsRunAtOnce() throws Exception
+    {
+        cfs.disableAutoCompaction();
+        byte [] b = new byte[100 * 1024];
+        new Random().nextBytes(b);
+        ByteBuffer value = ByteBuffer.wrap(b);
+
+        // two token ranges, each covered by several overlapping L0 sstables worth more than an sstable of L1
+        int flushes = 4;
+        int rows = 5;
+        for (int f = 0; f < flushes; f++)
+        {
+            for (String range : Arrays.asList("a", "b"))
+            {
+                for (int r = 0; r < rows; r++)
+                {
+                    Mutation rm = new Mutation(KEYSPACE1, ByteBufferUtil.bytes(range + r));
+                    for (int c = 0; c < 2; c++)
+                        rm.add(CF_STANDARDDLEVELED, Util.cellname("column" + f + c), value, 0);
+                    rm.applyUnsafe();
+                }
+                cfs.forceBlockingFlush();
+            }
+        }
+        while (CompactionManager.instance.isCompacting(Arrays.asList(cfs)))
+            Thread.sleep(100);
+
+        LeveledCompactionStrategy strategy = (LeveledCompactionStrategy) ((WrappingCompactionStrategy) cfs.getCompactionStrategy()).getWrappedStrategies().get(1);
+        assertEquals(2 * flushes, strategy.getLevelSize(0));
+        // enables the strategy only, so that no background compaction takes the tasks handed out below
+        strategy.enable();
+        try
+        {
+            int gcBefore = cfs.gcBefore(System.currentTimeMillis());
+            AbstractCompactionTask first = strategy.getNextBackgroundTask(gcBefore);
+            AbstractCompactionTask second = strategy.getNextBackgroundTask(gcBefore);
+            assertNotNull(first);
+            assertNotNull(second);
+            assertEquals(1, ((LeveledCompactionTask) first).getLevel());
+            assertEquals(1, ((LeveledCompactionTask) second).getLevel());
+            assertEquals(flushes, first.sstables.size());
+            assertEquals(flushes, second.sstables.size());
+            for (SSTableReader sstable : first.sstables)
+                assertFalse(second.sstables.contains(sstable));
+            assertTrue(LeveledManifest.overlapping(first.sstables, second.sstables).isEmpty());
+
+            // nothing is left to compact alongside them
+            assertNull(strategy.getNextBackgroundTask(gcBefore));
+            cfs.getDataTracker().unmarkCompacting(first.sstables);
+            cfs.getDataTracker().unmarkCompacting(second.sstables);
+        }
+        finally
+        {
+            strategy.disable();
+        }
+    }
+
+    @Test
+    public void testSubRangeCompactionKeepsLevel() throws Exception
+    {
+        cfs.disableAutoCompaction();
+        byte [] b = new byte[100 * 1024];
+        new Random().nextBytes(b);
+        ByteBuffer value = ByteBuffer.wrap(b);
+
+        // three L0 sstables of distinct partitions, so that their index summaries give distinct sub-ranges
+        int rows = 10;
+        for (int f = 0; f < 3; f++)
+        {
+            for (int r = f * rows; r < (f + 1) * rows; r++)
+            {
+                Mutation rm = new Mutation(KEYSPACE1, ByteBufferUtil.bytes(String.format("%03d", r)));
+                rm.add(CF_STANDARDDLEVELED, Util.cellname("column"), value, 0);
+                rm.applyUnsafe();
+            }
+            cfs.forceBlockingFlush();
+        }
+        while (CompactionManager.instance.isCompacting(Arrays.asList(cfs)))
+            Thread.sleep(100);
+
+        LeveledCompactionStrategy strategy = (LeveledCompactionStrategy) ((WrappingCompactionStrategy) cfs.getCompactionStrategy()).getWrappedStrategies().get(1);
+        Collection<SSTableReader> originals = cfs.getSSTables();
+        assertEquals(3, strategy.getLevelSize(0));
+
+        int parallelism = DatabaseDescriptor.getCompactionSubRangeParallelism();
+        int minSizeInMB = (int) (DatabaseDescriptor.getCompactionSubRangeMinSize() / (1024 * 1024));
+        DatabaseDescriptor.setCompactionSubRangeParallelism(4);
+        DatabaseDescriptor.setCompactionSubRangeMinSizeInMB(0);
+        try
+        {
+            assertTrue(cfs.getDataTracker().markCompacting(originals));
+            new LeveledCompactionTask(cfs, originals, 1, cfs.gcBefore(System.currentTimeMillis()), strategy.getMaxSSTableBytes(), false).execute(null);
+        }
+        finally
+        {
+            DatabaseDescriptor.setCompactionSubRangeParallelism(parallelism);
+            DatabaseDescriptor.setCompactionSubRangeMinSizeInMB(minSizeInMB);
+        }
+
+        // the sstables of every sub-range go to L1, where they do not overlap
+        List<SSTableReader> compacted = new ArrayList<>(cfs.getSSTables());
+        assertTrue(compacted.size() > 1);
+        assertTrue(Collections.disjoint(originals, compacted));
+        assertEquals(0, strategy.getLevelSize(0));
+        assertEquals(compacted.size(), strategy.getLevelSize(1));
+        Collections.sort(compacted, SSTableReader.sstableComparator);
+        for (int i = 0; i < compacted.size(); i++)
+        {
+            assertEquals(1, compacted.get(i).getSSTableLevel());
+            if (i > 0)
+                assertTrue(compacted.get(i - 1).last.compareTo(compacted.get(i).first) < 0);
+        }
+        for (int r = 0; r < 3 * rows; r++)
+        {
+            DecoratedKey key = Util.dk(String.format("%03d", r));
+            ColumnFamily cf = cfs.getColumnFamily(QueryFilter.getIdentityFilter(key, CF_STANDARDDLEVELED, System.currentTimeMillis()));
+            assertEquals(value, cf.getColumn(Util.cellname("column")).value());
+        }
+    }
 }
@@ -84,6 +84,14 @@ public class SizeTieredCompactionStrategyTest
         assertTrue(unvalidated.containsKey("bad_option"));
     }
 
+    @Test
+    public void testMaxConcurrentBackgroundTasks()
+    {
+        // the estimate of STCS is only refreshed by getNextBackgroundTask, so it must not bound the submitted tasks
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF_STANDARD1);
+        assertEquals(Integer.MAX_VALUE, cfs.getCompactionStrategy().getMaxConcurrentBackgroundTasks());
+    }
+
     @Test
     public void testGetBuckets()
     {
@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.KSMetaData;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.utils.Pair;
+
+import static org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy.getBuckets;
+import static org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy.getWindowLowerBound;
+import static org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy.newestBucket;
+import static org.apache.cassandra.db.compaction.TimeWindowCompactionStrategy.validateOptions;
+
+import static org.junit.Assert.*;
+
+public class TimeWindowCompactionStrategyTest extends SchemaLoader
+{
+    public static final String KEYSPACE1 = "TimeWindowCompactionStrategyTest";
+    private static final String CF_STANDARD1 = "Standard1";
+    @BeforeClass
+    public static void defineSchema() throws ConfigurationException
+    {
+        SchemaLoader.prepareServer();
+        SchemaLoader.createKeyspace(KEYSPACE1,
+                                    SimpleStrategy.class,
+                                    KSMetaData.optsWithRF(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE1, CF_STANDARD1));
+    }
+
+    @Test
+    public void testOptionsValidation() throws ConfigurationException
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_SIZE_KEY, "30");
+        options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_UNIT_KEY, "MINUTES");
+        options.put(TimeWindowCompactionStrategyOptions.TIMESTAMP_RESOLUTION_KEY, "MILLISECONDS");
+        options.put(SizeTieredCompactionStrategyOptions.MIN_SSTABLE_SIZE_KEY, "1048576");
+        Map<String, String> unvalidated = validateOptions(options);
+        assertTrue(unvalidated.isEmpty());
+
+        try
+        {
+            options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_SIZE_KEY, "0");
+            validateOptions(options);
+            fail(String.format("%s == 0 should be rejected", TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_SIZE_KEY));
+        }
+        catch (ConfigurationException e) {}
+
+        try
+        {
+            options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_SIZE_KEY, "1");
+            options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_UNIT_KEY, "SECONDS");
+            validateOptions(options);
+            fail(String.format("Windows of %s should be rejected", TimeUnit.SECONDS));
+        }
+        catch (ConfigurationException e)
+        {
+            options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_UNIT_KEY, "HOURS");
+        }
+
+        try
+        {
+            options.put(TimeWindowCompactionStrategyOptions.EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY, "-1");
+            validateOptions(options);
+            fail(String.format("Negative %s should be rejected", TimeWindowCompactionStrategyOptions.EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY));
+        }
+        catch (ConfigurationException e)
+        {
+            options.put(TimeWindowCompactionStrategyOptions.EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY, "0");
+        }
+
+        options.put("bad_option", "1.0");
+        unvalidated = validateOptions(options);
+        assertTrue(unvalidated.containsKey("bad_option"));
+    }
+
+    @Test
+    public void testWindowLowerBound()
+    {
+        assertEquals(0, getWindowLowerBound(TimeUnit.HOURS, 1, 0));
+        assertEquals(0, getWindowLowerBound(TimeUnit.HOURS, 1, 3599));
+        assertEquals(3600, getWindowLowerBound(TimeUnit.HOURS, 1, 3600));
+        assertEquals(7200, getWindowLowerBound(TimeUnit.HOURS, 2, 10799));
+        assertEquals(86400 * 3, getWindowLowerBound(TimeUnit.DAYS, 3, 86400 * 5 + 12));
+        assertEquals(300, getWindowLowerBound(TimeUnit.MINUTES, 5, 599));
+
+        // timestamps before the epoch are in the window below them, not in the one above
+        assertEquals(-3600, getWindowLowerBound(TimeUnit.HOURS, 1, -1));
+        assertEquals(-3600, getWindowLowerBound(TimeUnit.HOURS, 1, -3600));
+        assertEquals(-7200, getWindowLowerBound(TimeUnit.HOURS, 1, -3601));
+    }
+
+    @Test
+    public void testGetBuckets()
+    {
+        List<Pair<String, Long>> pairs = Lists.newArrayList(
+                Pair.create("a", TimeUnit.MICROSECONDS.convert(10, TimeUnit.MINUTES)),
+                Pair.create("b", TimeUnit.MICROSECONDS.convert(59, TimeUnit.MINUTES)),
+                Pair.create("c", TimeUnit.MICROSECONDS.convert(61, TimeUnit.MINUTES)),
+                Pair.create("d", TimeUnit.MICROSECONDS.convert(5, TimeUnit.HOURS)),
+                Pair.create("e", TimeUnit.MICROSECONDS.convert(5, TimeUnit.HOURS) + 1)
+        );
+        NavigableMap<Long, List<String>> buckets = getBuckets(pairs, TimeUnit.HOURS, 1, TimeUnit.MICROSECONDS);
+        assertEquals(3, buckets.size());
+        assertEquals(Arrays.asList("a", "b"), buckets.get(0L));
+        assertEquals(Arrays.asList("c"), buckets.get(3600L));
+        assertEquals(Arrays.asList("d", "e"), buckets.get(5 * 3600L));
+
+        // windows of two hours put a, b and c together
+        buckets = getBuckets(pairs, TimeUnit.HOURS, 2, TimeUnit.MICROSECONDS);
+        assertEquals(2, buckets.size());
+        assertEquals(Arrays.asList("a", "b", "c"), buckets.get(0L));
+        assertEquals(Arrays.asList("d", "e"), buckets.get(4 * 3600L));
+
+        // the same timestamps in milliseconds are a thousand times further away from the epoch
+        buckets = getBuckets(pairs, TimeUnit.DAYS, 1, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList("a"), buckets.firstEntry().getValue());
+        assertEquals(4, buckets.size());
+    }
+
+    @Test
+    public void testPrepBucket()
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(CF_STANDARD1);
+        cfs.truncateBlocking();
+        cfs.disableAutoCompaction();
+
+        ByteBuffer value = ByteBuffer.wrap(new byte[100]);
+        long tstamp = System.currentTimeMillis();
+        long tstamp2 = tstamp - (2L * 3600L * 1000L);
+
+        // create 3 sstables in the window of the epoch
+        for (int r = 0; r < 3; r++)
+        {
+            DecoratedKey key = Util.dk(String.valueOf(r));
+            Mutation rm = new Mutation(KEYSPACE1, key.getKey());
+            rm.add(CF_STANDARD1, Util.cellname("column"), value, r);
+            rm.apply();
+            cfs.forceBlockingFlush();
+        }
+        // and 2 in the current window
+        for (int r = 3; r < 5; r++)
+        {
+            DecoratedKey key = Util.dk(String.valueOf(r));
+            Mutation rm = new Mutation(KEYSPACE1, key.getKey());
+            rm.add(CF_STANDARD1, Util.cellname("column"), value, tstamp + r);
+            rm.apply();
+            cfs.forceBlockingFlush();
+        }
+        cfs.forceBlockingFlush();
+
+        List<SSTableReader> sstrs = new ArrayList<>(cfs.getSSTables());
+        NavigableMap<Long, List<SSTableReader>> buckets = getBuckets(TimeWindowCompactionStrategy.createSSTableAndMaxTimestampPairs(sstrs),
+                                                                     TimeUnit.HOURS, 1, TimeUnit.MILLISECONDS);
+        SizeTieredCompactionStrategyOptions stcsOptions = new SizeTieredCompactionStrategyOptions();
+
+        // the closed window of the epoch holds 3 sstables not compacted down yet: it goes before the current one
+        Pair<List<SSTableReader>, Long> newBucket = newestBucket(buckets, 4, 32, stcsOptions, new HashSet<Long>());
+        assertEquals("the closed window should be compacted down, whatever the min threshold", 3, newBucket.left.size());
+        assertEquals(Long.valueOf(0), newBucket.right);
+
+        // once it was, the current window is below the min threshold and nothing is left to compact
+        newBucket = newestBucket(buckets, 4, 32, stcsOptions, new HashSet<>(Collections.singleton(0L)));
+        assertTrue("the current window should not be compacted below the min threshold", newBucket.left.isEmpty());
+
+        newBucket = newestBucket(buckets, 2, 32, stcsOptions, new HashSet<>(Collections.singleton(0L)));
+        assertEquals("the current window should be compacted at the min threshold", 2, newBucket.left.size());
+        assertNull(newBucket.right);
+
+        // a closed window above the max threshold is compacted in several rounds
+        newBucket = newestBucket(buckets, 4, 2, stcsOptions, new HashSet<Long>());
+        assertEquals(2, newBucket.left.size());
+        assertNull("a partial compaction of a closed window should not mark it compacted", newBucket.right);
+
+        // an sstable in the past, written late into a closed window already compacted, is left alone until others join it
+        DecoratedKey key = Util.dk(String.valueOf("late"));
+        Mutation rm = new Mutation(KEYSPACE1, key.getKey());
+        rm.add(CF_STANDARD1, Util.cellname("column"), value, tstamp2);
+        rm.apply();
+        cfs.forceBlockingFlush();
+        sstrs = new ArrayList<>(cfs.getSSTables());
+        buckets = getBuckets(TimeWindowCompactionStrategy.createSSTableAndMaxTimestampPairs(sstrs), TimeUnit.HOURS, 1, TimeUnit.MILLISECONDS);
+        assertEquals(3, buckets.size());
+        newBucket = newestBucket(buckets, 4, 32, stcsOptions, new HashSet<>(Arrays.asList(0L, getWindowLowerBound(TimeUnit.HOURS, 1, tstamp2 / 1000))));
+        assertTrue(newBucket.left.isEmpty());
+    }
+
+    @Test
+    public void testDropExpiredSSTables() throws InterruptedException
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(CF_STANDARD1);
+        cfs.truncateBlocking();
+        cfs.disableAutoCompaction();
+
+        ByteBuffer value = ByteBuffer.wrap(new byte[100]);
+
+        // create 2 sstables
+        DecoratedKey key = Util.dk(String.valueOf("expired"));
+        Mutation rm = new Mutation(KEYSPACE1, key.getKey());
+        rm.add(CF_STANDARD1, Util.cellname("column"), value, System.currentTimeMillis(), 1);
+        rm.apply();
+        cfs.forceBlockingFlush();
+        SSTableReader expiredSSTable = cfs.getSSTables().iterator().next();
+        Thread.sleep(10);
+        key = Util.dk(String.valueOf("nonexpired"));
+        rm = new Mutation(KEYSPACE1, key.getKey());
+        rm.add(CF_STANDARD1, Util.cellname("column"), value, System.currentTimeMillis());
+        rm.apply();
+        cfs.forceBlockingFlush();
+        assertEquals(cfs.getSSTables().size(), 2);
+
+        Map<String, String> options = new HashMap<>();
+        options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_SIZE_KEY, "30");
+        options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_UNIT_KEY, "MINUTES");
+        options.put(TimeWindowCompactionStrategyOptions.TIMESTAMP_RESOLUTION_KEY, "MILLISECONDS");
+        options.put(TimeWindowCompactionStrategyOptions.EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY, "0");
+        TimeWindowCompactionStrategy twcs = new TimeWindowCompactionStrategy(cfs, options);
+        for (SSTableReader sstable : cfs.getSSTables())
+            twcs.addSSTable(sstable);
+        twcs.startup();
+        assertNull(twcs.getNextBackgroundTask((int) (System.currentTimeMillis() / 1000)));
+        Thread.sleep(2000);
+        AbstractCompactionTask t = twcs.getNextBackgroundTask((int) (System.currentTimeMillis() / 1000));
+        assertNotNull(t);
+        assertEquals(1, Iterables.size(t.sstables));
+        SSTableReader sstable = t.sstables.iterator().next();
+        assertEquals(sstable, expiredSSTable);
+        cfs.getDataTracker().unmarkCompacting(cfs.getSSTables());
+    }
+
+    @Test
+    public void testClosedWindowCompactedOnceTaskSucceeded()
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(CF_STANDARD1);
+        cfs.truncateBlocking();
+        cfs.disableAutoCompaction();
+
+        ByteBuffer value = ByteBuffer.wrap(new byte[100]);
+        // 3 sstables in the window of the epoch, closed by one in the current window
+        for (int r = 0; r < 4; r++)
+        {
+            DecoratedKey key = Util.dk(String.valueOf(r));
+            Mutation rm = new Mutation(KEYSPACE1, key.getKey());
+            rm.add(CF_STANDARD1, Util.cellname("column"), value, r < 3 ? r : System.currentTimeMillis());
+            rm.apply();
+            cfs.forceBlockingFlush();
+        }
+
+        Map<String, String> options = new HashMap<>();
+        options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_SIZE_KEY, "1");
+        options.put(TimeWindowCompactionStrategyOptions.COMPACTION_WINDOW_UNIT_KEY, "HOURS");
+        options.put(TimeWindowCompactionStrategyOptions.TIMESTAMP_RESOLUTION_KEY, "MILLISECONDS");
+        TimeWindowCompactionStrategy twcs = new TimeWindowCompactionStrategy(cfs, options);
+        for (SSTableReader sstable : cfs.getSSTables())
+            twcs.addSSTable(sstable);
+        twcs.startup();
+
+        int gcBefore = (int) (System.currentTimeMillis() / 1000);
+        AbstractCompactionTask task = twcs.getNextBackgroundTask(gcBefore);
+        assertNotNull(task);
+        assertEquals(3, task.sstables.size());
+        assertFalse(twcs.isWindowCompacted(0));
+
+        // the task never ran, so the window is still to be compacted down, rather than size tiered
+        cfs.getDataTracker().unmarkCompacting(task.sstables);
+        task = twcs.getNextBackgroundTask(gcBefore);
+        assertNotNull(task);
+        assertEquals(3, task.sstables.size());
+        assertFalse(twcs.isWindowCompacted(0));
+
+        task.execute(null);
+        assertTrue(twcs.isWindowCompacted(0));
+        assertEquals(2, cfs.getSSTables().size());
+    }
+}
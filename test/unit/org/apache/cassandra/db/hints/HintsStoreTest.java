@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.hints;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+
+import com.google.common.io.Files;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.KSMetaData;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.*;
+
+public class HintsStoreTest
+{
+    private static final String KEYSPACE = "HintsStoreTest";
+    private static final String CF = "Standard1";
+
+    @BeforeClass
+    public static void defineSchema() throws ConfigurationException
+    {
+        SchemaLoader.prepareServer();
+        SchemaLoader.createKeyspace(KEYSPACE,
+                                    SimpleStrategy.class,
+                                    KSMetaData.optsWithRF(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE, CF));
+    }
+
+    private static Hint hint(int key, long now)
+    {
+        Mutation mutation = new Mutation(KEYSPACE, ByteBufferUtil.bytes(key));
+        mutation.add(CF, Util.cellname("column1"), ByteBufferUtil.bytes(key), now);
+        return new Hint(mutation, now, 3600);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception
+    {
+        File directory = Files.createTempDir();
+        UUID hostId = UUID.randomUUID();
+        long now = System.currentTimeMillis();
+
+        HintsCatalog catalog = HintsCatalog.load(directory, 1024 * 1024);
+        HintsStore store = catalog.get(hostId);
+        for (int i = 0; i < 10; i++)
+            store.write(hint(i, now));
+        assertTrue(store.hasHints());
+        store.closeWriter();
+
+        // reopening the directory finds the closed file
+        HintsStore reloaded = HintsCatalog.load(directory, 1024 * 1024).getIfExists(hostId);
+        assertNotNull(reloaded);
+        assertEquals(store.totalSize(), reloaded.totalSize());
+
+        HintsDescriptor descriptor = reloaded.poll();
+        assertNotNull(descriptor);
+        assertNull(reloaded.poll());
+
+        try (HintsReader reader = HintsReader.open(directory, descriptor, 0))
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                HintsReader.Entry entry = reader.readNext();
+                assertNotNull(entry);
+                assertEquals(now, entry.hint.creationTime);
+                assertEquals(ByteBufferUtil.bytes(i), entry.hint.mutation.key());
+            }
+            assertNull(reader.readNext());
+            assertFalse(reader.isCorrupted());
+        }
+
+        reloaded.delete(descriptor);
+        assertFalse(descriptor.file(directory).exists());
+        assertEquals(0, reloaded.totalSize());
+    }
+
+    @Test
+    public void testRollsFiles() throws Exception
+    {
+        File directory = Files.createTempDir();
+        HintsStore store = HintsCatalog.load(directory, 1).get(UUID.randomUUID());
+        long now = System.currentTimeMillis();
+
+        // every hint exceeds the maximum file size, so each one ends up in its own file
+        for (int i = 0; i < 3; i++)
+            store.write(hint(i, now));
+
+        int files = 0;
+        while (store.poll() != null)
+            files++;
+        assertEquals(3, files);
+    }
+
+    @Test
+    public void testDeleteAllHintsDuringDispatch() throws Exception
+    {
+        File directory = Files.createTempDir();
+        HintsStore store = HintsCatalog.load(directory, 1).get(UUID.randomUUID());
+        long now = System.currentTimeMillis();
+        store.write(hint(0, now));
+        store.write(hint(1, now));
+
+        // a dispatch has taken the first file when all hints are deleted
+        HintsDescriptor dispatched = store.poll();
+        assertFalse(store.isDeleted(dispatched));
+        store.deleteAllHints();
+        assertTrue(store.isDeleted(dispatched));
+        assertTrue(dispatched.file(directory).exists());
+
+        // giving up on it part way through deletes it rather than queueing it again
+        store.offerFirst(dispatched, 1);
+        assertFalse(dispatched.file(directory).exists());
+        assertFalse(store.isDeleted(dispatched));
+        assertNull(store.poll());
+        assertFalse(store.hasHints());
+        assertEquals(0, store.totalSize());
+    }
+
+    @Test
+    public void testTornTail() throws Exception
+    {
+        File directory = Files.createTempDir();
+        HintsStore store = HintsCatalog.load(directory, 1024 * 1024).get(UUID.randomUUID());
+        long now = System.currentTimeMillis();
+        store.write(hint(0, now));
+        store.write(hint(1, now));
+        store.closeWriter();
+
+        HintsDescriptor descriptor = store.poll();
+        File file = descriptor.file(directory);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(raf.length() - 2);
+        }
+
+        try (HintsReader reader = HintsReader.open(directory, descriptor, 0))
+        {
+            HintsReader.Entry first = reader.readNext();
+            assertNotNull(first);
+            assertNull(reader.readNext());
+
+            // resuming from the end of the first entry sees the same truncated tail
+            try (HintsReader resumed = HintsReader.open(directory, descriptor, first.endOffset))
+            {
+                assertNull(resumed.readNext());
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptedEntryIsSkipped() throws Exception
+    {
+        File directory = Files.createTempDir();
+        HintsStore store = HintsCatalog.load(directory, 1024 * 1024).get(UUID.randomUUID());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++)
+            store.write(hint(i, now));
+        store.closeWriter();
+
+        HintsDescriptor descriptor = store.poll();
+        long firstEnd;
+        try (HintsReader reader = HintsReader.open(directory, descriptor, 0))
+        {
+            firstEnd = reader.readNext().endOffset;
+        }
+
+        // flip a byte of the body of the second entry, past its size and the checksum of its size
+        try (RandomAccessFile raf = new RandomAccessFile(descriptor.file(directory), "rw"))
+        {
+            raf.seek(firstEnd + 8);
+            int b = raf.read();
+            raf.seek(firstEnd + 8);
+            raf.write(~b);
+        }
+
+        try (HintsReader reader = HintsReader.open(directory, descriptor, 0))
+        {
+            assertEquals(ByteBufferUtil.bytes(0), reader.readNext().hint.mutation.key());
+            HintsReader.Entry corrupted = reader.readNext();
+            assertNotNull(corrupted);
+            assertNull(corrupted.hint);
+            // the hints after it are still read
+            assertEquals(ByteBufferUtil.bytes(2), reader.readNext().hint.mutation.key());
+            assertNull(reader.readNext());
+            assertFalse(reader.isCorrupted());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeflateBatchOutputStreamTest
+{
+    private static byte[] batch(Random random, int size)
+    {
+        // something like a batch of small mutations: a repeated layout with a few random bytes
+        byte[] batch = new byte[size];
+        for (int i = 0; i < size; i++)
+            batch[i] = i % 16 < 4 ? (byte) random.nextInt() : (byte) (i % 16);
+        return batch;
+    }
+
+    @Test
+    public void testEachFlushedBatchCanBeReadRightAway() throws IOException
+    {
+        Random random = new Random(0);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        DeflateBatchOutputStream out = new DeflateBatchOutputStream(sink, 1 << 12, null);
+
+        byte[][] batches = new byte[][]{ batch(random, 100), batch(random, 10000), batch(random, 1 << 12), batch(random, 1) };
+        int total = 0;
+        for (byte[] batch : batches)
+        {
+            out.write(batch);
+            out.flush();
+            total += batch.length;
+
+            // everything written so far decodes from what has been flushed so far, without waiting for more
+            DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(sink.toByteArray()), new Inflater(true)));
+            byte[] read = new byte[total];
+            in.readFully(read);
+            int offset = 0;
+            for (byte[] expected : batches)
+            {
+                if (offset == total)
+                    break;
+                assertArrayEquals(expected, Arrays.copyOfRange(read, offset, offset + expected.length));
+                offset += expected.length;
+            }
+        }
+    }
+
+    @Test
+    public void testLaterBatchesCompressAgainstEarlierOnes() throws IOException
+    {
+        byte[] batch = batch(new Random(0), 2000);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        DeflateBatchOutputStream out = new DeflateBatchOutputStream(sink, 1 << 16, null);
+
+        out.write(batch);
+        out.flush();
+        int first = sink.size();
+        out.write(batch);
+        out.flush();
+        int second = sink.size() - first;
+
+        // the second time around, the whole batch is a back reference into the window
+        assertTrue(first + " vs " + second, second * 10 < first);
+    }
+
+    @Test
+    public void testInflateDecoder() throws IOException
+    {
+        Random random = new Random(0);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        DeflateBatchOutputStream out = new DeflateBatchOutputStream(sink, 1 << 12, null);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++)
+        {
+            byte[] batch = batch(random, random.nextInt(20000));
+            out.write(batch);
+            expected.write(batch);
+            if (random.nextBoolean())
+                out.flush();
+        }
+        out.flush();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyInternodeTransport.InflateDecoder());
+        byte[] compressed = sink.toByteArray();
+        for (int offset = 0; offset < compressed.length; offset += 1000)
+            channel.writeInbound(Unpooled.wrappedBuffer(compressed, offset, Math.min(1000, compressed.length - offset)));
+
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        ByteBuf buf;
+        while ((buf = (ByteBuf) channel.readInbound()) != null)
+        {
+            byte[] bytes = new byte[buf.readableBytes()];
+            buf.readBytes(bytes);
+            inflated.write(bytes);
+            buf.release();
+        }
+        assertEquals(expected.size(), inflated.size());
+        assertArrayEquals(expected.toByteArray(), inflated.toByteArray());
+    }
+}
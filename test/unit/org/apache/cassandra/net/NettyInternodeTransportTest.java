@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NettyInternodeTransportTest
+{
+    @Test
+    public void testFrameLength() throws IOException
+    {
+        MessageOut<?> message = new MessageOut(MessagingService.Verb.ECHO).withParameter("key", new byte[]{ 1, 2, 3 });
+        DataOutputBuffer out = new DataOutputBuffer();
+        OutboundTcpConnection.writeInternal(out, message, 42, System.currentTimeMillis(), MessagingService.current_version);
+        byte[] frame = out.toByteArray();
+
+        // nothing to deliver until the whole message is there
+        for (int i = 0; i < frame.length; i++)
+            assertEquals(-1, NettyInternodeTransport.MessageInDecoder.frameLength(Unpooled.wrappedBuffer(frame, 0, i)));
+
+        assertEquals(frame.length, NettyInternodeTransport.MessageInDecoder.frameLength(Unpooled.wrappedBuffer(frame)));
+
+        // and a following message does not count
+        ByteBuf two = Unpooled.buffer().writeBytes(frame).writeBytes(frame);
+        assertEquals(frame.length, NettyInternodeTransport.MessageInDecoder.frameLength(two));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBadMagic() throws IOException
+    {
+        NettyInternodeTransport.MessageInDecoder.frameLength(Unpooled.buffer().writeInt(0xDEADBEEF).writeInt(1));
+    }
+
+    @Test
+    public void testLZ4BlockDecoder() throws IOException
+    {
+        // half compressible, half random, so we get both compressed and raw blocks
+        byte[] data = new byte[100 * 1024];
+        new Random(0).nextBytes(data);
+        for (int i = 0; i < data.length / 2; i++)
+            data[i] = (byte) (i % 7);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        LZ4BlockOutputStream lz4 = new LZ4BlockOutputStream(compressed,
+                                                            1 << 14,
+                                                            LZ4Factory.fastestInstance().fastCompressor(),
+                                                            XXHashFactory.fastestInstance().newStreamingHash32(OutboundTcpConnection.LZ4_HASH_SEED).asChecksum(),
+                                                            true);
+        lz4.write(data, 0, 1000);
+        lz4.flush();
+        lz4.write(data, 1000, data.length - 1000);
+        lz4.close();
+
+        // feed the decoder in small, unaligned pieces
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyInternodeTransport.LZ4BlockDecoder());
+        byte[] bytes = compressed.toByteArray();
+        for (int i = 0; i < bytes.length; i += 1000)
+            channel.writeInbound(Unpooled.wrappedBuffer(bytes, i, Math.min(1000, bytes.length - i)));
+
+        ByteBuf decompressed = Unpooled.buffer();
+        ByteBuf block;
+        while ((block = (ByteBuf) channel.readInbound()) != null)
+        {
+            decompressed.writeBytes(block);
+            block.release();
+        }
+        byte[] result = new byte[decompressed.readableBytes()];
+        decompressed.readBytes(result);
+        assertArrayEquals(data, result);
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Test;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.metrics.SerializedPayloadMetrics;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a {@link NettyOutboundConnection} against a peer on a plain blocking socket of the loopback interface,
+ * which checks what the connection writes byte for byte.
+ */
+public class NettyOutboundConnectionTest
+{
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    // writes the payload, and the version it was serialized for
+    private static final IVersionedSerializer<String> serializer = new IVersionedSerializer<String>()
+    {
+        public void serialize(String s, DataOutputPlus out, int version) throws IOException
+        {
+            out.writeUTF(s);
+            out.writeInt(version);
+        }
+
+        public String deserialize(DataInput in, int version) throws IOException
+        {
+            String s = in.readUTF();
+            assertEquals(version, in.readInt());
+            return s;
+        }
+
+        public long serializedSize(String s, int version)
+        {
+            return 2 + s.length() + 4;
+        }
+    };
+
+    /**
+     * The other end of the connection; each connection it accepts is served by the calling thread.
+     */
+    private static final class Peer implements Closeable
+    {
+        final InetAddress address;
+        final ServerSocket server;
+
+        Peer(String address) throws IOException
+        {
+            this.address = InetAddress.getByName(address);
+            server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.setSoTimeout(TIMEOUT_MILLIS);
+            server.bind(new InetSocketAddress(this.address, DatabaseDescriptor.getStoragePort()));
+        }
+
+        /**
+         * Accept a connection, check its header asks for {@code expectedVersion}, and answer it with our own
+         * {@code version}.
+         */
+        PeerConnection accept(int expectedVersion, int version) throws IOException
+        {
+            Socket socket = server.accept();
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            PeerConnection connection = new PeerConnection(socket);
+            assertEquals(MessagingService.PROTOCOL_MAGIC, connection.in.readInt());
+            int header = connection.in.readInt();
+            assertEquals(expectedVersion, MessagingService.getBits(header, 15, 8));
+            // not compressed
+            assertEquals(0, MessagingService.getBits(header, 2, 1));
+            if (version >= 0)
+                connection.out.writeInt(version);
+            return connection;
+        }
+
+        public void close() throws IOException
+        {
+            server.close();
+        }
+    }
+
+    private static final class PeerConnection implements Closeable
+    {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        PeerConnection(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * Read the second part of the handshake, our peer's own version and address.
+         */
+        void handshake() throws IOException
+        {
+            assertEquals(MessagingService.current_version, in.readInt());
+            assertEquals(FBUtilities.getBroadcastAddress(), CompactEndpointSerializationHelper.deserialize(in));
+        }
+
+        /**
+         * Read the next message, check its id and that its payload was serialized for {@code version}.
+         */
+        String receive(int id, int version) throws IOException
+        {
+            assertEquals(MessagingService.PROTOCOL_MAGIC, in.readInt());
+            assertEquals(id, in.readInt());
+            in.readInt(); // timestamp
+            assertEquals(FBUtilities.getBroadcastAddress(), CompactEndpointSerializationHelper.deserialize(in));
+            assertEquals(MessagingService.Verb.TRUNCATE.ordinal(), in.readInt());
+            assertEquals(0, in.readInt()); // parameters
+            int size = in.readInt();
+            String payload = serializer.deserialize(in, version);
+            assertEquals(serializer.serializedSize(payload, version), size);
+            return payload;
+        }
+
+        void assertClosedByPeer() throws IOException
+        {
+            assertEquals(-1, in.read());
+        }
+
+        public void close() throws IOException
+        {
+            socket.close();
+        }
+    }
+
+    private static NettyOutboundConnection connect(Peer peer)
+    {
+        return new NettyOutboundConnection(new OutboundTcpConnectionPool(peer.address, peer.address));
+    }
+
+    /**
+     * Queue messages {@code from} to {@code to} (excluded) whose payload is serialized up front and shared, as
+     * mutations to several replicas are; ours is released at once, so only the queued messages hold the buffers.
+     */
+    private static void send(NettyOutboundConnection connection, int from, int to)
+    {
+        for (int id = from; id < to; id++)
+        {
+            SerializedPayload<String> payload = SerializedPayload.create("message " + id, serializer);
+            connection.enqueue(payload.createMessage(MessagingService.Verb.TRUNCATE), id);
+            payload.release();
+        }
+    }
+
+    private static void receive(PeerConnection connection, int from, int to, int version) throws IOException
+    {
+        for (int id = from; id < to; id++)
+            assertEquals("message " + id, connection.receive(id, version));
+    }
+
+    /**
+     * Wait for the event loop to write or drop the queued messages, and so release their buffers.
+     */
+    private static void assertReleased(NettyOutboundConnection connection, long bytesInUse)
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while ((connection.getPendingMessages() > 0 || SerializedPayloadMetrics.bytesInUse.getCount() != bytesInUse)
+               && System.nanoTime() < deadline)
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        assertEquals(0, connection.getPendingMessages());
+        assertEquals(bytesInUse, SerializedPayloadMetrics.bytesInUse.getCount());
+    }
+
+    @Test
+    public void testHandshake() throws IOException
+    {
+        long bytesInUse = SerializedPayloadMetrics.bytesInUse.getCount();
+        try (Peer peer = new Peer("127.0.0.2"))
+        {
+            NettyOutboundConnection connection = connect(peer);
+            send(connection, 0, 10);
+            try (PeerConnection accepted = peer.accept(MessagingService.current_version, MessagingService.current_version))
+            {
+                accepted.handshake();
+                receive(accepted, 0, 10, MessagingService.current_version);
+                assertReleased(connection, bytesInUse);
+                assertEquals(10, connection.getCompletedMesssages());
+                assertEquals(MessagingService.current_version, connection.getTargetVersion());
+
+                connection.closeSocket(true);
+                accepted.assertClosedByPeer();
+            }
+        }
+    }
+
+    @Test
+    public void testVersionNegotiation() throws IOException
+    {
+        long bytesInUse = SerializedPayloadMetrics.bytesInUse.getCount();
+        try (Peer peer = new Peer("127.0.0.3"))
+        {
+            NettyOutboundConnection connection = connect(peer);
+            send(connection, 0, 10);
+
+            // an older peer answers with its version; we then reconnect with it
+            try (PeerConnection accepted = peer.accept(MessagingService.current_version, MessagingService.VERSION_21))
+            {
+                accepted.assertClosedByPeer();
+            }
+            try (PeerConnection accepted = peer.accept(MessagingService.VERSION_21, MessagingService.VERSION_21))
+            {
+                accepted.handshake();
+                // the payloads are serialized again for the version of the peer
+                receive(accepted, 0, 10, MessagingService.VERSION_21);
+                assertReleased(connection, bytesInUse);
+                assertEquals(MessagingService.VERSION_21, connection.getTargetVersion());
+                assertEquals(MessagingService.VERSION_21, MessagingService.instance().getVersion(peer.address));
+
+                connection.closeSocket(true);
+                accepted.assertClosedByPeer();
+            }
+        }
+    }
+
+    @Test
+    public void testDrainAfterSoftClose() throws IOException
+    {
+        long bytesInUse = SerializedPayloadMetrics.bytesInUse.getCount();
+        try (Peer peer = new Peer("127.0.0.4"))
+        {
+            NettyOutboundConnection connection = connect(peer);
+            send(connection, 0, 5);
+            connection.softCloseSocket();
+            send(connection, 5, 10);
+
+            // what was queued before closing goes out on the first connection, the rest on a new one
+            try (PeerConnection accepted = peer.accept(MessagingService.current_version, MessagingService.current_version))
+            {
+                accepted.handshake();
+                receive(accepted, 0, 5, MessagingService.current_version);
+                accepted.assertClosedByPeer();
+            }
+            try (PeerConnection accepted = peer.accept(MessagingService.current_version, MessagingService.current_version))
+            {
+                accepted.handshake();
+                receive(accepted, 5, 10, MessagingService.current_version);
+                assertReleased(connection, bytesInUse);
+
+                connection.closeSocket(true);
+                accepted.assertClosedByPeer();
+            }
+        }
+    }
+
+    @Test
+    public void testReconnectWhenClosedByPeer() throws IOException
+    {
+        long bytesInUse = SerializedPayloadMetrics.bytesInUse.getCount();
+        try (Peer peer = new Peer("127.0.0.5"))
+        {
+            NettyOutboundConnection connection = connect(peer);
+            send(connection, 0, 5);
+            try (PeerConnection accepted = peer.accept(MessagingService.current_version, MessagingService.current_version))
+            {
+                accepted.handshake();
+                receive(accepted, 0, 5, MessagingService.current_version);
+                assertReleased(connection, bytesInUse);
+
+                // the connection closes its end once it sees ours is closed
+                accepted.socket.shutdownOutput();
+                accepted.assertClosedByPeer();
+            }
+
+            send(connection, 5, 10);
+            try (PeerConnection accepted = peer.accept(MessagingService.current_version, MessagingService.current_version))
+            {
+                accepted.handshake();
+                receive(accepted, 5, 10, MessagingService.current_version);
+                assertReleased(connection, bytesInUse);
+                assertEquals(10, connection.getCompletedMesssages());
+
+                connection.closeSocket(true);
+                accepted.assertClosedByPeer();
+            }
+        }
+    }
+
+    @Test
+    public void testCloseWithQueuedMessages() throws IOException
+    {
+        long bytesInUse = SerializedPayloadMetrics.bytesInUse.getCount();
+        try (Peer peer = new Peer("127.0.0.6"))
+        {
+            NettyOutboundConnection connection = connect(peer);
+            send(connection, 0, 10);
+
+            // never answer the connection header, so nothing can be written
+            try (PeerConnection accepted = peer.accept(MessagingService.current_version, -1))
+            {
+                assertEquals(10, connection.getPendingMessages());
+                assertTrue(SerializedPayloadMetrics.bytesInUse.getCount() > bytesInUse);
+
+                connection.closeSocket(true);
+                accepted.assertClosedByPeer();
+                assertReleased(connection, bytesInUse);
+                assertEquals(0, connection.getCompletedMesssages());
+            }
+
+            // and a stopped connection drops what it is handed
+            send(connection, 10, 11);
+            assertReleased(connection, bytesInUse);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.apache.cassandra.metrics.DefaultNameFactory;
+import org.apache.cassandra.metrics.MetricNameFactory;
+import org.apache.cassandra.net.OutboundTcpConnection.QueuedMessage;
+
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundMessageQueueTest
+{
+    private static QueuedMessage message(MessagingService.Verb verb, int id)
+    {
+        return new QueuedMessage(new MessageOut(verb), id);
+    }
+
+    private static QueuedMessage expiredMessage(MessagingService.Verb verb, int id)
+    {
+        return new QueuedMessage(new MessageOut(verb), id)
+        {
+            boolean isTimedOut(long maxTimeNanos, long nowNanos)
+            {
+                return droppable;
+            }
+        };
+    }
+
+    private static long expiredMutations()
+    {
+        MetricNameFactory factory = new DefaultNameFactory("DroppedMessage", MessagingService.Verb.MUTATION.toString());
+        return Metrics.getMeters().get(factory.createMetricName("Expired").getMetricName()).getCount();
+    }
+
+    @Test
+    public void testPriorityLane()
+    {
+        OutboundMessageQueue queue = new OutboundMessageQueue();
+        queue.offer(message(MessagingService.Verb.MUTATION, 1));
+        queue.offer(message(MessagingService.Verb.MUTATION, 2));
+        queue.offer(message(MessagingService.Verb.REQUEST_RESPONSE, 3));
+        queue.offer(message(MessagingService.Verb.GOSSIP_DIGEST_SYN, 4));
+        assertEquals(4, queue.size());
+
+        assertEquals(3, queue.peek().id);
+        assertEquals(3, queue.poll().id);
+        assertEquals(4, queue.poll().id);
+        assertEquals(1, queue.poll().id);
+        assertEquals(2, queue.poll().id);
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testIteration()
+    {
+        OutboundMessageQueue queue = new OutboundMessageQueue();
+        QueuedMessage mutation = message(MessagingService.Verb.MUTATION, 1);
+        QueuedMessage response = message(MessagingService.Verb.REQUEST_RESPONSE, 2);
+        queue.offer(mutation);
+        queue.offer(response);
+
+        // the priority lane first, then the bulk lane
+        List<QueuedMessage> messages = new ArrayList<>(queue);
+        assertEquals(2, messages.size());
+        assertSame(response, messages.get(0));
+        assertSame(mutation, messages.get(1));
+        assertTrue(queue.contains(mutation));
+        assertTrue(queue.toString().startsWith("["));
+
+        queue.poll();
+        assertFalse(queue.contains(response));
+        assertTrue(queue.contains(mutation));
+    }
+
+    @Test
+    public void testBulkLaneIsNotStarved()
+    {
+        OutboundMessageQueue queue = new OutboundMessageQueue();
+        queue.offer(message(MessagingService.Verb.MUTATION, -1));
+        for (int i = 0; i < OutboundMessageQueue.PRIORITY_BURST * 2; i++)
+            queue.offer(message(MessagingService.Verb.REQUEST_RESPONSE, i));
+
+        for (int i = 0; i < OutboundMessageQueue.PRIORITY_BURST; i++)
+            assertEquals(i, queue.poll().id);
+        assertEquals(-1, queue.poll().id);
+        assertEquals(OutboundMessageQueue.PRIORITY_BURST, queue.poll().id);
+    }
+
+    @Test
+    public void testCloseSentinelStaysBehindBulkMessages()
+    {
+        OutboundMessageQueue queue = new OutboundMessageQueue();
+        queue.offer(message(MessagingService.Verb.MUTATION, 1));
+        queue.offer(new QueuedMessage(OutboundTcpConnection.CLOSE_SENTINEL, -1));
+        assertEquals(1, queue.poll().id);
+        assertSame(OutboundTcpConnection.CLOSE_SENTINEL, queue.poll().message);
+    }
+
+    @Test
+    public void testExpiry()
+    {
+        OutboundMessageQueue queue = new OutboundMessageQueue();
+        MessagingService.instance();
+        long expiredBefore = expiredMutations();
+        queue.offer(expiredMessage(MessagingService.Verb.MUTATION, 1));
+        queue.offer(expiredMessage(MessagingService.Verb.MUTATION, 2));
+        // not droppable, so never expired
+        queue.offer(expiredMessage(MessagingService.Verb.REPAIR_MESSAGE, 3));
+        queue.offer(message(MessagingService.Verb.MUTATION, 4));
+
+        assertEquals(3, queue.poll().id);
+        assertEquals(2, queue.getExpiredMessages());
+        assertEquals(expiredBefore + 2, expiredMutations());
+        assertEquals(4, queue.poll().id);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testClearAndDrain() throws InterruptedException
+    {
+        OutboundMessageQueue queue = new OutboundMessageQueue();
+        queue.offer(message(MessagingService.Verb.MUTATION, 1));
+        queue.offer(message(MessagingService.Verb.REQUEST_RESPONSE, 2));
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+
+        queue.offer(message(MessagingService.Verb.MUTATION, 3));
+        queue.offer(message(MessagingService.Verb.REQUEST_RESPONSE, 4));
+        List<QueuedMessage> drained = new ArrayList<>();
+        assertEquals(2, queue.drainTo(drained, 10));
+        assertEquals(4, drained.get(0).id);
+        assertEquals(3, drained.get(1).id);
+    }
+
+    @Test
+    public void testTakeWakesUpOnOffer() throws InterruptedException
+    {
+        final OutboundMessageQueue queue = new OutboundMessageQueue();
+        Thread producer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new AssertionError(e);
+                }
+                queue.offer(message(MessagingService.Verb.MUTATION, 1));
+            }
+        });
+        producer.start();
+        assertEquals(1, queue.take().id);
+        producer.join();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+
+import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.metrics.SerializedPayloadMetrics;
+import org.apache.cassandra.net.OutboundTcpConnection.QueuedMessage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SerializedPayloadTest
+{
+    // writes the payload, and the version it was serialized for
+    private static final IVersionedSerializer<String> serializer = new IVersionedSerializer<String>()
+    {
+        public void serialize(String s, DataOutputPlus out, int version) throws IOException
+        {
+            out.writeUTF(s);
+            out.writeInt(version);
+        }
+
+        public String deserialize(DataInput in, int version) throws IOException
+        {
+            String s = in.readUTF();
+            in.readInt();
+            return s;
+        }
+
+        public long serializedSize(String s, int version)
+        {
+            return 2 + s.length() + 4;
+        }
+    };
+
+    private static byte[] serialize(MessageOut<?> message, int version) throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        message.serialize(out, version);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    @Test
+    public void testSameBytesAsSerializingTheMessage() throws IOException
+    {
+        String payload = "a mutation, or close enough";
+        SerializedPayload<String> serialized = SerializedPayload.create(payload, serializer);
+        MessageOut<String> shared = serialized.createMessage(MessagingService.Verb.MUTATION);
+        MessageOut<String> plain = new MessageOut<>(MessagingService.Verb.MUTATION, payload, serializer);
+
+        int version = MessagingService.current_version;
+        assertEquals(plain.serializedSize(version), shared.serializedSize(version));
+        assertArrayEquals(serialize(plain, version), serialize(shared, version));
+        // and once more, the buffer is not consumed
+        assertArrayEquals(serialize(plain, version), serialize(shared, version));
+
+        // other versions are serialized as usual
+        assertArrayEquals(serialize(plain, MessagingService.VERSION_21), serialize(shared, MessagingService.VERSION_21));
+        assertNull(serialized.retainedBuffer(MessagingService.VERSION_21));
+
+        ByteBuf buffer = serialized.retainedBuffer(version);
+        assertEquals(serializer.serializedSize(payload, version), buffer.readableBytes());
+        buffer.release();
+        serialized.release();
+    }
+
+    @Test
+    public void testReferenceCounting()
+    {
+        long inUse = SerializedPayloadMetrics.bytesInUse.getCount();
+        SerializedPayload<String> serialized = SerializedPayload.create("payload", serializer);
+        long size = serializer.serializedSize("payload", MessagingService.current_version);
+        assertEquals(inUse + size, SerializedPayloadMetrics.bytesInUse.getCount());
+
+        MessageOut<String> message = serialized.createMessage(MessagingService.Verb.MUTATION);
+        QueuedMessage first = new QueuedMessage(message, 1);
+        QueuedMessage second = new QueuedMessage(message.withParameter("key", new byte[1]), 2);
+        serialized.release();
+        assertEquals(inUse + size, SerializedPayloadMetrics.bytesInUse.getCount());
+
+        first.release();
+        assertEquals(inUse + size, SerializedPayloadMetrics.bytesInUse.getCount());
+        second.release();
+        assertEquals(inUse, SerializedPayloadMetrics.bytesInUse.getCount());
+    }
+
+    @Test
+    public void testDiscardedMessagesAreReleased()
+    {
+        long inUse = SerializedPayloadMetrics.bytesInUse.getCount();
+        SerializedPayload<String> serialized = SerializedPayload.create("payload", serializer);
+        MessageOut<String> message = serialized.createMessage(MessagingService.Verb.MUTATION);
+
+        OutboundMessageQueue queue = new OutboundMessageQueue();
+        queue.offer(new QueuedMessage(message, 1));
+        queue.offer(new QueuedMessage(message, 2));
+        serialized.release();
+
+        queue.clear();
+        assertNull(queue.poll());
+        assertEquals(inUse, SerializedPayloadMetrics.bytesInUse.getCount());
+    }
+
+    @Test
+    public void testReleaseAllReleasesWithoutPolling()
+    {
+        long inUse = SerializedPayloadMetrics.bytesInUse.getCount();
+        SerializedPayload<String> serialized = SerializedPayload.create("payload", serializer);
+        MessageOut<String> message = serialized.createMessage(MessagingService.Verb.MUTATION);
+
+        OutboundMessageQueue queue = new OutboundMessageQueue();
+        queue.offer(new QueuedMessage(message, 1));
+        queue.clear();
+        // queued after the discard, as by a producer racing a close
+        queue.offer(new QueuedMessage(message, 2));
+        serialized.release();
+
+        // nothing polls the queue of a closed connection again
+        queue.releaseAll();
+        assertTrue(queue.isEmpty());
+        assertEquals(inUse, SerializedPayloadMetrics.bytesInUse.getCount());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.KSMetaData;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
+
+import static org.apache.cassandra.Util.cellname;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocalReadBatchTest
+{
+    private static final String KEYSPACE1 = "LocalReadBatchTest";
+    private static final String CF_STANDARD1 = "Standard1";
+
+    @BeforeClass
+    public static void defineSchema() throws ConfigurationException
+    {
+        SchemaLoader.prepareServer();
+        SchemaLoader.createKeyspace(KEYSPACE1,
+                                    SimpleStrategy.class,
+                                    KSMetaData.optsWithRF(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE1, CF_STANDARD1));
+    }
+
+    @Test
+    public void testReadsRunOncePrefetched() throws Exception
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF_STANDARD1);
+        cfs.truncateBlocking();
+
+        final List<DecoratedKey> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            Mutation rm = new Mutation(KEYSPACE1, ByteBufferUtil.bytes("key" + i));
+            rm.add(CF_STANDARD1, cellname("Column1"), ByteBufferUtil.bytes("asdf"), 0);
+            rm.applyUnsafe();
+            keys.add(Util.dk("key" + i));
+        }
+        cfs.forceBlockingFlush();
+        final SSTableReader sstable = cfs.getSSTables().iterator().next();
+
+        StorageProxy.LocalReadBatch batch = new StorageProxy.LocalReadBatch(Collections.singletonMap(Pair.create(KEYSPACE1, CF_STANDARD1), keys));
+        final CountDownLatch done = new CountDownLatch(keys.size());
+        final AtomicInteger prefetched = new AtomicInteger();
+        for (int i = 0; i < keys.size(); i++)
+        {
+            assertTrue(batch.add(new Runnable()
+            {
+                public void run()
+                {
+                    // held back until the position of every partition of the batch is in the key cache
+                    boolean allCached = true;
+                    for (DecoratedKey k : keys)
+                        allCached &= sstable.getCachedPosition(k, false) != null;
+                    if (allCached)
+                        prefetched.incrementAndGet();
+                    done.countDown();
+                }
+            }));
+        }
+        // none runs before the batch
+        assertEquals(keys.size(), done.getCount());
+
+        batch.run();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(keys.size(), prefetched.get());
+
+        // the reads deferred once the batch has run are left to the caller
+        assertFalse(batch.add(new Runnable()
+        {
+            public void run()
+            {
+            }
+        }));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.streaming;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.utils.Pair;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamSessionTest
+{
+    @Test
+    public void testSplitRanges()
+    {
+        List<Range<Token>> ranges = Arrays.asList(range(0, 100), range(200, 300));
+
+        List<List<Range<Token>>> parts = StreamSession.splitRanges(ranges, Arrays.asList(token(50), token(250)));
+        assertEquals(3, parts.size());
+        assertEquals(Arrays.asList(range(0, 50)), parts.get(0));
+        assertEquals(Arrays.asList(range(50, 100), range(200, 250)), parts.get(1));
+        assertEquals(Arrays.asList(range(250, 300)), parts.get(2));
+    }
+
+    @Test
+    public void testSplitRangesAtRangeBounds()
+    {
+        List<Range<Token>> ranges = Arrays.asList(range(0, 100), range(200, 300));
+
+        // cutting at the end of a range leaves it whole, and nothing is left between the ranges
+        List<List<Range<Token>>> parts = StreamSession.splitRanges(ranges, Arrays.asList(token(100), token(150)));
+        assertEquals(Arrays.asList(range(0, 100)), parts.get(0));
+        assertEquals(Collections.emptyList(), parts.get(1));
+        assertEquals(Arrays.asList(range(200, 300)), parts.get(2));
+    }
+
+    @Test
+    public void testSplitRangesToTheEndOfTheRing()
+    {
+        Token min = Murmur3Partitioner.MINIMUM;
+        List<Range<Token>> ranges = Arrays.asList(new Range<>(min, token(100)), new Range<>(token(200), min));
+
+        List<List<Range<Token>>> parts = StreamSession.splitRanges(ranges, Arrays.asList(token(50), token(300)));
+        assertEquals(Arrays.asList(new Range<>(min, token(50))), parts.get(0));
+        assertEquals(Arrays.asList(range(50, 100), range(200, 300)), parts.get(1));
+        assertEquals(Arrays.asList(new Range<>(token(300), min)), parts.get(2));
+    }
+
+    @Test
+    public void testSplitRangesWithoutBoundaries()
+    {
+        List<Range<Token>> ranges = Arrays.asList(range(0, 100), range(200, 300));
+        assertEquals(Collections.singletonList(ranges), StreamSession.splitRanges(ranges, Collections.<Token>emptyList()));
+    }
+
+    @Test
+    public void testTrimSections()
+    {
+        List<Pair<Long, Long>> sections = Arrays.asList(Pair.create(0L, 100L), Pair.create(200L, 300L), Pair.create(400L, 500L));
+
+        assertEquals(sections, StreamSession.trimSections(sections, 0));
+        assertEquals(Arrays.asList(Pair.create(50L, 100L), Pair.create(200L, 300L), Pair.create(400L, 500L)),
+                     StreamSession.trimSections(sections, 50));
+        // resuming at the end of a section starts at the next one
+        assertEquals(Arrays.asList(Pair.create(200L, 300L), Pair.create(400L, 500L)), StreamSession.trimSections(sections, 100));
+        assertEquals(Arrays.asList(Pair.create(450L, 500L)), StreamSession.trimSections(sections, 450));
+        assertEquals(Collections.emptyList(), StreamSession.trimSections(sections, 500));
+        assertEquals(Collections.emptyList(), StreamSession.trimSections(sections, Long.MAX_VALUE));
+    }
+
+    private static Token token(long token)
+    {
+        return new Murmur3Partitioner.LongToken(token);
+    }
+
+    private static Range<Token> range(long left, long right)
+    {
+        return new Range<>(token(left), token(right));
+    }
+}
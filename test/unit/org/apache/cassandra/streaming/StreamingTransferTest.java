@@ -54,12 +54,14 @@ import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.SSTableUtils;
 import org.apache.cassandra.locator.SimpleStrategy;
 import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.streaming.messages.StreamMessage;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.CounterId;
 import org.apache.cassandra.utils.FBUtilities;
 
 import org.apache.cassandra.utils.concurrent.Refs;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 import static org.apache.cassandra.Util.cellname;
 import static org.apache.cassandra.Util.column;
@@ -332,6 +334,79 @@ public class StreamingTransferTest
         doTransferTable(true);
     }
 
+    @Test
+    public void testTransferEntireSSTable() throws Exception
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(CF_STANDARD);
+        cfs.truncateBlocking();
+
+        for (int i = 1; i <= 3; i++)
+        {
+            Mutation rm = new Mutation(KEYSPACE1, ByteBufferUtil.bytes("entire" + i));
+            rm.add(CF_STANDARD, cellname("col" + i), ByteBufferUtil.bytes("v"), 1234);
+            rm.applyUnsafe();
+        }
+        cfs.forceBlockingFlush();
+        SSTableReader sstable = cfs.getSSTables().iterator().next();
+        long componentsSize = 0;
+        for (long size : EntireSSTableStreamWriter.components(sstable).values())
+            componentsSize += size;
+
+        // the whole ring holds the whole sstable
+        IPartitioner p = StorageService.getPartitioner();
+        List<Range<Token>> ranges = Arrays.asList(new Range<>(p.getMinimumToken(), p.getMinimumToken()));
+        assert EntireSSTableStreamWriter.canStreamEntirely(sstable, ranges);
+
+        long beforeStreaming = System.currentTimeMillis();
+        StreamState result = new StreamPlan("StreamingTransferTest").transferRanges(LOCAL, KEYSPACE1, ranges, CF_STANDARD).execute().get();
+        cfs.discardSSTables(beforeStreaming);
+
+        // the component files were sent as they are, rather than just the data
+        SessionInfo session = Iterables.getOnlyElement(result.sessions);
+        assertEquals(componentsSize, session.getTotalSizeReceived());
+
+        assertEquals(1, cfs.getSSTables().size());
+        SSTableReader received = cfs.getSSTables().iterator().next();
+        assert received.descriptor.generation != sstable.descriptor.generation;
+        assertEquals(0, received.getSSTableLevel());
+        assertEquals(1234, received.getMaxTimestamp());
+
+        List<Row> rows = Util.getRangeSlice(cfs);
+        assertEquals(3, rows.size());
+        for (int i = 1; i <= 3; i++)
+            assert cfs.getColumnFamily(QueryFilter.getIdentityFilter(Util.dk("entire" + i), cfs.name, System.currentTimeMillis())) != null;
+    }
+
+    @Test
+    public void testNegotiateProtocolVersion() throws Exception
+    {
+        assertEquals(StreamMessage.CURRENT_VERSION, StreamSession.negotiateProtocolVersion(LOCAL));
+        // a peer that advertises no streaming version knows nothing of entire sstables
+        assertEquals(StreamMessage.VERSION_30, StreamSession.negotiateProtocolVersion(InetAddress.getByName("127.0.0.250")));
+    }
+
+    @Test
+    public void testCounterSSTableNotStreamedEntirely() throws Exception
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(CF_COUNTER);
+        cfs.truncateBlocking();
+
+        ColumnFamily cf = ArrayBackedSortedColumns.factory.create(cfs.metadata);
+        CounterContext.ContextState state = CounterContext.ContextState.allocate(0, 1, 0);
+        state.writeLocal(CounterId.fromInt(2), 9L, 3L);
+        cf.addColumn(new BufferCounterCell(cellname("col"), state.context, 1234));
+        new Mutation(KEYSPACE1, ByteBufferUtil.bytes("counter"), cf).applyUnsafe();
+        cfs.forceBlockingFlush();
+        SSTableReader sstable = cfs.getSSTables().iterator().next();
+
+        // the local shards must be cleared by the receiver, which only the data stream does
+        IPartitioner p = StorageService.getPartitioner();
+        List<Range<Token>> ranges = Arrays.asList(new Range<>(p.getMinimumToken(), p.getMinimumToken()));
+        assertFalse(EntireSSTableStreamWriter.canStreamEntirely(sstable, ranges));
+    }
+
     @Test
     public void testTransferTableCounter() throws Exception
     {
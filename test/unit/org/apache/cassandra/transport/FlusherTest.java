@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.transport;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import org.apache.cassandra.metrics.ClientMetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlusherTest
+{
+    private static final long MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Runs on the calling thread: the embedded event loop of netty 4.0 cannot schedule, so the test runs
+     * the flusher itself, and only records when it asked to run again.
+     */
+    private static class TestFlusher extends Message.Dispatcher.Flusher
+    {
+        long scheduledDelayNanos = -1;
+
+        TestFlusher(EventLoop eventLoop)
+        {
+            super(eventLoop, MAX_DELAY_NANOS);
+        }
+
+        @Override
+        void schedule(long delayNanos)
+        {
+            scheduledDelayNanos = delayNanos;
+        }
+    }
+
+    private static ChannelHandlerContext context(EmbeddedChannel channel)
+    {
+        return channel.pipeline().firstContext();
+    }
+
+    private static List<Frame> respond(TestFlusher flusher, EmbeddedChannel channel, int responses)
+    {
+        List<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < responses; i++)
+        {
+            Frame frame = Frame.create(Message.Type.QUERY, i, Server.CURRENT_VERSION, EnumSet.noneOf(Frame.Header.Flag.class), Unpooled.buffer(0));
+            flusher.queued.add(new Message.Dispatcher.FlushItem(context(channel), "response " + i, frame));
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static void assertReleased(List<Frame> frames, boolean released)
+    {
+        for (Frame frame : frames)
+            assertEquals(released ? 0 : 1, frame.body.refCnt());
+    }
+
+    @Test
+    public void testFlushesOnceResponsesStopComing()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter());
+        TestFlusher flusher = new TestFlusher(channel.eventLoop());
+        long flushes = ClientMetrics.instance.responsesPerFlush.getCount();
+
+        List<Frame> frames = respond(flusher, channel, 3);
+        flusher.run();
+        // more may be coming, so the responses are only written
+        assertTrue(channel.outboundMessages().isEmpty());
+        assertReleased(frames, false);
+        assertEquals(Message.Dispatcher.Flusher.TICK_NANOS, flusher.scheduledDelayNanos);
+
+        flusher.run();
+        assertEquals(3, channel.outboundMessages().size());
+        assertReleased(frames, true);
+        assertEquals(flushes + 1, ClientMetrics.instance.responsesPerFlush.getCount());
+    }
+
+    @Test
+    public void testFlushesFullBatch()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter());
+        TestFlusher flusher = new TestFlusher(channel.eventLoop());
+
+        List<Frame> frames = respond(flusher, channel, Message.Dispatcher.Flusher.MAX_BATCH - 1);
+        flusher.run();
+        assertTrue(channel.outboundMessages().isEmpty());
+
+        // responses keep coming, but the batch is full
+        frames.addAll(respond(flusher, channel, 1));
+        flusher.run();
+        assertEquals(Message.Dispatcher.Flusher.MAX_BATCH, channel.outboundMessages().size());
+        assertReleased(frames, true);
+    }
+
+    @Test
+    public void testFlushesAtMaxDelay()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter());
+        TestFlusher flusher = new TestFlusher(channel.eventLoop());
+
+        List<Frame> frames = respond(flusher, channel, 1);
+        flusher.run();
+        assertTrue(channel.outboundMessages().isEmpty());
+
+        // the oldest response has waited past the deadline, so it goes out even though responses keep coming
+        flusher.firstUnflushedNanos -= MAX_DELAY_NANOS;
+        frames.addAll(respond(flusher, channel, 1));
+        flusher.run();
+        assertEquals(2, channel.outboundMessages().size());
+        assertReleased(frames, true);
+    }
+
+    @Test
+    public void testCountsResponsesPerChannel()
+    {
+        EmbeddedChannel first = new EmbeddedChannel(new ChannelOutboundHandlerAdapter());
+        EmbeddedChannel second = new EmbeddedChannel(new ChannelOutboundHandlerAdapter());
+        TestFlusher flusher = new TestFlusher(first.eventLoop());
+        long flushes = ClientMetrics.instance.responsesPerFlush.getCount();
+
+        respond(flusher, first, 2);
+        respond(flusher, second, 1);
+        flusher.run();
+        flusher.run();
+        assertEquals(2, first.outboundMessages().size());
+        assertEquals(1, second.outboundMessages().size());
+        // one update per flushed channel
+        assertEquals(flushes + 2, ClientMetrics.instance.responsesPerFlush.getCount());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.auth.CassandraAuthorizer;
+import org.apache.cassandra.auth.IAuthorizer;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.CQLTester;
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.service.CacheService;
+import org.apache.cassandra.service.ClientState;
+import org.apache.cassandra.transport.messages.ExecuteMessage;
+import org.apache.cassandra.transport.messages.ResultMessage;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InlineReadHandlerTest extends CQLTester
+{
+    @BeforeClass
+    public static void setUp() throws Throwable
+    {
+        // the reads must find this node to be the preferred replica
+        requireNetwork();
+        CacheService.instance.setRowCacheCapacityInMB(1);
+    }
+
+    private ExecuteMessage prepare(String query, ConsistencyLevel cl, int... values)
+    {
+        ResultMessage.Prepared prepared = QueryProcessor.prepare(String.format(query, KEYSPACE + '.' + currentTable()), ClientState.forInternalCalls(), false);
+        ByteBuffer[] serialized = new ByteBuffer[values.length];
+        for (int i = 0; i < values.length; i++)
+            serialized[i] = Int32Type.instance.decompose(values[i]);
+        return new ExecuteMessage(prepared.statementId, QueryOptions.forInternalCalls(cl, Arrays.asList(serialized)));
+    }
+
+    @Test
+    public void testMemtableOnlyReadRunsInline() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k int, c int, v int, PRIMARY KEY (k, c))");
+        execute("INSERT INTO %s (k, c, v) VALUES (0, 0, 0)");
+
+        assertTrue(InlineReadHandler.canExecuteInline(prepare("SELECT * FROM %s WHERE k = ?", ConsistencyLevel.ONE, 0)));
+        // anything but a single partition read at ONE goes to the request executor
+        assertFalse(InlineReadHandler.canExecuteInline(prepare("SELECT * FROM %s WHERE k = ?", ConsistencyLevel.QUORUM, 0)));
+        assertFalse(InlineReadHandler.canExecuteInline(prepare("SELECT * FROM %s WHERE k IN (?, ?)", ConsistencyLevel.ONE, 0, 1)));
+    }
+
+    @Test
+    public void testUncachedReadFallsBack() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k int, c int, v int, PRIMARY KEY (k, c))");
+        execute("INSERT INTO %s (k, c, v) VALUES (0, 0, 0)");
+        flush();
+
+        assertFalse(InlineReadHandler.canExecuteInline(prepare("SELECT * FROM %s WHERE k = ?", ConsistencyLevel.ONE, 0)));
+    }
+
+    @Test
+    public void testWholePartitionCachedRunsInline() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k int, c int, v int, PRIMARY KEY (k, c)) WITH caching = '{\"keys\":\"NONE\", \"rows_per_partition\":\"ALL\"}'");
+        for (int c = 0; c < 10; c++)
+            execute("INSERT INTO %s (k, c, v) VALUES (0, ?, 0)", c);
+        flush();
+
+        ExecuteMessage read = prepare("SELECT * FROM %s WHERE k = ? AND c > ?", ConsistencyLevel.ONE, 0, 5);
+        assertFalse(InlineReadHandler.canExecuteInline(read));
+        // populates the cache
+        execute("SELECT * FROM %s WHERE k = 0");
+        assertTrue(InlineReadHandler.canExecuteInline(read));
+    }
+
+    @Test
+    public void testPartiallyCachedPartition() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k int, c int, v int, PRIMARY KEY (k, c)) WITH caching = '{\"keys\":\"NONE\", \"rows_per_partition\":\"2\"}'");
+        for (int c = 0; c < 10; c++)
+            execute("INSERT INTO %s (k, c, v) VALUES (0, ?, 0)", c);
+        flush();
+        // caches the first two rows of the partition
+        execute("SELECT * FROM %s WHERE k = 0");
+
+        // within the cached head of the partition
+        assertTrue(InlineReadHandler.canExecuteInline(prepare("SELECT * FROM %s WHERE k = ? AND c = ?", ConsistencyLevel.ONE, 0, 0)));
+        assertTrue(InlineReadHandler.canExecuteInline(prepare("SELECT * FROM %s WHERE k = ? LIMIT 2", ConsistencyLevel.ONE, 0)));
+        // beyond it: the rest of the partition is on disk only
+        assertFalse(InlineReadHandler.canExecuteInline(prepare("SELECT * FROM %s WHERE k = ? AND c > ?", ConsistencyLevel.ONE, 0, 5)));
+        assertFalse(InlineReadHandler.canExecuteInline(prepare("SELECT * FROM %s WHERE k = ?", ConsistencyLevel.ONE, 0)));
+    }
+
+    @Test
+    public void testNoInlineReadWithAuthorization() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k int, c int, v int, PRIMARY KEY (k, c))");
+        execute("INSERT INTO %s (k, c, v) VALUES (0, 0, 0)");
+        ExecuteMessage read = prepare("SELECT * FROM %s WHERE k = ?", ConsistencyLevel.ONE, 0);
+
+        IAuthorizer authorizer = DatabaseDescriptor.getAuthorizer();
+        DatabaseDescriptor.setAuthorizer(new CassandraAuthorizer());
+        try
+        {
+            // the permissions of the read could have to be read on the event loop
+            assertFalse(InlineReadHandler.canExecuteInline(read));
+        }
+        finally
+        {
+            DatabaseDescriptor.setAuthorizer(authorizer);
+        }
+        assertTrue(InlineReadHandler.canExecuteInline(read));
+    }
+}
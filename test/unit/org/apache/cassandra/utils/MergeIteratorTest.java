@@ -18,16 +18,19 @@
 */
 package org.apache.cassandra.utils;
 
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.*;
 
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
 public class MergeIteratorTest
 {
     CLI<String> all = null, cat = null, a = null, b = null, c = null, d = null;
@@ -71,19 +74,125 @@ public class MergeIteratorTest
         assert a.closed && b.closed && c.closed && d.closed;
     }
 
+    /** Test that merging any number of sources, with runs and duplicates, gives the same as sorting them all. */
+    @Test
+    public void testManyToOneRandom() throws Exception
+    {
+        Random random = new Random(42);
+        for (int sources : new int[]{ 0, 2, 3, 5, 8, 13, 32, 100 })
+        {
+            for (int round = 0; round < 20; round++)
+            {
+                List<CLI<Integer>> iters = new ArrayList<>();
+                List<Integer> expected = new ArrayList<>();
+                // few distinct values make many duplicates, many make long runs from a single source
+                int distinct = round % 2 == 0 ? 10 : 100000;
+                for (int i = 0; i < sources; i++)
+                {
+                    TreeSet<Integer> values = new TreeSet<>();
+                    int count = random.nextInt(50);
+                    for (int j = 0; j < count; j++)
+                        values.add(random.nextInt(distinct));
+                    iters.add(new CLI<>(values.toArray(new Integer[values.size()])));
+                    for (Integer value : values)
+                        if (!expected.contains(value))
+                            expected.add(value);
+                }
+                Collections.sort(expected);
+
+                final Map<Integer, Integer> counts = new HashMap<>();
+                for (CLI<Integer> iter : iters)
+                    for (Integer value : iter.items)
+                        counts.put(value, counts.containsKey(value) ? counts.get(value) + 1 : 1);
+
+                IMergeIterator<Integer, Integer> smi = MergeIterator.get(iters, Ordering.<Integer>natural(), new CountingReducer(counts));
+                assertEquals(expected, Lists.newArrayList(smi));
+                smi.close();
+            }
+        }
+    }
+
+    /** Test that the sources of a value are not advanced before the next value is requested. */
+    @Test
+    public void testManyToOneAdvancesLazily() throws Exception
+    {
+        final List<CLI<String>> iters = Arrays.asList(new CLI<>("1", "3"), new CLI<>("1", "2"), new CLI<>("4"));
+        MergeIterator.Reducer<String,String> reducer = new MergeIterator.Reducer<String,String>()
+        {
+            String reduced;
+
+            public void reduce(String value)
+            {
+                reduced = value;
+            }
+
+            public String getReduced()
+            {
+                return reduced;
+            }
+        };
+        IMergeIterator<String,String> smi = MergeIterator.get(iters, Ordering.<String>natural(), reducer);
+        assertEquals("1", smi.next());
+        assertEquals(1, iters.get(0).returned);
+        assertEquals(1, iters.get(1).returned);
+        assertEquals("2", smi.next());
+        assertEquals(2, iters.get(0).returned);
+        assertEquals(2, iters.get(1).returned);
+        assertEquals("3", smi.next());
+        assertEquals("4", smi.next());
+        assertFalse(smi.hasNext());
+        smi.close();
+    }
+
+    /** Checks each value is reduced once per source it is in, and returns it. */
+    private static class CountingReducer extends MergeIterator.Reducer<Integer,Integer>
+    {
+        private final Map<Integer, Integer> counts;
+        private Integer value;
+        private int reduced;
+
+        CountingReducer(Map<Integer, Integer> counts)
+        {
+            this.counts = counts;
+        }
+
+        protected void onKeyChange()
+        {
+            value = null;
+            reduced = 0;
+        }
+
+        public void reduce(Integer current)
+        {
+            assert value == null || value.equals(current) : value + " != " + current;
+            value = current;
+            reduced++;
+        }
+
+        protected Integer getReduced()
+        {
+            assertEquals(counts.get(value).intValue(), reduced);
+            return value;
+        }
+    }
+
     // closeable list iterator
     public static class CLI<E> extends AbstractIterator<E> implements CloseableIterator<E>
     {
         Iterator<E> iter;
+        List<E> items;
         boolean closed = false;
+        int returned = 0;
         public CLI(E... items)
         {
-            this.iter = Arrays.asList(items).iterator();
+            this.items = Arrays.asList(items);
+            this.iter = this.items.iterator();
         }
 
         protected E computeNext()
         {
             if (!iter.hasNext()) return endOfData();
+            returned++;
             return iter.next();
         }
 
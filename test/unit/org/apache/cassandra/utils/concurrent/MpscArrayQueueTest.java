@@ -0,0 +1,147 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils.concurrent;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MpscArrayQueueTest
+{
+    @Test
+    public void testOrderAcrossChunks()
+    {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+
+        for (int i = 0; i < 5000; i++)
+            queue.offer(i);
+        assertEquals(5000, queue.size());
+
+        for (int i = 0; i < 5000; i++)
+        {
+            assertEquals(i, (int) queue.peek());
+            assertEquals(i, (int) queue.poll());
+        }
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testDiscard()
+    {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>();
+        for (int i = 0; i < 3000; i++)
+            queue.offer(i);
+        queue.poll();
+        queue.discard();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+
+        queue.offer(42);
+        assertEquals(1, queue.size());
+        assertEquals(42, (int) queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testIteration()
+    {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>();
+        assertFalse(queue.iterator().hasNext());
+        for (int i = 0; i < 3000; i++)
+            queue.offer(i);
+        for (int i = 0; i < 1500; i++)
+            queue.poll();
+
+        // from the head, across chunks
+        int expected = 1500;
+        for (Integer item : queue)
+            assertEquals(expected++, (int) item);
+        assertEquals(3000, expected);
+
+        // items polled after the iterator was created are skipped
+        Iterator<Integer> iter = queue.iterator();
+        assertEquals(1500, (int) iter.next());
+        for (int i = 0; i < 1000; i++)
+            queue.poll();
+        assertEquals(2500, (int) iter.next());
+
+        // and so are the discarded ones
+        queue.discard();
+        assertFalse(iter.hasNext());
+        queue.offer(42);
+        iter = queue.iterator();
+        assertEquals(42, (int) iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException
+    {
+        final int producers = 4;
+        final int perProducer = 100000;
+        final MpscArrayQueue<long[]> queue = new MpscArrayQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++)
+        {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new AssertionError(e);
+                    }
+                    for (int i = 0; i < perProducer; i++)
+                        queue.offer(new long[]{ producer, i });
+                }
+            });
+            threads[p].start();
+        }
+        start.countDown();
+
+        // each producer's items must come out in the order it queued them
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer)
+        {
+            long[] item = queue.poll();
+            if (item == null)
+                continue;
+            assertEquals(next[(int) item[0]]++, item[1]);
+            received++;
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+}